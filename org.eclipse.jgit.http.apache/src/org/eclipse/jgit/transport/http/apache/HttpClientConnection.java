@@ -85,6 +85,7 @@
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
@@ -92,6 +93,7 @@
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
@@ -132,26 +134,22 @@ public class HttpClientConnection implements HttpConnection {
 
 	SSLContext ctx;
 
+	/**
+	 * Whether {@link #client} is shared by a
+	 * {@link PooledHttpClientConnectionFactory}; its settings are then applied
+	 * per request.
+	 */
+	boolean pooled;
+
 	private HttpClient getClient() {
-		if (client == null) {
+		if (client == null || (pooled && hostnameverifier != null)) {
+			// A custom hostname verifier requires a client of our own.
+			pooled = false;
 			HttpClientBuilder clientBuilder = HttpClients.custom();
-			RequestConfig.Builder configBuilder = RequestConfig.custom();
-			if (proxy != null && !Proxy.NO_PROXY.equals(proxy)) {
-				isUsingProxy = true;
-				InetSocketAddress adr = (InetSocketAddress) proxy.address();
-				clientBuilder.setProxy(
-						new HttpHost(adr.getHostName(), adr.getPort()));
-			}
-			if (timeout != null) {
-				configBuilder.setConnectTimeout(timeout.intValue());
-			}
-			if (readTimeout != null) {
-				configBuilder.setSocketTimeout(readTimeout.intValue());
-			}
-			if (followRedirects != null) {
-				configBuilder
-						.setRedirectsEnabled(followRedirects.booleanValue());
-			}
+			RequestConfig.Builder configBuilder = requestConfig();
+			HttpHost proxyHost = proxyHost();
+			if (proxyHost != null)
+				clientBuilder.setProxy(proxyHost);
 			if (hostnameverifier != null) {
 				SSLConnectionSocketFactory sslConnectionFactory = new SSLConnectionSocketFactory(
 						getSSLContext(), hostnameverifier);
@@ -171,6 +169,28 @@ private HttpClient getClient() {
 		return client;
 	}
 
+	private RequestConfig.Builder requestConfig() {
+		RequestConfig.Builder configBuilder = RequestConfig.custom();
+		if (timeout != null) {
+			configBuilder.setConnectTimeout(timeout.intValue());
+		}
+		if (readTimeout != null) {
+			configBuilder.setSocketTimeout(readTimeout.intValue());
+		}
+		if (followRedirects != null) {
+			configBuilder.setRedirectsEnabled(followRedirects.booleanValue());
+		}
+		return configBuilder;
+	}
+
+	private HttpHost proxyHost() {
+		if (proxy == null || Proxy.NO_PROXY.equals(proxy))
+			return null;
+		isUsingProxy = true;
+		InetSocketAddress adr = (InetSocketAddress) proxy.address();
+		return new HttpHost(adr.getHostName(), adr.getPort());
+	}
+
 	private SSLContext getSSLContext() {
 		if (ctx == null) {
 			try {
@@ -242,20 +262,35 @@ private void execute() throws IOException, ClientProtocolException {
 			return;
 		}
 
-		if (entity == null) {
-			resp = getClient().execute(req);
-			return;
+		HttpClient c = getClient();
+		if (pooled && req instanceof HttpRequestBase) {
+			((HttpRequestBase) req).setConfig(
+					requestConfig().setProxy(proxyHost()).build());
 		}
 
-		try {
-			if (req instanceof HttpEntityEnclosingRequest) {
-				HttpEntityEnclosingRequest eReq = (HttpEntityEnclosingRequest) req;
-				eReq.setEntity(entity);
+		if (entity == null) {
+			resp = c.execute(req);
+		} else {
+			try {
+				if (req instanceof HttpEntityEnclosingRequest) {
+					HttpEntityEnclosingRequest eReq = (HttpEntityEnclosingRequest) req;
+					eReq.setEntity(entity);
+				}
+				resp = c.execute(req);
+			} finally {
+				entity.close();
+				entity = null;
 			}
-			resp = getClient().execute(req);
-		} finally {
-			entity.close();
-			entity = null;
+		}
+
+		if (pooled) {
+			// Callers commonly only look at the status of an unsuccessful
+			// response. Read its body now so the connection returns to the
+			// pool; successful responses are released once read.
+			int status = resp.getStatusLine().getStatusCode();
+			HttpEntity e = resp.getEntity();
+			if (e != null && (status < 200 || 300 <= status))
+				resp.setEntity(new BufferedHttpEntity(e));
 		}
 	}
 
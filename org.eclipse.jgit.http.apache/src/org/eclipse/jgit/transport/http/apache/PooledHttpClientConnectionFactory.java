@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport.http.apache;
+
+import java.io.IOException;
+import java.net.Proxy;
+import java.net.URL;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.jgit.transport.http.HttpConnection;
+import org.eclipse.jgit.transport.http.HttpConnectionFactory;
+
+/**
+ * A factory returning {@link HttpClientConnection}s which share one
+ * {@link org.apache.http.client.HttpClient} and its pool of kept-alive
+ * connections.
+ * <p>
+ * {@link HttpClientConnectionFactory} creates a new client, and therefore a
+ * new TCP and TLS connection, for every request. This factory reuses
+ * connections across requests and transports, and limits how many are opened
+ * concurrently; a request needing a connection while all are in use waits for
+ * one to be released. A connection is released once the response body was
+ * read to its end or closed. Bodies of unsuccessful responses are read
+ * immediately.
+ * <p>
+ * Timeouts, redirect handling and the proxy are applied per request. A
+ * connection which disables SSL verification uses a client of its own.
+ *
+ * @since 4.7
+ */
+public class PooledHttpClientConnectionFactory
+		implements HttpConnectionFactory, AutoCloseable {
+	private final PoolingHttpClientConnectionManager connections;
+
+	private final CloseableHttpClient client;
+
+	/**
+	 * Create a factory.
+	 *
+	 * @param maxPerRoute
+	 *            maximum number of connections to a single host.
+	 * @param maxTotal
+	 *            maximum number of connections in total.
+	 */
+	public PooledHttpClientConnectionFactory(int maxPerRoute, int maxTotal) {
+		connections = new PoolingHttpClientConnectionManager();
+		connections.setDefaultMaxPerRoute(maxPerRoute);
+		connections.setMaxTotal(maxTotal);
+		client = HttpClients.custom().setConnectionManager(connections)
+				.build();
+	}
+
+	/** @return maximum number of connections to a single host. */
+	public int getMaxPerRoute() {
+		return connections.getDefaultMaxPerRoute();
+	}
+
+	/** @return maximum number of connections in total. */
+	public int getMaxTotal() {
+		return connections.getMaxTotal();
+	}
+
+	/** @return number of connections currently in use. */
+	public int getLeasedConnections() {
+		return connections.getTotalStats().getLeased();
+	}
+
+	/** @return number of idle connections kept for reuse. */
+	public int getAvailableConnections() {
+		return connections.getTotalStats().getAvailable();
+	}
+
+	public HttpConnection create(URL url) throws IOException {
+		return create(url, null);
+	}
+
+	public HttpConnection create(URL url, Proxy proxy) throws IOException {
+		HttpClientConnection c = new HttpClientConnection(url.toString(),
+				proxy, client);
+		c.pooled = true;
+		return c;
+	}
+
+	/**
+	 * Close all pooled connections.
+	 * <p>
+	 * The factory must not be used afterwards.
+	 *
+	 * @throws IOException
+	 *             the client could not be shut down.
+	 */
+	public void close() throws IOException {
+		client.close();
+	}
+}
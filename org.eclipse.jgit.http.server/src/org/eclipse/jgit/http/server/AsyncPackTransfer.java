@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.http.server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Runs a pack transfer asynchronously, releasing the container thread.
+ * <p>
+ * The transfer itself executes on a caller supplied {@link Executor}. The
+ * response it produces is queued in a bounded buffer and copied to the client
+ * by a {@link WriteListener} whenever the connection can accept more data, so
+ * a slow client only holds a worker thread while the buffer is full, and never
+ * holds a container thread.
+ * <p>
+ * The request body is still read by the worker with blocking reads, as
+ * {@link org.eclipse.jgit.transport.UploadPack} and
+ * {@link org.eclipse.jgit.transport.ReceivePack} consume their input as a
+ * stream.
+ * <p>
+ * The filters of the request remove their attributes once the container
+ * thread returns, while the worker may still need them, e.g. to find the
+ * handler when reporting an error. The worker therefore sees the attributes
+ * as they were when the transfer was started.
+ */
+class AsyncPackTransfer {
+	/** Maximum number of response bytes buffered for a client. */
+	static final int BUFFER_LIMIT = 256 * 1024;
+
+	/** Work performed on the worker thread. */
+	interface Task {
+		/**
+		 * Perform the transfer.
+		 *
+		 * @param req
+		 *            the current request.
+		 * @param rsp
+		 *            response whose output stream writes into the buffer.
+		 * @throws IOException
+		 */
+		void run(HttpServletRequest req, HttpServletResponse rsp)
+				throws IOException;
+	}
+
+	/**
+	 * Start an asynchronous transfer.
+	 *
+	 * @param req
+	 *            the current request; must support asynchronous processing.
+	 * @param rsp
+	 *            the current response.
+	 * @param db
+	 *            repository used by the transfer; kept open until the
+	 *            transfer completes.
+	 * @param executor
+	 *            executor running the transfer.
+	 * @param task
+	 *            the transfer.
+	 * @throws IOException
+	 *             the response stream could not be obtained.
+	 */
+	static void start(final HttpServletRequest req,
+			final HttpServletResponse rsp, final Repository db,
+			Executor executor, final Task task) throws IOException {
+		final AsyncContext ctx = req.startAsync(req, rsp);
+		ctx.setTimeout(0);
+
+		final Map<String, Object> attributes = new HashMap<String, Object>();
+		for (String name : Collections.list(req.getAttributeNames()))
+			attributes.put(name, req.getAttribute(name));
+		final HttpServletRequest in = new HttpServletRequestWrapper(req) {
+			@Override
+			public Object getAttribute(String name) {
+				return attributes.get(name);
+			}
+
+			@Override
+			public Enumeration<String> getAttributeNames() {
+				return Collections.enumeration(attributes.keySet());
+			}
+
+			@Override
+			public void setAttribute(String name, Object o) {
+				attributes.put(name, o);
+			}
+
+			@Override
+			public void removeAttribute(String name) {
+				attributes.remove(name);
+			}
+		};
+
+		final Buffer buf = new Buffer(ctx, rsp.getOutputStream());
+		final HttpServletResponse out = new HttpServletResponseWrapper(rsp) {
+			@Override
+			public ServletOutputStream getOutputStream() {
+				return buf.producer;
+			}
+
+			@Override
+			public boolean isCommitted() {
+				return buf.hasOutput() || super.isCommitted();
+			}
+
+			@Override
+			public void sendError(int sc) {
+				setStatus(sc);
+			}
+
+			@Override
+			public void sendError(int sc, String msg) throws IOException {
+				setStatus(sc);
+				if (msg != null) {
+					setContentType("text/plain; charset=UTF-8"); //$NON-NLS-1$
+					buf.producer.write(Constants.encode(msg));
+				}
+			}
+		};
+		ctx.addListener(buf);
+
+		db.incrementOpen();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						task.run(in, out);
+						buf.producer.close();
+					} catch (Throwable e) {
+						buf.fail(e);
+					} finally {
+						db.close();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			db.close();
+			buf.fail(e);
+			throw new IOException(e);
+		}
+		buf.out.setWriteListener(buf);
+	}
+
+	private static class Buffer implements WriteListener, AsyncListener {
+		final AsyncContext ctx;
+
+		final ServletOutputStream out;
+
+		final ServletOutputStream producer = new ServletOutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				enqueue(b, off, len);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				drain();
+			}
+
+			@Override
+			public void close() throws IOException {
+				finish();
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener writeListener) {
+				throw new UnsupportedOperationException();
+			}
+		};
+
+		private final ArrayDeque<byte[]> chunks = new ArrayDeque<byte[]>();
+
+		private int buffered;
+
+		private boolean started;
+
+		private boolean listening;
+
+		private boolean awaitingCallback;
+
+		private boolean finished;
+
+		private boolean completed;
+
+		private Throwable error;
+
+		Buffer(AsyncContext ctx, ServletOutputStream out) {
+			this.ctx = ctx;
+			this.out = out;
+		}
+
+		synchronized boolean hasOutput() {
+			return started;
+		}
+
+		void enqueue(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return;
+			synchronized (this) {
+				while (BUFFER_LIMIT <= buffered && error == null) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+				}
+				check();
+				byte[] chunk = new byte[len];
+				System.arraycopy(b, off, chunk, 0, len);
+				chunks.add(chunk);
+				buffered += len;
+				started = true;
+			}
+			drain();
+		}
+
+		void finish() throws IOException {
+			synchronized (this) {
+				check();
+				finished = true;
+			}
+			drain();
+		}
+
+		void fail(Throwable t) {
+			boolean complete;
+			synchronized (this) {
+				if (error == null)
+					error = t;
+				notifyAll();
+				complete = !completed;
+				completed = true;
+			}
+			if (complete)
+				ctx.complete();
+		}
+
+		private void check() throws IOException {
+			if (error instanceof IOException)
+				throw (IOException) error;
+			else if (error != null)
+				throw new IOException(error);
+		}
+
+		/**
+		 * Copy as much as the client accepts without blocking.
+		 * <p>
+		 * The async context is completed outside of the monitor, as the
+		 * container may hold its own locks while invoking the listener.
+		 *
+		 * @throws IOException
+		 */
+		void drain() throws IOException {
+			if (drainBuffer())
+				ctx.complete();
+		}
+
+		private synchronized boolean drainBuffer() throws IOException {
+			if (!listening || awaitingCallback || completed)
+				return false;
+			while (out.isReady()) {
+				byte[] chunk = chunks.poll();
+				if (chunk == null) {
+					if (!finished)
+						return false;
+					completed = true;
+					return true;
+				}
+				out.write(chunk);
+				buffered -= chunk.length;
+				notifyAll();
+			}
+			awaitingCallback = true;
+			return false;
+		}
+
+		public void onWritePossible() throws IOException {
+			synchronized (this) {
+				listening = true;
+				awaitingCallback = false;
+			}
+			drain();
+		}
+
+		public void onError(Throwable t) {
+			fail(t);
+		}
+
+		public void onComplete(AsyncEvent event) {
+			synchronized (this) {
+				completed = true;
+			}
+			fail(new IOException(HttpServerText.get().asyncRequestClosed));
+		}
+
+		public void onTimeout(AsyncEvent event) {
+			fail(event.getThrowable() != null ? event.getThrowable()
+					: new InterruptedIOException());
+		}
+
+		public void onError(AsyncEvent event) {
+			fail(event.getThrowable());
+		}
+
+		public void onStartAsync(AsyncEvent event) {
+			// Not restarted.
+		}
+	}
+}
@@ -47,6 +47,7 @@
 import java.text.MessageFormat;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterConfig;
@@ -99,6 +100,10 @@ public class GitFilter extends MetaFilter {
 
 	private final List<Filter> receivePackFilters = new LinkedList<Filter>();
 
+	private Executor asyncExecutor;
+
+	private RefAdvertisementCache refAdvertisementCache;
+
 	/**
 	 * New servlet that will load its base directory from {@code web.xml}.
 	 * <p>
@@ -178,6 +183,49 @@ public void addReceivePackFilter(Filter filter) {
 		receivePackFilters.add(filter);
 	}
 
+	/**
+	 * Serve upload-pack and receive-pack requests asynchronously.
+	 * <p>
+	 * When set, requests which support asynchronous processing release the
+	 * container thread as soon as the transfer starts. The transfer runs on
+	 * {@code executor}, and its output is written to the client with
+	 * non-blocking I/O through a bounded buffer, so a slow client does not
+	 * hold a container thread. Filters added with
+	 * {@link #addUploadPackFilter(Filter)} or
+	 * {@link #addReceivePackFilter(Filter)} return before such a transfer
+	 * completes. Requires a Servlet 3.1 container, and the servlet or filter
+	 * must be registered as supporting asynchronous requests.
+	 *
+	 * @param executor
+	 *            executor running pack transfers. If {@code null} (the
+	 *            default) requests are served on the container thread.
+	 * @since 4.7
+	 */
+	public void setAsyncExecutor(Executor executor) {
+		assertNotInitialized();
+		this.asyncExecutor = executor;
+	}
+
+	/**
+	 * Serve smart HTTP {@code info/refs} responses of
+	 * {@code git-upload-pack} from a cache.
+	 * <p>
+	 * The advertisement is encoded once per repository and reused
+	 * until the repository's references change, with support for conditional
+	 * requests and compressed responses. Only use a cache if the advertisement
+	 * does not depend on the request, e.g. if the configured factories and
+	 * filters do not hide references for some users.
+	 *
+	 * @param cache
+	 *            the cache to use. If {@code null} (the default) every request
+	 *            advertises the current references.
+	 * @since 4.7
+	 */
+	public void setRefAdvertisementCache(RefAdvertisementCache cache) {
+		assertNotInitialized();
+		this.refAdvertisementCache = cache;
+	}
+
 	private void assertNotInitialized() {
 		if (initialized)
 			throw new IllegalStateException(HttpServerText.get().alreadyInitializedByContainer);
@@ -200,7 +248,7 @@ public void init(FilterConfig filterConfig) throws ServletException {
 			b = b.through(new UploadPackServlet.Factory(uploadPackFactory));
 			for (Filter f : uploadPackFilters)
 				b = b.through(f);
-			b.with(new UploadPackServlet());
+			b.with(new UploadPackServlet(asyncExecutor));
 		}
 
 		if (receivePackFactory != ReceivePackFactory.DISABLED) {
@@ -208,13 +256,14 @@ public void init(FilterConfig filterConfig) throws ServletException {
 			b = b.through(new ReceivePackServlet.Factory(receivePackFactory));
 			for (Filter f : receivePackFilters)
 				b = b.through(f);
-			b.with(new ReceivePackServlet());
+			b.with(new ReceivePackServlet(asyncExecutor));
 		}
 
 		ServletBinder refs = serve("*/" + Constants.INFO_REFS);
 		if (uploadPackFactory != UploadPackFactory.DISABLED) {
 			refs = refs.through(new UploadPackServlet.InfoRefs(
-					uploadPackFactory, uploadPackFilters));
+					uploadPackFactory, uploadPackFilters,
+					refAdvertisementCache));
 		}
 		if (receivePackFactory != ReceivePackFactory.DISABLED) {
 			refs = refs.through(new ReceivePackServlet.InfoRefs(
@@ -44,6 +44,7 @@
 package org.eclipse.jgit.http.server;
 
 import java.util.Enumeration;
+import java.util.concurrent.Executor;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterConfig;
@@ -171,6 +172,27 @@ public void addReceivePackFilter(Filter filter) {
 		gitFilter.addReceivePackFilter(filter);
 	}
 
+	/**
+	 * @param executor
+	 *            executor serving upload-pack and receive-pack requests
+	 *            asynchronously; see
+	 *            {@link GitFilter#setAsyncExecutor(Executor)}.
+	 * @since 4.7
+	 */
+	public void setAsyncExecutor(Executor executor) {
+		gitFilter.setAsyncExecutor(executor);
+	}
+
+	/**
+	 * @param cache
+	 *            cache of smart HTTP reference advertisements; see
+	 *            {@link GitFilter#setRefAdvertisementCache(RefAdvertisementCache)}.
+	 * @since 4.7
+	 */
+	public void setRefAdvertisementCache(RefAdvertisementCache cache) {
+		gitFilter.setRefAdvertisementCache(cache);
+	}
+
 	@Override
 	public void init(final ServletConfig config) throws ServletException {
 		gitFilter.init(new FilterConfig() {
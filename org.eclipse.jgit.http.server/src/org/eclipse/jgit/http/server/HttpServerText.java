@@ -60,6 +60,7 @@ public static HttpServerText get() {
 
 	// @formatter:off
 	/***/ public String alreadyInitializedByContainer;
+	/***/ public String asyncRequestClosed;
 	/***/ public String cannotGetLengthOf;
 	/***/ public String clientHas175ChunkedEncodingBug;
 	/***/ public String encodingNotSupportedByThisLibrary;
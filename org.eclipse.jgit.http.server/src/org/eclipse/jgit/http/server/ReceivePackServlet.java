@@ -64,6 +64,7 @@
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -90,12 +91,25 @@
 class ReceivePackServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
 
+	private final transient Executor asyncExecutor;
+
+	/**
+	 * @param asyncExecutor
+	 *            if not null, requests supporting asynchronous processing are
+	 *            served on this executor; see {@link AsyncPackTransfer}.
+	 */
+	ReceivePackServlet(Executor asyncExecutor) {
+		this.asyncExecutor = asyncExecutor;
+	}
+
 	static class InfoRefs extends SmartServiceInfoRefs {
 		private final ReceivePackFactory<HttpServletRequest> receivePackFactory;
 
 		InfoRefs(ReceivePackFactory<HttpServletRequest> receivePackFactory,
 				List<Filter> filters) {
-			super(RECEIVE_PACK, filters);
+			// The advertisement may carry a push certificate nonce, which
+			// must be fresh for every request, so it is never cached.
+			super(RECEIVE_PACK, filters, null);
 			this.receivePackFactory = receivePackFactory;
 		}
 
@@ -115,11 +129,14 @@ protected void advertise(HttpServletRequest req,
 				PacketLineOutRefAdvertiser pck) throws IOException,
 				ServiceNotEnabledException, ServiceNotAuthorizedException {
 			ReceivePack rp = (ReceivePack) req.getAttribute(ATTRIBUTE_HANDLER);
-			try {
-				rp.sendAdvertisedRefs(pck);
-			} finally {
+			rp.sendAdvertisedRefs(pck);
+		}
+
+		@Override
+		protected void release(HttpServletRequest req) {
+			ReceivePack rp = (ReceivePack) req.getAttribute(ATTRIBUTE_HANDLER);
+			if (rp != null)
 				rp.getRevWalk().close();
-			}
 		}
 	}
 
@@ -170,13 +187,29 @@ public void doPost(final HttpServletRequest req,
 			return;
 		}
 
-		int[] version = parseVersion(req.getHeader(HDR_USER_AGENT));
+		final int[] version = parseVersion(req.getHeader(HDR_USER_AGENT));
 		if (hasChunkedEncodingRequestBug(version, req)) {
 			GitSmartHttpTools.sendError(req, rsp, SC_BAD_REQUEST, "\n\n"
 					+ HttpServerText.get().clientHas175ChunkedEncodingBug);
 			return;
 		}
 
+		final ReceivePack rp = (ReceivePack) req.getAttribute(ATTRIBUTE_HANDLER);
+		if (asyncExecutor != null && req.isAsyncSupported()) {
+			AsyncPackTransfer.start(req, rsp, rp.getRepository(),
+					asyncExecutor, new AsyncPackTransfer.Task() {
+						public void run(HttpServletRequest r,
+								HttpServletResponse s) throws IOException {
+							receive(r, s, rp, version);
+						}
+					});
+			return;
+		}
+		receive(req, rsp, rp, version);
+	}
+
+	private void receive(HttpServletRequest req, HttpServletResponse rsp,
+			ReceivePack rp, int[] version) throws IOException {
 		SmartOutputStream out = new SmartOutputStream(req, rsp, false) {
 			@Override
 			public void flush() throws IOException {
@@ -184,7 +217,6 @@ public void flush() throws IOException {
 			}
 		};
 
-		ReceivePack rp = (ReceivePack) req.getAttribute(ATTRIBUTE_HANDLER);
 		try {
 			rp.setBiDirectionalPipe(false);
 			rp.setEchoCommandFailures(hasPushStatusBug(version));
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.http.server;
+
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static org.eclipse.jgit.http.server.ServletUtils.acceptsGzipEncoding;
+import static org.eclipse.jgit.util.HttpSupport.ENCODING_GZIP;
+import static org.eclipse.jgit.util.HttpSupport.HDR_ACCEPT_ENCODING;
+import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_ENCODING;
+import static org.eclipse.jgit.util.HttpSupport.HDR_ETAG;
+import static org.eclipse.jgit.util.HttpSupport.HDR_IF_NONE_MATCH;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.events.RefsChangedEvent;
+import org.eclipse.jgit.events.RefsChangedListener;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Caches encoded {@code info/refs} responses of repositories.
+ * <p>
+ * Serving {@code info/refs} reads every reference of the repository, runs the
+ * {@link org.eclipse.jgit.transport.AdvertiseRefsHook} and encodes the result.
+ * Clients polling a repository which rarely changes cause this work to be
+ * repeated for an identical response. When a cache is installed with
+ * {@link GitFilter#setRefAdvertisementCache(RefAdvertisementCache)} the
+ * encoded response, and a gzip compressed copy of it, is kept in memory and
+ * reused until the references of the repository change, or the entry becomes
+ * older than the configured maximum age. Responses carry an {@code ETag}, so
+ * clients sending {@code If-None-Match} are answered with
+ * {@code 304 Not Modified} while the advertisement is unchanged.
+ * <p>
+ * Entries are invalidated when a {@link RefsChangedEvent} is fired for their
+ * repository. Not every reference database fires these events for updates
+ * made by other processes, so the maximum age bounds how long a stale
+ * advertisement may be served.
+ * <p>
+ * Only the {@code git-upload-pack} advertisement is cached. The
+ * {@code git-receive-pack} advertisement may carry a push certificate nonce,
+ * which must be fresh for every request.
+ * <p>
+ * A cached advertisement is shared by all clients of a repository. The cache
+ * must not be used if the advertisement depends on the request, for example
+ * because the {@link org.eclipse.jgit.transport.resolver.UploadPackFactory}
+ * installs a per user {@link org.eclipse.jgit.transport.AdvertiseRefsHook}.
+ *
+ * @since 4.7
+ */
+public class RefAdvertisementCache {
+	/** Number of invalidations always remembered, even without entries. */
+	private static final int MIN_INVALIDATED = 64;
+
+	private final long maxBytes;
+
+	private final long maxAgeMillis;
+
+	private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(
+			16, 0.75f, true);
+
+	private long bytes;
+
+	/** Incremented whenever entries are invalidated. */
+	private final AtomicLong epoch = new AtomicLong();
+
+	/**
+	 * Epoch of the last invalidation, by repository, oldest first; guarded by
+	 * this. Trimmed to the number of entries by {@link #trimInvalidated()}.
+	 */
+	private final Map<Object, Long> invalidated = new LinkedHashMap<Object, Long>();
+
+	/**
+	 * Epoch of the last {@link #invalidateAll()}, or of the newest
+	 * invalidation trimmed from {@link #invalidated}; guarded by this.
+	 */
+	private long invalidatedAll;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final ListenerHandle listener;
+
+	/**
+	 * Create a new cache.
+	 *
+	 * @param maxBytes
+	 *            maximum number of bytes of encoded advertisements to keep.
+	 * @param maxAge
+	 *            maximum time an advertisement is reused for.
+	 * @param unit
+	 *            unit of {@code maxAge}.
+	 */
+	public RefAdvertisementCache(long maxBytes, long maxAge, TimeUnit unit) {
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = unit.toMillis(maxAge);
+		listener = Repository.getGlobalListenerList().addRefsChangedListener(
+				new RefsChangedListener() {
+					public void onRefsChanged(RefsChangedEvent event) {
+						invalidate(event.getRepository());
+					}
+				});
+	}
+
+	/**
+	 * Discard the cached advertisements of a repository.
+	 *
+	 * @param db
+	 *            the repository.
+	 */
+	public void invalidate(Repository db) {
+		Object repo = keyOf(db);
+		synchronized (this) {
+			invalidated.remove(repo);
+			invalidated.put(repo, Long.valueOf(epoch.incrementAndGet()));
+			for (Iterator<Map.Entry<Key, Entry>> i = entries.entrySet()
+					.iterator(); i.hasNext();) {
+				Map.Entry<Key, Entry> e = i.next();
+				if (e.getKey().repo.equals(repo)) {
+					bytes -= e.getValue().size();
+					i.remove();
+				}
+			}
+			trimInvalidated();
+		}
+	}
+
+	/**
+	 * Forget the oldest invalidations once they outnumber the entries.
+	 * <p>
+	 * An invalidation is only needed to reject an advertisement encoded
+	 * before it. Raising {@link #invalidatedAll} to the forgotten epoch keeps
+	 * rejecting those, at the cost of also not storing the advertisements of
+	 * other repositories that were being encoded at the same time.
+	 */
+	private void trimInvalidated() {
+		int max = Math.max(entries.size(), MIN_INVALIDATED);
+		for (Iterator<Long> i = invalidated.values().iterator(); max < invalidated
+				.size();) {
+			invalidatedAll = Math.max(invalidatedAll, i.next().longValue());
+			i.remove();
+		}
+	}
+
+	/** Discard all cached advertisements. */
+	public synchronized void invalidateAll() {
+		invalidatedAll = epoch.incrementAndGet();
+		invalidated.clear();
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Stop listening for reference changes and discard all entries.
+	 * <p>
+	 * The cache must not be used after it was closed.
+	 */
+	public void close() {
+		listener.remove();
+		invalidateAll();
+	}
+
+	/** @return number of requests answered from the cache. */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** @return number of requests which had to encode the advertisement. */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/** @return number of bytes currently held by the cache. */
+	public synchronized long getSize() {
+		return bytes;
+	}
+
+	/** @return current invalidation epoch, passed back to {@link #put}. */
+	long getEpoch() {
+		return epoch.get();
+	}
+
+	synchronized Entry get(Repository db, String service) {
+		Key key = new Key(keyOf(db), service);
+		Entry e = entries.get(key);
+		if (e != null && System.currentTimeMillis() - e.created > maxAgeMillis) {
+			entries.remove(key);
+			bytes -= e.size();
+			trimInvalidated();
+			e = null;
+		}
+		if (e != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return e;
+	}
+
+	/**
+	 * Create an entry for an encoded advertisement, storing it unless the
+	 * repository was invalidated while it was encoded.
+	 *
+	 * @param db
+	 *            the repository.
+	 * @param service
+	 *            the service the advertisement was created for.
+	 * @param startEpoch
+	 *            value of {@link #getEpoch()} before the references were read.
+	 * @param body
+	 *            the encoded advertisement.
+	 * @return the entry.
+	 * @throws IOException
+	 */
+	Entry put(Repository db, String service, long startEpoch, byte[] body)
+			throws IOException {
+		Entry e = new Entry(body);
+		if (maxBytes < e.size())
+			return e;
+		Object repo = keyOf(db);
+		synchronized (this) {
+			Long last = invalidated.get(repo);
+			if (invalidatedAll > startEpoch
+					|| (last != null && last.longValue() > startEpoch))
+				return e;
+			Entry old = entries.put(new Key(repo, service), e);
+			if (old != null)
+				bytes -= old.size();
+			bytes += e.size();
+			for (Iterator<Entry> i = entries.values().iterator(); maxBytes < bytes
+					&& i.hasNext();) {
+				bytes -= i.next().size();
+				i.remove();
+			}
+			trimInvalidated();
+		}
+		return e;
+	}
+
+	/**
+	 * Identify a repository across its instances. DFS repositories have no
+	 * directory and are often opened anew for every request, so they are
+	 * identified by their name.
+	 */
+	private static Object keyOf(Repository db) {
+		if (db instanceof DfsRepository)
+			return ((DfsRepository) db).getDescription().getRepositoryName();
+		return db.getDirectory() != null ? db.getDirectory() : db;
+	}
+
+	private static final class Key {
+		final Object repo;
+
+		final String service;
+
+		Key(Object repo, String service) {
+			this.repo = repo;
+			this.service = service != null ? service : ""; //$NON-NLS-1$
+		}
+
+		@Override
+		public int hashCode() {
+			return repo.hashCode() * 31 + service.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return repo.equals(k.repo) && service.equals(k.service);
+			}
+			return false;
+		}
+	}
+
+	/** An encoded advertisement. */
+	static final class Entry {
+		final byte[] body;
+
+		final byte[] gzip;
+
+		final String etag;
+
+		final long created = System.currentTimeMillis();
+
+		Entry(byte[] body) throws IOException {
+			this.body = body;
+
+			MessageDigest md = Constants.newMessageDigest();
+			md.update(body);
+			this.etag = ObjectId.fromRaw(md.digest()).name();
+
+			byte[] gz = null;
+			if (256 < body.length) {
+				ByteArrayOutputStream buf = new ByteArrayOutputStream();
+				try (GZIPOutputStream out = new GZIPOutputStream(buf)) {
+					out.write(body);
+				}
+				if (buf.size() < body.length)
+					gz = buf.toByteArray();
+			}
+			this.gzip = gz;
+		}
+
+		long size() {
+			return body.length + (gzip != null ? gzip.length : 0);
+		}
+
+		/**
+		 * Send this advertisement, or {@code 304 Not Modified} if the client
+		 * already has it.
+		 *
+		 * @param req
+		 *            current request.
+		 * @param rsp
+		 *            current response; the content type must be set.
+		 * @throws IOException
+		 */
+		void send(HttpServletRequest req, HttpServletResponse rsp)
+				throws IOException {
+			boolean gz = gzip != null && acceptsGzipEncoding(req);
+			String tag = '"' + etag + (gz ? "-gzip\"" : "\""); //$NON-NLS-1$ //$NON-NLS-2$
+			rsp.setHeader(HDR_ETAG, tag);
+			if (gzip != null)
+				rsp.setHeader("Vary", HDR_ACCEPT_ENCODING); //$NON-NLS-1$
+			if (matches(req.getHeader(HDR_IF_NONE_MATCH), tag)) {
+				rsp.setStatus(SC_NOT_MODIFIED);
+				return;
+			}
+
+			byte[] out = body;
+			if (gz) {
+				rsp.setHeader(HDR_CONTENT_ENCODING, ENCODING_GZIP);
+				out = gzip;
+			}
+			rsp.setContentLength(out.length);
+			OutputStream os = rsp.getOutputStream();
+			try {
+				os.write(out);
+				os.flush();
+			} finally {
+				os.close();
+			}
+		}
+
+		private static boolean matches(String ifNoneMatch, String tag) {
+			if (ifNoneMatch == null)
+				return false;
+			for (String t : ifNoneMatch.split(",")) { //$NON-NLS-1$
+				t = t.trim();
+				if (t.startsWith("W/")) //$NON-NLS-1$
+					t = t.substring(2);
+				if (t.equals("*") || t.equals(tag)) //$NON-NLS-1$
+					return true;
+			}
+			return false;
+		}
+	}
+}
@@ -49,7 +49,9 @@
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -57,18 +59,35 @@
 import org.eclipse.jgit.util.TemporaryBuffer;
 
 /**
- * Buffers a response, trying to gzip it if the user agent supports that.
+ * Buffers a response, compressing it with gzip if its content benefits.
  * <p>
- * If the response overflows the buffer, gzip is skipped and the response is
- * streamed to the client as its produced, most likely using HTTP/1.1 chunked
- * encoding. This is useful for servlets that produce mixed-mode content, where
- * smaller payloads are primarily pure text that compresses well, while much
- * larger payloads are heavily compressed binary data. {@link UploadPackServlet}
- * is one such servlet.
+ * Responses fitting into the buffer are sent with a proper
+ * {@code Content-Length}. If the response overflows the buffer, or the servlet
+ * flushes it, it is streamed to the client as its produced, most likely using
+ * HTTP/1.1 chunked encoding.
+ * <p>
+ * Whether to compress is decided up front by the caller, from the kind of
+ * content it produces, instead of by compressing a trial copy. Compressible
+ * content, such as reference advertisements, is compressed if the user agent
+ * supports gzip and it is larger than a few hundred bytes. Compression is
+ * incremental; each {@link #flush()} of a streamed response sends what was
+ * compressed so far. Pack streams, which are heavily compressed binary data,
+ * are sent as-is. {@link UploadPackServlet} is one such servlet.
  */
 class SmartOutputStream extends TemporaryBuffer {
 	private static final int LIMIT = 32 * 1024;
 
+	/** Responses smaller than this are not worth compressing. */
+	private static final int MIN_COMPRESS = 256;
+
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b,
+			Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	/** Idle deflaters, to avoid allocating native state per response. */
+	private static final Deflater[] deflaters = new Deflater[4];
+
+	private static int deflaterCount;
+
 	private final HttpServletRequest req;
 	private final HttpServletResponse rsp;
 	private boolean compressStream;
@@ -90,7 +109,7 @@ protected OutputStream overflow() throws IOException {
 		OutputStream out = rsp.getOutputStream();
 		if (compressStream && acceptsGzipEncoding(req)) {
 			rsp.setHeader(HDR_CONTENT_ENCODING, ENCODING_GZIP);
-			out = new GZIPOutputStream(out);
+			out = new GzipStream(out);
 		}
 		return out;
 	}
@@ -100,41 +119,101 @@ public void close() throws IOException {
 
 		if (!startedOutput) {
 			// If output hasn't started yet, the entire thing fit into our
-			// buffer. Try to use a proper Content-Length header, and also
-			// deflate the response with gzip if it will be smaller.
-			TemporaryBuffer out = this;
-
-			if (256 < out.length() && acceptsGzipEncoding(req)) {
-				TemporaryBuffer gzbuf = new TemporaryBuffer.Heap(LIMIT);
-				try {
-					GZIPOutputStream gzip = new GZIPOutputStream(gzbuf);
-					try {
-						out.writeTo(gzip, null);
-					} finally {
-						gzip.close();
-					}
-					if (gzbuf.length() < out.length()) {
-						out = gzbuf;
-						rsp.setHeader(HDR_CONTENT_ENCODING, ENCODING_GZIP);
-					}
-				} catch (IOException err) {
-					// Most likely caused by overflowing the buffer, meaning
-					// its larger if it were compressed. Discard compressed
-					// copy and use the original.
-				}
+			// buffer. Compress it straight into the response if the content
+			// is expected to compress, leaving it to the container to frame
+			// the result. Otherwise use a proper Content-Length header.
+			OutputStream os = rsp.getOutputStream();
+			if (compressStream && MIN_COMPRESS < length()
+					&& acceptsGzipEncoding(req)) {
+				rsp.setHeader(HDR_CONTENT_ENCODING, ENCODING_GZIP);
+				os = new GzipStream(os);
+			} else {
+				// The Content-Length cannot overflow when cast to an int, our
+				// hardcoded LIMIT constant above assures us we wouldn't store
+				// more than 2 GiB of content in memory.
+				rsp.setContentLength((int) length());
 			}
-
-			// The Content-Length cannot overflow when cast to an int, our
-			// hardcoded LIMIT constant above assures us we wouldn't store
-			// more than 2 GiB of content in memory.
-			rsp.setContentLength((int) out.length());
-			final OutputStream os = rsp.getOutputStream();
 			try {
-				out.writeTo(os, null);
+				writeTo(os, null);
 				os.flush();
 			} finally {
 				os.close();
 			}
 		}
 	}
+
+	private static Deflater getDeflater() {
+		synchronized (deflaters) {
+			if (0 < deflaterCount) {
+				Deflater d = deflaters[--deflaterCount];
+				deflaters[deflaterCount] = null;
+				return d;
+			}
+		}
+		return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	}
+
+	private static void release(Deflater d) {
+		d.reset();
+		synchronized (deflaters) {
+			if (deflaterCount < deflaters.length) {
+				deflaters[deflaterCount++] = d;
+				return;
+			}
+		}
+		d.end();
+	}
+
+	/**
+	 * Writes the gzip format using a pooled deflater.
+	 * <p>
+	 * {@link java.util.zip.GZIPOutputStream} cannot reuse a deflater. Flushing
+	 * this stream flushes the deflater, so partial output reaches the client.
+	 */
+	private static class GzipStream extends DeflaterOutputStream {
+		private final CRC32 crc = new CRC32();
+
+		private boolean closed;
+
+		GzipStream(OutputStream out) throws IOException {
+			super(out, getDeflater(), 8192, true);
+			out.write(GZIP_HEADER);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			super.write(b, off, len);
+			crc.update(b, off, len);
+		}
+
+		@Override
+		public void finish() throws IOException {
+			if (def.finished())
+				return;
+			super.finish();
+			byte[] trailer = new byte[8];
+			putInt(trailer, 0, crc.getValue());
+			putInt(trailer, 4, def.getBytesRead());
+			out.write(trailer);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				super.close();
+			} finally {
+				release(def);
+			}
+		}
+
+		private static void putInt(byte[] buf, int p, long v) {
+			buf[p] = (byte) v;
+			buf[p + 1] = (byte) (v >>> 8);
+			buf[p + 2] = (byte) (v >>> 16);
+			buf[p + 3] = (byte) (v >>> 24);
+		}
+	}
 }
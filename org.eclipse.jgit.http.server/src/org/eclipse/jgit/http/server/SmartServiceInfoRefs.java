@@ -50,7 +50,9 @@
 import static org.eclipse.jgit.http.server.ServletUtils.ATTRIBUTE_HANDLER;
 import static org.eclipse.jgit.http.server.ServletUtils.getRepository;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import javax.servlet.Filter;
@@ -75,9 +77,13 @@ abstract class SmartServiceInfoRefs implements Filter {
 
 	private final Filter[] filters;
 
-	SmartServiceInfoRefs(final String service, final List<Filter> filters) {
+	private final RefAdvertisementCache cache;
+
+	SmartServiceInfoRefs(final String service, final List<Filter> filters,
+			RefAdvertisementCache cache) {
 		this.svc = service;
 		this.filters = filters.toArray(new Filter[filters.size()]);
+		this.cache = cache;
 	}
 
 	public void init(FilterConfig config) throws ServletException {
@@ -111,6 +117,7 @@ public void doFilter(ServletRequest request, ServletResponse response,
 				else
 					new Chain().doFilter(request, response);
 			} finally {
+				release(req);
 				req.removeAttribute(ATTRIBUTE_HANDLER);
 			}
 		} else {
@@ -122,23 +129,42 @@ private void service(ServletRequest request, ServletResponse response)
 			throws IOException {
 		final HttpServletRequest req = (HttpServletRequest) request;
 		final HttpServletResponse res = (HttpServletResponse) response;
-		final SmartOutputStream buf = new SmartOutputStream(req, res, true);
-		try {
-			res.setContentType(infoRefsResultType(svc));
+		res.setContentType(infoRefsResultType(svc));
+
+		RefAdvertisementCache.Entry cached = null;
+		long epoch = 0;
+		final OutputStream buf;
+		if (cache != null) {
+			cached = cache.get(getRepository(req), svc);
+			epoch = cache.getEpoch();
+			buf = new ByteArrayOutputStream();
+		} else
+			buf = new SmartOutputStream(req, res, true);
+		if (cached != null) {
+			cached.send(req, res);
+			return;
+		}
 
+		try {
 			final PacketLineOut out = new PacketLineOut(buf);
 			out.writeString("# service=" + svc + "\n");
 			out.end();
 			advertise(req, new PacketLineOutRefAdvertiser(out));
-			buf.close();
+			if (cache != null) {
+				byte[] body = ((ByteArrayOutputStream) buf).toByteArray();
+				cache.put(getRepository(req), svc, epoch, body).send(req, res);
+			} else
+				buf.close();
 		} catch (ServiceNotAuthorizedException e) {
 			res.sendError(SC_UNAUTHORIZED, e.getMessage());
 		} catch (ServiceNotEnabledException e) {
 			sendError(req, res, SC_FORBIDDEN, e.getMessage());
 		} catch (ServiceMayNotContinueException e) {
-			if (e.isOutput())
+			if (e.isOutput()) {
+				if (cache != null)
+					((ByteArrayOutputStream) buf).writeTo(res.getOutputStream());
 				buf.close();
-			else
+			} else
 				sendError(req, res, e.getStatusCode(), e.getMessage());
 		}
 	}
@@ -151,6 +177,17 @@ protected abstract void advertise(HttpServletRequest req,
 			PacketLineOutRefAdvertiser pck) throws IOException,
 			ServiceNotEnabledException, ServiceNotAuthorizedException;
 
+	/**
+	 * Release resources acquired by {@link #begin(HttpServletRequest, Repository)}.
+	 * <p>
+	 * Invoked whether or not the advertisement was produced; it may have been
+	 * served from the cache.
+	 *
+	 * @param req
+	 *            the current request.
+	 */
+	protected abstract void release(HttpServletRequest req);
+
 	private class Chain implements FilterChain {
 		private int filterIdx;
 
@@ -63,6 +63,7 @@
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -88,12 +89,23 @@
 class UploadPackServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
 
+	private final transient Executor asyncExecutor;
+
+	/**
+	 * @param asyncExecutor
+	 *            if not null, requests supporting asynchronous processing are
+	 *            served on this executor; see {@link AsyncPackTransfer}.
+	 */
+	UploadPackServlet(Executor asyncExecutor) {
+		this.asyncExecutor = asyncExecutor;
+	}
+
 	static class InfoRefs extends SmartServiceInfoRefs {
 		private final UploadPackFactory<HttpServletRequest> uploadPackFactory;
 
 		InfoRefs(UploadPackFactory<HttpServletRequest> uploadPackFactory,
-				List<Filter> filters) {
-			super(UPLOAD_PACK, filters);
+				List<Filter> filters, RefAdvertisementCache cache) {
+			super(UPLOAD_PACK, filters, cache);
 			this.uploadPackFactory = uploadPackFactory;
 		}
 
@@ -113,12 +125,15 @@ protected void advertise(HttpServletRequest req,
 				PacketLineOutRefAdvertiser pck) throws IOException,
 				ServiceNotEnabledException, ServiceNotAuthorizedException {
 			UploadPack up = (UploadPack) req.getAttribute(ATTRIBUTE_HANDLER);
-			try {
-				up.setBiDirectionalPipe(false);
-				up.sendAdvertisedRefs(pck);
-			} finally {
+			up.setBiDirectionalPipe(false);
+			up.sendAdvertisedRefs(pck);
+		}
+
+		@Override
+		protected void release(HttpServletRequest req) {
+			UploadPack up = (UploadPack) req.getAttribute(ATTRIBUTE_HANDLER);
+			if (up != null)
 				up.getRevWalk().close();
-			}
 		}
 	}
 
@@ -176,6 +191,22 @@ public void doPost(final HttpServletRequest req,
 			return;
 		}
 
+		final UploadPack up = (UploadPack) req.getAttribute(ATTRIBUTE_HANDLER);
+		if (asyncExecutor != null && req.isAsyncSupported()) {
+			AsyncPackTransfer.start(req, rsp, up.getRepository(),
+					asyncExecutor, new AsyncPackTransfer.Task() {
+						public void run(HttpServletRequest r,
+								HttpServletResponse s) throws IOException {
+							upload(r, s, up);
+						}
+					});
+			return;
+		}
+		upload(req, rsp, up);
+	}
+
+	private void upload(HttpServletRequest req, HttpServletResponse rsp,
+			UploadPack up) throws IOException {
 		SmartOutputStream out = new SmartOutputStream(req, rsp, false) {
 			@Override
 			public void flush() throws IOException {
@@ -183,7 +214,6 @@ public void flush() throws IOException {
 			}
 		};
 
-		UploadPack up = (UploadPack) req.getAttribute(ATTRIBUTE_HANDLER);
 		try {
 			up.setBiDirectionalPipe(false);
 			rsp.setContentType(UPLOAD_PACK_RESULT_TYPE);
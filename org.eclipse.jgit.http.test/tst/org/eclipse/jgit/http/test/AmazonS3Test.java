@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.http.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.junit.http.HttpTestCase;
+import org.eclipse.jgit.junit.http.MockS3Servlet;
+import org.eclipse.jgit.lib.EmptyProgressMonitor;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.AmazonS3;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.IO;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AmazonS3Test extends HttpTestCase {
+	private static final int PART_SIZE = 16 * 1024;
+
+	private MockS3Servlet s3;
+
+	private Properties props;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		s3 = new MockS3Servlet();
+		ServletContextHandler app = server.addContext("/");
+		app.addServlet(new ServletHolder(s3), "/*");
+		server.setUp();
+
+		props = new Properties();
+		props.setProperty("accesskey", "access");
+		props.setProperty("secretkey", "secret");
+		props.setProperty("domain", server.getURI().getAuthority());
+		props.setProperty("s3service.disable-dns-buckets", "true");
+		props.setProperty("upload.max-part-size", String.valueOf(PART_SIZE));
+		props.setProperty("httpclient.max-connections", "3");
+	}
+
+	@Test
+	public void testPutSmallObject() throws Exception {
+		byte[] data = randomBytes(PART_SIZE);
+		AmazonS3 c = new AmazonS3(props);
+		try (OutputStream out = c.beginPut("b", "small", null, null)) {
+			out.write(data);
+		}
+		assertEquals(0, s3.getPartUploads());
+		assertArrayEquals(data, s3.getObject("b", "small"));
+		assertArrayEquals(data, get(c, "b", "small"));
+	}
+
+	@Test
+	public void testPutMultipart() throws Exception {
+		byte[] data = randomBytes(6 * PART_SIZE + 100);
+		AmazonS3 c = new AmazonS3(props);
+		try (OutputStream out = c.beginPut("b", "large", null, null)) {
+			for (int i = 0; i < data.length; i += 1000)
+				out.write(data, i, Math.min(1000, data.length - i));
+		}
+		assertEquals(7, s3.getPartUploads());
+		assertEquals(0, s3.getPendingUploads());
+		assertArrayEquals(data, s3.getObject("b", "large"));
+		assertArrayEquals(data, get(c, "b", "large"));
+	}
+
+	@Test
+	public void testPutMultipartProgress() throws Exception {
+		byte[] data = randomBytes(6 * PART_SIZE + 2048);
+		final int[] kib = new int[1];
+		ProgressMonitor pm = new EmptyProgressMonitor() {
+			@Override
+			public void update(int completed) {
+				kib[0] += completed;
+			}
+		};
+		AmazonS3 c = new AmazonS3(props);
+		try (OutputStream out = c.beginPut("b", "large", pm, "upload")) {
+			out.write(data);
+		}
+		assertEquals(7, s3.getPartUploads());
+		assertEquals(data.length / 1024, kib[0]);
+	}
+
+	@Test
+	public void testPutMultipartEncrypted() throws Exception {
+		props.setProperty("password", "passphrase");
+		byte[] data = randomBytes(3 * PART_SIZE);
+		AmazonS3 c = new AmazonS3(props);
+		try (OutputStream out = c.beginPut("b", "secret", null, null)) {
+			out.write(data);
+		}
+		assertTrue(s3.getPartUploads() > 0);
+		assertFalse(Arrays.equals(data, s3.getObject("b", "secret")));
+		assertArrayEquals(data, get(c, "b", "secret"));
+	}
+
+	@Test
+	public void testPushAndFetch() throws Exception {
+		pushAndFetch();
+	}
+
+	@Test
+	public void testPushAndFetchEncrypted() throws Exception {
+		props.setProperty("password", "passphrase");
+		pushAndFetch();
+	}
+
+	private void pushAndFetch() throws Exception {
+		TestRepository<Repository> src = createTestRepository();
+		RevBlob blob = src.blob(randomBytes(8 * PART_SIZE));
+		RevCommit commit = src.commit().add("large.bin", blob).create();
+		src.update(master, commit);
+
+		URIish uri = new URIish("amazon-s3://s3.properties@bucket/repo.git");
+		try (Transport t = Transport.open(configure(src.getRepository()),
+				uri)) {
+			RemoteRefUpdate u = t.push(NullProgressMonitor.INSTANCE,
+					Collections.singleton(new RemoteRefUpdate(
+							src.getRepository(), master, master, false, null,
+							null)))
+					.getRemoteUpdate(master);
+			assertEquals(RemoteRefUpdate.Status.OK, u.getStatus());
+		}
+		assertTrue(s3.getPartUploads() > 0);
+
+		Repository dst = createBareRepository();
+		try (Transport t = Transport.open(configure(dst), uri)) {
+			t.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singleton(new RefSpec(master + ":" + master)));
+		}
+		assertEquals(commit, dst.exactRef(master).getObjectId());
+		assertTrue(dst.hasObject(blob));
+		assertTrue(s3.getRangeRequests() > 1);
+	}
+
+	private Repository configure(Repository db) throws IOException {
+		File f = new File(db.getDirectory(), "s3.properties");
+		try (OutputStream out = new FileOutputStream(f)) {
+			props.store(out, null);
+		}
+		return db;
+	}
+
+	private static byte[] get(AmazonS3 c, String bucket, String key)
+			throws IOException {
+		try (InputStream in = c.decrypt(c.get(bucket, key))) {
+			ByteBuffer buf = IO.readWholeStream(in, 0);
+			byte[] data = new byte[buf.remaining()];
+			buf.get(data);
+			return data;
+		}
+	}
+
+	private static byte[] randomBytes(int len) {
+		byte[] data = new byte[len];
+		new Random(len).nextBytes(data);
+		return data;
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.http.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.http.server.GitServlet;
+import org.eclipse.jgit.http.server.HttpServerText;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.junit.http.HttpTestCase;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.PacketLineOut;
+import org.eclipse.jgit.transport.PreUploadHook;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.ServiceMayNotContinueException;
+import org.eclipse.jgit.transport.SideBandOutputStream;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.transport.UploadPack;
+import org.eclipse.jgit.transport.resolver.RepositoryResolver;
+import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncSmartServerTest extends HttpTestCase {
+	private ThreadPoolExecutor executor;
+
+	private TestRepository<Repository> src;
+
+	private URIish remoteURI;
+
+	private URIish rejectingURI;
+
+	private RevCommit head;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+
+		src = createTestRepository();
+		final String srcName = src.getRepository().getDirectory().getName();
+		executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
+
+		RepositoryResolver<HttpServletRequest> resolver = new RepositoryResolver<HttpServletRequest>() {
+			public Repository open(HttpServletRequest req, String name)
+					throws RepositoryNotFoundException {
+				if (!name.equals(srcName))
+					throw new RepositoryNotFoundException(name);
+				Repository db = src.getRepository();
+				db.incrementOpen();
+				return db;
+			}
+		};
+
+		ServletContextHandler app = server.addContext("/git");
+		GitServlet gs = new GitServlet();
+		gs.setRepositoryResolver(resolver);
+		gs.setAsyncExecutor(executor);
+		ServletHolder holder = new ServletHolder(gs);
+		holder.setAsyncSupported(true);
+		app.addServlet(holder, "/*");
+
+		// Rejects every fetch after negotiation, on the worker thread.
+		ServletContextHandler rejecting = server.addContext("/rejecting");
+		gs = new GitServlet();
+		gs.setRepositoryResolver(resolver);
+		gs.setUploadPackFactory(new UploadPackFactory<HttpServletRequest>() {
+			public UploadPack create(HttpServletRequest req, Repository db) {
+				UploadPack up = new UploadPack(db);
+				up.setPreUploadHook(new PreUploadHook() {
+					public void onBeginNegotiateRound(UploadPack u,
+							Collection<? extends ObjectId> wants,
+							int cntOffered) {
+						// Accepted.
+					}
+
+					public void onEndNegotiateRound(UploadPack u,
+							Collection<? extends ObjectId> wants,
+							int cntCommon, int cntNotFound, boolean ready) {
+						// Accepted.
+					}
+
+					public void onSendPack(UploadPack u,
+							Collection<? extends ObjectId> wants,
+							Collection<? extends ObjectId> haves)
+							throws ServiceMayNotContinueException {
+						throw new ServiceMayNotContinueException();
+					}
+				});
+				return up;
+			}
+		});
+		gs.setAsyncExecutor(executor);
+		holder = new ServletHolder(gs);
+		holder.setAsyncSupported(true);
+		rejecting.addServlet(holder, "/*");
+		server.setUp();
+
+		remoteURI = toURIish(app, srcName);
+		rejectingURI = toURIish(rejecting, srcName);
+		StoredConfig cfg = src.getRepository().getConfig();
+		cfg.setBoolean("http", null, "receivepack", true);
+		cfg.save();
+
+		// Incompressible content larger than the transfer buffer, so the
+		// worker has to wait for the client to drain it.
+		Random rnd = new Random(42);
+		byte[] data = new byte[1024 * 1024];
+		rnd.nextBytes(data);
+		head = src.branch("master").commit()
+				.add("big", src.blob(data)).create();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+		super.tearDown();
+	}
+
+	@Test
+	public void testFetchAndPush() throws Exception {
+		TestRepository<Repository> dst = createTestRepository();
+		Repository db = dst.getRepository();
+		try (Transport t = Transport.open(db, remoteURI)) {
+			t.fetch(NullProgressMonitor.INSTANCE, Collections.singletonList(
+					new RefSpec("refs/heads/master:refs/heads/master")));
+		}
+		assertEquals(head, db.exactRef("refs/heads/master").getObjectId());
+
+		RevCommit next = dst.branch("master").commit().parent(head)
+				.add("small", "content").create();
+		try (Transport t = Transport.open(db, remoteURI)) {
+			RemoteRefUpdate u = new RemoteRefUpdate(db,
+					next.name(), "refs/heads/pushed", false, null, null);
+			t.push(NullProgressMonitor.INSTANCE, Collections.singleton(u));
+			assertEquals(RemoteRefUpdate.Status.OK, u.getStatus());
+		}
+		assertEquals(next,
+				src.getRepository().exactRef(Constants.R_HEADS + "pushed")
+						.getObjectId());
+
+		// One upload-pack and one receive-pack request ran on the executor.
+		assertEquals(2, executor.getTaskCount());
+	}
+
+	@Test
+	public void testErrorOnWorkerUsesSideBand() throws Exception {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		PacketLineOut pck = new PacketLineOut(body);
+		pck.writeString("want " + head.name() + " side-band-64k\n");
+		pck.end();
+		pck.writeString("done\n");
+
+		URL u = new URL(rejectingURI.toString() + "/git-upload-pack");
+		HttpURLConnection c = (HttpURLConnection) u.openConnection();
+		c.setRequestMethod("POST");
+		c.setRequestProperty("Content-Type",
+				"application/x-git-upload-pack-request");
+		c.setDoOutput(true);
+		try (OutputStream out = c.getOutputStream()) {
+			body.writeTo(out);
+		}
+		assertEquals(200, c.getResponseCode());
+
+		byte[] rsp;
+		try (InputStream in = c.getInputStream()) {
+			ByteBuffer buf = IO.readWholeStream(in, 0);
+			rsp = new byte[buf.remaining()];
+			buf.get(rsp);
+		}
+		// The error is sent on the error channel the client asked for.
+		assertEquals(SideBandOutputStream.CH_ERROR, rsp[4]);
+		String msg = RawParseUtils.decode(rsp, 5, rsp.length);
+		assertTrue(msg, msg.startsWith("error: "
+				+ HttpServerText.get().repositoryAccessForbidden));
+		assertEquals(1, executor.getTaskCount());
+	}
+}
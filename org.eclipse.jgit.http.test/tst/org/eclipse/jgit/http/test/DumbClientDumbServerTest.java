@@ -53,24 +53,48 @@
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
 
 import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jgit.errors.NotSupportedException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.junit.http.AccessEvent;
 import org.eclipse.jgit.junit.http.HttpTestCase;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.transport.FetchConnection;
@@ -81,6 +105,9 @@
 import org.eclipse.jgit.transport.http.HttpConnectionFactory;
 import org.eclipse.jgit.transport.http.JDKHttpConnectionFactory;
 import org.eclipse.jgit.transport.http.apache.HttpClientConnectionFactory;
+import org.eclipse.jgit.transport.http.apache.PooledHttpClientConnectionFactory;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -97,12 +124,18 @@ public class DumbClientDumbServerTest extends HttpTestCase {
 
 	private RevCommit A, B;
 
+	/** Pack whose index is served at once while other indexes are held. */
+	private volatile String unheldPack;
+
+	private volatile CountDownLatch releaseIndexes;
+
 	@Parameters
 	public static Collection<Object[]> data() {
-		// run all tests with both connection factories we have
+		// run all tests with all connection factories we have
 		return Arrays.asList(new Object[][] {
 				{ new JDKHttpConnectionFactory() },
-				{ new HttpClientConnectionFactory() } });
+				{ new HttpClientConnectionFactory() },
+				{ new PooledHttpClientConnectionFactory(4, 8) } });
 	}
 
 	public DumbClientDumbServerTest(HttpConnectionFactory cf) {
@@ -119,6 +152,31 @@ public void setUp() throws Exception {
 
 		ServletContextHandler app = server.addContext("/git");
 		app.setResourceBase(base.toString());
+		app.addFilter(new FilterHolder(new Filter() {
+			public void doFilter(ServletRequest request,
+					ServletResponse response, FilterChain chain)
+					throws IOException, ServletException {
+				String uri = ((HttpServletRequest) request).getRequestURI();
+				String pack = unheldPack;
+				if (pack != null && uri.endsWith(".idx")
+						&& !uri.contains(pack)) {
+					try {
+						releaseIndexes.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+				}
+				chain.doFilter(request, response);
+			}
+
+			public void init(FilterConfig filterConfig) throws ServletException {
+				//
+			}
+
+			public void destroy() {
+				//
+			}
+		}), "/*", EnumSet.of(DispatcherType.REQUEST));
 		ServletHolder holder = app.addServlet(DefaultServlet.class, "/");
 		// The tmp directory is symlinked on OS X
 		holder.setInitParameter("aliases", "true");
@@ -247,6 +305,123 @@ public void testInitialClone_Packed() throws Exception {
 		assertEquals(200, event.getStatus());
 	}
 
+	@Test
+	public void testInitialClone_LooseConcurrent() throws Exception {
+		TestRepository<Repository> src = new TestRepository<Repository>(
+				remoteRepository);
+		List<RevCommit> history = new ArrayList<RevCommit>();
+		RevCommit tip = B;
+		for (int i = 0; i < 40; i++) {
+			tip = src.commit().parent(tip).add("F" + i, "content " + i)
+					.create();
+			history.add(tip);
+		}
+		src.update(master, tip);
+
+		Repository dst = createBareRepository();
+		StoredConfig cfg = dst.getConfig();
+		cfg.setInt("http", null, "maxRequests", 8);
+		cfg.save();
+
+		RecordingMonitor pm = new RecordingMonitor();
+		try (Transport t = Transport.open(dst, remoteURI)) {
+			t.fetch(pm, mirror(master));
+		}
+
+		assertEquals(tip, dst.exactRef(master).getObjectId());
+		fsck(dst, tip);
+		for (RevCommit c : history)
+			assertEquals(1, getRequests(loose(remoteURI, c)).size());
+		assertEquals(Arrays.asList(JGitText.get().downloadingObjects,
+				JGitText.get().downloadingObjectsRate,
+				JGitText.get().updatingReferences), pm.tasks);
+	}
+
+	@Test
+	public void testInitialClone_PackedProgress() throws Exception {
+		new TestRepository<Repository>(remoteRepository).packAndPrune();
+
+		Repository dst = createBareRepository();
+		RecordingMonitor pm = new RecordingMonitor();
+		try (Transport t = Transport.open(dst, remoteURI)) {
+			t.fetch(pm, mirror(master));
+		}
+
+		assertEquals(B, dst.exactRef(master).getObjectId());
+		fsck(dst, B);
+		assertEquals(Arrays.asList(JGitText.get().listingPacks,
+				JGitText.get().receivingObjects,
+				JGitText.get().downloadingObjects,
+				JGitText.get().downloadingObjectsRate,
+				JGitText.get().updatingReferences), pm.tasks);
+	}
+
+	@Test
+	public void testCloseWithIndexPrefetchPending() throws Exception {
+		TestRepository<Repository> src = new TestRepository<Repository>(
+				remoteRepository);
+		src.packAndPrune();
+		for (int i = 0; i < 2; i++)
+			writePack(B, src.commit().add("S", "side " + i).create());
+		src.updateServerInfo();
+		File info = new File(remoteRepository.getDirectory(),
+				"objects/info/packs");
+		String first = RawParseUtils.decode(IO.readFully(info)).split("\n")[0];
+		unheldPack = first.substring(first.indexOf("pack-"),
+				first.length() - ".pack".length());
+		releaseIndexes = new CountDownLatch(1);
+
+		Repository dst = createBareRepository();
+		try (Transport t = Transport.open(dst, remoteURI)) {
+			t.fetch(NullProgressMonitor.INSTANCE, mirror(master));
+		} finally {
+			releaseIndexes.countDown();
+		}
+		assertEquals(B, dst.exactRef(master).getObjectId());
+
+		// getRequests() waits for the held index downloads to be served.
+		int indexes = 0;
+		for (AccessEvent e : getRequests())
+			if (e.getPath().endsWith(".idx"))
+				indexes++;
+		assertEquals(3, indexes);
+		File objects = new File(dst.getDirectory(), "objects");
+		long deadline = System.currentTimeMillis() + 10000;
+		while (walkIndexes(objects).length > 0
+				&& System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertEquals(0, walkIndexes(objects).length);
+	}
+
+	private void writePack(ObjectId... want) throws IOException {
+		NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+		ObjectDirectory odb = (ObjectDirectory) remoteRepository
+				.getObjectDatabase();
+		try (PackWriter pw = new PackWriter(remoteRepository)) {
+			pw.preparePack(m, new HashSet<ObjectId>(Arrays.asList(want)),
+					PackWriter.NONE);
+			File dir = new File(odb.getDirectory(), "pack");
+			String name = "pack-" + pw.computeName().name();
+			File pack = new File(dir, name + ".pack");
+			try (OutputStream out = new FileOutputStream(pack)) {
+				pw.writePack(m, m, out);
+			}
+			try (OutputStream out = new FileOutputStream(
+					new File(dir, name + ".idx"))) {
+				pw.writeIndex(out);
+			}
+			odb.openPack(pack);
+		}
+	}
+
+	private static File[] walkIndexes(File objects) {
+		return objects.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".walkidx");
+			}
+		});
+	}
+
 	@Test
 	public void testPushNotSupported() throws Exception {
 		final TestRepository src = createTestRepository();
@@ -263,4 +438,33 @@ public void testPushNotSupported() throws Exception {
 			}
 		}
 	}
+
+	/** Records the tasks begun, failing if one is begun inside another. */
+	private static class RecordingMonitor implements ProgressMonitor {
+		final List<String> tasks = new ArrayList<String>();
+
+		private boolean inTask;
+
+		public void start(int totalTasks) {
+			// Not recorded.
+		}
+
+		public void beginTask(String title, int totalWork) {
+			assertFalse("task begun inside another: " + title, inTask);
+			tasks.add(title);
+			inTask = true;
+		}
+
+		public void update(int completed) {
+			assertTrue("update outside of a task", inTask);
+		}
+
+		public void endTask() {
+			inTask = false;
+		}
+
+		public boolean isCancelled() {
+			return false;
+		}
+	}
 }
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.http.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.http.server.GitServlet;
+import org.eclipse.jgit.http.server.RefAdvertisementCache;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.junit.http.HttpTestCase;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.resolver.RepositoryResolver;
+import org.eclipse.jgit.util.HttpSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RefAdvertisementCacheTest extends HttpTestCase {
+	private TestRepository<Repository> src;
+
+	private RefAdvertisementCache cache;
+
+	private URL infoRefs;
+
+	private URL receivePackInfoRefs;
+
+	private URL dfsInfoRefs;
+
+	/** Instances of the same DFS repository, one opened per request. */
+	private final Deque<Repository> dfsInstances = new ArrayDeque<Repository>();
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+
+		src = createTestRepository();
+		final String srcName = src.getRepository().getDirectory().getName();
+		cache = new RefAdvertisementCache(1024 * 1024, 1, TimeUnit.HOURS);
+
+		ServletContextHandler app = server.addContext("/git");
+		GitServlet gs = new GitServlet();
+		gs.setRepositoryResolver(new RepositoryResolver<HttpServletRequest>() {
+			public Repository open(HttpServletRequest req, String name)
+					throws RepositoryNotFoundException {
+				if (!name.equals(srcName))
+					throw new RepositoryNotFoundException(name);
+				Repository db = src.getRepository();
+				db.incrementOpen();
+				return db;
+			}
+		});
+		gs.setRefAdvertisementCache(cache);
+		app.addServlet(new ServletHolder(gs), "/*");
+
+		ServletContextHandler dfs = server.addContext("/dfs");
+		gs = new GitServlet();
+		gs.setRepositoryResolver(new RepositoryResolver<HttpServletRequest>() {
+			public Repository open(HttpServletRequest req, String name)
+					throws RepositoryNotFoundException {
+				synchronized (dfsInstances) {
+					if (!name.equals("repo") || dfsInstances.isEmpty())
+						throw new RepositoryNotFoundException(name);
+					return dfsInstances.removeFirst();
+				}
+			}
+		});
+		gs.setRefAdvertisementCache(cache);
+		dfs.addServlet(new ServletHolder(gs), "/*");
+		server.setUp();
+
+		infoRefs = new URL(toURIish(app, srcName).toString()
+				+ "/info/refs?service=git-upload-pack");
+		receivePackInfoRefs = new URL(toURIish(app, srcName).toString()
+				+ "/info/refs?service=git-receive-pack");
+		dfsInfoRefs = new URL(toURIish(dfs, "repo").toString()
+				+ "/info/refs?service=git-upload-pack");
+		StoredConfig cfg = src.getRepository().getConfig();
+		cfg.setBoolean("http", null, "receivepack", true);
+		cfg.save();
+		src.branch("master").commit().create();
+		// Rescan the references now, as the first scan after an update
+		// reports a change and would keep the first response uncached.
+		src.getRepository().getRefDatabase().getRefs(RefDatabase.ALL);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		cache.close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testCachedAdvertisement() throws Exception {
+		HttpURLConnection c = open(null);
+		assertEquals(200, c.getResponseCode());
+		String etag = c.getHeaderField(HttpSupport.HDR_ETAG);
+		assertNotNull(etag);
+		byte[] first = read(c);
+		assertEquals(0, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		c = open(null);
+		assertEquals(200, c.getResponseCode());
+		assertEquals(etag, c.getHeaderField(HttpSupport.HDR_ETAG));
+		assertEquals(new String(first, "UTF-8"), new String(read(c), "UTF-8"));
+		assertEquals(1, cache.getHitCount());
+
+		c = open(etag);
+		assertEquals(304, c.getResponseCode());
+		assertEquals(2, cache.getHitCount());
+	}
+
+	@Test
+	public void testInvalidatedByRefUpdate() throws Exception {
+		HttpURLConnection c = open(null);
+		assertEquals(200, c.getResponseCode());
+		String etag = c.getHeaderField(HttpSupport.HDR_ETAG);
+		read(c);
+
+		src.branch("side").commit().create();
+
+		c = open(etag);
+		assertEquals(200, c.getResponseCode());
+		assertFalse(etag.equals(c.getHeaderField(HttpSupport.HDR_ETAG)));
+		read(c);
+		assertEquals(0, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void testReceivePackNotCached() throws Exception {
+		for (int i = 0; i < 2; i++) {
+			HttpURLConnection c = (HttpURLConnection) receivePackInfoRefs
+					.openConnection();
+			assertEquals(200, c.getResponseCode());
+			assertNull(c.getHeaderField(HttpSupport.HDR_ETAG));
+			read(c);
+		}
+		assertEquals(0, cache.getHitCount());
+		assertEquals(0, cache.getMissCount());
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testDfsRepositoryCachedByName() throws Exception {
+		for (int i = 0; i < 2; i++) {
+			InMemoryRepository db = new InMemoryRepository(
+					new DfsRepositoryDescription("repo"));
+			new TestRepository<InMemoryRepository>(db).branch("master")
+					.commit().create();
+			db.getRefDatabase().getRefs(RefDatabase.ALL);
+			dfsInstances.add(db);
+		}
+
+		HttpURLConnection c = (HttpURLConnection) dfsInfoRefs.openConnection();
+		assertEquals(200, c.getResponseCode());
+		String etag = c.getHeaderField(HttpSupport.HDR_ETAG);
+		read(c);
+		assertEquals(1, cache.getMissCount());
+
+		c = (HttpURLConnection) dfsInfoRefs.openConnection();
+		assertEquals(200, c.getResponseCode());
+		assertEquals(etag, c.getHeaderField(HttpSupport.HDR_ETAG));
+		read(c);
+		assertEquals(1, cache.getHitCount());
+		assertTrue(dfsInstances.isEmpty());
+	}
+
+	private HttpURLConnection open(String ifNoneMatch) throws IOException {
+		HttpURLConnection c = (HttpURLConnection) infoRefs.openConnection();
+		if (ifNoneMatch != null)
+			c.setRequestProperty(HttpSupport.HDR_IF_NONE_MATCH, ifNoneMatch);
+		return c;
+	}
+
+	private static byte[] read(HttpURLConnection c) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try (InputStream in = c.getInputStream()) {
+			byte[] tmp = new byte[4096];
+			int n;
+			while ((n = in.read(tmp)) > 0)
+				buf.write(tmp, 0, n);
+		}
+		return buf.toByteArray();
+	}
+}
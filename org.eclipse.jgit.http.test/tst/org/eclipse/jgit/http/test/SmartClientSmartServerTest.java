@@ -88,6 +88,7 @@
 import org.eclipse.jgit.junit.http.AccessEvent;
 import org.eclipse.jgit.junit.http.AppServer;
 import org.eclipse.jgit.junit.http.HttpTestCase;
+import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.NullProgressMonitor;
@@ -101,8 +102,10 @@
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.FetchConnection;
 import org.eclipse.jgit.transport.HttpTransport;
+import org.eclipse.jgit.transport.ReceiveCommand;
 import org.eclipse.jgit.transport.RemoteRefUpdate;
 import org.eclipse.jgit.transport.Transport;
 import org.eclipse.jgit.transport.TransportHttp;
@@ -110,6 +113,7 @@
 import org.eclipse.jgit.transport.http.HttpConnectionFactory;
 import org.eclipse.jgit.transport.http.JDKHttpConnectionFactory;
 import org.eclipse.jgit.transport.http.apache.HttpClientConnectionFactory;
+import org.eclipse.jgit.transport.http.apache.PooledHttpClientConnectionFactory;
 import org.eclipse.jgit.transport.resolver.RepositoryResolver;
 import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
 import org.junit.Before;
@@ -134,10 +138,11 @@ public class SmartClientSmartServerTest extends HttpTestCase {
 
 	@Parameters
 	public static Collection<Object[]> data() {
-		// run all tests with both connection factories we have
+		// run all tests with all connection factories we have
 		return Arrays.asList(new Object[][] {
 				{ new JDKHttpConnectionFactory() },
-				{ new HttpClientConnectionFactory() } });
+				{ new HttpClientConnectionFactory() },
+				{ new PooledHttpClientConnectionFactory(4, 8) } });
 	}
 
 	public SmartClientSmartServerTest(HttpConnectionFactory cf) {
@@ -244,6 +249,33 @@ public void testListRemote() throws IOException {
 		assertEquals("gzip", info.getResponseHeader(HDR_CONTENT_ENCODING));
 	}
 
+	@Test
+	public void testListRemote_LargeAdvertisement() throws Exception {
+		// Larger than the response buffer, so the advertisement is
+		// compressed while it is streamed.
+		BatchRefUpdate batch = remoteRepository.getRefDatabase()
+				.newBatchUpdate();
+		for (int i = 0; i < 1000; i++)
+			batch.addCommand(new ReceiveCommand(ObjectId.zeroId(), B,
+					String.format("refs/tags/streamed/%04d", i)));
+		try (RevWalk rw = new RevWalk(remoteRepository)) {
+			batch.execute(rw, NullProgressMonitor.INSTANCE);
+		}
+
+		Repository dst = createBareRepository();
+		Map<String, Ref> map;
+		try (Transport t = Transport.open(dst, remoteURI);
+				FetchConnection c = t.openFetch()) {
+			map = c.getRefsMap();
+		}
+		assertEquals(1003, map.size());
+		assertEquals(B, map.get("refs/tags/streamed/0999").getObjectId());
+
+		AccessEvent info = getRequests().get(0);
+		assertEquals(200, info.getStatus());
+		assertEquals("gzip", info.getResponseHeader(HDR_CONTENT_ENCODING));
+	}
+
 	@Test
 	public void testListRemote_BadName() throws IOException, URISyntaxException {
 		Repository dst = createBareRepository();
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.junit.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * In-memory stand-in for an Amazon S3 compatible storage service.
+ * <p>
+ * Buckets are addressed by the first segment of the path below the servlet,
+ * and are created on first use. Objects can be read in whole or by range,
+ * written with a single PUT or a multipart upload, listed and deleted.
+ * Request signatures are not verified.
+ *
+ * @since 4.7
+ */
+@SuppressWarnings("serial")
+public class MockS3Servlet extends HttpServlet {
+	private static final Pattern PART = Pattern.compile(
+			"<PartNumber>(\\d+)</PartNumber>\\s*<ETag>([^<]*)</ETag>");
+
+	private static final Pattern RANGE = Pattern
+			.compile("bytes=(\\d+)-(\\d*)");
+
+	/** Content of stored objects, by "bucket/key". */
+	private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+
+	/** User metadata (x-amz-meta-*) of stored objects, by "bucket/key". */
+	private final Map<String, Map<String, String>> metadata = new ConcurrentHashMap<>();
+
+	/** Parts of multipart uploads in progress, by upload id. */
+	private final Map<String, SortedMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+
+	/** User metadata of multipart uploads in progress, by upload id. */
+	private final Map<String, Map<String, String>> uploadMetadata = new ConcurrentHashMap<>();
+
+	private final AtomicInteger nextUploadId = new AtomicInteger();
+
+	private final AtomicInteger rangeRequests = new AtomicInteger();
+
+	private final AtomicInteger partUploads = new AtomicInteger();
+
+	/**
+	 * @param bucket
+	 *            name of the bucket.
+	 * @param key
+	 *            key of the object within the bucket.
+	 * @return content of the object; null if it does not exist.
+	 */
+	public byte[] getObject(String bucket, String key) {
+		return objects.get(bucket + '/' + key);
+	}
+
+	/** @return number of GET requests which asked for a range. */
+	public int getRangeRequests() {
+		return rangeRequests.get();
+	}
+
+	/** @return number of parts uploaded to multipart uploads. */
+	public int getPartUploads() {
+		return partUploads.get();
+	}
+
+	/** @return number of multipart uploads neither completed nor aborted. */
+	public int getPendingUploads() {
+		return uploads.size();
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse rsp)
+			throws ServletException, IOException {
+		String path = path(req);
+		int slash = path.indexOf('/');
+		if (slash < 0 || slash == path.length() - 1) {
+			String bucket = slash < 0 ? path : path.substring(0, slash);
+			list(bucket, query(req), rsp);
+			return;
+		}
+
+		byte[] data = objects.get(path);
+		if (data == null) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		String etag = etag(data);
+		String ifMatch = req.getHeader("If-Match");
+		if (ifMatch != null && !ifMatch.equals(etag)) {
+			rsp.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+			return;
+		}
+		rsp.setHeader("ETag", etag);
+		Map<String, String> meta = metadata.get(path);
+		if (meta != null) {
+			for (Map.Entry<String, String> e : meta.entrySet())
+				rsp.setHeader(e.getKey(), e.getValue());
+		}
+
+		String range = req.getHeader("Range");
+		int start = 0;
+		int end = data.length - 1;
+		if (range != null) {
+			rangeRequests.incrementAndGet();
+			Matcher m = RANGE.matcher(range);
+			if (!m.matches()) {
+				rsp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+				return;
+			}
+			start = Integer.parseInt(m.group(1));
+			if (!m.group(2).isEmpty())
+				end = (int) Math.min(end, Long.parseLong(m.group(2)));
+			if (start >= data.length) {
+				rsp.setHeader("Content-Range", "bytes */" + data.length);
+				rsp.sendError(
+						HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			rsp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			rsp.setHeader("Content-Range",
+					"bytes " + start + "-" + end + "/" + data.length);
+		}
+		rsp.setContentType("application/octet-stream");
+		rsp.setContentLength(end - start + 1);
+		rsp.getOutputStream().write(data, start, end - start + 1);
+	}
+
+	@Override
+	protected void doPut(HttpServletRequest req, HttpServletResponse rsp)
+			throws ServletException, IOException {
+		byte[] data = read(req);
+		String md5 = req.getHeader("Content-MD5");
+		if (md5 != null && !md5.equals(
+				Base64.getEncoder().encodeToString(digest("MD5", data)))) {
+			rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "BadDigest");
+			return;
+		}
+
+		Map<String, String> query = query(req);
+		String uploadId = query.get("uploadId");
+		if (uploadId != null) {
+			SortedMap<Integer, byte[]> parts = uploads.get(uploadId);
+			if (parts == null) {
+				rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+				return;
+			}
+			parts.put(Integer.valueOf(query.get("partNumber")), data);
+			partUploads.incrementAndGet();
+		} else
+			store(path(req), data, metadata(req));
+		rsp.setHeader("ETag", etag(data));
+		rsp.setStatus(HttpServletResponse.SC_OK);
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse rsp)
+			throws ServletException, IOException {
+		Map<String, String> query = query(req);
+		String path = path(req);
+		if (query.containsKey("uploads")) {
+			String uploadId = "upload-" + nextUploadId.incrementAndGet();
+			uploads.put(uploadId, new ConcurrentSkipListMap<Integer, byte[]>());
+			uploadMetadata.put(uploadId, metadata(req));
+			sendXml(rsp, "<InitiateMultipartUploadResult><Key>"
+					+ escape(path) + "</Key><UploadId>" + uploadId
+					+ "</UploadId></InitiateMultipartUploadResult>");
+			return;
+		}
+
+		String uploadId = query.get("uploadId");
+		SortedMap<Integer, byte[]> parts = uploadId != null
+				? uploads.get(uploadId) : null;
+		if (parts == null) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		Matcher m = PART.matcher(new String(read(req), UTF_8));
+		int expected = 1;
+		while (m.find()) {
+			byte[] part = parts.get(Integer.valueOf(m.group(1)));
+			if (Integer.parseInt(m.group(1)) != expected++ || part == null
+					|| !etag(part).equals(m.group(2))) {
+				rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "InvalidPart");
+				return;
+			}
+			content.write(part);
+		}
+		uploads.remove(uploadId);
+		store(path, content.toByteArray(), uploadMetadata.remove(uploadId));
+		sendXml(rsp, "<CompleteMultipartUploadResult><ETag>"
+				+ escape(etag(content.toByteArray()))
+				+ "</ETag></CompleteMultipartUploadResult>");
+	}
+
+	@Override
+	protected void doDelete(HttpServletRequest req, HttpServletResponse rsp)
+			throws ServletException, IOException {
+		String uploadId = query(req).get("uploadId");
+		if (uploadId != null) {
+			uploadMetadata.remove(uploadId);
+			if (uploads.remove(uploadId) == null) {
+				rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+				return;
+			}
+		} else {
+			objects.remove(path(req));
+			metadata.remove(path(req));
+		}
+		rsp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+	}
+
+	private void list(String bucket, Map<String, String> query,
+			HttpServletResponse rsp) throws IOException {
+		String prefix = bucket + '/';
+		String keyPrefix = query.containsKey("prefix") ? query.get("prefix")
+				: "";
+		String marker = query.get("marker");
+		StringBuilder xml = new StringBuilder();
+		xml.append("<ListBucketResult><IsTruncated>false</IsTruncated>");
+		for (String name : new TreeMap<>(objects).keySet()) {
+			if (!name.startsWith(prefix))
+				continue;
+			String key = name.substring(prefix.length());
+			if (key.startsWith(keyPrefix)
+					&& (marker == null || key.compareTo(marker) > 0))
+				xml.append("<Contents><Key>").append(escape(key))
+						.append("</Key></Contents>");
+		}
+		xml.append("</ListBucketResult>");
+		sendXml(rsp, xml.toString());
+	}
+
+	private void store(String path, byte[] data, Map<String, String> meta) {
+		if (meta != null)
+			metadata.put(path, meta);
+		else
+			metadata.remove(path);
+		objects.put(path, data);
+	}
+
+	private static Map<String, String> metadata(HttpServletRequest req) {
+		Map<String, String> meta = new HashMap<>();
+		for (String name : Collections.list(req.getHeaderNames())) {
+			if (name.toLowerCase(Locale.ROOT).startsWith("x-amz-meta-"))
+				meta.put(name, req.getHeader(name));
+		}
+		return meta;
+	}
+
+	private static String path(HttpServletRequest req) {
+		String path = req.getPathInfo();
+		return path.startsWith("/") ? path.substring(1) : path;
+	}
+
+	private static Map<String, String> query(HttpServletRequest req)
+			throws IOException {
+		Map<String, String> query = new HashMap<>();
+		String q = req.getQueryString();
+		if (q == null)
+			return query;
+		for (String p : q.split("&")) {
+			int eq = p.indexOf('=');
+			if (eq < 0)
+				query.put(decode(p), "");
+			else
+				query.put(decode(p.substring(0, eq)),
+						decode(p.substring(eq + 1)));
+		}
+		return query;
+	}
+
+	private static String decode(String s) throws IOException {
+		return URLDecoder.decode(s, UTF_8.name());
+	}
+
+	private static byte[] read(HttpServletRequest req) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = req.getInputStream()) {
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private static void sendXml(HttpServletResponse rsp, String xml)
+			throws IOException {
+		byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml)
+				.getBytes(UTF_8);
+		rsp.setStatus(HttpServletResponse.SC_OK);
+		rsp.setContentType("application/xml");
+		rsp.setContentLength(body.length);
+		rsp.getOutputStream().write(body);
+	}
+
+	private static String escape(String s) {
+		return s.replace("&", "&amp;").replace("<", "&lt;")
+				.replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	private static String etag(byte[] data) {
+		StringBuilder s = new StringBuilder("\"");
+		for (byte b : digest("MD5", data))
+			s.append(String.format("%02x", Integer.valueOf(b & 0xff)));
+		return s.append('"').toString();
+	}
+
+	private static byte[] digest(String algorithm, byte[] data) {
+		try {
+			return MessageDigest.getInstance(algorithm).digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
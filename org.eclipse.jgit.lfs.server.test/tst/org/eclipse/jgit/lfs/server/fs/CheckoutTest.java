@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.lfs.server.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.http.AppServer;
+import org.eclipse.jgit.lfs.Lfs;
+import org.eclipse.jgit.lfs.LfsBatchDownloader;
+import org.eclipse.jgit.lfs.LfsPointer;
+import org.eclipse.jgit.lfs.SmudgeFilter;
+import org.eclipse.jgit.lfs.errors.LfsException;
+import org.eclipse.jgit.lfs.lib.AnyLongObjectId;
+import org.eclipse.jgit.lfs.lib.Constants;
+import org.eclipse.jgit.lfs.server.LargeFileRepository;
+import org.eclipse.jgit.lfs.server.LfsProtocolServlet;
+import org.eclipse.jgit.lfs.test.LongObjectIdTestUtils;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckoutTest extends LocalDiskRepositoryTestCase {
+
+	private AppServer server;
+
+	private Path dir;
+
+	private Repository db;
+
+	private Git git;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		SmudgeFilter.register();
+
+		server = new AppServer();
+		ServletContextHandler app = server.addContext("/lfs");
+		dir = createTempDirectory("lfs").toPath();
+		FileLfsRepository repository = new FileLfsRepository(null, dir);
+		app.addServlet(new ServletHolder(new LfsProtocolServlet() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected LargeFileRepository getLargeFileRepository(
+					LfsRequest request, String path) throws LfsException {
+				try {
+					return new FileLfsRepository(
+							server.getURI() + "/lfs/objects/", dir);
+				} catch (IOException e) {
+					throw new LfsException(e.getMessage());
+				}
+			}
+		}), "/objects/batch");
+		app.addServlet(
+				new ServletHolder(new FileLfsServlet(repository, 10 * 1000)),
+				"/objects/*");
+		ServletContextHandler broken = server.addContext("/broken");
+		broken.addServlet(new ServletHolder(new HttpServlet() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void doPost(HttpServletRequest req,
+					HttpServletResponse rsp) throws IOException {
+				rsp.setContentType(Constants.CONTENT_TYPE_GIT_LFS_JSON);
+				rsp.getWriter().write("{}");
+			}
+		}), "/objects/batch");
+		server.setUp();
+
+		db = createWorkRepository();
+		git = new Git(db);
+		StoredConfig cfg = db.getConfig();
+		cfg.setString("filter", "lfs", "smudge",
+				org.eclipse.jgit.lib.Constants.BUILTIN_FILTER_PREFIX
+						+ "lfs/smudge");
+		cfg.setString(Constants.LFS, null, "url", server.getURI() + "/lfs");
+		cfg.save();
+		write(new File(db.getWorkTree(), ".gitattributes"),
+				"*.bin filter=lfs\n");
+		git.add().addFilepattern(".gitattributes").call();
+		git.commit().setMessage("attributes").call();
+		git.branchCreate().setName("side").call();
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		server.tearDown();
+		super.tearDown();
+	}
+
+	@Test
+	public void testDownloadOnCheckout() throws Exception {
+		AnyLongObjectId a = addObject("a.bin", "alpha", true);
+		AnyLongObjectId b = addObject("b.bin", "beta", true);
+		git.commit().setMessage("pointers").call();
+
+		git.checkout().setName("side").call();
+		assertFalse(new File(db.getWorkTree(), "a.bin").exists());
+		git.checkout().setName("master").call();
+
+		assertEquals("alpha", read(new File(db.getWorkTree(), "a.bin")));
+		assertEquals("beta", read(new File(db.getWorkTree(), "b.bin")));
+		Lfs lfs = new Lfs(db.getDirectory().toPath().resolve(Constants.LFS));
+		assertTrue(Files.exists(lfs.getMediaFile(a)));
+		assertTrue(Files.exists(lfs.getMediaFile(b)));
+	}
+
+	@Test
+	public void testMissingObjectDoesNotFailCheckout() throws Exception {
+		addObject("a.bin", "alpha", false);
+		git.commit().setMessage("pointer").call();
+
+		git.checkout().setName("side").call();
+		git.checkout().setName("master").call();
+
+		// the server does not have the object, so it is not downloaded
+		Lfs lfs = new Lfs(db.getDirectory().toPath().resolve(Constants.LFS));
+		assertFalse(Files.exists(lfs.getMediaFile(
+				LongObjectIdTestUtils.hash("alpha"))));
+		assertTrue(new File(db.getWorkTree(), "a.bin").exists());
+		assertEquals("refs/heads/master", db.getFullBranch());
+		assertNotNull(db.readDirCache().getEntry("a.bin"));
+	}
+
+	@Test
+	public void testMissingObjectDoesNotStopOtherDownloads()
+			throws Exception {
+		addObject("a.bin", "alpha", false);
+		AnyLongObjectId b = addObject("b.bin", "beta", true);
+		git.commit().setMessage("pointers").call();
+
+		git.checkout().setName("side").call();
+		git.checkout().setName("master").call();
+
+		Lfs lfs = new Lfs(db.getDirectory().toPath().resolve(Constants.LFS));
+		assertFalse(Files.exists(lfs.getMediaFile(
+				LongObjectIdTestUtils.hash("alpha"))));
+		assertTrue(Files.exists(lfs.getMediaFile(b)));
+		assertEquals("beta", read(new File(db.getWorkTree(), "b.bin")));
+		assertTrue(new File(db.getWorkTree(), "a.bin").exists());
+	}
+
+	@Test
+	public void testDownloaderReportsFailuresAfterOthers() throws Exception {
+		LfsPointer missing = new LfsPointer(
+				LongObjectIdTestUtils.hash("alpha"), 5);
+		AnyLongObjectId b = addObject("b.bin", "beta", true);
+		AnyLongObjectId c = addObject("c.bin", "gamma", true);
+		LfsBatchDownloader downloader = new LfsBatchDownloader(db);
+		downloader.setConcurrentTransfers(2);
+		try {
+			downloader.download(Arrays.asList(missing,
+					new LfsPointer(b, 4), new LfsPointer(c, 5)));
+			fail("expected IOException");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains(missing.getOid().name()));
+		}
+
+		Lfs lfs = new Lfs(db.getDirectory().toPath().resolve(Constants.LFS));
+		assertFalse(Files.exists(lfs.getMediaFile(missing.getOid())));
+		assertTrue(Files.exists(lfs.getMediaFile(b)));
+		assertTrue(Files.exists(lfs.getMediaFile(c)));
+	}
+
+	@Test
+	public void testInvalidBatchResponseDoesNotFailCheckout()
+			throws Exception {
+		addObject("a.bin", "alpha", true);
+		git.commit().setMessage("pointer").call();
+		StoredConfig cfg = db.getConfig();
+		cfg.setString(Constants.LFS, null, "url",
+				server.getURI() + "/broken");
+		cfg.save();
+
+		git.checkout().setName("side").call();
+		git.checkout().setName("master").call();
+
+		Lfs lfs = new Lfs(db.getDirectory().toPath().resolve(Constants.LFS));
+		assertFalse(Files.exists(lfs.getMediaFile(
+				LongObjectIdTestUtils.hash("alpha"))));
+		assertTrue(new File(db.getWorkTree(), "a.bin").exists());
+		assertEquals("refs/heads/master", db.getFullBranch());
+	}
+
+	private AnyLongObjectId addObject(String path, String content,
+			boolean onServer) throws Exception {
+		AnyLongObjectId id = LongObjectIdTestUtils.hash(content);
+		if (onServer) {
+			Path p = new FileLfsRepository(null, dir).getPath(id);
+			Files.createDirectories(p.getParent());
+			Files.write(p, content.getBytes(UTF_8));
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new LfsPointer(id, content.length()).encode(out);
+		write(new File(db.getWorkTree(), path), out.toString("UTF-8"));
+		git.add().addFilepattern(path).call();
+		return id;
+	}
+}
@@ -43,16 +43,29 @@
 package org.eclipse.jgit.lfs.server.fs;
 
 import static org.apache.http.HttpStatus.SC_NOT_FOUND;
+import static org.apache.http.HttpStatus.SC_OK;
+import static org.apache.http.HttpStatus.SC_PARTIAL_CONTENT;
+import static org.apache.http.HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
 import static org.apache.http.HttpStatus.SC_UNPROCESSABLE_ENTITY;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.MessageFormat;
 
+import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 import org.eclipse.jgit.lfs.lib.AnyLongObjectId;
 import org.eclipse.jgit.lfs.test.LongObjectIdTestUtils;
 import org.eclipse.jgit.util.FileUtils;
@@ -136,6 +149,105 @@ public void testLargeFileDownload() throws Exception {
 
 	}
 
+	@Test
+	public void testDownloadRange() throws Exception {
+		AnyLongObjectId id = putContent("0123456789");
+		HttpResponse r = get(id, "bytes=2-5");
+		assertEquals(SC_PARTIAL_CONTENT, r.getStatusLine().getStatusCode());
+		assertEquals("bytes 2-5/10",
+				r.getFirstHeader("Content-Range").getValue());
+		assertEquals("2345", EntityUtils.toString(r.getEntity()));
+
+		r = get(id, "bytes=7-");
+		assertEquals(SC_PARTIAL_CONTENT, r.getStatusLine().getStatusCode());
+		assertEquals("789", EntityUtils.toString(r.getEntity()));
+
+		r = get(id, "bytes=-4");
+		assertEquals(SC_PARTIAL_CONTENT, r.getStatusLine().getStatusCode());
+		assertEquals("bytes 6-9/10",
+				r.getFirstHeader("Content-Range").getValue());
+		assertEquals("6789", EntityUtils.toString(r.getEntity()));
+
+		r = get(id, "bytes=8-100");
+		assertEquals(SC_PARTIAL_CONTENT, r.getStatusLine().getStatusCode());
+		assertEquals("89", EntityUtils.toString(r.getEntity()));
+	}
+
+	@Test
+	public void testDownloadIgnoresUnsupportedRange() throws Exception {
+		AnyLongObjectId id = putContent("0123456789");
+		HttpResponse r = get(id, "bytes=0-1,4-5");
+		assertEquals(SC_OK, r.getStatusLine().getStatusCode());
+		assertNull(r.getFirstHeader("Content-Range"));
+		assertEquals("bytes", r.getFirstHeader("Accept-Ranges").getValue());
+		assertEquals("0123456789", EntityUtils.toString(r.getEntity()));
+	}
+
+	@Test
+	public void testDownloadRangeNotSatisfiable() throws Exception {
+		AnyLongObjectId id = putContent("0123456789");
+		HttpResponse r = get(id, "bytes=10-");
+		assertEquals(SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+				r.getStatusLine().getStatusCode());
+		assertEquals("bytes */10",
+				r.getFirstHeader("Content-Range").getValue());
+	}
+
+	@Test
+	public void testResumeLargeFileDownload() throws Exception {
+		Path f = Paths.get(getTempDirectory().toString(), "largeRandomFile");
+		createPseudoRandomContentFile(f, 3 * MiB);
+		AnyLongObjectId id = putContent(f);
+		byte[] expected = Files.readAllBytes(f);
+		int split = MiB + 17;
+
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		HttpResponse r = get(id, "bytes=0-" + (split - 1));
+		b.write(EntityUtils.toByteArray(r.getEntity()));
+		r = get(id, "bytes=" + split + "-");
+		assertEquals(SC_PARTIAL_CONTENT, r.getStatusLine().getStatusCode());
+		b.write(EntityUtils.toByteArray(r.getEntity()));
+		assertArrayEquals(expected, b.toByteArray());
+	}
+
+	@Test
+	public void testTransferStatistics() throws Exception {
+		AnyLongObjectId id = putContent("0123456789");
+		EntityUtils.consume(get(id, null).getEntity());
+		EntityUtils.consume(get(id, "bytes=0-3").getEntity());
+
+		TransferStatistics up = repository.getUploadStatistics();
+		assertEquals(1, up.getTransfers());
+		assertEquals(10, up.getBytes());
+		assertEquals(0, up.getFailedTransfers());
+
+		// the server may record a download after the client received it
+		TransferStatistics down = repository.getDownloadStatistics();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (down.getTransfers() < 2
+				&& System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertEquals(2, down.getTransfers());
+		assertEquals(14, down.getBytes());
+		assertEquals(0, down.getActiveTransfers());
+		assertEquals(1, down.getMaxActiveTransfers());
+	}
+
+	private HttpResponse get(AnyLongObjectId id, String range)
+			throws IOException {
+		HttpGet request = new HttpGet(
+				server.getURI() + "/lfs/objects/" + id.name());
+		if (range != null)
+			request.setHeader("Range", range);
+		try (CloseableHttpClient client = HttpClientBuilder.create().build()) {
+			HttpResponse response = client.execute(request);
+			// buffer the entity before the client is closed
+			response.setEntity(new ByteArrayEntity(
+					EntityUtils.toByteArray(response.getEntity())));
+			return response;
+		}
+	}
+
 	@SuppressWarnings("boxing")
 	private String formatErrorMessage(int status, String message) {
 		return String.format("Status: %d {\n  \"message\": \"%s\"\n}", status,
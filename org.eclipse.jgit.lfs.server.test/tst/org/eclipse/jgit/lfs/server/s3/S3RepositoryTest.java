@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.lfs.server.s3;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jgit.junit.http.AppServer;
+import org.eclipse.jgit.junit.http.MockS3Servlet;
+import org.eclipse.jgit.lfs.lib.AnyLongObjectId;
+import org.eclipse.jgit.lfs.server.Response;
+import org.eclipse.jgit.lfs.server.s3.S3Repository.MultipartUpload;
+import org.eclipse.jgit.lfs.test.LongObjectIdTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class S3RepositoryTest {
+	private AppServer server;
+
+	private MockS3Servlet s3;
+
+	private S3Repository repository;
+
+	private CloseableHttpClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new AppServer();
+		s3 = new MockS3Servlet();
+		ServletContextHandler app = server.addContext("/");
+		app.addServlet(new ServletHolder(s3), "/*");
+		server.setUp();
+
+		S3Config config = new S3Config("us-east-1", "bucket", "STANDARD",
+				"access", "secret", 60, false);
+		repository = new S3Repository(config) {
+			@Override
+			protected URL getObjectUrl(AnyLongObjectId oid) {
+				try {
+					return new URL(server.getURI() + "/bucket/"
+							+ oid.getName());
+				} catch (MalformedURLException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		client = HttpClientBuilder.create().build();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		client.close();
+		server.tearDown();
+	}
+
+	@Test
+	public void testMultipartUpload() throws Exception {
+		byte[] data = new byte[3500];
+		new Random(42).nextBytes(data);
+		AnyLongObjectId id = LongObjectIdTestUtils.hash(new String(data,
+				UTF_8));
+
+		MultipartUpload upload = repository.getMultipartUploadAction(id,
+				data.length, 1000);
+		assertEquals(4, upload.parts.size());
+
+		StringBuilder complete = new StringBuilder(
+				"<CompleteMultipartUpload>");
+		for (int i = 0; i < upload.parts.size(); i++) {
+			int start = i * 1000;
+			HttpPut put = new HttpPut(upload.parts.get(i).href);
+			String etag = send(put, Arrays.copyOfRange(data, start,
+					Math.min(data.length, start + 1000)))
+							.getFirstHeader("ETag").getValue();
+			complete.append("<Part><PartNumber>").append(i + 1)
+					.append("</PartNumber><ETag>").append(etag)
+					.append("</ETag></Part>");
+		}
+		assertNull(s3.getObject("bucket", id.getName()));
+		complete.append("</CompleteMultipartUpload>");
+		send(new HttpPost(upload.complete.href),
+				complete.toString().getBytes(UTF_8));
+
+		assertEquals(0, s3.getPendingUploads());
+		assertArrayEquals(data, s3.getObject("bucket", id.getName()));
+
+		HttpGet get = new HttpGet(repository.getDownloadAction(id).href);
+		try (CloseableHttpResponse rsp = client.execute(get)) {
+			assertEquals(200, rsp.getStatusLine().getStatusCode());
+			assertArrayEquals(data, EntityUtils.toByteArray(rsp.getEntity()));
+		}
+	}
+
+	@Test
+	public void testAbortMultipartUpload() throws Exception {
+		AnyLongObjectId id = LongObjectIdTestUtils.hash("abort");
+		MultipartUpload upload = repository.getMultipartUploadAction(id,
+				5, 1000);
+		assertEquals(1, upload.parts.size());
+		assertTrue(upload.uploadId.length() > 0);
+		assertEquals(1, s3.getPendingUploads());
+
+		send(new HttpDelete(upload.abort.href), null);
+		assertEquals(0, s3.getPendingUploads());
+		assertNull(s3.getObject("bucket", id.getName()));
+	}
+
+	@Test
+	public void testInvalidPartSize() throws Exception {
+		AnyLongObjectId id = LongObjectIdTestUtils.hash("invalid");
+		for (long partSize : new long[] { 0, -1 }) {
+			try {
+				repository.getMultipartUploadAction(id, 5, partSize);
+				fail("expected IllegalArgumentException");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		assertEquals(0, s3.getPendingUploads());
+	}
+
+	@Test
+	public void testTooManyParts() throws Exception {
+		AnyLongObjectId id = LongObjectIdTestUtils.hash("many");
+		try {
+			repository.getMultipartUploadAction(id, 10001, 1);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(0, s3.getPendingUploads());
+
+		MultipartUpload upload = repository.getMultipartUploadAction(id,
+				10000, 1);
+		assertEquals(10000, upload.parts.size());
+		send(new HttpDelete(upload.abort.href), null);
+	}
+
+	private HttpResponse send(HttpUriRequest req, byte[] body)
+			throws IOException {
+		if (body != null)
+			((HttpEntityEnclosingRequest) req)
+					.setEntity(new ByteArrayEntity(body));
+		try (CloseableHttpResponse rsp = client.execute(req)) {
+			int status = rsp.getStatusLine().getStatusCode();
+			assertTrue("status " + status, status == 200 || status == 204);
+			EntityUtils.consume(rsp.getEntity());
+			return rsp;
+		}
+	}
+}
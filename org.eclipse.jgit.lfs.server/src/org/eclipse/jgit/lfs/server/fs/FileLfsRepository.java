@@ -46,7 +46,6 @@
 
 import java.io.IOException;
 import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
@@ -70,6 +69,10 @@ public class FileLfsRepository implements LargeFileRepository {
 	private final String url;
 	private final Path dir;
 
+	private final TransferStatistics downloads = new TransferStatistics();
+
+	private final TransferStatistics uploads = new TransferStatistics();
+
 	/**
 	 * @param url
 	 *            external URL of this repository
@@ -117,6 +120,26 @@ public Path getDir() {
 		return dir;
 	}
 
+	/**
+	 * Get statistics of the downloads served from this repository
+	 *
+	 * @return download statistics
+	 * @since 4.7
+	 */
+	public TransferStatistics getDownloadStatistics() {
+		return downloads;
+	}
+
+	/**
+	 * Get statistics of the uploads received by this repository
+	 *
+	 * @return upload statistics
+	 * @since 4.7
+	 */
+	public TransferStatistics getUploadStatistics() {
+		return uploads;
+	}
+
 	/**
 	 * Get the path where the given object is stored
 	 *
@@ -140,7 +163,7 @@ private Response.Action getAction(AnyLongObjectId id) {
 		return a;
 	}
 
-	ReadableByteChannel getReadChannel(AnyLongObjectId id)
+	FileChannel getReadChannel(AnyLongObjectId id)
 			throws IOException {
 		return FileChannel.open(getPath(id), StandardOpenOption.READ);
 	}
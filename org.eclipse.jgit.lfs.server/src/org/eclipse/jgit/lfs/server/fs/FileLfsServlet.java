@@ -42,6 +42,10 @@
  */
 package org.eclipse.jgit.lfs.server.fs;
 
+import static org.eclipse.jgit.util.HttpSupport.HDR_ACCEPT_RANGES;
+import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_RANGE;
+import static org.eclipse.jgit.util.HttpSupport.HDR_RANGE;
+
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.MessageFormat;
@@ -111,17 +115,94 @@ protected void doGet(HttpServletRequest req,
 			HttpServletResponse rsp) throws ServletException, IOException {
 		AnyLongObjectId obj = getObjectToTransfer(req, rsp);
 		if (obj != null) {
-			if (repository.getSize(obj) == -1) {
+			long size = repository.getSize(obj);
+			if (size == -1) {
 				sendError(rsp, HttpStatus.SC_NOT_FOUND, MessageFormat
 						.format(LfsServerText.get().objectNotFound,
 								obj.getName()));
 				return;
 			}
+			long offset = 0;
+			long length = size;
+			rsp.setHeader(HDR_ACCEPT_RANGES, "bytes"); //$NON-NLS-1$
+			String range = req.getHeader(HDR_RANGE);
+			if (range != null) {
+				long[] r = parseRange(range, size);
+				if (r != null && r.length == 0) {
+					rsp.setHeader(HDR_CONTENT_RANGE, "bytes */" + size); //$NON-NLS-1$
+					sendError(rsp,
+							HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+							MessageFormat.format(
+									LfsServerText.get().rangeNotSatisfiable,
+									range, obj.getName(),
+									Long.valueOf(size)));
+					return;
+				} else if (r != null) {
+					offset = r[0];
+					length = r[1] - r[0];
+					rsp.setStatus(HttpStatus.SC_PARTIAL_CONTENT);
+					rsp.setHeader(HDR_CONTENT_RANGE, "bytes " + r[0] + '-' //$NON-NLS-1$
+							+ (r[1] - 1) + '/' + size);
+				}
+			}
 			AsyncContext context = req.startAsync();
 			context.setTimeout(timeout);
 			rsp.getOutputStream()
 					.setWriteListener(new ObjectDownloadListener(repository,
-							context, rsp, obj));
+							context, rsp, obj, offset, length));
+		}
+	}
+
+	/**
+	 * Parse the value of a Range header.
+	 * <p>
+	 * Only a single byte range is supported. Other values are ignored, as
+	 * allowed by RFC 7233, and the whole object is sent. Objects never change,
+	 * so If-Range does not need to be checked.
+	 *
+	 * @param range
+	 *            value of the Range header
+	 * @param size
+	 *            size of the object
+	 * @return {@code null} if the range is to be ignored, an empty array if it
+	 *         cannot be satisfied, otherwise the first position and the
+	 *         position after the last byte to send.
+	 */
+	static long[] parseRange(String range, long size) {
+		String prefix = "bytes="; //$NON-NLS-1$
+		if (!range.startsWith(prefix) || range.indexOf(',') >= 0)
+			return null;
+		String spec = range.substring(prefix.length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0)
+			return null;
+		String first = spec.substring(0, dash).trim();
+		String last = spec.substring(dash + 1).trim();
+		try {
+			long start;
+			long end;
+			if (first.isEmpty()) {
+				if (last.isEmpty())
+					return null;
+				long suffix = Long.parseLong(last);
+				if (suffix < 0)
+					return null;
+				if (suffix == 0 || size == 0)
+					return new long[0];
+				start = Math.max(0, size - suffix);
+				end = size;
+			} else {
+				start = Long.parseLong(first);
+				end = last.isEmpty() ? size : Long.parseLong(last) + 1;
+				if (start < 0 || (!last.isEmpty() && end <= start))
+					return null;
+				if (start >= size)
+					return new long[0];
+				end = Math.min(end, size);
+			}
+			return new long[] { start, end };
+		} catch (NumberFormatException e) {
+			return null;
 		}
 	}
 
@@ -43,9 +43,10 @@
 package org.eclipse.jgit.lfs.server.fs;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.WritableByteChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -62,6 +63,12 @@
 
 /**
  * Handle asynchronous large object download.
+ * <p>
+ * The object's file is mapped into memory and written to the response from
+ * there, so it is neither read into nor copied through a buffer of this
+ * listener. If the servlet container's output is a channel it reads the
+ * content straight from the page cache. Only a region of the object may be
+ * sent to serve a range request.
  *
  * @since 4.7
  */
@@ -70,17 +77,39 @@ public class ObjectDownloadListener implements WriteListener {
 	private static Logger LOG = Logger
 			.getLogger(ObjectDownloadListener.class.getName());
 
+	/**
+	 * Maximum number of bytes written at once. If the container's output is
+	 * not a channel, more than this would be written to it in several writes,
+	 * while non-blocking output accepts only one write each time it is ready.
+	 */
+	private static final int CHUNK_SIZE = 8192;
+
+	/** Size of the file regions mapped into memory at once. */
+	private static final long WINDOW_SIZE = 4 * 1024 * 1024;
+
 	private final AsyncContext context;
 
 	private final HttpServletResponse response;
 
 	private final ServletOutputStream out;
 
-	private final ReadableByteChannel in;
+	private final FileChannel in;
 
 	private final WritableByteChannel outChannel;
 
-	private final ByteBuffer buffer = ByteBuffer.allocateDirect(8192);
+	private final TransferStatistics statistics;
+
+	private final long startTime;
+
+	private final long offset;
+
+	private final long end;
+
+	private long position;
+
+	private MappedByteBuffer window;
+
+	private boolean done;
 
 	/**
 	 * @param repository
@@ -96,14 +125,43 @@ public class ObjectDownloadListener implements WriteListener {
 	public ObjectDownloadListener(FileLfsRepository repository,
 			AsyncContext context, HttpServletResponse response,
 			AnyLongObjectId id) throws IOException {
+		this(repository, context, response, id, 0, repository.getSize(id));
+	}
+
+	/**
+	 * @param repository
+	 *            the repository storing large objects
+	 * @param context
+	 *            the servlet asynchronous context
+	 * @param response
+	 *            the servlet response
+	 * @param id
+	 *            id of the object to be downloaded
+	 * @param offset
+	 *            position of the first byte of the object to send
+	 * @param length
+	 *            number of bytes to send
+	 * @throws IOException
+	 */
+	public ObjectDownloadListener(FileLfsRepository repository,
+			AsyncContext context, HttpServletResponse response,
+			AnyLongObjectId id, long offset, long length) throws IOException {
 		this.context = context;
 		this.response = response;
 		this.in = repository.getReadChannel(id);
 		this.out = response.getOutputStream();
-		this.outChannel = Channels.newChannel(out);
+		if (out instanceof WritableByteChannel)
+			this.outChannel = (WritableByteChannel) out;
+		else
+			this.outChannel = Channels.newChannel(out);
+		this.offset = offset;
+		this.position = offset;
+		this.end = offset + length;
+		this.statistics = repository.getDownloadStatistics();
+		this.startTime = statistics.begin();
 
 		response.addHeader(HttpSupport.HDR_CONTENT_LENGTH,
-				String.valueOf(repository.getSize(id)));
+				String.valueOf(length));
 		response.setContentType(Constants.HDR_APPLICATION_OCTET_STREAM);
 	}
 
@@ -115,21 +173,19 @@ public ObjectDownloadListener(FileLfsRepository repository,
 	@Override
 	public void onWritePossible() throws IOException {
 		while (out.isReady()) {
-			if (in.read(buffer) != -1) {
-				buffer.flip();
-				outChannel.write(buffer);
-				buffer.compact();
-			} else {
-				in.close();
-				buffer.flip();
-				while (out.isReady()) {
-					if (buffer.hasRemaining()) {
-						outChannel.write(buffer);
-					} else {
-						context.complete();
-					}
-				}
+			if (position == end) {
+				finish(true);
+				context.complete();
+				return;
 			}
+			if (window == null || !window.hasRemaining())
+				window = in.map(MapMode.READ_ONLY, position,
+						Math.min(WINDOW_SIZE, end - position));
+			int limit = window.limit();
+			window.limit(Math.min(limit, window.position() + CHUNK_SIZE));
+			int n = outChannel.write(window);
+			window.limit(limit);
+			position += n;
 		}
 	}
 
@@ -142,12 +198,20 @@ public void onWritePossible() throws IOException {
 	@Override
 	public void onError(Throwable e) {
 		try {
+			finish(false);
 			FileLfsServlet.sendError(response,
 					HttpStatus.SC_INTERNAL_SERVER_ERROR, e.getMessage());
 			context.complete();
-			in.close();
 		} catch (IOException ex) {
 			LOG.log(Level.SEVERE, ex.getMessage(), ex);
 		}
 	}
+
+	private void finish(boolean success) throws IOException {
+		if (done)
+			return;
+		done = true;
+		statistics.end(startTime, position - offset, success);
+		in.close();
+	}
 }
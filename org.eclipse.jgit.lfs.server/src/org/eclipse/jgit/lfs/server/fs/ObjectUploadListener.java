@@ -87,6 +87,14 @@ public class ObjectUploadListener implements ReadListener {
 
 	private final ByteBuffer buffer = ByteBuffer.allocateDirect(8192);
 
+	private final TransferStatistics statistics;
+
+	private final long startTime;
+
+	private long received;
+
+	private boolean done;
+
 	/**
 	 * @param repository
 	 *            the repository storing large objects
@@ -107,6 +115,8 @@ public ObjectUploadListener(FileLfsRepository repository,
 		this.inChannel = Channels.newChannel(in);
 		this.out = repository.getOutputStream(id);
 		this.channel = Channels.newChannel(out);
+		this.statistics = repository.getUploadStatistics();
+		this.startTime = statistics.begin();
 		response.setContentType(Constants.CONTENT_TYPE_GIT_LFS_JSON);
 	}
 
@@ -118,7 +128,9 @@ public ObjectUploadListener(FileLfsRepository repository,
 	@Override
 	public void onDataAvailable() throws IOException {
 		while (in.isReady()) {
-			if (inChannel.read(buffer) > 0) {
+			int n = inChannel.read(buffer);
+			if (n > 0) {
+				received += n;
 				buffer.flip();
 				channel.write(buffer);
 				buffer.compact();
@@ -148,6 +160,7 @@ protected void close() throws IOException {
 		try {
 			inChannel.close();
 			channel.close();
+			finish(true);
 			// TODO check if status 200 is ok for PUT request, HTTP foresees 204
 			// for successful PUT without response body
 			response.setStatus(HttpServletResponse.SC_OK);
@@ -163,6 +176,7 @@ protected void close() throws IOException {
 	@Override
 	public void onError(Throwable e) {
 		try {
+			finish(false);
 			out.abort();
 			inChannel.close();
 			channel.close();
@@ -179,4 +193,11 @@ public void onError(Throwable e) {
 			LOG.log(Level.SEVERE, ex.getMessage(), ex);
 		}
 	}
+
+	private void finish(boolean success) {
+		if (done)
+			return;
+		done = true;
+		statistics.end(startTime, received, success);
+	}
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.lfs.server.fs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency and bandwidth statistics of the transfers in one direction of a
+ * {@link FileLfsRepository}.
+ *
+ * @since 4.7
+ */
+public class TransferStatistics {
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final AtomicInteger maxActive = new AtomicInteger();
+
+	private final AtomicLong transfers = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AtomicLong nanos = new AtomicLong();
+
+	/**
+	 * Record the start of a transfer.
+	 *
+	 * @return start time of the transfer, to be passed to
+	 *         {@link #end(long, long, boolean)}.
+	 */
+	long begin() {
+		int n = active.incrementAndGet();
+		int max;
+		while (n > (max = maxActive.get())) {
+			if (maxActive.compareAndSet(max, n))
+				break;
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Record the end of a transfer.
+	 *
+	 * @param startTime
+	 *            value returned by {@link #begin()}.
+	 * @param transferred
+	 *            number of bytes transferred.
+	 * @param success
+	 *            whether the transfer completed.
+	 */
+	void end(long startTime, long transferred, boolean success) {
+		nanos.addAndGet(System.nanoTime() - startTime);
+		bytes.addAndGet(transferred);
+		transfers.incrementAndGet();
+		if (!success)
+			failed.incrementAndGet();
+		active.decrementAndGet();
+	}
+
+	/** @return number of transfers currently in progress. */
+	public int getActiveTransfers() {
+		return active.get();
+	}
+
+	/** @return largest number of transfers ever in progress at once. */
+	public int getMaxActiveTransfers() {
+		return maxActive.get();
+	}
+
+	/** @return number of finished transfers, including failed ones. */
+	public long getTransfers() {
+		return transfers.get();
+	}
+
+	/** @return number of transfers which failed. */
+	public long getFailedTransfers() {
+		return failed.get();
+	}
+
+	/** @return number of bytes transferred by finished transfers. */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/** @return total time spent by finished transfers, in milliseconds. */
+	public long getTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(nanos.get());
+	}
+
+	/**
+	 * Get the average bandwidth of a single transfer.
+	 * <p>
+	 * Transfers running concurrently are not added up, the bandwidth served
+	 * in total can be larger.
+	 *
+	 * @return bytes transferred per second by finished transfers, 0 if no
+	 *         transfer finished yet.
+	 */
+	public long getBytesPerSecond() {
+		long t = nanos.get();
+		if (t <= 0)
+			return 0;
+		return (long) (bytes.get() * 1e9 / t);
+	}
+
+	@Override
+	public String toString() {
+		return "TransferStatistics[active=" + getActiveTransfers() //$NON-NLS-1$
+				+ ", maxActive=" + getMaxActiveTransfers() //$NON-NLS-1$
+				+ ", transfers=" + getTransfers() //$NON-NLS-1$
+				+ ", failed=" + getFailedTransfers() //$NON-NLS-1$
+				+ ", bytes=" + getBytes() //$NON-NLS-1$
+				+ ", bytesPerSecond=" + getBytesPerSecond() + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
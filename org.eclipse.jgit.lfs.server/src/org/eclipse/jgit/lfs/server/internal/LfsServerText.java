@@ -61,6 +61,10 @@ public static LfsServerText get() {
 	/***/ public String failedToCalcSignature;
 	/***/ public String invalidPathInfo;
 	/***/ public String objectNotFound;
+	/***/ public String rangeNotSatisfiable;
+	/***/ public String s3InvalidPartSize;
+	/***/ public String s3MultipartUploadFailed;
+	/***/ public String s3TooManyParts;
 	/***/ public String undefinedS3AccessKey;
 	/***/ public String undefinedS3Bucket;
 	/***/ public String undefinedS3Region;
@@ -51,17 +51,25 @@
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_LENGTH;
 import static org.eclipse.jgit.util.HttpSupport.METHOD_GET;
 import static org.eclipse.jgit.util.HttpSupport.METHOD_HEAD;
+import static org.eclipse.jgit.util.HttpSupport.METHOD_POST;
 import static org.eclipse.jgit.util.HttpSupport.METHOD_PUT;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.Proxy;
 import java.net.ProxySelector;
 import java.net.URL;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
 import org.eclipse.jgit.lfs.lib.AnyLongObjectId;
 import org.eclipse.jgit.lfs.server.LargeFileRepository;
 import org.eclipse.jgit.lfs.server.Response;
@@ -70,6 +78,8 @@
 import org.eclipse.jgit.transport.http.HttpConnection;
 import org.eclipse.jgit.transport.http.apache.HttpClientConnectionFactory;
 import org.eclipse.jgit.util.HttpSupport;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
 /**
  * Repository storing LFS objects in Amazon S3
@@ -77,6 +87,47 @@
  * @since 4.3
  */
 public class S3Repository implements LargeFileRepository {
+	private static final String METHOD_DELETE = "DELETE"; //$NON-NLS-1$
+
+	private static final String PART_NUMBER = "partNumber"; //$NON-NLS-1$
+
+	private static final String UPLOAD_ID = "uploadId"; //$NON-NLS-1$
+
+	private static final String UPLOADS = "uploads"; //$NON-NLS-1$
+
+	/** Maximum number of parts S3 accepts for one multipart upload. */
+	private static final int MAX_PARTS = 10000;
+
+	/**
+	 * Pre-signed requests uploading a large object in several parts, which a
+	 * client may send in parallel.
+	 *
+	 * @since 4.7
+	 */
+	public static class MultipartUpload {
+		/** Identifier S3 assigned to the upload. */
+		public String uploadId;
+
+		/** Size of each part but the last, in bytes. */
+		public long partSize;
+
+		/**
+		 * PUT requests uploading the parts in order; the part at index
+		 * {@code i} holds the bytes starting at {@code i * partSize}. S3
+		 * returns the ETag of each part in the response.
+		 */
+		public List<Response.Action> parts;
+
+		/**
+		 * POST request completing the upload. Its body is a
+		 * {@code CompleteMultipartUpload} document listing the number and
+		 * ETag of each part.
+		 */
+		public Response.Action complete;
+
+		/** DELETE request aborting the upload and discarding its parts. */
+		public Response.Action abort;
+	}
 
 	private S3Config s3Config;
 
@@ -93,18 +144,8 @@ public S3Repository(S3Config config) {
 
 	@Override
 	public Response.Action getDownloadAction(AnyLongObjectId oid) {
-		URL endpointUrl = getObjectUrl(oid);
-		Map<String, String> queryParams = new HashMap<String, String>();
-		queryParams.put(X_AMZ_EXPIRES,
-				Integer.toString(s3Config.getExpirationSeconds()));
-		Map<String, String> headers = new HashMap<String, String>();
-		String authorizationQueryParameters = SignerV4.createAuthorizationQuery(
-				s3Config, endpointUrl, METHOD_GET, headers, queryParams,
-				UNSIGNED_PAYLOAD);
-
-		Response.Action a = new Response.Action();
-		a.href = endpointUrl.toString() + "?" + authorizationQueryParameters; //$NON-NLS-1$
-		return a;
+		return presign(getObjectUrl(oid), METHOD_GET,
+				new HashMap<String, String>());
 	}
 
 	@Override
@@ -126,6 +167,119 @@ public Response.Action getUploadAction(AnyLongObjectId oid, long size) {
 		return a;
 	}
 
+	/**
+	 * Start a multipart upload of a large object, and sign the requests
+	 * uploading its parts and completing the upload.
+	 * <p>
+	 * S3 requires all parts but the last to be at least 5 MiB, and accepts at
+	 * most 10000 parts.
+	 * <p>
+	 * Unlike the other actions of this repository this method does not only
+	 * sign requests: it sends a POST request to S3 to start the upload. The
+	 * upload stays open, and S3 keeps the parts uploaded so far, until the
+	 * caller sends the signed request completing or aborting it.
+	 *
+	 * @param oid
+	 *            the id of the object to upload
+	 * @param size
+	 *            size of the object in bytes
+	 * @param partSize
+	 *            size of each part but the last in bytes
+	 * @return the signed requests
+	 * @throws IllegalArgumentException
+	 *             partSize is not positive, or the object would need more
+	 *             than 10000 parts
+	 * @throws IOException
+	 *             S3 could not be reached or did not start the upload
+	 * @since 4.7
+	 */
+	public MultipartUpload getMultipartUploadAction(AnyLongObjectId oid,
+			long size, long partSize) throws IOException {
+		if (partSize <= 0)
+			throw new IllegalArgumentException(MessageFormat.format(
+					LfsServerText.get().s3InvalidPartSize,
+					Long.valueOf(partSize), Long.valueOf(size)));
+		long partCount = size / partSize + (size % partSize != 0 ? 1 : 0);
+		if (partCount > MAX_PARTS)
+			throw new IllegalArgumentException(MessageFormat.format(
+					LfsServerText.get().s3TooManyParts, Long.valueOf(size),
+					Long.valueOf(partSize), Long.valueOf(partCount),
+					Integer.valueOf(MAX_PARTS)));
+		cacheObjectMetaData(oid, size);
+		URL objectUrl = getObjectUrl(oid);
+
+		MultipartUpload upload = new MultipartUpload();
+		upload.uploadId = beginMultipartUpload(objectUrl, oid);
+		upload.partSize = partSize;
+		upload.parts = new ArrayList<>();
+		int partNumber = 1;
+		for (long offset = 0; offset < size
+				|| partNumber == 1; offset += partSize) {
+			Map<String, String> queryParams = new HashMap<String, String>();
+			queryParams.put(PART_NUMBER, Integer.toString(partNumber++));
+			queryParams.put(UPLOAD_ID, upload.uploadId);
+			upload.parts.add(presign(objectUrl, METHOD_PUT, queryParams));
+		}
+		upload.complete = presign(objectUrl, METHOD_POST, Collections
+				.singletonMap(UPLOAD_ID, upload.uploadId));
+		upload.abort = presign(objectUrl, METHOD_DELETE, Collections
+				.singletonMap(UPLOAD_ID, upload.uploadId));
+		return upload;
+	}
+
+	private String beginMultipartUpload(URL objectUrl, AnyLongObjectId oid)
+			throws IOException {
+		Map<String, String> queryParams = new HashMap<String, String>();
+		queryParams.put(UPLOADS, ""); //$NON-NLS-1$
+		queryParams.put(X_AMZ_EXPIRES,
+				Integer.toString(s3Config.getExpirationSeconds()));
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put(X_AMZ_STORAGE_CLASS, s3Config.getStorageClass());
+		String authorizationQueryParameters = SignerV4.createAuthorizationQuery(
+				s3Config, objectUrl, METHOD_POST, headers, queryParams,
+				UNSIGNED_PAYLOAD);
+
+		HttpConnection conn = open(new URL(objectUrl.toString() + "?" //$NON-NLS-1$
+				+ authorizationQueryParameters));
+		conn.setRequestMethod(METHOD_POST);
+		conn.setRequestProperty(X_AMZ_STORAGE_CLASS,
+				s3Config.getStorageClass());
+		conn.connect();
+		int status = conn.getResponseCode();
+		if (status == SC_OK) {
+			try (InputStream in = conn.getInputStream()) {
+				NodeList ids = DocumentBuilderFactory.newInstance()
+						.newDocumentBuilder().parse(in)
+						.getElementsByTagName("UploadId"); //$NON-NLS-1$
+				if (ids.getLength() > 0) {
+					return ids.item(0).getTextContent();
+				}
+			} catch (ParserConfigurationException | SAXException e) {
+				throw new IOException(MessageFormat.format(
+						LfsServerText.get().s3MultipartUploadFailed,
+						oid.getName(), Integer.valueOf(status),
+						e.getMessage()), e);
+			}
+		}
+		throw new IOException(MessageFormat.format(
+				LfsServerText.get().s3MultipartUploadFailed, oid.getName(),
+				Integer.valueOf(status), conn.getResponseMessage()));
+	}
+
+	private Response.Action presign(URL url, String method,
+			Map<String, String> queryParams) {
+		Map<String, String> query = new HashMap<String, String>(queryParams);
+		query.put(X_AMZ_EXPIRES,
+				Integer.toString(s3Config.getExpirationSeconds()));
+		Map<String, String> headers = new HashMap<String, String>();
+		String authorizationQueryParameters = SignerV4.createAuthorizationQuery(
+				s3Config, url, method, headers, query, UNSIGNED_PAYLOAD);
+
+		Response.Action a = new Response.Action();
+		a.href = url.toString() + "?" + authorizationQueryParameters; //$NON-NLS-1$
+		return a;
+	}
+
 	@Override
 	public Action getVerifyAction(AnyLongObjectId id) {
 		return null; // TODO(ms) implement this
@@ -145,13 +299,7 @@ public long getSize(AnyLongObjectId oid) throws IOException {
 		String href = endpointUrl.toString() + "?" //$NON-NLS-1$
 				+ authorizationQueryParameters;
 
-		Proxy proxy = HttpSupport.proxyFor(ProxySelector.getDefault(),
-				endpointUrl);
-		HttpClientConnectionFactory f = new HttpClientConnectionFactory();
-		HttpConnection conn = f.create(new URL(href), proxy);
-		if (s3Config.isDisableSslVerify()) {
-			HttpSupport.disableSslVerify(conn);
-		}
+		HttpConnection conn = open(new URL(href));
 		conn.setRequestMethod(METHOD_HEAD);
 		conn.connect();
 		int status = conn.getResponseCode();
@@ -165,6 +313,16 @@ public long getSize(AnyLongObjectId oid) throws IOException {
 		return -1;
 	}
 
+	private HttpConnection open(URL url) throws IOException {
+		Proxy proxy = HttpSupport.proxyFor(ProxySelector.getDefault(), url);
+		HttpClientConnectionFactory f = new HttpClientConnectionFactory();
+		HttpConnection conn = f.create(url, proxy);
+		if (s3Config.isDisableSslVerify()) {
+			HttpSupport.disableSslVerify(conn);
+		}
+		return conn;
+	}
+
 	/**
 	 * Cache metadata (size) for an object to avoid extra roundtrip to S3 in
 	 * order to retrieve this metadata for a given object. Subclasses can
@@ -200,7 +358,16 @@ private void assertNotEmpty(String message, String value) {
 		}
 	}
 
-	private URL getObjectUrl(AnyLongObjectId oid) {
+	/**
+	 * Get the URL of an object in the bucket. Subclasses may override this to
+	 * store objects in an S3 compatible service other than Amazon's.
+	 *
+	 * @param oid
+	 *            the id of the object
+	 * @return URL of the object
+	 * @since 4.7
+	 */
+	protected URL getObjectUrl(AnyLongObjectId oid) {
 		try {
 			return new URL(String.format("https://s3-%s.amazonaws.com/%s/%s", //$NON-NLS-1$
 					s3Config.getRegion(), s3Config.getBucket(),
@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.lfs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.eclipse.jgit.util.HttpSupport.HDR_ACCEPT;
+import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_TYPE;
+import static org.eclipse.jgit.util.HttpSupport.METHOD_GET;
+import static org.eclipse.jgit.util.HttpSupport.METHOD_POST;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.errors.CompoundException;
+import org.eclipse.jgit.lfs.errors.CorruptMediaFile;
+import org.eclipse.jgit.lfs.internal.AtomicObjectOutputStream;
+import org.eclipse.jgit.lfs.internal.LfsText;
+import org.eclipse.jgit.lfs.lib.Constants;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.HttpTransport;
+import org.eclipse.jgit.transport.http.HttpConnection;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.HttpSupport;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ * Downloads large objects missing from a repository from its LFS server.
+ * <p>
+ * The objects are requested from the server with the LFS batch API, in
+ * batches of up to {@link #MAX_BATCH_SIZE} objects, and downloaded by several
+ * threads while the next batch is requested. The SHA-256 hash of each object
+ * is verified while it is written to the repository's LFS media directory;
+ * content not matching its id is discarded.
+ * <p>
+ * The server URL is read from {@code lfs.url}, or derived from the URL of the
+ * {@code origin} remote as git-lfs does. Only HTTP servers are supported.
+ *
+ * @see <a href=
+ *      "https://github.com/git-lfs/git-lfs/blob/master/docs/api/batch.md">Git
+ *      LFS Batch API</a>
+ * @since 4.7
+ */
+public class LfsBatchDownloader {
+	/** Maximum number of objects requested at once, as in git-lfs. */
+	public static final int MAX_BATCH_SIZE = 100;
+
+	private static final int DEFAULT_CONCURRENT_TRANSFERS = 8;
+
+	private static final String CONFIG_KEY_CONCURRENT_TRANSFERS = "concurrenttransfers"; //$NON-NLS-1$
+
+	private static final String CONTENT_TYPE = Constants.CONTENT_TYPE_GIT_LFS_JSON
+			+ "; charset=utf-8"; //$NON-NLS-1$
+
+	private final Lfs lfs;
+
+	private final Gson gson = new GsonBuilder()
+			.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+			.disableHtmlEscaping().create();
+
+	private String url;
+
+	private int concurrentTransfers;
+
+	/**
+	 * @param db
+	 *            the repository to download objects into
+	 */
+	public LfsBatchDownloader(Repository db) {
+		lfs = new Lfs(db.getDirectory().toPath().resolve(Constants.LFS));
+		Config cfg = db.getConfig();
+		url = getServerUrl(cfg);
+		concurrentTransfers = cfg.getInt(Constants.LFS, null,
+				CONFIG_KEY_CONCURRENT_TRANSFERS, DEFAULT_CONCURRENT_TRANSFERS);
+	}
+
+	private static String getServerUrl(Config cfg) {
+		String lfsUrl = cfg.getString(Constants.LFS, null,
+				ConfigConstants.CONFIG_KEY_URL);
+		if (lfsUrl != null)
+			return lfsUrl;
+		String remoteUrl = cfg.getString(ConfigConstants.CONFIG_REMOTE_SECTION,
+				org.eclipse.jgit.lib.Constants.DEFAULT_REMOTE_NAME,
+				ConfigConstants.CONFIG_KEY_URL);
+		if (remoteUrl == null || !(remoteUrl.startsWith("http://") //$NON-NLS-1$
+				|| remoteUrl.startsWith("https://"))) //$NON-NLS-1$
+			return null;
+		if (remoteUrl.endsWith("/")) //$NON-NLS-1$
+			remoteUrl = remoteUrl.substring(0, remoteUrl.length() - 1);
+		if (!remoteUrl.endsWith(org.eclipse.jgit.lib.Constants.DOT_GIT_EXT))
+			remoteUrl += org.eclipse.jgit.lib.Constants.DOT_GIT_EXT;
+		return remoteUrl + "/info/lfs"; //$NON-NLS-1$
+	}
+
+	/**
+	 * @return URL of the LFS server, {@code null} if none is known.
+	 */
+	@Nullable
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @param url
+	 *            URL of the LFS server, overriding the configured one.
+	 */
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	/**
+	 * @return number of objects downloaded at once; defaults to
+	 *         {@code lfs.concurrenttransfers}, or 8.
+	 */
+	public int getConcurrentTransfers() {
+		return concurrentTransfers;
+	}
+
+	/**
+	 * @param concurrentTransfers
+	 *            number of objects to download at once.
+	 */
+	public void setConcurrentTransfers(int concurrentTransfers) {
+		this.concurrentTransfers = concurrentTransfers;
+	}
+
+	/**
+	 * Download the objects whose media file does not exist yet.
+	 *
+	 * @param pointers
+	 *            pointers to the objects
+	 * @return number of objects downloaded; 0 if no server is known.
+	 * @throws IOException
+	 *             the server failed to provide some objects, or their content
+	 *             did not match the pointer. All other objects were still
+	 *             downloaded.
+	 */
+	public int download(Collection<LfsPointer> pointers) throws IOException {
+		Map<String, LfsPointer> missing = new LinkedHashMap<>();
+		for (LfsPointer p : pointers) {
+			if (!Files.exists(lfs.getMediaFile(p.getOid())))
+				missing.put(p.getOid().name(), p);
+		}
+		if (missing.isEmpty() || url == null)
+			return 0;
+
+		ExecutorService pool = Executors.newFixedThreadPool(
+				Math.max(1, Math.min(concurrentTransfers, missing.size())),
+				new ThreadFactory() {
+					private final ThreadFactory baseFactory = Executors
+							.defaultThreadFactory();
+
+					public Thread newThread(Runnable taskBody) {
+						Thread thr = baseFactory.newThread(taskBody);
+						thr.setName("JGit-LFS-Download"); //$NON-NLS-1$
+						thr.setDaemon(true);
+						return thr;
+					}
+				});
+		try {
+			List<Future<Void>> downloads = new ArrayList<>(missing.size());
+			Failures failures = new Failures();
+			List<LfsPointer> batch = new ArrayList<>(MAX_BATCH_SIZE);
+			for (LfsPointer p : missing.values()) {
+				batch.add(p);
+				if (batch.size() == MAX_BATCH_SIZE) {
+					requestBatch(batch, pool, downloads, failures);
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty())
+				requestBatch(batch, pool, downloads, failures);
+			int downloaded = await(downloads, failures);
+			failures.check(missing.size());
+			return downloaded;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private void requestBatch(List<LfsPointer> batch, ExecutorService pool,
+			List<Future<Void>> downloads, Failures failures) {
+		try {
+			requestBatch(batch, pool, downloads, failures, url
+					+ "/objects/batch"); //$NON-NLS-1$
+		} catch (IOException e) {
+			failures.add(e, batch.size());
+		}
+	}
+
+	private void requestBatch(List<LfsPointer> batch, ExecutorService pool,
+			List<Future<Void>> downloads, Failures failures, String batchUrl)
+			throws IOException {
+		BatchRequest request = new BatchRequest();
+		request.operation = Constants.DOWNLOAD;
+		request.objects = new ArrayList<>(batch.size());
+		Map<String, LfsPointer> byOid = new LinkedHashMap<>();
+		for (LfsPointer p : batch) {
+			BatchObject o = new BatchObject();
+			o.oid = p.getOid().name();
+			o.size = p.getSize();
+			request.objects.add(o);
+			byOid.put(o.oid, p);
+		}
+
+		HttpConnection c = open(batchUrl);
+		c.setRequestMethod(METHOD_POST);
+		c.setRequestProperty(HDR_ACCEPT, CONTENT_TYPE);
+		c.setRequestProperty(HDR_CONTENT_TYPE, CONTENT_TYPE);
+		c.setDoOutput(true);
+		try (Writer w = new OutputStreamWriter(c.getOutputStream(), UTF_8)) {
+			gson.toJson(request, w);
+		}
+		int status = c.getResponseCode();
+		if (status != HttpURLConnection.HTTP_OK)
+			throw new IOException(MessageFormat.format(
+					LfsText.get().lfsBatchRequestFailed, batchUrl,
+					Integer.valueOf(status), c.getResponseMessage()));
+		BatchResponse response;
+		try (Reader r = new InputStreamReader(c.getInputStream(), UTF_8)) {
+			response = gson.fromJson(r, BatchResponse.class);
+		} catch (JsonParseException e) {
+			throw new IOException(MessageFormat.format(
+					LfsText.get().lfsBatchResponseInvalid, batchUrl), e);
+		}
+		if (response == null || response.objects == null)
+			throw new IOException(MessageFormat.format(
+					LfsText.get().lfsBatchResponseInvalid, batchUrl));
+
+		for (BatchObject o : response.objects) {
+			final LfsPointer p = o != null ? byOid.remove(o.oid) : null;
+			if (p == null)
+				continue;
+			final Action a = o.actions != null
+					? o.actions.get(Constants.DOWNLOAD) : null;
+			if (a == null || a.href == null || o.error != null) {
+				failures.add(new IOException(MessageFormat.format(
+						LfsText.get().lfsObjectUnavailable, o.oid,
+						o.error != null ? o.error.message : "")), 1); //$NON-NLS-1$
+				continue;
+			}
+			downloads.add(pool.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					downloadObject(p, a);
+					return null;
+				}
+			}));
+		}
+		for (String oid : byOid.keySet())
+			failures.add(new IOException(MessageFormat.format(
+					LfsText.get().lfsObjectUnavailable, oid, "")), 1); //$NON-NLS-1$
+	}
+
+	private void downloadObject(LfsPointer p, Action a) throws IOException {
+		HttpConnection c = open(a.href);
+		c.setRequestMethod(METHOD_GET);
+		if (a.header != null) {
+			for (Map.Entry<String, String> h : a.header.entrySet())
+				c.setRequestProperty(h.getKey(), h.getValue());
+		}
+		int status = c.getResponseCode();
+		if (status != HttpURLConnection.HTTP_OK)
+			throw new IOException(MessageFormat.format(
+					LfsText.get().lfsDownloadFailed, p.getOid().name(),
+					Integer.valueOf(status), c.getResponseMessage()));
+
+		Path mediaFile = lfs.getMediaFile(p.getOid());
+		FileUtils.mkdirs(mediaFile.getParent().toFile(), true);
+		try (InputStream in = c.getInputStream()) {
+			AtomicObjectOutputStream out = new AtomicObjectOutputStream(
+					mediaFile, p.getOid());
+			long size = 0;
+			try {
+				byte[] buf = new byte[65536];
+				int n;
+				while ((n = in.read(buf)) > 0) {
+					out.write(buf, 0, n);
+					size += n;
+				}
+			} catch (IOException e) {
+				out.abort();
+				throw e;
+			}
+			if (size != p.getSize()) {
+				out.abort();
+				throw new CorruptMediaFile(mediaFile, p.getSize(), size);
+			}
+			// Verifies the content hash, discarding the file on mismatch.
+			out.close();
+		}
+	}
+
+	private static HttpConnection open(String u) throws IOException {
+		URL url = new URL(u);
+		Proxy proxy = HttpSupport.proxyFor(ProxySelector.getDefault(), url);
+		return HttpTransport.getConnectionFactory().create(url, proxy);
+	}
+
+	private static int await(List<Future<Void>> downloads, Failures failures)
+			throws IOException {
+		int downloaded = 0;
+		try {
+			for (Future<Void> f : downloads) {
+				try {
+					f.get();
+					downloaded++;
+				} catch (ExecutionException failed) {
+					if (failed.getCause() instanceof Error)
+						throw (Error) failed.getCause();
+					failures.add(failed.getCause(), 1);
+				}
+			}
+		} catch (InterruptedException ie) {
+			for (Future<Void> f : downloads)
+				f.cancel(true);
+			throw new IOException(ie.getMessage(), ie);
+		}
+		return downloaded;
+	}
+
+	/** Objects which could not be downloaded, while others still are. */
+	private static class Failures {
+		private final List<Throwable> errors = new ArrayList<>();
+
+		private int objects;
+
+		void add(Throwable err, int count) {
+			errors.add(err);
+			objects += count;
+		}
+
+		void check(int total) throws IOException {
+			if (errors.isEmpty())
+				return;
+			if (errors.size() == 1 && errors.get(0) instanceof IOException)
+				throw (IOException) errors.get(0);
+			throw new IOException(MessageFormat.format(
+					LfsText.get().lfsDownloadsFailed,
+					Integer.valueOf(objects), Integer.valueOf(total)),
+					new CompoundException(errors));
+		}
+	}
+
+	static class BatchRequest {
+		String operation;
+
+		List<BatchObject> objects;
+	}
+
+	static class BatchResponse {
+		List<BatchObject> objects;
+	}
+
+	static class BatchObject {
+		String oid;
+
+		long size;
+
+		Map<String, Action> actions;
+
+		ObjectError error;
+	}
+
+	static class Action {
+		String href;
+
+		Map<String, String> header;
+	}
+
+	static class ObjectError {
+		int code;
+
+		String message;
+	}
+}
@@ -42,16 +42,25 @@
  */
 package org.eclipse.jgit.lfs;
 
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
+import org.eclipse.jgit.attributes.BatchFilterCommandFactory;
 import org.eclipse.jgit.attributes.FilterCommand;
 import org.eclipse.jgit.attributes.FilterCommandFactory;
 import org.eclipse.jgit.attributes.FilterCommandRegistry;
 import org.eclipse.jgit.lfs.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 
 /**
@@ -61,9 +70,10 @@
  * and this filter is configured for that content, then this filter will replace
  * the content of LFS pointer files with the original content. This happens e.g.
  * when a checkout needs to update a working tree file which is under LFS
- * control. This implementation expects that the origin content is already
- * available in the .git/lfs/objects folder. This implementation will not
- * contact any LFS servers in order to get the missing content.
+ * control. The original content is read from the .git/lfs/objects folder.
+ * Before a checkout runs this filter, content missing from that folder is
+ * downloaded from the repository's LFS server by a
+ * {@link LfsBatchDownloader}, if a server is known.
  *
  * @since 4.6
  */
@@ -71,14 +81,34 @@ public class SmudgeFilter extends FilterCommand {
 	/**
 	 * The factory is responsible for creating instances of {@link SmudgeFilter}
 	 */
-	public final static FilterCommandFactory FACTORY = new FilterCommandFactory() {
+	public final static FilterCommandFactory FACTORY = new BatchFilterCommandFactory() {
 		@Override
 		public FilterCommand create(Repository db, InputStream in,
 				OutputStream out) throws IOException {
 			return new SmudgeFilter(db, in, out);
 		}
+
+		@Override
+		public void prepare(Repository db, Collection<ObjectId> blobs)
+				throws IOException {
+			List<LfsPointer> pointers = new ArrayList<>();
+			try (ObjectReader reader = db.newObjectReader()) {
+				for (ObjectId id : blobs) {
+					ObjectLoader ol = reader.open(id, OBJ_BLOB);
+					if (ol.getSize() > MAX_POINTER_SIZE)
+						continue;
+					LfsPointer p = LfsPointer.parseLfsPointer(ol.openStream());
+					if (p != null)
+						pointers.add(p);
+				}
+			}
+			new LfsBatchDownloader(db).download(pointers);
+		}
 	};
 
+	/** Pointer files are never larger than this, as in git-lfs. */
+	private static final int MAX_POINTER_SIZE = 1024;
+
 	/**
 	 * Registers this filter in JGit by calling
 	 */
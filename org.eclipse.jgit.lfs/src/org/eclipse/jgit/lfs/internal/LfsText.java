@@ -69,4 +69,9 @@ public static LfsText get() {
 	/***/ public String lfsUnavailable;
 	/***/ public String lfsUnathorized;
 	/***/ public String lfsFailedToGetRepository;
+	/***/ public String lfsBatchRequestFailed;
+	/***/ public String lfsDownloadFailed;
+	/***/ public String lfsObjectUnavailable;
+	/***/ public String lfsBatchResponseInvalid;
+	/***/ public String lfsDownloadsFailed;
 }
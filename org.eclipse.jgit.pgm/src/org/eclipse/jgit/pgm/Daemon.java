@@ -86,6 +86,12 @@ class Daemon extends TextBuiltin {
 	@Option(name = "--timeout", metaVar = "metaVar_seconds", usage = "usage_abortConnectionIfNoActivity")
 	int timeout = -1;
 
+	@Option(name = "--max-connections", metaVar = "metaVar_n", usage = "usage_maxConnections")
+	int maxConnections;
+
+	@Option(name = "--max-pending", metaVar = "metaVar_n", usage = "usage_maxPendingConnections")
+	int maxPending;
+
 	@Option(name = "--enable", metaVar = "metaVar_service", usage = "usage_enableTheServiceInAllRepositories", multiValued = true)
 	final List<String> enable = new ArrayList<String>();
 
@@ -154,6 +160,8 @@ protected void run() throws Exception {
 		d.setRepositoryResolver(resolver);
 		if (0 <= timeout)
 			d.setTimeout(timeout);
+		d.setMaxConnections(maxConnections);
+		d.setMaxPendingConnections(maxPending);
 
 		for (final String n : enable)
 			service(d, n).setEnabled(true);
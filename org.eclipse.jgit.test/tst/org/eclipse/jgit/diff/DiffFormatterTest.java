@@ -61,6 +61,7 @@
 import org.eclipse.jgit.patch.FileHeader;
 import org.eclipse.jgit.patch.HunkHeader;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
 import org.eclipse.jgit.treewalk.FileTreeIterator;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
 import org.eclipse.jgit.util.FileUtils;
@@ -485,6 +486,119 @@ public void testDiffNullToNull() throws Exception {
 		}
 	}
 
+	@Test
+	public void testStreamedDiffMatchesLoaded() throws Exception {
+		StringBuilder a = new StringBuilder();
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			String line = "line " + i + "\n";
+			a.append(line);
+			if (i % 700 == 3)
+				b.append("changed ").append(line);
+			else if (i % 900 != 5)
+				b.append(line);
+		}
+		b.append("no newline at end");
+		DiffEntry mod = modify(blob(a.toString()), blob(b.toString()));
+
+		String loaded = format(mod, 0);
+		assertEquals(loaded, format(mod, 4096));
+		assertEquals(df.toFileHeader(mod).toEditList(),
+				streamingFormatter(4096).toFileHeader(mod).toEditList());
+	}
+
+	@Test
+	public void testStreamedDiffWiderThanWindow() throws Exception {
+		StringBuilder a = new StringBuilder();
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			a.append("old ").append(i).append('\n');
+			b.append(i % 2 == 0 ? "new " : "old ").append(i).append('\n');
+		}
+		DiffEntry mod = modify(blob(a.toString()), blob(b.toString()));
+
+		// The change is larger than a window, so the edits may differ
+		// from the loaded diff, but must still produce the new content.
+		EditList edits = streamingFormatter(1024).toFileHeader(mod)
+				.toEditList();
+		RawText ra = new RawText(a.toString().getBytes("UTF-8"));
+		RawText rb = new RawText(b.toString().getBytes("UTF-8"));
+		StringBuilder r = new StringBuilder();
+		int aCur = 0;
+		for (Edit e : edits) {
+			r.append(ra.getString(aCur, e.getBeginA(), false));
+			r.append(rb.getString(e.getBeginB(), e.getEndB(), false));
+			aCur = e.getEndA();
+		}
+		r.append(ra.getString(aCur, ra.size(), false));
+		assertEquals(b.toString(), r.toString());
+	}
+
+	@Test
+	public void testStreamedDiffBinary() throws Exception {
+		StringBuilder a = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			a.append("line ").append(i).append('\n');
+		DiffEntry mod = modify(blob(a.toString()), blob("\0" + a));
+
+		FileHeader fh = streamingFormatter(1024).toFileHeader(mod);
+		assertEquals(FileHeader.PatchType.BINARY, fh.getPatchType());
+		assertEquals(0, fh.toEditList().size());
+	}
+
+	@Test
+	public void testStreamedDiffIgnoresBinaryFileThreshold() throws Exception {
+		StringBuilder a = new StringBuilder();
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			String line = "line " + i + "\n";
+			a.append(line);
+			b.append(i == 500 ? "changed " : "").append(line);
+		}
+		DiffEntry mod = modify(blob(a.toString()), blob(b.toString()));
+
+		// Only large objects are limited by the binary file threshold.
+		WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setStreamFileThreshold(1024);
+		cfg.install();
+		try (DiffFormatter dfmt = new DiffFormatter(
+				DisabledOutputStream.INSTANCE)) {
+			dfmt.setRepository(db);
+			dfmt.setBinaryFileThreshold(2048);
+			assertEquals(FileHeader.PatchType.BINARY,
+					dfmt.toFileHeader(mod).getPatchType());
+
+			dfmt.setMemoryBudget(1024);
+			FileHeader fh = dfmt.toFileHeader(mod);
+			assertEquals(FileHeader.PatchType.UNIFIED, fh.getPatchType());
+			assertEquals(1, fh.toEditList().size());
+		} finally {
+			new WindowCacheConfig().install();
+		}
+	}
+
+	private DiffEntry modify(ObjectId aId, ObjectId bId) {
+		DiffEntry a = DiffEntry.delete(PATH_A, aId);
+		DiffEntry b = DiffEntry.add(PATH_A, bId);
+		return DiffEntry.pair(ChangeType.MODIFY, a, b, 0);
+	}
+
+	private DiffFormatter streamingFormatter(int budget) {
+		df.setMemoryBudget(budget);
+		return df;
+	}
+
+	private String format(DiffEntry ent, int budget) throws Exception {
+		try (ByteArrayOutputStream os = new ByteArrayOutputStream();
+				DiffFormatter dfmt = new DiffFormatter(os)) {
+			dfmt.setRepository(db);
+			dfmt.setMemoryBudget(budget);
+			dfmt.format(ent);
+			dfmt.flush();
+			return os.toString("UTF-8");
+		}
+	}
+
 	private static String makeDiffHeader(String pathA, String pathB,
 			ObjectId aId,
 			ObjectId bId) {
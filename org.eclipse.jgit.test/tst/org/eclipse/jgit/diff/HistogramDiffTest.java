@@ -142,4 +142,38 @@ public void testFallbackToMyersDiff() {
 		r = hd.diff(cmp, ac, bc);
 		assertEquals(5, r.size());
 	}
+
+	@Test
+	public void testReuseAfterLargerDiff() {
+		HistogramDiff hd = algorithm();
+		RawTextComparator cmp = RawTextComparator.DEFAULT;
+
+		// Leave larger tables behind in the cached scratch space, the
+		// following smaller diff must not see any of their contents.
+		StringBuilder big = new StringBuilder();
+		for (char c = 'A'; c <= 'Z'; c++)
+			big.append(c).append(Character.toLowerCase(c));
+		hd.diff(cmp, t(big.toString()), t(big.reverse().toString()));
+
+		EditList r = hd.diff(cmp, t("aRRSSz"), t("aSSRRz"));
+		assertEquals(2, r.size());
+		assertEquals(new Edit(1, 3, 1, 1), r.get(0));
+		assertEquals(new Edit(5, 5, 3, 5), r.get(1));
+	}
+
+	@Test
+	public void testFallbackToHistogramDiff() {
+		HistogramDiff hd = new HistogramDiff();
+		hd.setMaxChainLength(4);
+
+		// The nested algorithm runs while the outer one is still in the
+		// middle of its diff, so they cannot share scratch space.
+		HistogramDiff inner = new HistogramDiff();
+		inner.setFallbackAlgorithm(MyersDiff.INSTANCE);
+		hd.setFallbackAlgorithm(inner);
+
+		EditList r = hd.diff(RawTextComparator.DEFAULT, t("bbbbb"),
+				t("AbCbDbEFbZ"));
+		assertEquals(5, r.size());
+	}
 }
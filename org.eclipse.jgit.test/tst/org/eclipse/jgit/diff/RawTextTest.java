@@ -82,6 +82,23 @@ public void testEquals() {
 		assertTrue(cmp.equals(b, 0, a, 1));
 	}
 
+	@Test
+	public void testHashLongLines() {
+		final RawText a = new RawText(Constants.encodeASCII(
+				"0123456789abcdefXYZ\n0123456789abcdefXYZ!\n"));
+		final RawText b = new RawText(Constants.encodeASCII(
+				"0123456789abcdefXYZ\n0123456789abcdefXYz\n"));
+		RawTextComparator cmp = RawTextComparator.DEFAULT;
+
+		// Identical lines hash the same regardless of where they start.
+		assertEquals(cmp.hash(a, 0), cmp.hash(b, 0));
+
+		// Differences in the tail after the last full word, or a
+		// difference in length alone, must change the hash.
+		assertFalse(cmp.hash(a, 0) == cmp.hash(b, 1));
+		assertFalse(cmp.hash(a, 0) == cmp.hash(a, 1));
+	}
+
 	@Test
 	public void testWriteLine1() throws IOException {
 		final RawText a = new RawText(Constants.encodeASCII("foo-a\nfoo-b\n"));
@@ -193,6 +193,38 @@ public void testWriteEmptyLockEmpty_RealIndex() throws Exception {
 		}
 	}
 
+	@Test
+	public void testWriteReadV4_RealIndex() throws Exception {
+		db.getConfig().setInt("index", null, "version", 4);
+		final StringBuilder longName = new StringBuilder("d/");
+		for (int i = 0; i < 5000; i++)
+			longName.append('x');
+		final String[] paths = { "a-", "a.b", "a/b", "a/bc", "a/c/d", "a0b",
+				longName.toString(), "d/y" };
+		{
+			final DirCache dc = db.lockDirCache();
+			final DirCacheBuilder b = dc.builder();
+			for (int i = 0; i < paths.length; i++) {
+				DirCacheEntry ent = new DirCacheEntry(paths[i]);
+				ent.setFileMode(FileMode.REGULAR_FILE);
+				ent.setLength(i);
+				b.add(ent);
+			}
+			b.finish();
+			dc.write();
+			assertTrue(dc.commit());
+		}
+		{
+			final DirCache dc = db.readDirCache();
+			assertEquals(4, dc.getVersion());
+			assertEquals(paths.length, dc.getEntryCount());
+			for (int i = 0; i < paths.length; i++) {
+				assertEquals(paths[i], dc.getEntry(i).getPathString());
+				assertEquals(i, dc.getEntry(i).getLength());
+			}
+		}
+	}
+
 	@Test
 	public void testBuildThenClear() throws Exception {
 		final DirCache dc = db.readDirCache();
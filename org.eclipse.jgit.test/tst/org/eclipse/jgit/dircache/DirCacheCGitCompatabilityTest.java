@@ -220,6 +220,42 @@ public void testReadWriteV3() throws Exception {
 		assertArrayEquals(expectedBytes, indexBytes);
 	}
 
+	@Test
+	public void testReadWriteV4() throws Exception {
+		final File file = pathOf("gitgit.index.v4");
+		final Map<String, CGitIndexRecord> ls = readLsFiles();
+		final DirCache dc = new DirCache(file, FS.DETECTED);
+		dc.read();
+		assertEquals(4, dc.getVersion());
+		assertEquals(ls.size(), dc.getEntryCount());
+		{
+			final Iterator<CGitIndexRecord> rItr = ls.values().iterator();
+			for (int i = 0; rItr.hasNext(); i++)
+				assertEqual(rItr.next(), dc.getEntry(i));
+		}
+
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		dc.writeTo(null, bos);
+		assertArrayEquals(IO.readFully(file), bos.toByteArray());
+
+		assertEquals(ObjectId
+				.fromString("698dd0b8d0c299f080559a1cffc7fe029479a408"), dc
+				.getCacheTree(false).getObjectId());
+	}
+
+	@Test
+	public void testConvertToV4() throws Exception {
+		final DirCache dc = new DirCache(index, FS.DETECTED);
+		dc.read();
+		assertEquals(2, dc.getVersion());
+		dc.setVersion(4);
+
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		dc.writeTo(null, bos);
+		assertArrayEquals(IO.readFully(pathOf("gitgit.index.v4")),
+				bos.toByteArray());
+	}
+
 	private static void assertV3TreeEntry(int indexPosition, String path,
 			boolean skipWorkTree, boolean intentToAdd, DirCache dc) {
 		final DirCacheEntry entry = dc.getEntry(indexPosition);
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.errors.DirCacheNameConflictException;
+import org.eclipse.jgit.junit.RepositoryTestCase;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirCacheSparseIndexTest extends RepositoryTestCase {
+	private static final String[] PATHS = { "a/f", "b/sub/x", "b/sub/y",
+			"b/z", "c" };
+
+	private ObjectId treeB;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		StoredConfig cfg = db.getConfig();
+		cfg.setBoolean("index", null, "sparse", true);
+		cfg.save();
+
+		// Everything below b/ is outside of the sparse checkout.
+		final DirCache dc = db.lockDirCache();
+		final DirCacheBuilder b = dc.builder();
+		try (ObjectInserter ins = db.newObjectInserter()) {
+			for (String path : PATHS) {
+				final ObjectId id = ins.insert(Constants.OBJ_BLOB,
+						Constants.encode(path));
+				if (path.startsWith("b/"))
+					b.add(DirCacheEntry.newSkipWorkTree(Constants.encode(path),
+							FileMode.REGULAR_FILE.getBits(), id));
+				else {
+					final DirCacheEntry ent = new DirCacheEntry(path);
+					ent.setFileMode(FileMode.REGULAR_FILE);
+					ent.setObjectId(id);
+					b.add(ent);
+				}
+			}
+			b.finish();
+			dc.writeTree(ins);
+			treeB = dc.getCacheTree(false).getChild(1).getObjectId();
+			ins.flush();
+		}
+		dc.write();
+		assertTrue(dc.commit());
+	}
+
+	@Test
+	public void testWriteSparseIndex() throws Exception {
+		final DirCache dc = db.readDirCache();
+		assertEquals(3, dc.getEntryCount());
+		final DirCacheEntry sparse = dc.getEntry(1);
+		assertEquals("b/", sparse.getPathString());
+		assertTrue(sparse.isSparseDirectory());
+		assertTrue(sparse.isSkipWorkTree());
+		assertEquals(FileMode.TREE, sparse.getFileMode());
+		assertEquals(treeB, sparse.getObjectId());
+		assertFalse(dc.getEntry(0).isSparseDirectory());
+	}
+
+	@Test
+	public void testIterateSparseIndex() throws Exception {
+		try (TreeWalk tw = new TreeWalk(db)) {
+			tw.addTree(new DirCacheIterator(db.readDirCache()));
+			tw.setRecursive(true);
+			for (String path : PATHS) {
+				assertTrue(tw.next());
+				assertEquals(path, tw.getPathString());
+				assertEquals(FileMode.REGULAR_FILE, tw.getFileMode(0));
+			}
+			assertFalse(tw.next());
+		}
+
+		try (TreeWalk tw = new TreeWalk(db)) {
+			tw.addTree(new DirCacheIterator(db.readDirCache()));
+			assertTrue(tw.next());
+			assertTrue(tw.next());
+			assertEquals("b", tw.getPathString());
+			assertEquals(FileMode.TREE, tw.getFileMode(0));
+			assertEquals(treeB, tw.getObjectId(0));
+			assertNull(tw.getTree(0, DirCacheIterator.class)
+					.getDirCacheEntry());
+		}
+	}
+
+	@Test
+	public void testBuildIteratorInsideSparseDirectory() throws Exception {
+		final DirCache dc = db.lockDirCache();
+		final DirCacheBuilder b = dc.builder();
+		try (TreeWalk tw = new TreeWalk(db)) {
+			tw.setRecursive(true);
+			tw.setFilter(PathFilter.create("b/sub/x"));
+			tw.addTree(new DirCacheBuildIterator(b));
+			assertTrue(tw.next());
+			assertFalse(tw.next());
+		}
+		b.finish();
+		assertEntries(dc, "a/f", "b/sub/y", "b/z", "c");
+		for (int i = 1; i < 3; i++)
+			assertTrue(dc.getEntry(i).isSkipWorkTree());
+
+		// The tree of b/ without x does not exist, b/sub/ does.
+		dc.write();
+		assertTrue(dc.commit());
+		assertEntries(db.readDirCache(), "a/f", "b/sub/y", "b/z", "c");
+	}
+
+	@Test
+	public void testExpandSparse() throws Exception {
+		final DirCache dc = db.readDirCache();
+		try (ObjectReader reader = db.newObjectReader()) {
+			dc.expandSparse(reader);
+		}
+		assertEntries(dc, PATHS);
+		for (int i = 1; i < 4; i++)
+			assertTrue(dc.getEntry(i).isSkipWorkTree());
+		assertFalse(dc.getEntry(0).isSkipWorkTree());
+	}
+
+	@Test
+	public void testWriteFullIndex() throws Exception {
+		final StoredConfig cfg = db.getConfig();
+		cfg.setBoolean("index", null, "sparse", false);
+		cfg.save();
+
+		final DirCache dc = db.lockDirCache();
+		dc.write();
+		assertTrue(dc.commit());
+		assertEntries(db.readDirCache(), PATHS);
+	}
+
+	@Test
+	public void testNameConflictWithSparseDirectory() throws Exception {
+		final DirCache dc = db.readDirCache();
+		final DirCacheBuilder b = dc.builder();
+		b.keep(0, dc.getEntryCount());
+		final DirCacheEntry ent = new DirCacheEntry("b/w");
+		ent.setFileMode(FileMode.REGULAR_FILE);
+		b.add(ent);
+		try {
+			b.finish();
+			fail("Expected DirCacheNameConflictException to be thrown");
+		} catch (DirCacheNameConflictException e) {
+			assertEquals("b/", e.getPath1());
+			assertEquals("b/w", e.getPath2());
+		}
+	}
+
+	@Test
+	public void testReadSparseExpandPath() throws Exception {
+		final ObjectId tree;
+		try (ObjectInserter ins = db.newObjectInserter()) {
+			tree = db.readDirCache().writeTree(ins);
+			ins.flush();
+		}
+		try (ObjectReader reader = db.newObjectReader()) {
+			final DirCache dc = DirCache.readSparse(reader, tree);
+			assertEntries(dc, "a/", "b/", "c");
+			assertEquals(treeB, dc.getEntry("b/").getObjectId());
+
+			dc.expandSparse(reader, "b/sub/x");
+			assertEntries(dc, "a/", "b/sub/x", "b/sub/y", "b/z", "c");
+			assertTrue(dc.getEntry("b/sub/x").isSkipWorkTree());
+
+			dc.expandSparse(reader, "a");
+			assertEntries(dc, "a/f", "b/sub/x", "b/sub/y", "b/z", "c");
+
+			try (ObjectInserter ins = db.newObjectInserter()) {
+				assertEquals(tree, dc.writeTree(ins));
+			}
+		}
+	}
+
+	private static void assertEntries(DirCache dc, String... paths) {
+		final List<String> actual = new ArrayList<>();
+		for (int i = 0; i < dc.getEntryCount(); i++)
+			actual.add(dc.getEntry(i).getPathString());
+		assertEquals(Arrays.asList(paths), actual);
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+
+import org.eclipse.jgit.junit.RepositoryTestCase;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirCacheSplitIndexTest extends RepositoryTestCase {
+	private static final String[] PATHS = { "a/b", "a/c", "b", "c/d/e", "c/f",
+			"d", "e", "f", "g/h", "i" };
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		StoredConfig cfg = db.getConfig();
+		cfg.setBoolean("core", null, "splitIndex", true);
+		cfg.save();
+	}
+
+	@Test
+	public void testWriteSplitIndex() throws Exception {
+		writeIndex(PATHS);
+		assertEquals(1, sharedIndexes().length);
+
+		final DirCache dc = db.readDirCache();
+		assertTrue(dc.isSplitIndex());
+		assertEntries(dc, PATHS);
+	}
+
+	@Test
+	public void testWriteChangesOnly() throws Exception {
+		setMaxPercentChange(50);
+		writeIndex(PATHS);
+		final File shared = sharedIndexes()[0];
+
+		final DirCache dc = db.lockDirCache();
+		final DirCacheEditor ed = dc.editor();
+		ed.add(new DirCacheEditor.DeletePath("b"));
+		ed.add(new DirCacheEditor.PathEdit("c/f") {
+			@Override
+			public void apply(DirCacheEntry ent) {
+				ent.setLength(42);
+			}
+		});
+		ed.add(new DirCacheEditor.PathEdit("c/g") {
+			@Override
+			public void apply(DirCacheEntry ent) {
+				ent.setFileMode(FileMode.REGULAR_FILE);
+				ent.setLength(43);
+			}
+		});
+		ed.finish();
+		dc.write();
+		assertTrue(dc.commit());
+
+		File[] files = sharedIndexes();
+		assertEquals(1, files.length);
+		assertEquals(shared, files[0]);
+		assertTrue(db.getIndexFile().length() < shared.length());
+
+		final DirCache r = db.readDirCache();
+		assertEntries(r, "a/b", "a/c", "c/d/e", "c/f", "c/g", "d", "e", "f",
+				"g/h", "i");
+		assertEquals(42, r.getEntry("c/f").getLength());
+		assertEquals(43, r.getEntry("c/g").getLength());
+		assertEquals(FileMode.REGULAR_FILE, r.getEntry("c/g").getFileMode());
+	}
+
+	@Test
+	public void testWriteChangesOnlyV4() throws Exception {
+		db.getConfig().setInt("index", null, "version", 4);
+		testWriteChangesOnly();
+		assertEquals(4, db.readDirCache().getVersion());
+	}
+
+	@Test
+	public void testRewriteSharedIndex() throws Exception {
+		setMaxPercentChange(10);
+		writeIndex(PATHS);
+		final File shared = sharedIndexes()[0];
+
+		final DirCache dc = db.lockDirCache();
+		final DirCacheEditor ed = dc.editor();
+		ed.add(new DirCacheEditor.DeletePath("b"));
+		ed.add(new DirCacheEditor.DeletePath("d"));
+		ed.finish();
+		dc.write();
+		assertTrue(dc.commit());
+
+		File[] files = sharedIndexes();
+		assertEquals(2, files.length);
+		assertTrue(shared.equals(files[0]) || shared.equals(files[1]));
+		assertEntries(db.readDirCache(), "a/b", "a/c", "c/d/e", "c/f", "e",
+				"f", "g/h", "i");
+	}
+
+	@Test
+	public void testDisableSplitIndex() throws Exception {
+		writeIndex(PATHS);
+		final StoredConfig cfg = db.getConfig();
+		cfg.setBoolean("core", null, "splitIndex", false);
+		cfg.save();
+
+		final DirCache dc = db.lockDirCache();
+		assertFalse(dc.isSplitIndex());
+		dc.write();
+		assertTrue(dc.commit());
+
+		final DirCache r = new DirCache(db.getIndexFile(), db.getFS());
+		r.read();
+		assertFalse(r.isSplitIndex());
+		assertEntries(r, PATHS);
+	}
+
+	@Test
+	public void testUnlockKeepsSharedIndex() throws Exception {
+		setMaxPercentChange(50);
+		writeIndex(PATHS);
+		final File shared = sharedIndexes()[0];
+
+		final DirCache dc = db.lockDirCache();
+		dc.setSplitIndex(false);
+		dc.write();
+		dc.unlock();
+
+		assertTrue(dc.lock());
+		dc.setSplitIndex(true);
+		final DirCacheEditor ed = dc.editor();
+		ed.add(new DirCacheEditor.PathEdit("c/f") {
+			@Override
+			public void apply(DirCacheEntry ent) {
+				ent.setLength(42);
+			}
+		});
+		ed.finish();
+		dc.write();
+		assertTrue(dc.commit());
+
+		File[] files = sharedIndexes();
+		assertEquals(1, files.length);
+		assertEquals(shared, files[0]);
+
+		final DirCache r = db.readDirCache();
+		assertTrue(r.isSplitIndex());
+		assertEntries(r, PATHS);
+		assertEquals(42, r.getEntry("c/f").getLength());
+	}
+
+	private void setMaxPercentChange(int percent) throws Exception {
+		final StoredConfig cfg = db.getConfig();
+		cfg.setInt("splitIndex", null, "maxPercentChange", percent);
+		cfg.save();
+	}
+
+	private void writeIndex(String... paths) throws Exception {
+		final DirCache dc = db.lockDirCache();
+		final DirCacheBuilder b = dc.builder();
+		for (int i = 0; i < paths.length; i++) {
+			final DirCacheEntry ent = new DirCacheEntry(paths[i]);
+			ent.setFileMode(FileMode.REGULAR_FILE);
+			ent.setObjectId(ObjectId.zeroId());
+			ent.setLength(i);
+			b.add(ent);
+		}
+		b.finish();
+		dc.write();
+		assertTrue(dc.commit());
+	}
+
+	private File[] sharedIndexes() {
+		return db.getDirectory().listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith("sharedindex.");
+			}
+		});
+	}
+
+	private static void assertEntries(DirCache dc, String... paths) {
+		assertEquals(paths.length, dc.getEntryCount());
+		for (int i = 0; i < paths.length; i++)
+			assertEquals(paths[i], dc.getEntry(i).getPathString());
+	}
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.ketch;
+
+import static org.eclipse.jgit.internal.ketch.Proposal.State.EXECUTED;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.internal.storage.reftree.Command;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.util.time.MonotonicSystemClock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KetchLeaderTest {
+	private InMemoryRepository repo;
+	private TestRepository<InMemoryRepository> git;
+	private ScheduledExecutorService executor;
+
+	@Before
+	public void setUp() throws Exception {
+		repo = new InMemoryRepository(new DfsRepositoryDescription("ketch"));
+		git = new TestRepository<>(repo);
+		executor = Executors.newScheduledThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testLatencyHistogram() {
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.getPercentileMillis(50));
+		h.record(0);
+		h.record(3);
+		h.record(3);
+		h.record(100);
+		assertEquals(4, h.getCount());
+		assertEquals(1, h.getCount(0));
+		assertEquals(2, h.getCount(2));
+		assertEquals(1, h.getCount(7));
+		assertEquals(4, h.getPercentileMillis(50));
+		assertEquals(100, h.getPercentileMillis(99));
+		assertEquals(100, h.getMaxMillis());
+		assertEquals(26.5, h.getMeanMillis(), 0.001);
+
+		LatencyHistogram c = h.copy();
+		h.record(1);
+		assertEquals(4, c.getCount());
+		assertEquals(Long.MAX_VALUE,
+				c.getUpperBoundMillis(c.getBucketCount() - 1));
+	}
+
+	@Test
+	public void testSerialRounds() throws Exception {
+		runProposals(1, 10);
+	}
+
+	@Test
+	public void testPipelinedRounds() throws Exception {
+		LeaderSnapshot s = runProposals(3, 25);
+		assertTrue(s.getCommitLatency().getCount() > 0);
+		ReplicaSnapshot r = s.getReplicas().iterator().next();
+		assertTrue(r.getPushLatency().getCount() > 0);
+	}
+
+	@Test
+	public void testQuorumWithFailingVoter() throws Exception {
+		KetchLeader leader = newLeader(newSystem(3, Duration.ZERO));
+		TestReplica failing = new TestReplica(leader, "failing");
+		failing.fail = true;
+		leader.setReplicas(Arrays.<KetchReplica> asList(
+				new LocalReplica(leader, "local", new ReplicaConfig()),
+				new TestReplica(leader, "remote"), failing));
+
+		RevCommit c = git.commit().create();
+		List<Proposal> proposals = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			proposals.add(propose(leader, create(c, "refs/heads/b" + i)));
+		}
+		for (Proposal p : proposals) {
+			assertExecuted(p);
+		}
+
+		LeaderSnapshot s = leader.snapshot();
+		assertEquals(s.getHead(), s.getCommitted());
+		for (ReplicaSnapshot r : s.getReplicas()) {
+			if (r.getReplica() == failing) {
+				assertNull(r.getAccepted());
+			} else {
+				assertEquals(s.getHead(), r.getAccepted());
+			}
+		}
+		leader.shutdown();
+	}
+
+	@Test
+	public void testLaggingVotersDelayCommit() throws Exception {
+		KetchLeader leader = newLeader(newSystem(1, Duration.ZERO));
+		TestReplica slow1 = new TestReplica(leader, "slow1");
+		TestReplica slow2 = new TestReplica(leader, "slow2");
+		slow1.lag = new CountDownLatch(1);
+		slow2.lag = new CountDownLatch(1);
+		leader.setReplicas(Arrays.<KetchReplica> asList(
+				new LocalReplica(leader, "local", new ReplicaConfig()),
+				slow1, slow2));
+
+		RevCommit c = git.commit().create();
+		Proposal p = propose(leader, create(c, "refs/heads/master"));
+
+		// Only the local replica accepted, which is not a majority of 3.
+		assertFalse(p.await(500, TimeUnit.MILLISECONDS));
+		assertNull(repo.exactRef("refs/heads/master"));
+
+		slow1.lag.countDown();
+		assertExecuted(p);
+		LeaderSnapshot s = leader.snapshot();
+		assertEquals(s.getHead(), s.getCommitted());
+
+		slow2.lag.countDown();
+		leader.shutdown();
+	}
+
+	@Test
+	public void testSkipNoOpRound() throws Exception {
+		KetchLeader leader = newLeader(newSystem(1, Duration.ofMillis(200)));
+		leader.setReplicas(Arrays.<KetchReplica> asList(
+				new LocalReplica(leader, "local", new ReplicaConfig()),
+				new TestReplica(leader, "remote1"),
+				new TestReplica(leader, "remote2")));
+
+		RevCommit c = git.commit().create();
+		assertExecuted(propose(leader, create(c, "refs/heads/master")));
+		LogIndex head = leader.snapshot().getHead();
+
+		// Both proposals run in one round, which leaves the log unchanged.
+		Proposal add = propose(leader, create(c, "refs/heads/tmp"));
+		Proposal del = propose(leader, new ReceiveCommand(c,
+				ObjectId.zeroId(), "refs/heads/tmp"));
+		assertExecuted(add);
+		assertExecuted(del);
+		assertEquals(head, leader.snapshot().getHead());
+
+		// The leader must continue with later rounds.
+		assertExecuted(propose(leader, create(c, "refs/heads/next")));
+		LeaderSnapshot s = leader.snapshot();
+		assertFalse(head.equals(s.getHead()));
+		assertEquals(s.getHead(), s.getCommitted());
+		leader.shutdown();
+	}
+
+	private LeaderSnapshot runProposals(int inFlight, int count)
+			throws Exception {
+		KetchLeader leader = newLeader(newSystem(inFlight, Duration.ZERO));
+		leader.setReplicas(Collections.<KetchReplica> singletonList(
+				new LocalReplica(leader, "local", new ReplicaConfig())));
+
+		RevCommit c = git.commit().create();
+		List<Proposal> proposals = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			proposals.add(propose(leader, create(c, "refs/heads/b" + i)));
+		}
+		for (Proposal p : proposals) {
+			assertExecuted(p);
+		}
+
+		LeaderSnapshot s = leader.snapshot();
+		assertEquals(s.getHead(), s.getCommitted());
+		Ref accepted = repo.exactRef("refs/txn/accepted");
+		assertEquals(s.getHead(), accepted.getObjectId());
+		leader.shutdown();
+		return s;
+	}
+
+	private KetchSystem newSystem(final int inFlight, final Duration delay) {
+		return new KetchSystem(executor, new MonotonicSystemClock(),
+				"refs/txn/") {
+			@Override
+			public int getMaxRoundsInFlight() {
+				return inFlight;
+			}
+
+			@Override
+			public Duration getGroupCommitDelay() {
+				return delay;
+			}
+		};
+	}
+
+	private KetchLeader newLeader(KetchSystem system) {
+		return new KetchLeader(system) {
+			@Override
+			protected Repository openRepository() {
+				repo.incrementOpen();
+				return repo;
+			}
+		};
+	}
+
+	private static ReceiveCommand create(ObjectId id, String name) {
+		return new ReceiveCommand(ObjectId.zeroId(), id, name);
+	}
+
+	private Proposal propose(KetchLeader leader, ReceiveCommand cmd)
+			throws Exception {
+		try (RevWalk rw = new RevWalk(repo)) {
+			Proposal p = new Proposal(rw, Collections.singletonList(cmd));
+			leader.queueProposal(p);
+			return p;
+		}
+	}
+
+	private static void assertExecuted(Proposal p)
+			throws InterruptedException, IOException {
+		await(p);
+		assertEquals(EXECUTED, p.getState());
+		for (Command cmd : p.getCommands()) {
+			assertEquals(OK, cmd.getResult());
+		}
+	}
+
+	/** Remote voter which accepts every push, fails, or waits first. */
+	private class TestReplica extends KetchReplica {
+		volatile boolean fail;
+
+		volatile CountDownLatch lag;
+
+		TestReplica(KetchLeader leader, String name) {
+			super(leader, name, new ReplicaConfig());
+		}
+
+		@Override
+		protected void startPush(final ReplicaPushRequest req) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (lag != null) {
+							lag.await();
+						}
+					} catch (InterruptedException e) {
+						req.setException(null, e);
+						return;
+					}
+					if (fail) {
+						req.setException(null, new IOException("offline"));
+						return;
+					}
+					for (ReceiveCommand cmd : req.getCommands()) {
+						cmd.setResult(OK);
+					}
+					req.done(null);
+				}
+			});
+		}
+
+		@Override
+		protected void blockingFetch(Repository r, ReplicaFetchRequest req)
+				throws IOException {
+			throw new IOException("not supported");
+		}
+	}
+
+	private static void await(Proposal p)
+			throws InterruptedException, IOException {
+		long deadline = System.currentTimeMillis() + 30000;
+		while (!p.isDone() && System.currentTimeMillis() < deadline) {
+			p.await(100, TimeUnit.MILLISECONDS);
+		}
+		if (!p.isDone()) {
+			throw new IOException("timed out: " + p);
+		}
+	}
+}
@@ -47,12 +47,18 @@
 
 import java.io.File;
 import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.junit.TestRepository.BranchBuilder;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.ReflogEntry;
+import org.eclipse.jgit.lib.ReflogReader;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.util.FileUtils;
 import org.junit.Test;
@@ -144,4 +150,43 @@ public void testPackCommitsAndLooseOneWithPruneNowNoReflog()
 		assertEquals(4, stats.numberOfPackedObjects);
 		assertEquals(1, stats.numberOfPackFiles);
 	}
+
+	@Test
+	public void testExpireReflogs() throws Exception {
+		RevCommit a = tr.commit().add("A", "A").create();
+		RevCommit b = tr.commit().parent(a).add("A", "B").create();
+		RevCommit c = tr.commit().parent(b).add("A", "C").create();
+		tr.update("refs/heads/master", a);
+		tr.tick(3600);
+		tr.update("refs/heads/master", b);
+		tr.tick(3600);
+		tr.update("refs/heads/master", c);
+
+		ReflogReader reader = repo.getReflogReader("refs/heads/master");
+		List<ReflogEntry> entries = reader.getReverseEntries();
+		assertEquals(3, entries.size());
+
+		StoredConfig cfg = repo.getConfig();
+		cfg.setString(ConfigConstants.CONFIG_GC_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REFLOGEXPIRE, "never");
+		gc.expireReflogs();
+		assertEquals(3, reader.getReverseEntries().size());
+
+		gc.setReflogExpire(entries.get(1).getWho().getWhen());
+		gc.expireReflogs();
+		List<ReflogEntry> kept = reader.getReverseEntries();
+		assertEquals(2, kept.size());
+		assertEquals(c, kept.get(0).getNewId());
+		assertEquals(b, kept.get(1).getNewId());
+		assertEquals(b, reader.getEntryAt(
+				entries.get(1).getWho().getWhen().getTime()).getNewId());
+
+		gc.setReflogExpire(null);
+		gc.expireReflogs();
+		assertEquals(2, reader.getReverseEntries().size());
+
+		gc.setReflogExpire(new Date(Long.MAX_VALUE));
+		gc.expireReflogs();
+		assertEquals(0, reader.getReverseEntries().size());
+	}
 }
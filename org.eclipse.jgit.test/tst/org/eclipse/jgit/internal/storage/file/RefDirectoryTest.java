@@ -63,6 +63,10 @@
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -74,10 +78,13 @@
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Ref.Storage;
 import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.ReflogEntry;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTag;
@@ -1289,6 +1296,262 @@ public void onRefsChanged(RefsChangedEvent event) {
 		assertEquals(1, changeCount.get());
 	}
 
+	@Test
+	public void testAtomicBatchRefUpdateWritesPackedRefs() throws Exception {
+		writeLooseRef("refs/heads/master", A);
+		writeLooseRef("refs/heads/masters", B);
+		writePackedRef("refs/heads/old", A);
+		write(new File(diskRepo.getDirectory(), "logs/refs/heads/master"), "");
+		List<ReceiveCommand> commands = new ArrayList<ReceiveCommand>();
+		commands.add(newCommand(A, B, "refs/heads/master",
+				ReceiveCommand.Type.UPDATE));
+		commands.add(newCommand(null, A, "refs/heads/masters/x",
+				ReceiveCommand.Type.CREATE));
+		commands.add(newCommand(B, null, "refs/heads/masters",
+				ReceiveCommand.Type.DELETE));
+		commands.add(newCommand(A, null, "refs/heads/old",
+				ReceiveCommand.Type.DELETE));
+		for (int i = 0; i < 100; i++) {
+			commands.add(new ReceiveCommand(ObjectId.zeroId(), v1_0,
+					"refs/tags/t" + i));
+		}
+		BatchRefUpdate batchUpdate = refdir.newBatchUpdate();
+		batchUpdate.setAtomic(true);
+		batchUpdate.setRefLogMessage("push", true);
+		batchUpdate.addCommand(commands);
+		batchUpdate.execute(new RevWalk(diskRepo), new StrictWorkMonitor());
+		for (ReceiveCommand cmd : commands) {
+			assertEquals(cmd.getRefName(), ReceiveCommand.Result.OK,
+					cmd.getResult());
+		}
+
+		File gitDir = diskRepo.getDirectory();
+		assertFalse(new File(gitDir, "refs/heads/master").exists());
+		assertTrue(new File(gitDir, "packed-refs").exists());
+		Map<String, Ref> refs = refdir.getRefs(RefDatabase.ALL);
+		assertEquals(103, refs.size());
+		assertFalse(refs.containsKey("refs/heads/old"));
+		assertFalse(refs.containsKey("refs/heads/masters"));
+		assertEquals(A, refs.get("refs/heads/masters/x").getObjectId());
+		Ref master = refs.get("refs/heads/master");
+		assertEquals(B, master.getObjectId());
+		assertEquals(Storage.PACKED, master.getStorage());
+		Ref tag = refs.get("refs/tags/t42");
+		assertEquals(v1_0, tag.getObjectId());
+		assertEquals(B, tag.getPeeledObjectId());
+
+		ReflogEntry log = diskRepo.getReflogReader("refs/heads/master")
+				.getLastEntry();
+		assertEquals(A, log.getOldId());
+		assertEquals(B, log.getNewId());
+		assertEquals("push: fast forward", log.getComment());
+
+		// A fresh instance reads the same values from disk.
+		refdir.refresh();
+		assertEquals(B, refdir.exactRef("refs/heads/master").getObjectId());
+		assertEquals(103, refdir.getRefs(RefDatabase.ALL).size());
+	}
+
+	@Test
+	public void testAtomicBatchRefUpdateRejectsAll() throws Exception {
+		writeLooseRef("refs/heads/master", A);
+		writeLooseRef("refs/heads/masters", B);
+		List<ReceiveCommand> commands = Arrays.asList(
+				newCommand(null, A, "refs/heads/new",
+						ReceiveCommand.Type.CREATE),
+				newCommand(B, A, "refs/heads/master",
+						ReceiveCommand.Type.UPDATE));
+		BatchRefUpdate batchUpdate = refdir.newBatchUpdate();
+		batchUpdate.setAllowNonFastForwards(true);
+		batchUpdate.setAtomic(true);
+		batchUpdate.addCommand(commands);
+		batchUpdate.execute(new RevWalk(diskRepo), new StrictWorkMonitor());
+		assertEquals(ReceiveCommand.Result.REJECTED_OTHER_REASON,
+				commands.get(0).getResult());
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE,
+				commands.get(1).getResult());
+		assertNull(refdir.exactRef("refs/heads/new"));
+		assertEquals(A, refdir.exactRef("refs/heads/master").getObjectId());
+		assertFalse(new File(diskRepo.getDirectory(), "packed-refs").exists());
+
+		commands = Arrays.asList(
+				newCommand(null, A, "refs/heads/new",
+						ReceiveCommand.Type.CREATE),
+				newCommand(null, A, "refs/heads/master/x",
+						ReceiveCommand.Type.CREATE));
+		batchUpdate = refdir.newBatchUpdate();
+		batchUpdate.setAtomic(true);
+		batchUpdate.addCommand(commands);
+		batchUpdate.execute(new RevWalk(diskRepo), new StrictWorkMonitor());
+		assertEquals(ReceiveCommand.Result.REJECTED_OTHER_REASON,
+				commands.get(0).getResult());
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE,
+				commands.get(1).getResult());
+		assertNull(refdir.exactRef("refs/heads/new"));
+	}
+
+	@Test
+	public void testConcurrentBatchRefUpdate() throws Exception {
+		writeLooseRef("refs/heads/master", A);
+		writeLooseRef("refs/heads/masters", B);
+		List<ReceiveCommand> commands = new ArrayList<ReceiveCommand>();
+		commands.add(newCommand(A, B, "refs/heads/master",
+				ReceiveCommand.Type.UPDATE));
+		commands.add(newCommand(B, A, "refs/heads/masters",
+				ReceiveCommand.Type.UPDATE_NONFASTFORWARD));
+		for (int i = 0; i < 50; i++) {
+			commands.add(newCommand(null, A, "refs/heads/b/" + i,
+					ReceiveCommand.Type.CREATE));
+		}
+		commands.add(newCommand(null, A, "refs/heads/master/x",
+				ReceiveCommand.Type.CREATE));
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			PackedBatchRefUpdate batchUpdate = refdir.newBatchUpdate();
+			batchUpdate.setExecutor(executor);
+			batchUpdate.addCommand(commands);
+			batchUpdate.execute(new RevWalk(diskRepo),
+					new StrictWorkMonitor());
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(ReceiveCommand.Result.OK, commands.get(0).getResult());
+		assertEquals(ReceiveCommand.Result.REJECTED_NONFASTFORWARD,
+				commands.get(1).getResult());
+		for (int i = 0; i < 50; i++) {
+			assertEquals(ReceiveCommand.Result.OK,
+					commands.get(2 + i).getResult());
+		}
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE,
+				commands.get(52).getResult());
+		Map<String, Ref> refs = refdir.getRefs(RefDatabase.ALL);
+		assertEquals(53, refs.size());
+		assertEquals(B, refs.get("refs/heads/master").getObjectId());
+		assertEquals(B, refs.get("refs/heads/masters").getObjectId());
+		assertEquals(A, refs.get("refs/heads/b/7").getObjectId());
+	}
+
+	@Test
+	public void testPublishedSnapshot() throws Exception {
+		ScheduledExecutorService executor = Executors
+				.newScheduledThreadPool(1);
+		try {
+			writeLooseRef("refs/heads/master", A);
+			refdir.publishSnapshots(executor, 0, TimeUnit.SECONDS, false);
+			assertTrue(refdir.isPublishingSnapshots());
+
+			Ref head = refdir.exactRef(HEAD);
+			assertTrue(head.isSymbolic());
+			assertEquals(A, head.getObjectId());
+
+			// Changes made by other processes wait for the next refresh.
+			writeLooseRef("refs/heads/other", B);
+			assertNull(refdir.exactRef("refs/heads/other"));
+			assertFalse(refdir.getRefs(R_HEADS).containsKey("other"));
+			refdir.refreshSnapshot();
+			assertEquals(B, refdir.exactRef("refs/heads/other").getObjectId());
+			assertEquals(B, refdir.getRef("other").getObjectId());
+			assertEquals(B, refdir.getRefs(R_HEADS).get("other").getObjectId());
+
+			// Updates through this database are published immediately.
+			RefUpdate u = refdir.newUpdate("refs/heads/master", false);
+			u.setNewObjectId(B);
+			assertEquals(RefUpdate.Result.FAST_FORWARD, u.update());
+			assertEquals(B, refdir.exactRef(HEAD).getObjectId());
+			assertEquals(B, refdir.getRefs(R_HEADS).get("master").getObjectId());
+
+			// A stale snapshot is not used to check the old value.
+			writeLooseRef("refs/heads/other", A);
+			u = refdir.newUpdate("refs/heads/other", false);
+			u.setExpectedOldObjectId(B);
+			u.setNewObjectId(A);
+			assertEquals(RefUpdate.Result.LOCK_FAILURE, u.update());
+
+			u = refdir.newUpdate("refs/heads/other", false);
+			u.setForceUpdate(true);
+			assertEquals(RefUpdate.Result.FORCED, u.delete());
+			assertNull(refdir.exactRef("refs/heads/other"));
+
+			// Names outside of refs/ are read from disk.
+			writeLooseRef("FETCH_HEAD", A);
+			assertEquals(A, refdir.exactRef("FETCH_HEAD").getObjectId());
+
+			refdir.stopPublishingSnapshots();
+			assertFalse(refdir.isPublishingSnapshots());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testPublishedSnapshotUnbornHead() throws Exception {
+		ScheduledExecutorService executor = Executors
+				.newScheduledThreadPool(1);
+		try {
+			refdir.publishSnapshots(executor, 0, TimeUnit.SECONDS, false);
+
+			Ref head = refdir.exactRef(HEAD);
+			assertNotNull(head);
+			assertTrue(head.isSymbolic());
+			assertEquals("refs/heads/master", head.getTarget().getName());
+			assertNull(head.getObjectId());
+			assertNotNull(refdir.getRef(HEAD));
+			assertFalse(refdir.getRefs(RefDatabase.ALL).containsKey(HEAD));
+
+			writeLooseRef("refs/heads/master", A);
+			refdir.refreshSnapshot();
+			assertEquals(A, refdir.exactRef(HEAD).getObjectId());
+			assertEquals(A, refdir.getRefs(RefDatabase.ALL).get(HEAD)
+					.getObjectId());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRefreshSnapshotDoesNotStartPublishing() throws Exception {
+		writeLooseRef("refs/heads/master", A);
+		refdir.refreshSnapshot();
+		assertFalse(refdir.isPublishingSnapshots());
+
+		ScheduledExecutorService executor = Executors
+				.newScheduledThreadPool(1);
+		try {
+			refdir.publishSnapshots(executor, 0, TimeUnit.SECONDS, false);
+			refdir.stopPublishingSnapshots();
+			// A refresh still running after publishing stopped.
+			refdir.refreshSnapshot();
+			assertFalse(refdir.isPublishingSnapshots());
+
+			writeLooseRef("refs/heads/master", B);
+			assertEquals(B, refdir.exactRef("refs/heads/master").getObjectId());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testPublishedSnapshotWatch() throws Exception {
+		ScheduledExecutorService executor = Executors
+				.newScheduledThreadPool(2);
+		try {
+			refdir.publishSnapshots(executor, 0, TimeUnit.SECONDS, true);
+			writeLooseRef("refs/heads/topic/a", A);
+
+			long deadline = System.currentTimeMillis() + 10000;
+			while (refdir.exactRef("refs/heads/topic/a") == null
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(A, refdir.exactRef("refs/heads/topic/a").getObjectId());
+		} finally {
+			refdir.stopPublishingSnapshots();
+			executor.shutdownNow();
+		}
+	}
+
 	@Test
 	public void testBatchRefUpdateSimpleNoForce() throws IOException {
 		writeLooseRef("refs/heads/master", A);
@@ -268,6 +268,105 @@ public void testSpecificEntryNumber() throws Exception {
 		assertNull(reader.getReverseEntry(3));
 	}
 
+	@Test
+	public void testLongLog() throws Exception {
+		int n = 5000;
+		long t0 = 1243028200L;
+		StringBuilder log = new StringBuilder();
+		for (int i = 0; i < n; i++)
+			log.append(line(i, t0 + 10 * i));
+		setupReflog("logs/refs/heads/master", log.toString().getBytes());
+
+		ReflogReader reader = new ReflogReaderImpl(db, "refs/heads/master");
+		assertEquals(id(n - 1), reader.getLastEntry().getNewId());
+		assertEquals(id(n - 1 - 1234), reader.getReverseEntry(1234)
+				.getNewId());
+		assertEquals(id(0), reader.getReverseEntry(n - 1).getNewId());
+		assertNull(reader.getReverseEntry(n));
+		List<ReflogEntry> entries = reader.getReverseEntries(3);
+		assertEquals(3, entries.size());
+		assertEquals(id(n - 3), entries.get(2).getNewId());
+		assertEquals(n, reader.getReverseEntries().size());
+
+		assertNull(reader.getEntryAt((t0 - 1) * 1000));
+		assertEquals(id(0), reader.getEntryAt(t0 * 1000).getNewId());
+		assertEquals(id(0), reader.getEntryAt((t0 + 9) * 1000).getNewId());
+		for (int i : new int[] { 1, 17, 2500, 4321, n - 1 }) {
+			long t = (t0 + 10 * i) * 1000;
+			assertEquals(id(i), reader.getEntryAt(t).getNewId());
+			assertEquals(id(i), reader.getEntryAt(t + 5000).getNewId());
+			assertEquals(id(i - 1), reader.getEntryAt(t - 1).getNewId());
+		}
+		assertEquals(id(n - 1), reader.getEntryAt(Long.MAX_VALUE).getNewId());
+	}
+
+	@Test
+	public void testEntryAtIgnoresAppendInProgress() throws Exception {
+		setupReflog("logs/refs/heads/master", twoLineWithAppendInProgress);
+		ReflogReader reader = new ReflogReaderImpl(db, "refs/heads/master");
+		assertEquals(
+				ObjectId.fromString("54794942a18a237c57a80719afed44bb78172b10"),
+				reader.getEntryAt(Long.MAX_VALUE).getNewId());
+		assertEquals(
+				ObjectId.fromString("c6734895958052a9dbc396cff4459dc1a25029ab"),
+				reader.getEntryAt(1243028201000L).getNewId());
+		assertNull(reader.getEntryAt(1243028200999L));
+	}
+
+	@Test
+	public void testDefaultEntryAt() throws Exception {
+		setupReflog("logs/refs/heads/master", twoLine);
+		final ReflogReader impl = new ReflogReaderImpl(db,
+				"refs/heads/master");
+		ReflogReader reader = new ReflogReader() {
+			@Override
+			public ReflogEntry getLastEntry() throws IOException {
+				return impl.getLastEntry();
+			}
+
+			@Override
+			public List<ReflogEntry> getReverseEntries() throws IOException {
+				return impl.getReverseEntries();
+			}
+
+			@Override
+			public ReflogEntry getReverseEntry(int number) throws IOException {
+				return impl.getReverseEntry(number);
+			}
+
+			@Override
+			public List<ReflogEntry> getReverseEntries(int max)
+					throws IOException {
+				return impl.getReverseEntries(max);
+			}
+		};
+		for (long t : new long[] { 1243028200999L, 1243028201000L,
+				1243028201999L, 1243028202000L, Long.MAX_VALUE }) {
+			ReflogEntry expect = impl.getEntryAt(t);
+			ReflogEntry actual = reader.getEntryAt(t);
+			if (expect == null)
+				assertNull(actual);
+			else
+				assertEquals(expect.getNewId(), actual.getNewId());
+		}
+		assertNull(reader.getEntryAt(1243028200999L));
+	}
+
+	@Test
+	public void testEntryAtNoLog() throws Exception {
+		assertNull(db.getReflogReader("master").getEntryAt(Long.MAX_VALUE));
+	}
+
+	private static ObjectId id(int i) {
+		return ObjectId.fromString(String.format("%040x", Integer.valueOf(i)));
+	}
+
+	private static String line(int i, long when) {
+		return String.format("%040x %040x A U Thor <thor@committer.au> %d"
+				+ " +0000\tcommit: change %d\n", Integer.valueOf(i - 1),
+				Integer.valueOf(i), Long.valueOf(when), Integer.valueOf(i));
+	}
+
 	private void setupReflog(String logName, byte[] data)
 			throws FileNotFoundException, IOException {
 				File logfile = new File(db.getDirectory(), logName);
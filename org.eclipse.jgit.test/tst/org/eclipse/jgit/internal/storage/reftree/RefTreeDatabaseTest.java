@@ -306,6 +306,42 @@ public void testGetRefs_DiscoversModified() throws IOException {
 		assertEquals(B, refdb.exactRef(HEAD).getObjectId());
 	}
 
+	@Test
+	public void testGetRefs_UpdatesCachedRefs() throws IOException {
+		symref(HEAD, "refs/heads/master");
+		update("refs/heads/master", A);
+		update("refs/heads/a/b", A);
+		update("refs/tags/v1_0", v1_0);
+		update("refs/tags/old", v1_0);
+		symref("refs/heads/broken", "refs/heads/missing");
+		assertEquals(6, refdb.getRefs(ALL).size());
+
+		update("refs/heads/master", B);
+		update("refs/heads/a/c", B);
+		delete("refs/tags/old");
+		update("refs/tags/v1_0", B);
+		update("refs/heads/missing", A);
+		symref("refs/heads/sym", "refs/heads/a/c");
+
+		Map<String, Ref> all = refdb.getRefs(ALL);
+		RefTreeDatabase fresh = new RefTreeDatabase(repo, bootstrap,
+				refdb.getTxnCommitted());
+		assertRefs(fresh.getRefs(ALL), all);
+		assertEquals(8, all.size());
+		assertNull(all.get("refs/tags/v1_0").getPeeledObjectId());
+		assertEquals(B, refdb.exactRef(HEAD).getObjectId());
+		assertEquals(A, refdb.exactRef("refs/heads/broken").getObjectId());
+		assertEquals(B, refdb.exactRef("refs/heads/sym").getObjectId());
+		assertNull(refdb.exactRef("refs/tags/old"));
+
+		update("refs/tags/v1_0", v1_0);
+		delete("refs/heads/a/c");
+		all = refdb.getRefs(ALL);
+		assertRefs(fresh.getRefs(ALL), all);
+		assertEquals(B, all.get("refs/tags/v1_0").getPeeledObjectId());
+		assertNull(all.get("refs/heads/sym").getObjectId());
+	}
+
 	@Test
 	public void testGetRefs_CycleInSymbolicRef() throws IOException {
 		symref("refs/1", "refs/2");
@@ -664,6 +700,31 @@ public boolean apply(ObjectReader reader, RefTree tree)
 		});
 	}
 
+	private void delete(final String name) throws IOException {
+		commit(new Function() {
+			@Override
+			public boolean apply(ObjectReader reader, RefTree tree)
+					throws IOException {
+				Ref old = tree.exactRef(reader, name);
+				Command n = new Command(old, null);
+				return tree.apply(Collections.singleton(n));
+			}
+		});
+	}
+
+	private static void assertRefs(Map<String, Ref> exp,
+			Map<String, Ref> act) {
+		assertEquals(exp.keySet(), act.keySet());
+		for (Ref e : exp.values()) {
+			Ref a = act.get(e.getName());
+			assertEquals(e.getName(), a.getName());
+			assertEquals(e.isSymbolic(), a.isSymbolic());
+			assertEquals(e.getLeaf().getName(), a.getLeaf().getName());
+			assertEquals(e.getObjectId(), a.getObjectId());
+			assertEquals(e.getPeeledObjectId(), a.getPeeledObjectId());
+		}
+	}
+
 	interface Function {
 		boolean apply(ObjectReader reader, RefTree tree) throws IOException;
 	}
@@ -67,6 +67,7 @@
 import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.ObjectInserter;
@@ -272,6 +273,79 @@ public void testApplyCannotCreateParentRef() throws Exception {
 		assertEquals(treeId, write(tree));
 	}
 
+	@Test
+	public void testSparseTreeWritesOnlyModifiedTrees() throws Exception {
+		RefTree tree = RefTree.newEmptyTree();
+		RevBlob a = git.blob("A");
+		RevBlob b = git.blob("B");
+		assertTrue(tree.apply(Arrays.asList(
+				new Command(null, symref(HEAD, R_MASTER)),
+				new Command(null, ref(R_MASTER, a)),
+				new Command(null, ref(R_HEADS + "topic/x", a)),
+				new Command(null, ref(R_TAGS + "v1.0", a)))));
+		ObjectId treeId = write(tree);
+
+		RefTree full;
+		RefTree sparse;
+		try (ObjectReader reader = repo.newObjectReader()) {
+			full = RefTree.read(reader, new RevWalk(reader).parseTree(treeId));
+			sparse = RefTree.readSparse(reader, treeId);
+
+			Ref head = sparse.exactRef(reader, HEAD);
+			assertTrue(head.isSymbolic());
+			assertEquals(a, head.getObjectId());
+
+			Command cmd = update(R_MASTER, a, b);
+			sparse.load(reader, Collections.singletonList(cmd));
+			assertTrue(sparse.apply(Collections.singletonList(cmd)));
+			assertTrue(full.apply(Collections
+					.singletonList(update(R_MASTER, a, b))));
+		}
+
+		try (CountingInserter ins = new CountingInserter()) {
+			ObjectId id = sparse.writeTree(ins);
+			assertEquals("root and heads", 2, ins.trees);
+			assertEquals(write(full), id);
+		}
+	}
+
+	@Test
+	public void testSparseTreeCannotCreateParentRef() throws Exception {
+		RefTree tree = RefTree.newEmptyTree();
+		RevBlob a = git.blob("A");
+		Command cmd = new Command(null, ref(R_MASTER, a));
+		assertTrue(tree.apply(Collections.singletonList(cmd)));
+		ObjectId treeId = write(tree);
+
+		try (ObjectReader reader = repo.newObjectReader()) {
+			RefTree sparse = RefTree.readSparse(reader, treeId);
+			Command cmd1 = create("refs/heads", git.blob("B"));
+			sparse.load(reader, Collections.singletonList(cmd1));
+			assertFalse(sparse.apply(Collections.singletonList(cmd1)));
+			assertSame(LOCK_FAILURE, cmd1.getResult());
+			assertEquals(treeId, write(sparse));
+		}
+	}
+
+	private class CountingInserter extends ObjectInserter.Filter {
+		private final ObjectInserter delegate = repo.newObjectInserter();
+		int trees;
+
+		@Override
+		protected ObjectInserter delegate() {
+			return delegate;
+		}
+
+		@Override
+		public ObjectId insert(int type, byte[] data, int off, int len)
+				throws IOException {
+			if (type == Constants.OBJ_TREE) {
+				trees++;
+			}
+			return super.insert(type, data, off, len);
+		}
+	}
+
 	private static Ref ref(String name, ObjectId id) {
 		return new ObjectIdRef.PeeledNonTag(LOOSE, name, id);
 	}
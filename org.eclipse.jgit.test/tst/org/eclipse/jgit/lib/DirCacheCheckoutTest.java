@@ -1256,6 +1256,35 @@ public void testCheckoutOutChangesAutoCRLFtrueBinary() throws IOException {
 		assertWorkDir(mkmap("foo/bar", "foo\nb\u0000ar"));
 	}
 
+	@Test
+	public void testCheckoutParallel() throws IOException {
+		HashMap<String, String> merge = new HashMap<String, String>();
+		for (int d = 0; d < 8; d++)
+			for (int f = 0; f < 40; f++)
+				merge.put("d" + d + "/s" + (f % 3) + "/f" + f, d + "\n" + f);
+		merge.put("top", "top");
+		setupCase(mk("foo"), merge, mk("foo"));
+		db.getConfig().setInt("core", null, "checkoutWorkers", 4);
+		checkout();
+		assertIndex(merge);
+		assertWorkDir(merge);
+	}
+
+	@Test
+	public void testCheckoutParallelAutoCRLFtrue() throws IOException {
+		setupCase(mk("foo"),
+				mkmap("a/bar", "foo\nbar", "b/bar", "foo\nb\u0000ar", "c",
+						"c\nc"),
+				mk("foo"));
+		db.getConfig().setString("core", null, "autocrlf", "true");
+		db.getConfig().setInt("core", null, "checkoutWorkers", 0);
+		checkout();
+		assertIndex(mkmap("a/bar", "foo\nbar", "b/bar", "foo\nb\u0000ar",
+				"c", "c\nc"));
+		assertWorkDir(mkmap("a/bar", "foo\r\nbar", "b/bar",
+				"foo\nb\u0000ar", "c", "c\r\nc"));
+	}
+
 	@Test
 	public void testCheckoutUncachedChanges() throws IOException {
 		setupCase(mk("foo"), mk("foo"), mk("foo"));
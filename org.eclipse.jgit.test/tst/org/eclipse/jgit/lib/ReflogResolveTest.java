@@ -47,6 +47,9 @@
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.errors.RevisionSyntaxException;
 import org.eclipse.jgit.junit.RepositoryTestCase;
@@ -179,4 +182,42 @@ public void resolveDate() throws Exception {
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void resolveDateWithinLog() throws Exception {
+		try (Git git = new Git(db)) {
+			writeTrashFile("file.txt", "content");
+			git.add().addFilepattern("file.txt").call();
+			RevCommit c1 = git.commit().setMessage("create file").call();
+			mockSystemReader.tick(3600);
+			writeTrashFile("file.txt", "content2");
+			git.add().addFilepattern("file.txt").call();
+			RevCommit c2 = git.commit().setMessage("edit file").call();
+
+			SimpleDateFormat fmt = new SimpleDateFormat(
+					"yyyy-MM-dd HH:mm:ss Z");
+			long t1 = c1.getCommitterIdent().getWhen().getTime();
+			long t2 = c2.getCommitterIdent().getWhen().getTime();
+			assertEquals(c1, db.resolve(
+					"master@{" + fmt.format(new Date(t1)) + "}"));
+			assertEquals(c1, db.resolve(
+					"master@{" + fmt.format(new Date(t1 + 60000)) + "}"));
+			assertEquals(c2, db.resolve(
+					"master@{" + fmt.format(new Date(t2)) + "}"));
+			assertEquals(c2, db.resolve("master@{now}"));
+			try {
+				db.resolve("master@{"
+						+ fmt.format(new Date(t1 - 60000)) + "}");
+				fail("Exception not thrown");
+			} catch (RevisionSyntaxException e) {
+				assertNotNull(e);
+			}
+			try {
+				db.resolve("master@{not a date}");
+				fail("Exception not thrown");
+			} catch (RevisionSyntaxException e) {
+				assertNotNull(e);
+			}
+		}
+	}
+}
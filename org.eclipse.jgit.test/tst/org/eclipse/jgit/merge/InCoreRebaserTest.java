@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.merge.InCoreRebaser.Result;
+import org.eclipse.jgit.merge.InCoreRebaser.Result.Status;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InCoreRebaserTest {
+	private InMemoryRepository db;
+
+	private TestRepository<InMemoryRepository> tr;
+
+	private PersonIdent committer;
+
+	@Before
+	public void setUp() throws Exception {
+		db = new InMemoryRepository(new DfsRepositoryDescription("test"));
+		tr = new TestRepository<InMemoryRepository>(db);
+		committer = new PersonIdent("Rebaser", "rebaser@example.com");
+	}
+
+	@Test
+	public void testRebaseOntoNewBase() throws Exception {
+		RevCommit base = tr.commit().add("a", "1\n2\n3\n").create();
+		RevCommit tip = tr.commit().parent(base).add("b", "b\n").create();
+		RevCommit c1 = tr.commit().parent(base).add("a", "1\n2\nc1\n")
+				.message("c1").create();
+		RevCommit c2 = tr.commit().parent(c1).add("c", "c\n").message("c2")
+				.create();
+
+		Result r = rebaser().rebase(tip, Arrays.asList(c1, c2));
+		assertEquals(Status.OK, r.getStatus());
+		assertEquals(2, r.getRewrittenCommits().size());
+
+		try (RevWalk rw = new RevWalk(db)) {
+			RevCommit n2 = rw.parseCommit(r.getNewHead());
+			RevCommit n1 = rw.parseCommit(n2.getParent(0));
+			assertEquals(tip, n1.getParent(0));
+			assertEquals(n1, r.getRewrittenCommits().get(c1));
+			assertEquals(n2, r.getRewrittenCommits().get(c2));
+			assertEquals("c1", n1.getFullMessage());
+			assertEquals(rw.parseCommit(c2).getAuthorIdent(),
+					n2.getAuthorIdent());
+			assertEquals(committer, n2.getCommitterIdent());
+			assertEquals(tr.tree(tr.file("a", tr.blob("1\n2\nc1\n")),
+					tr.file("b", tr.blob("b\n")),
+					tr.file("c", tr.blob("c\n"))), n2.getTree());
+		}
+	}
+
+	@Test
+	public void testContentMerge() throws Exception {
+		RevCommit base = tr.commit().add("a", "1\n2\n3\n").create();
+		RevCommit tip = tr.commit().parent(base).add("a", "tip\n2\n3\n")
+				.create();
+		RevCommit c1 = tr.commit().parent(base).add("a", "1\n2\nc1\n")
+				.create();
+
+		Result r = rebaser().rebase(tip, Collections.singletonList(c1));
+		assertEquals(Status.OK, r.getStatus());
+		try (RevWalk rw = new RevWalk(db)) {
+			RevCommit n1 = rw.parseCommit(r.getNewHead());
+			assertEquals(tr.tree(tr.file("a", tr.blob("tip\n2\nc1\n"))),
+					n1.getTree());
+		}
+	}
+
+	@Test
+	public void testConflictWritesNothing() throws Exception {
+		RevCommit base = tr.commit().add("a", "1\n").create();
+		RevCommit tip = tr.commit().parent(base).add("a", "tip\n").create();
+		RevCommit c1 = tr.commit().parent(base).add("b", "b\n").create();
+		RevCommit c2 = tr.commit().parent(c1).add("a", "c2\n").create();
+		int packs = db.getObjectDatabase().getPacks().length;
+
+		Result r = rebaser().rebase(tip, Arrays.asList(c1, c2));
+		assertEquals(Status.CONFLICTS, r.getStatus());
+		assertEquals(c2, r.getConflictingCommit());
+		assertEquals(Collections.singletonList("a"), r.getConflicts());
+		assertNull(r.getNewHead());
+		assertEquals(packs, db.getObjectDatabase().getPacks().length);
+	}
+
+	@Test
+	public void testSkipEmpty() throws Exception {
+		RevCommit base = tr.commit().add("a", "1\n").create();
+		RevCommit tip = tr.commit().parent(base).add("a", "2\n").create();
+		RevCommit c1 = tr.commit().parent(base).add("a", "2\n").create();
+
+		Result r = rebaser().rebase(tip, Collections.singletonList(c1));
+		assertEquals(Status.OK, r.getStatus());
+		assertEquals(tip, r.getNewHead());
+		assertNull(r.getRewrittenCommits().get(c1));
+		assertEquals(1, r.getRewrittenCommits().size());
+
+		r = rebaser().setSkipEmpty(false).rebase(tip,
+				Collections.singletonList(c1));
+		try (RevWalk rw = new RevWalk(db)) {
+			RevCommit n1 = rw.parseCommit(r.getNewHead());
+			assertEquals(tip, n1.getParent(0));
+			assertEquals(rw.parseCommit(tip).getTree(), n1.getTree());
+		}
+	}
+
+	@Test
+	public void testUpToDateCommitsAreKept() throws Exception {
+		RevCommit base = tr.commit().add("a", "1\n").create();
+		RevCommit c1 = tr.commit().parent(base).add("b", "b\n").create();
+
+		Result r = rebaser().rebase(base, Collections.singletonList(c1));
+		assertEquals(Status.OK, r.getStatus());
+		assertEquals(c1, r.getNewHead());
+		assertEquals(c1, r.getRewrittenCommits().get(c1));
+	}
+
+	@Test
+	public void testRootCommit() throws Exception {
+		RevCommit tip = tr.commit().add("a", "1\n").create();
+		RevCommit root = tr.commit().add("b", "b\n").create();
+
+		Result r = rebaser().rebase(tip, Collections.singletonList(root));
+		assertEquals(Status.OK, r.getStatus());
+		try (RevWalk rw = new RevWalk(db)) {
+			RevCommit n1 = rw.parseCommit(r.getNewHead());
+			assertEquals(tr.tree(tr.file("a", tr.blob("1\n")),
+					tr.file("b", tr.blob("b\n"))), n1.getTree());
+		}
+	}
+
+	@Test
+	public void testManyCommits() throws Exception {
+		RevCommit base = tr.commit().add("a", "a\n").create();
+		RevCommit tip = tr.commit().parent(base).add("b", "b\n").create();
+		List<RevCommit> commits = new ArrayList<RevCommit>();
+		RevCommit p = base;
+		for (int i = 0; i < 200; i++) {
+			p = tr.commit().parent(p).add("f" + i, i + "\n").create();
+			commits.add(p);
+		}
+
+		Result r = rebaser().rebase(tip, commits);
+		assertEquals(Status.OK, r.getStatus());
+		assertEquals(200, r.getRewrittenCommits().size());
+		try (RevWalk rw = new RevWalk(db);
+				TreeWalk tw = new TreeWalk(db)) {
+			tw.addTree(rw.parseCommit(r.getNewHead()).getTree());
+			int files = 0;
+			while (tw.next())
+				files++;
+			assertEquals(202, files);
+		}
+	}
+
+	@Test
+	public void testBufferedInserterRejectsObjectLargerThanArray()
+			throws Exception {
+		try (BufferedObjectInserter ins = new BufferedObjectInserter(
+				db.newObjectInserter())) {
+			ins.insert(Constants.OBJ_BLOB, Integer.MAX_VALUE + 1L,
+					new ByteArrayInputStream(new byte[0]));
+			fail("expected LargeObjectException.ExceedsByteArrayLimit");
+		} catch (LargeObjectException.ExceedsByteArrayLimit e) {
+			// expected
+		}
+	}
+
+	private InCoreRebaser rebaser() {
+		return new InCoreRebaser(db).setCommitter(committer);
+	}
+}
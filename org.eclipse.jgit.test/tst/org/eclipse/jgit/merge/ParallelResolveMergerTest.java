@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.Sequence;
+import org.eclipse.jgit.junit.RepositoryTestCase;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelResolveMergerTest extends RepositoryTestCase {
+	private ExecutorService executor;
+
+	private MergeBlobCache cache;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		executor = Executors.newFixedThreadPool(4);
+		cache = new MergeBlobCache(1024 * 1024);
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+		super.tearDown();
+	}
+
+	@Test
+	public void testCleanMerge() throws Exception {
+		RevCommit[] c = setupMerge(20, false);
+		ParallelResolveMerger merger = assertSameAsResolve(c[0], c[1]);
+		assertTrue(merger.getUnmergedPaths().isEmpty());
+		assertEquals(20, merger.getParallelContentMergeCount());
+		assertEquals(20, merger.getContentMergeCount());
+	}
+
+	@Test
+	public void testConflictingMerge() throws Exception {
+		RevCommit[] c = setupMerge(20, true);
+		ParallelResolveMerger merger = assertSameAsResolve(c[0], c[1]);
+		assertEquals(20, merger.getUnmergedPaths().size());
+	}
+
+	@Test
+	public void testSingleThread() throws Exception {
+		RevCommit[] c = setupMerge(5, false);
+		ParallelResolveMerger merger = new ParallelResolveMerger(db,
+				executor, null);
+		merger.setThreads(1);
+		assertTrue(merger.merge(c[0], c[1]));
+		assertEquals(0, merger.getParallelContentMergeCount());
+		assertEquals(5, merger.getContentMergeCount());
+		assertEquals(resolve(c[0], c[1]).getResultTreeId(),
+				merger.getResultTreeId());
+	}
+
+	@Test
+	public void testMergeOnOwnExecutor() throws Exception {
+		final RevCommit[] c = setupMerge(10, false);
+		final ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			final ParallelResolveMerger merger = new ParallelResolveMerger(
+					db, single, null);
+			merger.setThreads(4);
+			Future<Boolean> result = single.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					return Boolean.valueOf(merger.merge(c[0], c[1]));
+				}
+			});
+			assertTrue(result.get(30, TimeUnit.SECONDS).booleanValue());
+			assertEquals(10, merger.getContentMergeCount());
+			assertEquals(resolve(c[0], c[1]).getResultTreeId(),
+					merger.getResultTreeId());
+		} finally {
+			single.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testCacheSharedAcrossMerges() throws Exception {
+		RevCommit[] c = setupMerge(10, false);
+		assertSameAsResolve(c[0], c[1]);
+		long misses = cache.getMissCount();
+		assertTrue(misses > 0);
+		assertEquals(0, cache.getHitCount());
+		assertTrue(cache.getSize() > 0);
+
+		assertSameAsResolve(c[0], c[1]);
+		assertEquals(misses, cache.getMissCount());
+		assertEquals(misses, cache.getHitCount());
+
+		cache.clear();
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testCacheLimit() throws Exception {
+		cache = new MergeBlobCache(16);
+		RevCommit[] c = setupMerge(10, false);
+		assertSameAsResolve(c[0], c[1]);
+		assertTrue(cache.getSize() <= 16);
+	}
+
+	private RevCommit[] setupMerge(int files, boolean conflict)
+			throws Exception {
+		try (Git git = new Git(db)) {
+			for (int i = 0; i < files; i++)
+				writeTrashFile("d/f" + i, "1\n2\n3\n4\n5\n" + i + "\n");
+			writeTrashFile("unchanged", "x\n");
+			git.add().addFilepattern(".").call();
+			RevCommit base = git.commit().setMessage("base").call();
+
+			for (int i = 0; i < files; i++)
+				writeTrashFile("d/f" + i, "1\nours\n3\n4\n5\n" + i + "\n");
+			git.add().addFilepattern(".").call();
+			RevCommit ours = git.commit().setMessage("ours").call();
+
+			git.checkout().setCreateBranch(true).setName("side")
+					.setStartPoint(base).call();
+			for (int i = 0; i < files; i++)
+				writeTrashFile("d/f" + i, conflict ? "1\ntheirs\n3\n4\n5\n"
+						+ i + "\n" : "1\n2\n3\n4\ntheirs\n" + i + "\n");
+			git.add().addFilepattern(".").call();
+			RevCommit theirs = git.commit().setMessage("theirs").call();
+			return new RevCommit[] { ours, theirs };
+		}
+	}
+
+	private ResolveMerger resolve(RevCommit ours, RevCommit theirs)
+			throws Exception {
+		ResolveMerger merger = (ResolveMerger) MergeStrategy.RESOLVE
+				.newMerger(db, true);
+		merger.merge(ours, theirs);
+		return merger;
+	}
+
+	private ParallelResolveMerger assertSameAsResolve(RevCommit ours,
+			RevCommit theirs) throws Exception {
+		ResolveMerger expect = resolve(ours, theirs);
+		ParallelResolveMerger merger = new ParallelResolveMerger(db,
+				executor, cache);
+		merger.setThreads(4);
+		boolean ok = merger.merge(ours, theirs);
+		assertEquals(Boolean.valueOf(expect.getUnmergedPaths().isEmpty()),
+				Boolean.valueOf(ok));
+		assertEquals(expect.getUnmergedPaths(), merger.getUnmergedPaths());
+		if (ok)
+			assertEquals(expect.getResultTreeId(), merger.getResultTreeId());
+		else
+			assertNull(merger.getResultTreeId());
+
+		Map<String, MergeResult<? extends Sequence>> e = expect
+				.getMergeResults();
+		Map<String, MergeResult<? extends Sequence>> a = merger
+				.getMergeResults();
+		assertEquals(e.keySet(), a.keySet());
+		for (String path : e.keySet()) {
+			MergeResult<? extends Sequence> er = e.get(path);
+			MergeResult<? extends Sequence> ar = a.get(path);
+			assertEquals(er.containsConflicts(), ar.containsConflicts());
+			assertEquals(er.getSequences().size(), ar.getSequences().size());
+			for (int i = 0; i < er.getSequences().size(); i++)
+				assertEquals(text(er.getSequences().get(i)),
+						text(ar.getSequences().get(i)));
+		}
+		assertFalse(merger.getTimeTotal() < merger.getTimeScanning());
+		return merger;
+	}
+
+	private static String text(Sequence s) {
+		RawText t = (RawText) s;
+		return t.getString(0, t.size(), false);
+	}
+}
@@ -51,6 +51,7 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.dircache.DirCache;
@@ -77,6 +78,7 @@
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
 import org.junit.Before;
+import org.junit.Test;
 import org.junit.experimental.theories.DataPoints;
 import org.junit.experimental.theories.Theories;
 import org.junit.experimental.theories.Theory;
@@ -783,6 +785,53 @@ void modifyIndex(IndexState indexState, String path, String other)
 		}
 	}
 
+	@Test
+	public void crissCrossMerge_mergeBaseCache() throws Exception {
+		BranchBuilder master = db_t.branch("master");
+		RevCommit m0 = master.commit().add("m", "m0").message("m0").create();
+		RevCommit m1 = master.commit().add("m", "m1").message("m1").create();
+		BranchBuilder side = db_t.branch("side");
+		RevCommit s1 = side.commit().parent(m0).add("s", "s1").message("s1")
+				.create();
+		RevCommit s2 = side.commit().parent(m1).add("m", "m1")
+				.add("t", "s2").message("s2(merge)").create();
+		RevCommit m2 = master.commit().parent(s1).add("s", "s1")
+				.add("u", "m2").message("m2(merge)").create();
+
+		RecursiveMerger plain = (RecursiveMerger) MergeStrategy.RECURSIVE
+				.newMerger(db, true);
+		assertTrue(plain.merge(m2, s2));
+
+		MergeBaseCache cache = new MergeBaseCache(10);
+		RecursiveMerger first = (RecursiveMerger) MergeStrategy.RECURSIVE
+				.newMerger(db, true);
+		first.setMergeBaseCache(cache);
+		assertTrue(first.merge(m2, s2));
+		assertEquals(plain.getResultTreeId(), first.getResultTreeId());
+		assertEquals(0, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.size());
+
+		RecursiveMerger second = (RecursiveMerger) MergeStrategy.RECURSIVE
+				.newMerger(db, true);
+		second.setMergeBaseCache(cache);
+		assertTrue(second.merge(s2, m2));
+		assertEquals(plain.getResultTreeId(), second.getResultTreeId());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		// A tree no longer in the repository is merged again.
+		cache.put(Arrays.asList(m1, s1), ObjectId
+				.fromString("0123456789012345678901234567890123456789"));
+		RecursiveMerger third = (RecursiveMerger) MergeStrategy.RECURSIVE
+				.newMerger(db, true);
+		third.setMergeBaseCache(cache);
+		assertTrue(third.merge(m2, s2));
+		assertEquals(plain.getResultTreeId(), third.getResultTreeId());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
 	private void setIndex(final ObjectId id, String path)
 			throws MissingObjectException, IOException {
 		DirCache lockedDircache;
@@ -59,6 +59,7 @@
 import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
@@ -449,6 +450,112 @@ public void testRemoveDeletesTreeFanout2_38() throws Exception {
 		assertEquals("empty tree", empty, n.getTree());
 	}
 
+	@Test
+	public void testEditorMatchesSet() throws Exception {
+		RevBlob data1 = tr.blob("data1");
+		RevBlob data2 = tr.blob("data2");
+		NoteMap expect = NoteMap.newEmptyMap();
+		NoteMap map = NoteMap.newEmptyMap();
+		NoteMapEditor ed = map.editor();
+		for (int i = 0; i < 1000; i++) {
+			ObjectId id = id(i);
+			expect.set(id, data1);
+			ed.set(id, data2);
+			ed.set(id, data1);
+		}
+		assertEquals(1000, ed.size());
+		ed.finish();
+		assertEquals(0, ed.size());
+		assertEquals(expect.writeTree(inserter), map.writeTree(inserter));
+
+		ed = map.editor();
+		for (int i = 0; i < 1000; i += 2) {
+			expect.remove(id(i));
+			ed.remove(id(i));
+		}
+		ed.set(id(1), data2);
+		expect.set(id(1), data2);
+		ed.finish();
+		assertEquals(expect.writeTree(inserter), map.writeTree(inserter));
+		assertEquals(data2, map.get(id(1)));
+		assertNull(map.get(id(0)));
+	}
+
+	@Test
+	public void testEditorContractsOnce() throws Exception {
+		RevBlob data1 = tr.blob("data1");
+		NoteMap map = NoteMap.newEmptyMap();
+		NoteMapEditor ed = map.editor();
+		for (int i = 0; i < 1000; i++)
+			ed.set(id(i), data1);
+		ed.finish();
+		RevCommit n = commitNoteMap(map);
+
+		map = NoteMap.read(reader, n);
+		ed = map.editor();
+		for (int i = 10; i < 1000; i++)
+			ed.remove(id(i));
+		ed.finish();
+		n = commitNoteMap(map);
+		int cnt = 0;
+		try (TreeWalk tw = new TreeWalk(reader)) {
+			tw.reset(n.getTree());
+			while (tw.next()) {
+				assertFalse("no fan-out subtree", tw.isSubtree());
+				cnt++;
+			}
+		}
+		assertEquals(10, cnt);
+
+		ed = map.editor();
+		for (int i = 0; i < 10; i++)
+			ed.remove(id(i));
+		ed.finish();
+		assertEquals(tr.tree(), commitNoteMap(map).getTree());
+	}
+
+	@Test
+	public void testUnchangedBucketsNotRewritten() throws Exception {
+		RevBlob data1 = tr.blob("data1");
+		RevBlob data2 = tr.blob("data2");
+		NoteMap map = NoteMap.newEmptyMap();
+		NoteMapEditor ed = map.editor();
+		for (int i = 0; i < 1000; i++)
+			ed.set(id(i), data1);
+		ed.finish();
+		RevCommit n = commitNoteMap(map);
+
+		map = NoteMap.read(reader, n);
+		for (Iterator<Note> i = map.iterator(); i.hasNext();)
+			i.next(); // load every bucket
+		map.editor().set(id(0), data2).finish();
+
+		final int[] inserted = new int[1];
+		ObjectInserter counting = new ObjectInserter.Filter() {
+			@Override
+			protected ObjectInserter delegate() {
+				return inserter;
+			}
+
+			@Override
+			public ObjectId insert(int type, byte[] data, int off, int len)
+					throws IOException {
+				inserted[0]++;
+				return super.insert(type, data, off, len);
+			}
+		};
+		map.writeTree(counting);
+		assertEquals("changed leaf and root", 2, inserted[0]);
+		assertEquals(data2, NoteMap.readTree(reader, map.writeTree(inserter))
+				.get(id(0)));
+	}
+
+	private static ObjectId id(int i) {
+		try (ObjectInserter.Formatter f = new ObjectInserter.Formatter()) {
+			return f.idFor(Constants.OBJ_BLOB, Constants.encode("n" + i));
+		}
+	}
+
 	@Test
 	public void testIteratorEmptyMap() {
 		Iterator<Note> it = NoteMap.newEmptyMap().iterator();
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.revwalk;
+
+import static org.eclipse.jgit.lib.Constants.CHARSET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.merge.ThreeWayMerger;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.Test;
+
+public class RevWalkBitmapMergeBaseTest extends RevWalkTestCase {
+	@Test
+	public void testSimple() throws Exception {
+		RevCommit a = commit();
+		RevCommit b = commit(a);
+		RevCommit c1 = commit(commit(commit(b)));
+		RevCommit c2 = commit(commit(b));
+		branch("c1", c1);
+		branch("c2", c2);
+		gc();
+
+		try (RevWalk w = new RevWalk(db)) {
+			assertNotNull(w.getMergeBaseBitmaps());
+			assertEquals(ids(b), mergeBases(w, c1, c2));
+			assertEquals(ids(c2), mergeBases(w, c2, commit(c2)));
+			assertEquals(ids(), mergeBases(w, c1, commit()));
+		}
+	}
+
+	@Test
+	public void testCrissCross() throws Exception {
+		RevCommit a = commit();
+		RevCommit b = commit(a);
+		RevCommit c = commit(a);
+		RevCommit d = commit(b, c);
+		RevCommit e = commit(c, b);
+		branch("d", d);
+		branch("e", e);
+		gc();
+
+		try (RevWalk w = new RevWalk(db)) {
+			assertEquals(ids(b, c), mergeBases(w, d, e));
+			assertEquals(ids(b, c), mergeBases(w, commit(d), commit(e)));
+		}
+	}
+
+	@Test
+	public void testMatchesGraphWalk() throws Exception {
+		Random rng = new Random(42);
+		List<RevCommit> all = new ArrayList<RevCommit>();
+		all.add(commit());
+		for (int i = 0; i < 400; i++)
+			all.add(randomCommit(rng, all));
+		for (int i = 0; i < 10; i++)
+			branch("b" + i, all.get(all.size() - 1 - rng.nextInt(100)));
+		branch("main", all.get(all.size() - 1));
+		gc();
+
+		// Commits created after the bitmaps were built.
+		for (int i = 0; i < 50; i++)
+			all.add(randomCommit(rng, all));
+
+		try (RevWalk bitmap = new RevWalk(db);
+				RevWalk graph = new RevWalk(db)) {
+			assertNotNull(bitmap.getMergeBaseBitmaps());
+			graph.setUseBitmaps(false);
+			for (int i = 0; i < 200; i++) {
+				RevCommit x = all.get(rng.nextInt(all.size()));
+				RevCommit y = all.get(rng.nextInt(all.size()));
+				assertEquals(mergeBases(graph, x, y),
+						mergeBases(bitmap, x, y));
+				assertEquals(
+						Boolean.valueOf(graph.isMergedInto(
+								graph.parseCommit(x), graph.parseCommit(y))),
+						Boolean.valueOf(bitmap.isMergedInto(
+								bitmap.parseCommit(x),
+								bitmap.parseCommit(y))));
+			}
+		}
+	}
+
+	@Test
+	public void testMergeAfterGc() throws Exception {
+		RevCommit base = commitBuilder().add("f", "1\n2\n3\n").create();
+		RevCommit ours = commitBuilder().parent(base)
+				.add("f", "0\n2\n3\n").create();
+		RevCommit theirs = commitBuilder().parent(base)
+				.add("f", "1\n2\n4\n").create();
+		branch("ours", ours);
+		branch("theirs", theirs);
+		gc();
+
+		for (MergeStrategy s : new MergeStrategy[] { MergeStrategy.RESOLVE,
+				MergeStrategy.RECURSIVE }) {
+			ThreeWayMerger m = (ThreeWayMerger) s.newMerger(db, true);
+			assertTrue(m.merge(ours, theirs));
+			assertEquals(base, m.getBaseCommitId());
+			try (RevWalk w = new RevWalk(db);
+					TreeWalk tw = TreeWalk.forPath(db, "f",
+							w.parseTree(m.getResultTreeId()))) {
+				assertEquals("0\n2\n4\n", new String(
+						db.open(tw.getObjectId(0)).getCachedBytes(), CHARSET));
+			}
+		}
+	}
+
+	private RevCommit randomCommit(Random rng, List<RevCommit> all)
+			throws Exception {
+		int n = all.size();
+		RevCommit p = all.get(n - 1 - rng.nextInt(Math.min(n, 5)));
+		if (rng.nextInt(4) == 0) {
+			RevCommit q = all.get(n - 1 - rng.nextInt(Math.min(n, 40)));
+			if (q != p)
+				return commit(p, q);
+		}
+		return commit(p);
+	}
+
+	private static Set<ObjectId> mergeBases(RevWalk w, RevCommit x,
+			RevCommit y) throws Exception {
+		w.reset();
+		w.setRevFilter(RevFilter.MERGE_BASE);
+		w.markStart(w.parseCommit(x));
+		w.markStart(w.parseCommit(y));
+		Set<ObjectId> r = new HashSet<ObjectId>();
+		RevCommit c;
+		while ((c = w.next()) != null) {
+			// Callers such as the mergers read the tree of a merge base.
+			assertNotNull(c.getTree());
+			assertTrue(c.getCommitTime() > 0);
+			r.add(c.copy());
+		}
+		return r;
+	}
+
+	private static Set<ObjectId> ids(RevCommit... commits) {
+		Set<ObjectId> r = new HashSet<ObjectId>();
+		for (RevCommit c : commits)
+			r.add(c.copy());
+		return r;
+	}
+
+	private void branch(String name, RevCommit c) throws Exception {
+		RefUpdate u = db.updateRef("refs/heads/" + name);
+		u.setNewObjectId(c);
+		u.forceUpdate();
+	}
+
+	private void gc() throws Exception {
+		new GC((FileRepository) db).gc();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.text.MessageFormat;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.resolver.RepositoryResolver;
+import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DaemonTest {
+	private InMemoryRepository repo;
+
+	private Daemon daemon;
+
+	private CountDownLatch entered;
+
+	private CountDownLatch release;
+
+	@Before
+	public void setUp() throws Exception {
+		repo = new InMemoryRepository(new DfsRepositoryDescription("repo"));
+		entered = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+
+		daemon = new Daemon(new InetSocketAddress("localhost", 0));
+		daemon.setRepositoryResolver(new RepositoryResolver<DaemonClient>() {
+			public Repository open(DaemonClient req, String name) {
+				repo.incrementOpen();
+				return repo;
+			}
+		});
+		daemon.setUploadPackFactory(new UploadPackFactory<DaemonClient>() {
+			public UploadPack create(DaemonClient req, Repository db) {
+				entered.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return new UploadPack(db);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		daemon.stop();
+	}
+
+	@Test
+	public void testRejectWhenOverloaded() throws Exception {
+		daemon.setMaxConnections(1);
+		daemon.start();
+
+		try (Socket busy = connect()) {
+			request(busy);
+			assertTrue(entered.await(10, TimeUnit.SECONDS));
+			assertEquals(1, daemon.getActiveConnections());
+
+			try (Socket rejected = connect()) {
+				assertEquals("ERR " + JGitText.get().daemonOverloaded,
+						readLine(rejected));
+			}
+			assertEquals(1, daemon.getRejectedConnections());
+			assertEquals(2, daemon.getAcceptedConnections());
+		}
+	}
+
+	@Test
+	public void testRejectWhenServiceBusy() throws Exception {
+		daemon.getService("upload-pack").setMaxConcurrent(1);
+		daemon.start();
+
+		try (Socket busy = connect()) {
+			request(busy);
+			assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+			try (Socket rejected = connect()) {
+				request(rejected);
+				assertEquals("ERR " + MessageFormat.format(
+						JGitText.get().daemonServiceBusy, "git-upload-pack"),
+						readLine(rejected));
+			}
+			DaemonService svc = daemon.getService("upload-pack");
+			assertEquals(1, svc.getActiveCount());
+			assertEquals(1, svc.getRejectedCount());
+			assertEquals(0, daemon.getRejectedConnections());
+		}
+	}
+
+	private Socket connect() throws IOException {
+		Socket s = new Socket();
+		s.connect(daemon.getAddress());
+		s.setSoTimeout(10000);
+		return s;
+	}
+
+	private static void request(Socket s) throws IOException {
+		OutputStream out = s.getOutputStream();
+		new PacketLineOut(out).writeString("git-upload-pack /repo\0");
+		out.flush();
+	}
+
+	private static String readLine(Socket s) throws IOException {
+		InputStream in = s.getInputStream();
+		return new PacketLineIn(in).readString();
+	}
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.resolver.ReceivePackFactory;
+import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UploadPackCacheTest extends LocalDiskRepositoryTestCase {
+	private static final RefSpec HEADS = new RefSpec(
+			"+refs/heads/*:refs/heads/*");
+
+	private File dir;
+
+	private ExecutorService executor;
+
+	private TestProtocol<Object> proto;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		dir = createTempDirectory("packcache");
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+		if (proto != null)
+			Transport.unregister(proto);
+		super.tearDown();
+	}
+
+	@Test
+	public void testRepeatedClone() throws Exception {
+		final UploadPackCache cache = new UploadPackCache(dir, 1024 * 1024);
+		TestRepository<InMemoryRepository> remote = new TestRepository<>(
+				new InMemoryRepository(new DfsRepositoryDescription("remote")));
+		ObjectId master = remote.branch("master").commit()
+				.add("file", "content").create();
+
+		proto = new TestProtocol<Object>(new UploadPackFactory<Object>() {
+			@Override
+			public UploadPack create(Object req, Repository db) {
+				UploadPack up = new UploadPack(db);
+				up.setPackCache(cache);
+				return up;
+			}
+		}, new ReceivePackFactory<Object>() {
+			@Override
+			public ReceivePack create(Object req, Repository db) {
+				return new ReceivePack(db);
+			}
+		});
+		Transport.register(proto);
+		URIish uri = proto.register(new Object(), remote.getRepository());
+
+		for (int i = 0; i < 2; i++) {
+			InMemoryRepository local = new InMemoryRepository(
+					new DfsRepositoryDescription("local" + i));
+			try (Git git = new Git(local)) {
+				git.fetch().setRemote(uri.toString()).setRefSpecs(HEADS)
+						.call();
+			}
+			assertEquals(master,
+					local.exactRef("refs/heads/master").getObjectId());
+			assertTrue(local.hasObject(master));
+		}
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, dir.list().length);
+		assertEquals(dir.listFiles()[0].length(), cache.getSize());
+	}
+
+	@Test
+	public void testFollowGeneration() throws Exception {
+		final UploadPackCache cache = new UploadPackCache(dir, 1024);
+		final ObjectId key = id(1);
+		UploadPackCache.Lease gen = cache.lease(key);
+		assertTrue(gen.isGenerator());
+
+		OutputStream out = gen.newOutputStream();
+		out.write(new byte[] { 1, 2, 3 });
+
+		Future<byte[]> follower = executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				try (UploadPackCache.Lease l = cache.lease(key)) {
+					assertFalse(l.isGenerator());
+					ByteArrayOutputStream buf = new ByteArrayOutputStream();
+					l.copyTo(buf);
+					return buf.toByteArray();
+				}
+			}
+		});
+		Thread.sleep(50);
+		out.write(new byte[] { 4, 5 });
+		gen.commit();
+		ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		gen.copyTo(sent);
+		gen.close();
+
+		byte[] expect = { 1, 2, 3, 4, 5 };
+		assertArrayEquals(expect, sent.toByteArray());
+		assertArrayEquals(expect, follower.get(30, TimeUnit.SECONDS));
+		assertEquals(5, cache.getSize());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	public void testGeneratorClientReceivesWhileGenerating() throws Exception {
+		UploadPackCache cache = new UploadPackCache(dir, 1024);
+		final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		try (UploadPackCache.Lease gen = cache.lease(id(1))) {
+			gen.copyInBackground(new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					synchronized (sent) {
+						sent.write(b, off, len);
+						sent.notifyAll();
+					}
+				}
+			});
+			OutputStream out = gen.newOutputStream();
+			out.write(new byte[] { 1, 2, 3 });
+			synchronized (sent) {
+				long deadline = System.currentTimeMillis() + 30000;
+				while (sent.size() < 3
+						&& System.currentTimeMillis() < deadline)
+					sent.wait(100);
+				assertEquals(3, sent.size());
+			}
+			out.write(new byte[] { 4, 5 });
+			gen.commit();
+			gen.copyTo(new ByteArrayOutputStream());
+		}
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, sent.toByteArray());
+		assertEquals(5, cache.getSize());
+	}
+
+	@Test
+	public void testSlowGeneratorClientDoesNotBlockGeneration()
+			throws Exception {
+		final UploadPackCache cache = new UploadPackCache(dir, 1024);
+		final ObjectId key = id(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		try (UploadPackCache.Lease gen = cache.lease(key)) {
+			gen.copyInBackground(new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+					throw new IOException("client disconnected");
+				}
+			});
+			gen.newOutputStream().write(new byte[] { 1, 2, 3 });
+			gen.commit();
+
+			// The pack is complete for others while the client is stuck.
+			try (UploadPackCache.Lease l = cache.lease(key)) {
+				assertFalse(l.isGenerator());
+				ByteArrayOutputStream buf = new ByteArrayOutputStream();
+				l.copyTo(buf);
+				assertArrayEquals(new byte[] { 1, 2, 3 }, buf.toByteArray());
+			}
+
+			release.countDown();
+			try {
+				gen.copyTo(new ByteArrayOutputStream());
+				fail("copy to a failing client succeeded");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+		assertEquals(3, cache.getSize());
+	}
+
+	@Test
+	public void testFailedGeneration() throws Exception {
+		final UploadPackCache cache = new UploadPackCache(dir, 1024);
+		final ObjectId key = id(1);
+		UploadPackCache.Lease gen = cache.lease(key);
+		gen.newOutputStream().write(1);
+
+		Future<byte[]> follower = executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				try (UploadPackCache.Lease l = cache.lease(key)) {
+					l.copyTo(new ByteArrayOutputStream());
+					return null;
+				}
+			}
+		});
+		Thread.sleep(50);
+		gen.close();
+		try {
+			follower.get(30, TimeUnit.SECONDS);
+			fail("follower did not fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+
+		try (UploadPackCache.Lease l = cache.lease(key)) {
+			assertTrue(l.isGenerator());
+		}
+		assertEquals(0, cache.getSize());
+		assertEquals(0, dir.list().length);
+	}
+
+	@Test
+	public void testGeneratorClientFailureKeepsPack() throws Exception {
+		UploadPackCache cache = new UploadPackCache(dir, 1024);
+		ObjectId key = id(1);
+		try (UploadPackCache.Lease gen = cache.lease(key)) {
+			gen.newOutputStream().write(new byte[] { 1, 2, 3 });
+			gen.commit();
+			try {
+				gen.copyTo(new OutputStream() {
+					@Override
+					public void write(int b) throws IOException {
+						throw new IOException("client disconnected");
+					}
+				});
+				fail("copy to a failing client succeeded");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+
+		try (UploadPackCache.Lease l = cache.lease(key)) {
+			assertFalse(l.isGenerator());
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			l.copyTo(buf);
+			assertArrayEquals(new byte[] { 1, 2, 3 }, buf.toByteArray());
+		}
+		assertEquals(3, cache.getSize());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		UploadPackCache cache = new UploadPackCache(dir, 6);
+		store(cache, id(1), 4);
+		store(cache, id(2), 4);
+		assertEquals(4, cache.getSize());
+		assertEquals(1, dir.list().length);
+
+		try (UploadPackCache.Lease l = cache.lease(id(1))) {
+			assertTrue(l.isGenerator());
+		}
+		try (UploadPackCache.Lease l = cache.lease(id(2))) {
+			assertFalse(l.isGenerator());
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			l.copyTo(buf);
+			assertEquals(4, buf.size());
+		}
+	}
+
+	private static void store(UploadPackCache cache, ObjectId key, int size)
+			throws IOException {
+		try (UploadPackCache.Lease l = cache.lease(key)) {
+			l.newOutputStream().write(new byte[size]);
+			l.commit();
+		}
+	}
+
+	private static ObjectId id(int n) {
+		return ObjectId.fromString(String.format("%040x", Integer.valueOf(n)));
+	}
+}
@@ -45,9 +45,11 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 
 /**
@@ -137,4 +139,25 @@ public static FilterCommand createFilterCommand(String filterCommandName,
 		return (cf == null) ? null : cf.create(db, in, out);
 	}
 
+	/**
+	 * Prepares for {@link FilterCommand}s of the given name to be created for
+	 * a number of blobs, if the registered factory is a
+	 * {@link BatchFilterCommandFactory}.
+	 *
+	 * @param filterCommandName
+	 *            The name of the commands which will be created
+	 * @param db
+	 *            the repository the commands will work on
+	 * @param blobs
+	 *            ids of the blobs the commands will read
+	 * @throws IOException
+	 * @since 4.7
+	 */
+	public static void prepareFilterCommands(String filterCommandName,
+			Repository db, Collection<ObjectId> blobs) throws IOException {
+		FilterCommandFactory cf = filterCommandRegistry.get(filterCommandName);
+		if (cf instanceof BatchFilterCommandFactory)
+			((BatchFilterCommandFactory) cf).prepare(db, blobs);
+	}
+
 }
@@ -78,6 +78,8 @@ public static enum RenameDetectionType {
 
 	private final int renameLimit;
 
+	private final int memoryBudget;
+
 	private DiffConfig(final Config rc) {
 		noPrefix = rc.getBoolean(ConfigConstants.CONFIG_DIFF_SECTION,
 				ConfigConstants.CONFIG_KEY_NOPREFIX, false);
@@ -85,6 +87,8 @@ private DiffConfig(final Config rc) {
 				ConfigConstants.CONFIG_DIFF_SECTION, null, ConfigConstants.CONFIG_KEY_RENAMES));
 		renameLimit = rc.getInt(ConfigConstants.CONFIG_DIFF_SECTION,
 				ConfigConstants.CONFIG_KEY_RENAMELIMIT, 200);
+		memoryBudget = rc.getInt(ConfigConstants.CONFIG_DIFF_SECTION,
+				ConfigConstants.CONFIG_KEY_MEMORY_BUDGET, 0);
 	}
 
 	/** @return true if the prefix "a/" and "b/" should be suppressed. */
@@ -107,6 +111,16 @@ public int getRenameLimit() {
 		return renameLimit;
 	}
 
+	/**
+	 * @return number of bytes of file content to hold in memory while
+	 *         formatting a diff; larger files are streamed. 0 if files are
+	 *         always loaded entirely.
+	 * @since 4.7
+	 */
+	public int getMemoryBudget() {
+		return memoryBudget;
+	}
+
 	private static RenameDetectionType parseRenameDetectionType(
 			final String renameString) {
 		if (renameString == null)
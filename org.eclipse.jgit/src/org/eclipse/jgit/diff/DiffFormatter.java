@@ -55,8 +55,10 @@
 import static org.eclipse.jgit.lib.Constants.encodeASCII;
 import static org.eclipse.jgit.lib.FileMode.GITLINK;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collection;
 import java.util.Collections;
@@ -134,6 +136,8 @@ public class DiffFormatter implements AutoCloseable {
 
 	private int binaryFileThreshold = DEFAULT_BINARY_FILE_THRESHOLD;
 
+	private int memoryBudget;
+
 	private String oldPrefix = "a/"; //$NON-NLS-1$
 
 	private String newPrefix = "b/"; //$NON-NLS-1$
@@ -204,6 +208,7 @@ private void setReader(ObjectReader reader, Config cfg, boolean closeReader) {
 			setNewPrefix(""); //$NON-NLS-1$
 		}
 		setDetectRenames(diffCfg.isRenameDetectionEnabled());
+		setMemoryBudget(diffCfg.getMemoryBudget());
 
 		diffAlgorithm = DiffAlgorithm.getAlgorithm(cfg.getEnum(
 				ConfigConstants.CONFIG_DIFF_SECTION, null,
@@ -272,6 +277,9 @@ public void setDiffComparator(RawTextComparator cmp) {
 	 *
 	 * Files larger than this size will be treated as though they are binary and
 	 * not text. Default is {@value #DEFAULT_BINARY_FILE_THRESHOLD} .
+	 * <p>
+	 * The threshold does not apply to files streamed under a memory budget,
+	 * as those are never loaded entirely.
 	 *
 	 * @param threshold
 	 *            the limit, in bytes. Files larger than this size will be
@@ -281,6 +289,27 @@ public void setBinaryFileThreshold(int threshold) {
 		this.binaryFileThreshold = threshold;
 	}
 
+	/**
+	 * Set the amount of file content to hold in memory while formatting.
+	 * <p>
+	 * Text files larger than this size are not loaded entirely. Instead they
+	 * are read as a stream and compared a window at a time, and read a second
+	 * time to output the patch script. The resulting patch is correct, but a
+	 * change spanning more than a window may be reported as a larger edit
+	 * than necessary. Streamed files are not limited by the binary file
+	 * threshold; they are treated as binary only if their first window
+	 * contains binary content. Default is 0, loading all files entirely.
+	 *
+	 * @param budget
+	 *            the limit, in bytes, on content held in memory. 0 to always
+	 *            load files entirely.
+	 * @see #setBinaryFileThreshold(int)
+	 * @since 4.7
+	 */
+	public void setMemoryBudget(int budget) {
+		this.memoryBudget = budget;
+	}
+
 	/**
 	 * Set the prefix applied in front of old file paths.
 	 *
@@ -678,7 +707,10 @@ public void format(List<? extends DiffEntry> entries) throws IOException {
 	 */
 	public void format(DiffEntry ent) throws IOException {
 		FormatResult res = createFormatResult(ent);
-		format(res.header, res.a, res.b);
+		if (res.streamed)
+			formatStreamed(res);
+		else
+			format(res.header, res.a, res.b);
 	}
 
 	private static byte[] writeGitLinkText(AbbreviatedObjectId id) {
@@ -939,6 +971,17 @@ private static class FormatResult {
 		RawText a;
 
 		RawText b;
+
+		/** Content is too large to load; a and b are not set. */
+		boolean streamed;
+
+		ObjectLoader aLoader;
+
+		ObjectLoader bLoader;
+
+		int aLines;
+
+		int bLines;
 	}
 
 	private FormatResult createFormatResult(DiffEntry ent) throws IOException,
@@ -959,13 +1002,22 @@ private FormatResult createFormatResult(DiffEntry ent) throws IOException,
 			assertHaveReader();
 
 			byte[] aRaw, bRaw;
+			EditList streamedEdits = null;
 
 			if (ent.getOldMode() == GITLINK || ent.getNewMode() == GITLINK) {
 				aRaw = writeGitLinkText(ent.getOldId());
 				bRaw = writeGitLinkText(ent.getNewId());
 			} else {
-				aRaw = open(OLD, ent);
-				bRaw = open(NEW, ent);
+				ObjectLoader aLdr = openLoader(OLD, ent);
+				ObjectLoader bLdr = openLoader(NEW, ent);
+				if (isStreamed(aLdr, bLdr)) {
+					streamedEdits = diffStreamed(res, aLdr, bLdr);
+					aRaw = streamedEdits != null ? EMPTY : BINARY;
+					bRaw = aRaw;
+				} else {
+					aRaw = getBytes(aLdr, ent.getId(OLD));
+					bRaw = getBytes(bLdr, ent.getId(NEW));
+				}
 			}
 
 			if (aRaw == BINARY || bRaw == BINARY //
@@ -976,9 +1028,14 @@ private FormatResult createFormatResult(DiffEntry ent) throws IOException,
 				type = PatchType.BINARY;
 
 			} else {
-				res.a = new RawText(aRaw);
-				res.b = new RawText(bRaw);
-				editList = diff(res.a, res.b);
+				if (streamedEdits != null) {
+					res.streamed = true;
+					editList = streamedEdits;
+				} else {
+					res.a = new RawText(aRaw);
+					res.b = new RawText(bRaw);
+					editList = diff(res.a, res.b);
+				}
 				type = PatchType.UNIFIED;
 
 				switch (ent.getChangeType()) {
@@ -1009,13 +1066,13 @@ private void assertHaveReader() {
 		}
 	}
 
-	private byte[] open(DiffEntry.Side side, DiffEntry entry)
+	private ObjectLoader openLoader(DiffEntry.Side side, DiffEntry entry)
 			throws IOException {
 		if (entry.getMode(side) == FileMode.MISSING)
-			return EMPTY;
+			return null;
 
 		if (entry.getMode(side).getObjectType() != Constants.OBJ_BLOB)
-			return EMPTY;
+			return null;
 
 		AbbreviatedObjectId id = entry.getId(side);
 		if (!id.isComplete()) {
@@ -1036,8 +1093,15 @@ private byte[] open(DiffEntry.Side side, DiffEntry entry)
 				throw new AmbiguousObjectException(id, ids);
 		}
 
+		return source.open(side, entry);
+	}
+
+	private byte[] getBytes(ObjectLoader ldr, AbbreviatedObjectId id)
+			throws IOException {
+		if (ldr == null)
+			return EMPTY;
+
 		try {
-			ObjectLoader ldr = source.open(side, entry);
 			return ldr.getBytes(binaryFileThreshold);
 
 		} catch (LargeObjectException.ExceedsLimit overLimit) {
@@ -1055,6 +1119,108 @@ private byte[] open(DiffEntry.Side side, DiffEntry entry)
 		}
 	}
 
+	private boolean isStreamed(ObjectLoader a, ObjectLoader b) {
+		if (memoryBudget <= 0)
+			return false;
+		long aSize = a != null ? a.getSize() : 0;
+		long bSize = b != null ? b.getSize() : 0;
+		return memoryBudget < aSize || memoryBudget < bSize;
+	}
+
+	private int windowSize() {
+		// Each side holds its window, plus a copy of the complete lines
+		// that is given to the diff algorithm.
+		return Math.max(memoryBudget / 4, 1024);
+	}
+
+	private static InputStream openStream(ObjectLoader ldr)
+			throws IOException {
+		if (ldr == null)
+			return new ByteArrayInputStream(EMPTY);
+		return ldr.openStream();
+	}
+
+	private EditList diffStreamed(FormatResult res, ObjectLoader a,
+			ObjectLoader b) throws IOException {
+		WindowedDiff wd = new WindowedDiff(diffAlgorithm, comparator,
+				windowSize());
+		EditList edits;
+		try (InputStream as = openStream(a); InputStream bs = openStream(b)) {
+			edits = wd.diff(as, bs);
+		}
+		res.aLoader = a;
+		res.bLoader = b;
+		res.aLines = wd.getLinesA();
+		res.bLines = wd.getLinesB();
+		return edits;
+	}
+
+	private void formatStreamed(FormatResult res) throws IOException {
+		FileHeader head = res.header;
+		int start = head.getStartOffset();
+		int end = head.getEndOffset();
+		if (!head.getHunks().isEmpty())
+			end = head.getHunks().get(0).getStartOffset();
+		out.write(head.getBuffer(), start, end - start);
+
+		try (InputStream as = openStream(res.aLoader);
+				InputStream bs = openStream(res.bLoader)) {
+			LineWindow a = new LineWindow(as, windowSize());
+			LineWindow b = new LineWindow(bs, windowSize());
+			a.fill();
+			b.fill();
+			format(head.toEditList(), a, res.aLines, b, res.bLines);
+		}
+	}
+
+	/**
+	 * Formats a list of edits, reading the lines sequentially from streams.
+	 * <p>
+	 * This is the same as {@link #format(EditList, RawText, RawText)}, but
+	 * the text for each line is taken from a window that only moves forward.
+	 */
+	private void format(EditList edits, LineWindow a, int aSize,
+			LineWindow b, int bSize) throws IOException {
+		for (int curIdx = 0; curIdx < edits.size();) {
+			Edit curEdit = edits.get(curIdx);
+			final int endIdx = findCombinedEnd(edits, curIdx);
+			final Edit endEdit = edits.get(endIdx);
+
+			int aCur = (int) Math.max(0, (long) curEdit.getBeginA() - context);
+			int bCur = (int) Math.max(0, (long) curEdit.getBeginB() - context);
+			final int aEnd = (int) Math.min(aSize, (long) endEdit.getEndA() + context);
+			final int bEnd = (int) Math.min(bSize, (long) endEdit.getEndB() + context);
+
+			writeHunkHeader(aCur, aEnd, bCur, bEnd);
+
+			while (aCur < aEnd || bCur < bEnd) {
+				if (aCur < curEdit.getBeginA() || endIdx + 1 < curIdx) {
+					int i = a.seek(aCur);
+					writeContextLine(a.text(), i);
+					if (isEndOfLineMissing(a.text(), i))
+						out.write(noNewLine);
+					aCur++;
+					bCur++;
+				} else if (aCur < curEdit.getEndA()) {
+					int i = a.seek(aCur);
+					writeRemovedLine(a.text(), i);
+					if (isEndOfLineMissing(a.text(), i))
+						out.write(noNewLine);
+					aCur++;
+				} else if (bCur < curEdit.getEndB()) {
+					int i = b.seek(bCur);
+					writeAddedLine(b.text(), i);
+					if (isEndOfLineMissing(b.text(), i))
+						out.write(noNewLine);
+					bCur++;
+				}
+
+				if (end(curEdit, aCur, bCur) && ++curIdx < edits.size())
+					curEdit = edits.get(curIdx);
+			}
+		}
+	}
+
 	/**
 	 * Output the first header line
 	 *
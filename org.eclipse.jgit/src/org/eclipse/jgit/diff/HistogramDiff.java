@@ -43,8 +43,7 @@
 
 package org.eclipse.jgit.diff;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * An extended form of Bram Cohen's patience diff algorithm.
@@ -140,7 +139,21 @@ public <S extends Sequence> void diffNonCommon(EditList edits,
 		private final HashedSequenceComparator<S> cmp;
 		private final HashedSequence<S> a;
 		private final HashedSequence<S> b;
-		private final List<Edit> queue = new ArrayList<Edit>();
+		private final HistogramDiffIndex.Scratch scratch;
+
+		/** Region currently being examined. */
+		private final Edit region = new Edit(0, 0);
+
+		/**
+		 * Regions still to be examined, as 4-tuples of beginA, endA, beginB,
+		 * endB. Keeping the pending regions as plain ints avoids creating two
+		 * Edit instances per split; only edits placed into the result are
+		 * ever allocated.
+		 */
+		private int[] queue = new int[4 * 8];
+
+		/** Number of ints in use in {@link #queue}. */
+		private int queueSize;
 
 		/** Result edits we have determined that must be made to convert a to b. */
 		final EditList edits;
@@ -151,17 +164,27 @@ public <S extends Sequence> void diffNonCommon(EditList edits,
 			this.a = a;
 			this.b = b;
 			this.edits = edits;
+			this.scratch = HistogramDiffIndex.Scratch.acquire();
 		}
 
 		void diffRegion(Edit r) {
-			diffReplace(r);
-			while (!queue.isEmpty())
-				diff(queue.remove(queue.size() - 1));
+			try {
+				set(r.beginA, r.endA, r.beginB, r.endB);
+				diffReplace();
+				while (queueSize > 0) {
+					queueSize -= 4;
+					set(queue[queueSize], queue[queueSize + 1],
+							queue[queueSize + 2], queue[queueSize + 3]);
+					diff();
+				}
+			} finally {
+				scratch.release();
+			}
 		}
 
-		private void diffReplace(Edit r) {
-			Edit lcs = new HistogramDiffIndex<S>(maxChainLength, cmp, a, b, r)
-					.findLongestCommonSequence();
+		private void diffReplace() {
+			Edit lcs = new HistogramDiffIndex<S>(maxChainLength, cmp, a, b,
+					region, scratch).findLongestCommonSequence();
 			if (lcs != null) {
 				// If we were given an edit, we can prove a result here.
 				//
@@ -169,41 +192,41 @@ private void diffReplace(Edit r) {
 					// An empty edit indicates there is nothing in common.
 					// Replace the entire region.
 					//
-					edits.add(r);
+					edits.add(copyRegion());
 				} else {
-					queue.add(r.after(lcs));
-					queue.add(r.before(lcs));
+					push(lcs.endA, region.endA, lcs.endB, region.endB);
+					push(region.beginA, lcs.beginA, region.beginB, lcs.beginB);
 				}
 
 			} else if (fallback instanceof LowLevelDiffAlgorithm) {
 				LowLevelDiffAlgorithm fb = (LowLevelDiffAlgorithm) fallback;
-				fb.diffNonCommon(edits, cmp, a, b, r);
+				fb.diffNonCommon(edits, cmp, a, b, copyRegion());
 
 			} else if (fallback != null) {
 				SubsequenceComparator<HashedSequence<S>> cs = subcmp();
-				Subsequence<HashedSequence<S>> as = Subsequence.a(a, r);
-				Subsequence<HashedSequence<S>> bs = Subsequence.b(b, r);
+				Subsequence<HashedSequence<S>> as = Subsequence.a(a, region);
+				Subsequence<HashedSequence<S>> bs = Subsequence.b(b, region);
 
 				EditList res = fallback.diffNonCommon(cs, as, bs);
 				edits.addAll(Subsequence.toBase(res, as, bs));
 
 			} else {
-				edits.add(r);
+				edits.add(copyRegion());
 			}
 		}
 
-		private void diff(Edit r) {
-			switch (r.getType()) {
+		private void diff() {
+			switch (region.getType()) {
 			case INSERT:
 			case DELETE:
-				edits.add(r);
+				edits.add(copyRegion());
 				break;
 
 			case REPLACE:
-				if (r.getLengthA() == 1 && r.getLengthB() == 1)
-					edits.add(r);
+				if (region.getLengthA() == 1 && region.getLengthB() == 1)
+					edits.add(copyRegion());
 				else
-					diffReplace(r);
+					diffReplace();
 				break;
 
 			case EMPTY:
@@ -212,6 +235,27 @@ private void diff(Edit r) {
 			}
 		}
 
+		private void set(int beginA, int endA, int beginB, int endB) {
+			region.beginA = beginA;
+			region.endA = endA;
+			region.beginB = beginB;
+			region.endB = endB;
+		}
+
+		private void push(int beginA, int endA, int beginB, int endB) {
+			if (queueSize == queue.length)
+				queue = Arrays.copyOf(queue, queue.length << 1);
+			queue[queueSize++] = beginA;
+			queue[queueSize++] = endA;
+			queue[queueSize++] = beginB;
+			queue[queueSize++] = endB;
+		}
+
+		private Edit copyRegion() {
+			return new Edit(region.beginA, region.endA, region.beginB,
+					region.endB);
+		}
+
 		private SubsequenceComparator<HashedSequence<S>> subcmp() {
 			return new SubsequenceComparator<HashedSequence<S>>(cmp);
 		}
@@ -43,6 +43,8 @@
 
 package org.eclipse.jgit.diff;
 
+import java.util.Arrays;
+
 import org.eclipse.jgit.internal.JGitText;
 
 /**
@@ -80,6 +82,9 @@
 
 	private final Edit region;
 
+	/** Arena the tables below were borrowed from. */
+	private final Scratch scratch;
+
 	/** Keyed by {@link #hash(HashedSequence, int)} for {@link #recs} index. */
 	private final int[] table;
 
@@ -145,12 +150,13 @@
 	private boolean hasCommon;
 
 	HistogramDiffIndex(int maxChainLength, HashedSequenceComparator<S> cmp,
-			HashedSequence<S> a, HashedSequence<S> b, Edit r) {
+			HashedSequence<S> a, HashedSequence<S> b, Edit r, Scratch scratch) {
 		this.maxChainLength = maxChainLength;
 		this.cmp = cmp;
 		this.a = a;
 		this.b = b;
 		this.region = r;
+		this.scratch = scratch;
 
 		if (region.endA >= MAX_PTR)
 			throw new IllegalArgumentException(
@@ -158,20 +164,24 @@
 
 		final int sz = r.getLengthA();
 		final int tableBits = tableBits(sz);
-		table = new int[1 << tableBits];
+		table = scratch.table(1 << tableBits);
 		keyShift = 32 - tableBits;
 		ptrShift = r.beginA;
 
-		recs = new long[Math.max(4, sz >>> 3)];
-		next = new int[sz];
-		recIdx = new int[sz];
+		recs = scratch.recs(Math.max(4, sz >>> 3));
+		next = scratch.next(sz);
+		recIdx = scratch.recIdx(sz);
 	}
 
 	Edit findLongestCommonSequence() {
 		if (!scanA())
 			return null;
 
-		lcs = new Edit(0, 0);
+		lcs = scratch.lcs;
+		lcs.beginA = 0;
+		lcs.endA = 0;
+		lcs.beginB = 0;
+		lcs.endB = 0;
 		cnt = maxChainLength + 1;
 
 		for (int bPtr = region.beginB; bPtr < region.endB;)
@@ -221,6 +231,7 @@ private boolean scanA() {
 				long[] n = new long[sz];
 				System.arraycopy(recs, 0, n, 0, recs.length);
 				recs = n;
+				scratch.recs = n;
 			}
 
 			recs[rIdx] = recCreate(table[tIdx], ptr, 1);
@@ -336,4 +347,91 @@ private static int tableBits(final int sz) {
 			bits++;
 		return bits;
 	}
+
+	/**
+	 * Working storage shared by the indexes built during one diff.
+	 * <p>
+	 * {@link HistogramDiff} recursively builds an index for every region it
+	 * splits. Rather than allocating four fresh arrays for each of those
+	 * indexes, the arrays are borrowed from this arena and cleared only over
+	 * the range actually used. Once the diff completes the arena is returned
+	 * to a per-thread cache so the next diff on the same thread can reuse it.
+	 */
+	static final class Scratch {
+		/** Arrays larger than this are dropped rather than cached. */
+		private static final int MAX_RETAINED = 1 << 14;
+
+		private static final ThreadLocal<Scratch> cache = new ThreadLocal<Scratch>();
+
+		/**
+		 * Borrow the arena cached by the current thread.
+		 * <p>
+		 * The cache is emptied while the arena is borrowed, so a nested diff
+		 * (for example by a fallback algorithm) gets its own instance.
+		 *
+		 * @return an arena for the exclusive use of the caller.
+		 */
+		static Scratch acquire() {
+			Scratch s = cache.get();
+			if (s == null)
+				return new Scratch();
+			cache.set(null);
+			return s;
+		}
+
+		/** Result of {@link HistogramDiffIndex#findLongestCommonSequence()}. */
+		final Edit lcs = new Edit(0, 0);
+
+		private int[] table;
+
+		long[] recs;
+
+		private int[] next;
+
+		private int[] recIdx;
+
+		/** Return the arena to the current thread's cache. */
+		void release() {
+			if (table != null && MAX_RETAINED < table.length)
+				table = null;
+			if (recs != null && MAX_RETAINED < recs.length)
+				recs = null;
+			if (next != null && MAX_RETAINED < next.length)
+				next = null;
+			if (recIdx != null && MAX_RETAINED < recIdx.length)
+				recIdx = null;
+			cache.set(this);
+		}
+
+		int[] table(int sz) {
+			if (table == null || table.length < sz)
+				table = new int[sz];
+			else
+				Arrays.fill(table, 0, sz, 0);
+			return table;
+		}
+
+		long[] recs(int sz) {
+			// Records are always written before being read, and the
+			// array is grown on demand, so it need not be cleared.
+			if (recs == null || recs.length < sz)
+				recs = new long[sz];
+			return recs;
+		}
+
+		int[] next(int sz) {
+			if (next == null || next.length < sz)
+				next = new int[sz];
+			else
+				Arrays.fill(next, 0, sz, 0);
+			return next;
+		}
+
+		int[] recIdx(int sz) {
+			// Every slot in use is assigned by scanA before being read.
+			if (recIdx == null || recIdx.length < sz)
+				recIdx = new int[sz];
+			return recIdx;
+		}
+	}
 }
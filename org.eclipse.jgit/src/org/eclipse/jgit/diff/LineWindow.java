@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.diff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A bounded window of complete lines read sequentially from a stream.
+ * <p>
+ * Lines are numbered from the start of the stream. The lines currently held
+ * by the window are exposed as a {@link RawText} by {@link #text()}, whose
+ * first element is line {@link #getBase()} of the stream. Callers slide the
+ * window forward with {@link #discard(int)} and {@link #fill()}.
+ * <p>
+ * The window holds at most its initial size in bytes, unless a single line is
+ * longer than that, in which case it grows to hold the line.
+ */
+final class LineWindow {
+	private final InputStream in;
+
+	private byte[] buf;
+
+	/** Number of valid bytes in {@link #buf}. */
+	private int len;
+
+	/** True once {@link #in} has returned end of stream. */
+	private boolean eof;
+
+	/** Line number of the first line in {@link #buf}. */
+	private int base;
+
+	/** Lines of the window; null if {@link #buf} changed since creation. */
+	private RawText text;
+
+	/** Number of bytes of {@link #buf} covered by {@link #text}. */
+	private int textEnd;
+
+	/**
+	 * Create a new, empty window.
+	 *
+	 * @param in
+	 *            stream to read lines from. The caller is responsible for
+	 *            closing the stream.
+	 * @param size
+	 *            number of bytes to buffer from the stream.
+	 */
+	LineWindow(InputStream in, int size) {
+		this.in = in;
+		this.buf = new byte[Math.max(size, 1)];
+	}
+
+	/**
+	 * Read from the stream until the window is full.
+	 * <p>
+	 * Unless the end of the stream is reached the window always holds at
+	 * least one complete line once this method returns.
+	 *
+	 * @throws IOException
+	 *             the stream cannot be read.
+	 */
+	void fill() throws IOException {
+		for (;;) {
+			while (len < buf.length && !eof) {
+				int n = in.read(buf, len, buf.length - len);
+				if (n < 0)
+					eof = true;
+				else
+					len += n;
+			}
+			if (eof || lastLF() >= 0)
+				break;
+			buf = Arrays.copyOf(buf, buf.length << 1);
+		}
+		text = null;
+	}
+
+	/** @return true if the window ends at the end of the stream. */
+	boolean isEof() {
+		return eof;
+	}
+
+	/**
+	 * @return true if the start of the window looks like binary content.
+	 * @see RawText#isBinary(byte[], int)
+	 */
+	boolean isBinary() {
+		return RawText.isBinary(buf, len);
+	}
+
+	/** @return line number of the first line of {@link #text()}. */
+	int getBase() {
+		return base;
+	}
+
+	/**
+	 * @return the complete lines in the window. A partial line at the end is
+	 *         only included once the end of the stream has been reached.
+	 */
+	RawText text() {
+		if (text == null) {
+			textEnd = eof ? len : lastLF() + 1;
+			text = new RawText(Arrays.copyOf(buf, textEnd));
+		}
+		return text;
+	}
+
+	/**
+	 * Drop lines from the start of the window.
+	 *
+	 * @param cnt
+	 *            number of lines of {@link #text()} to drop.
+	 */
+	void discard(int cnt) {
+		if (cnt == 0)
+			return;
+		int ptr;
+		if (cnt == text().size()) {
+			ptr = textEnd;
+		} else {
+			ptr = 0;
+			for (int i = 0; i < cnt; i++)
+				ptr = nextLF(ptr);
+		}
+		System.arraycopy(buf, ptr, buf, 0, len - ptr);
+		len -= ptr;
+		base += cnt;
+		text = null;
+	}
+
+	/**
+	 * Slide the window forward until it holds a line.
+	 *
+	 * @param line
+	 *            line number to position the window at. Must not be less than
+	 *            {@link #getBase()}.
+	 * @return index of {@code line} within {@link #text()}.
+	 * @throws IOException
+	 *             the stream cannot be read.
+	 */
+	int seek(int line) throws IOException {
+		for (;;) {
+			int idx = line - base;
+			int n = text().size();
+			if (idx < n || eof)
+				return idx;
+			discard(n);
+			fill();
+		}
+	}
+
+	private int nextLF(int ptr) {
+		while (ptr < len && buf[ptr++] != '\n') {
+			// Skip over the line.
+		}
+		return ptr;
+	}
+
+	private int lastLF() {
+		for (int ptr = len - 1; ptr >= 0; ptr--) {
+			if (buf[ptr] == '\n')
+				return ptr;
+		}
+		return -1;
+	}
+}
@@ -49,6 +49,7 @@
 import static org.eclipse.jgit.util.RawCharUtil.trimTrailingWhitespace;
 
 import org.eclipse.jgit.util.IntList;
+import org.eclipse.jgit.util.NB;
 
 /** Equivalence function for {@link RawText}. */
 public abstract class RawTextComparator extends SequenceComparator<RawText> {
@@ -76,13 +77,27 @@ public boolean equals(RawText a, int ai, RawText b, int bi) {
 
 		@Override
 		protected int hashRegion(final byte[] raw, int ptr, final int end) {
-			int hash = 5381;
-			for (; ptr < end; ptr++)
-				hash = ((hash << 5) + hash) + (raw[ptr] & 0xff);
-			return hash;
+			// Fold 8 bytes at a time into the state. The loads within a
+			// word are independent of each other, leaving only a single
+			// multiply on the critical path per word instead of a shift
+			// and add per byte.
+			//
+			long hash = 5381 + (end - ptr);
+			for (; ptr + 8 <= end; ptr += 8)
+				hash = (hash ^ NB.decodeInt64(raw, ptr)) * HASH_MULTIPLIER;
+			if (ptr < end) {
+				long tail = 0;
+				for (int shift = 0; ptr < end; ptr++, shift += 8)
+					tail |= (raw[ptr] & 0xffL) << shift;
+				hash = (hash ^ tail) * HASH_MULTIPLIER;
+			}
+			return (int) (hash ^ (hash >>> 32));
 		}
 	};
 
+	/** Odd 64 bit constant used to mix words in {@link #DEFAULT}. */
+	private static final long HASH_MULTIPLIER = 0x9e3779b97f4a7c15L;
+
 	/** Ignores all whitespace. */
 	public static final RawTextComparator WS_IGNORE_ALL = new RawTextComparator() {
 		@Override
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.diff;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Computes the differences between two streams using bounded memory.
+ * <p>
+ * Each stream is read through a {@link LineWindow}. The configured
+ * {@link DiffAlgorithm} compares the two windows, and the edits up to the
+ * last line both windows agree on are accepted. Both windows then slide past
+ * the accepted region and the process repeats until both streams are
+ * exhausted.
+ * <p>
+ * The edits are always a valid description of how to transform one stream
+ * into the other, but may be larger than those produced by comparing the
+ * entire content at once when a change is wider than the window.
+ */
+final class WindowedDiff {
+	private final DiffAlgorithm algorithm;
+
+	private final RawTextComparator comparator;
+
+	private final int windowSize;
+
+	private int linesA;
+
+	private int linesB;
+
+	/**
+	 * Create a new differ.
+	 *
+	 * @param algorithm
+	 *            algorithm used to compare each pair of windows.
+	 * @param comparator
+	 *            equivalence function for lines.
+	 * @param windowSize
+	 *            number of bytes to buffer from each stream.
+	 */
+	WindowedDiff(DiffAlgorithm algorithm, RawTextComparator comparator,
+			int windowSize) {
+		this.algorithm = algorithm;
+		this.comparator = comparator;
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Compare two streams.
+	 *
+	 * @param a
+	 *            the pre-image content.
+	 * @param b
+	 *            the post-image content.
+	 * @return edits to convert {@code a} into {@code b}, with line numbers
+	 *         relative to the start of the streams; null if either stream
+	 *         appears to be binary.
+	 * @throws IOException
+	 *             a stream cannot be read.
+	 */
+	EditList diff(InputStream a, InputStream b) throws IOException {
+		LineWindow wa = new LineWindow(a, windowSize);
+		LineWindow wb = new LineWindow(b, windowSize);
+		wa.fill();
+		wb.fill();
+		if (wa.isBinary() || wb.isBinary())
+			return null;
+
+		EditList res = new EditList();
+		for (;;) {
+			RawText ta = wa.text();
+			RawText tb = wb.text();
+			EditList e = algorithm.diff(comparator, ta, tb);
+
+			if (wa.isEof() && wb.isEof()) {
+				accept(res, e, e.size(), wa, wb);
+				linesA = wa.getBase() + ta.size();
+				linesB = wb.getBase() + tb.size();
+				return res;
+			}
+
+			// Find the last edit followed by a line common to both
+			// windows. Edits after it may be an artifact of where the
+			// windows were cut, so they are reconsidered in the next
+			// pair of windows.
+			//
+			int k = e.size() - 1;
+			while (0 <= k && nextBeginA(e, k, ta) == e.get(k).getEndA())
+				k--;
+
+			int skipA, skipB;
+			if (0 <= k) {
+				skipA = e.get(k).getEndA();
+				skipB = e.get(k).getEndB();
+				accept(res, e, k + 1, wa, wb);
+			} else if (e.isEmpty()) {
+				skipA = ta.size();
+				skipB = tb.size();
+			} else if (0 < e.get(0).getBeginA()) {
+				skipA = e.get(0).getBeginA();
+				skipB = e.get(0).getBeginB();
+			} else {
+				// Nothing is common within the windows. Accept the
+				// replacement of all of it so the windows can advance.
+				//
+				skipA = ta.size();
+				skipB = tb.size();
+				add(res, new Edit(wa.getBase(), wa.getBase() + skipA,
+						wb.getBase(), wb.getBase() + skipB));
+			}
+
+			wa.discard(skipA);
+			wb.discard(skipB);
+			wa.fill();
+			wb.fill();
+		}
+	}
+
+	/** @return number of lines in the pre-image of the last diff. */
+	int getLinesA() {
+		return linesA;
+	}
+
+	/** @return number of lines in the post-image of the last diff. */
+	int getLinesB() {
+		return linesB;
+	}
+
+	private static int nextBeginA(EditList e, int k, RawText a) {
+		return k + 1 < e.size() ? e.get(k + 1).getBeginA() : a.size();
+	}
+
+	private static void accept(EditList res, EditList e, int cnt,
+			LineWindow wa, LineWindow wb) {
+		for (int i = 0; i < cnt; i++) {
+			Edit n = e.get(i);
+			n.beginA += wa.getBase();
+			n.endA += wa.getBase();
+			n.beginB += wb.getBase();
+			n.endB += wb.getBase();
+			add(res, n);
+		}
+	}
+
+	private static void add(EditList res, Edit n) {
+		// Windows cut in the middle of a change may leave it split over
+		// two edits. Join them back together.
+		//
+		if (!res.isEmpty()) {
+			Edit last = res.get(res.size() - 1);
+			if (last.endA == n.beginA && last.endB == n.beginB) {
+				last.endA = n.endA;
+				last.endB = n.endB;
+				return;
+			}
+		}
+		res.add(n);
+	}
+}
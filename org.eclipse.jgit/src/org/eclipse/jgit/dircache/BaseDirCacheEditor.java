@@ -191,6 +191,17 @@ private void checkNameConflicts() {
 			}
 
 			byte[] ePath = e.path;
+			if (e.isSparseDirectory()) {
+				// Any path inside of the sparse directory sorts directly
+				// after it, and conflicts with it.
+				DirCacheEntry n = entries[eIdx + 1];
+				if (startsWith(ePath, n.path, ePath.length)) {
+					throw new DirCacheNameConflictException(
+							e.getPathString(),
+							n.getPathString());
+				}
+				continue;
+			}
 			int prefixLen = lastSlash(ePath) + 1;
 
 			for (int nIdx = eIdx + 1; nIdx < entryCnt; nIdx++) {
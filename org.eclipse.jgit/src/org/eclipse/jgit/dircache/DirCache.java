@@ -45,14 +45,17 @@
 
 package org.eclipse.jgit.dircache;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.security.DigestOutputStream;
@@ -62,6 +65,13 @@
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IntIterator;
 
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.IndexReadException;
@@ -73,16 +83,21 @@
 import org.eclipse.jgit.internal.storage.file.FileSnapshot;
 import org.eclipse.jgit.internal.storage.file.LockFile;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.eclipse.jgit.treewalk.FileTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.TreeWalk.OperationType;
 import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.FileUtils;
 import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.MutableInteger;
 import org.eclipse.jgit.util.NB;
@@ -106,10 +121,27 @@ public class DirCache {
 
 	private static final int EXT_TREE = 0x54524545 /* 'TREE' */;
 
+	private static final int EXT_LINK = 0x6c696e6b /* 'link' */;
+
+	private static final int EXT_SDIR = 0x73646972 /* 'sdir' */;
+
+	private static final String SHARED_INDEX_PREFIX = "sharedindex."; //$NON-NLS-1$
+
+	/** Unused shared index files older than this are deleted. */
+	private static final long SHARED_INDEX_EXPIRE = 14 * 24 * 60 * 60 * 1000L;
+
 	private static final DirCacheEntry[] NO_ENTRIES = {};
 
 	private static final byte[] NO_CHECKSUM = {};
 
+	private static final byte[] NO_PATH = {};
+
+	/**
+	 * Index files at least this large have their checksum computed by a
+	 * background thread while the entries are parsed.
+	 */
+	private static final int PARALLEL_CHECKSUM_SIZE = 1 << 20;
+
 	static final Comparator<DirCacheEntry> ENT_CMP = new Comparator<DirCacheEntry>() {
 		public int compare(final DirCacheEntry o1, final DirCacheEntry o2) {
 			final int cr = cmp(o1, o2);
@@ -170,6 +202,56 @@ public static DirCache read(ObjectReader reader, AnyObjectId treeId)
 		return d;
 	}
 
+	/**
+	 * Create a new in memory index holding only the top level of a tree.
+	 * <p>
+	 * Every subtree is represented by a sparse directory entry (see
+	 * {@link DirCacheEntry#isSparseDirectory()}) until
+	 * {@link #expandSparse(ObjectReader, String)} loads it. As the tree of a
+	 * sparse directory is known, {@link #writeTree(ObjectInserter)} formats
+	 * only the directories which were expanded. Like the entries of an
+	 * expanded sparse directory all entries are marked as skip-worktree.
+	 *
+	 * @param reader
+	 *            reader to access the tree objects from a repository.
+	 * @param treeId
+	 *            tree to read. Must identify a tree, not a tree-ish.
+	 * @return a new cache which has no backing store file, but contains the
+	 *         contents of {@code treeId}.
+	 * @throws IOException
+	 *             the tree is not available from the ObjectReader.
+	 * @since 4.7
+	 */
+	public static DirCache readSparse(ObjectReader reader, AnyObjectId treeId)
+			throws IOException {
+		DirCache d = newInCore();
+		List<DirCacheEntry> ents = readLevel(reader, NO_PATH, treeId);
+		d.replace(ents.toArray(new DirCacheEntry[ents.size()]), ents.size());
+		return d;
+	}
+
+	private static List<DirCacheEntry> readLevel(ObjectReader reader,
+			byte[] prefix, AnyObjectId treeId) throws IOException {
+		List<DirCacheEntry> ents = new ArrayList<>();
+		for (CanonicalTreeParser p = new CanonicalTreeParser(prefix, reader,
+				treeId); !p.eof(); p.next()) {
+			int n = p.getEntryPathLength();
+			byte[] path;
+			if (p.getEntryRawMode() == FileMode.TYPE_TREE) {
+				path = new byte[n + 1];
+				System.arraycopy(p.getEntryPathBuffer(), 0, path, 0, n);
+				path[n] = '/';
+				ents.add(DirCacheEntry.newSparseDirectory(path,
+						p.getEntryObjectId()));
+			} else {
+				path = Arrays.copyOf(p.getEntryPathBuffer(), n);
+				ents.add(DirCacheEntry.newSkipWorkTree(path,
+						p.getEntryRawMode(), p.getEntryObjectId()));
+			}
+		}
+		return ents;
+	}
+
 	/**
 	 * Create a new in-core index representation and read an index from disk.
 	 * <p>
@@ -191,6 +273,7 @@ public static DirCache read(final Repository repository)
 			throws CorruptObjectException, IOException {
 		final DirCache c = read(repository.getIndexFile(), repository.getFS());
 		c.repository = repository;
+		c.initConfig(repository.getConfig());
 		return c;
 	}
 
@@ -293,6 +376,7 @@ public static DirCache lock(final Repository repository,
 		DirCache c = lock(repository.getIndexFile(), repository.getFS(),
 				indexChangedListener);
 		c.repository = repository;
+		c.initConfig(repository.getConfig());
 		return c;
 	}
 
@@ -341,6 +425,45 @@ public static DirCache lock(final File indexLocation, final FS fs,
 	/** Cache tree for this index; null if the cache tree is not available. */
 	private DirCacheTree tree;
 
+	/**
+	 * Buffer holding the unparsed cache tree extension read from disk; null
+	 * if there is none or {@link #tree} was already parsed from it.
+	 */
+	private byte[] treeData;
+
+	/** First byte of the cache tree extension within {@link #treeData}. */
+	private int treeOffset;
+
+	/** Length of the cache tree extension within {@link #treeData}. */
+	private int treeLength;
+
+	/** Index format version read from disk; 0 if not yet known. */
+	private int version;
+
+	/**
+	 * Pristine entries of the shared index this index was split from; null
+	 * if the index is not split. These are never handed out to callers.
+	 */
+	private DirCacheEntry[] baseEntries;
+
+	/** Checksum naming the shared index holding {@link #baseEntries}. */
+	private ObjectId baseId;
+
+	/** {@link #baseEntries} of the last write, applied by {@link #commit()}. */
+	private DirCacheEntry[] writeBaseEntries;
+
+	/** {@link #baseId} of the last write, applied by {@link #commit()}. */
+	private ObjectId writeBaseId;
+
+	/** Whether to write a split index; null to keep the format read. */
+	private Boolean splitIndex;
+
+	/** Percentage of changed entries allowed before sharing a new base. */
+	private int maxPercentChange = 20;
+
+	/** Whether directories outside the sparse checkout are collapsed. */
+	private boolean sparseIndex;
+
 	/** Our active lock (if we hold it); null if we don't have it locked. */
 	private LockFile myLock;
 
@@ -404,6 +527,121 @@ void replace(final DirCacheEntry[] e, final int cnt) {
 		sortedEntries = e;
 		entryCnt = cnt;
 		tree = null;
+		treeData = null;
+	}
+
+	/**
+	 * Get the file format version of this index.
+	 *
+	 * @return version of the index file format used when this index was read
+	 *         from disk or set by {@link #setVersion(int)}; 0 if the version
+	 *         is chosen automatically (2, or 3 if extended flags are used).
+	 * @since 4.7
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Set the file format version used the next time this index is written.
+	 * <p>
+	 * Version 4 stores each path as the number of bytes to remove from the
+	 * end of the previous path plus the remaining suffix, and omits the
+	 * padding between entries. This typically shrinks large index files
+	 * considerably.
+	 *
+	 * @param version
+	 *            2, 3 or 4; or 0 to choose version 2 or 3 automatically.
+	 * @since 4.7
+	 */
+	public void setVersion(int version) {
+		if (version != 0 && (version < 2 || 4 < version))
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().unknownDIRCVersion,
+					Integer.valueOf(version)));
+		this.version = version;
+	}
+
+	/**
+	 * Whether this index is written as a split index.
+	 *
+	 * @return true if the next write stores only the changes relative to a
+	 *         shared index file.
+	 * @since 4.7
+	 */
+	public boolean isSplitIndex() {
+		if (splitIndex != null)
+			return splitIndex.booleanValue();
+		return baseId != null;
+	}
+
+	/**
+	 * Set whether this index is written as a split index.
+	 * <p>
+	 * A split index keeps most entries in a shared index file named
+	 * {@code sharedindex.<checksum>} next to the index, and the index itself
+	 * only holds the entries which were added, removed or modified since. The
+	 * shared index is rewritten once the changes exceed
+	 * {@code splitIndex.maxPercentChange} percent of all entries. This makes
+	 * writing a large index after small updates much cheaper.
+	 *
+	 * @param split
+	 *            true to write a split index; false to write a single file.
+	 * @since 4.7
+	 */
+	public void setSplitIndex(boolean split) {
+		splitIndex = Boolean.valueOf(split);
+	}
+
+	/**
+	 * Whether directories outside of the sparse checkout are collapsed.
+	 *
+	 * @return true if the index is written as a sparse index.
+	 * @since 4.7
+	 */
+	public boolean isSparseIndex() {
+		return sparseIndex;
+	}
+
+	/**
+	 * Set whether directories outside of the sparse checkout are collapsed.
+	 * <p>
+	 * When enabled, every directory whose entries are all marked as
+	 * skip-worktree is written as a single sparse directory entry (see
+	 * {@link DirCacheEntry#isSparseDirectory()}). Collapsing requires the
+	 * index to be associated with a repository, which must contain the trees
+	 * of the collapsed directories, and is skipped while the index has
+	 * unmerged paths.
+	 *
+	 * @param sparse
+	 *            true to write a sparse index.
+	 * @since 4.7
+	 */
+	public void setSparseIndex(boolean sparse) {
+		sparseIndex = sparse;
+	}
+
+	private void initConfig(Config cfg) {
+		// Like C Git index.version only applies to new index files, an
+		// existing index keeps the format it was written in.
+		if (version == 0) {
+			int v = cfg.getInt(ConfigConstants.CONFIG_INDEX_SECTION,
+					ConfigConstants.CONFIG_KEY_VERSION, 0);
+			if (2 <= v && v <= 4)
+				version = v;
+		}
+
+		// Without core.splitIndex a split index stays split and a single
+		// file stays a single file.
+		if (cfg.getString(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_SPLIT_INDEX) != null)
+			setSplitIndex(cfg.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+					ConfigConstants.CONFIG_KEY_SPLIT_INDEX, false));
+		maxPercentChange = cfg.getInt(
+				ConfigConstants.CONFIG_SPLIT_INDEX_SECTION,
+				ConfigConstants.CONFIG_KEY_MAX_PERCENT_CHANGE, 20);
+		sparseIndex = cfg.getBoolean(ConfigConstants.CONFIG_INDEX_SECTION,
+				ConfigConstants.CONFIG_KEY_SPARSE, false);
 	}
 
 	/**
@@ -427,17 +665,10 @@ public void read() throws IOException, CorruptObjectException {
 			clear();
 		else if (snapshot == null || snapshot.isModified(liveFile)) {
 			try {
-				final FileInputStream inStream = new FileInputStream(liveFile);
-				try {
-					clear();
-					readFrom(inStream);
-				} finally {
-					try {
-						inStream.close();
-					} catch (IOException err2) {
-						// Ignore any close failures.
-					}
-				}
+				final byte[] buf = IO.readFully(liveFile);
+				clear();
+				readFrom(buf, false);
+				smudgeRacilyClean(snapshot);
 			} catch (FileNotFoundException fnfe) {
 				if (liveFile.exists()) {
 					// Panic: the index file exists but we can't read it
@@ -470,120 +701,281 @@ public void clear() {
 		sortedEntries = NO_ENTRIES;
 		entryCnt = 0;
 		tree = null;
+		treeData = null;
+		version = 0;
+		baseEntries = null;
+		baseId = null;
 		readIndexChecksum = NO_CHECKSUM;
 	}
 
-	private void readFrom(final InputStream inStream) throws IOException,
-			CorruptObjectException {
-		final BufferedInputStream in = new BufferedInputStream(inStream);
-		final MessageDigest md = Constants.newMessageDigest();
-
-		// Read the index header and verify we understand it.
+	private void readFrom(final byte[] buf, final boolean shared)
+			throws IOException, CorruptObjectException {
+		// The trailing checksum covers everything before it. For large
+		// files compute it on another thread while the entries are parsed.
+		//
+		final int end = buf.length - Constants.OBJECT_ID_LENGTH;
+		if (end < 12)
+			throw new EOFException(JGitText.get().shortReadOfBlock);
+		final Future<byte[]> checksum;
+		if (buf.length >= PARALLEL_CHECKSUM_SIZE) {
+			checksum = ForkJoinPool.commonPool().submit(
+					new Callable<byte[]>() {
+						@Override
+						public byte[] call() {
+							return digest(buf, end);
+						}
+					});
+		} else
+			checksum = null;
+
+		// Verify the index header and that we understand it.
 		//
-		final byte[] hdr = new byte[20];
-		IO.readFully(in, hdr, 0, 12);
-		md.update(hdr, 0, 12);
-		if (!is_DIRC(hdr))
+		if (!is_DIRC(buf))
 			throw new CorruptObjectException(JGitText.get().notADIRCFile);
-		final int ver = NB.decodeInt32(hdr, 4);
-		boolean extended = false;
-		if (ver == 3)
-			extended = true;
-		else if (ver != 2)
+		final int ver = NB.decodeInt32(buf, 4);
+		if (ver < 2 || 4 < ver)
 			throw new CorruptObjectException(MessageFormat.format(
 					JGitText.get().unknownDIRCVersion, Integer.valueOf(ver)));
-		entryCnt = NB.decodeInt32(hdr, 8);
+		entryCnt = NB.decodeInt32(buf, 8);
 		if (entryCnt < 0)
 			throw new CorruptObjectException(JGitText.get().DIRCHasTooManyEntries);
 
 		snapshot = FileSnapshot.save(liveFile);
-		int smudge_s = (int) (snapshot.lastModified() / 1000);
-		int smudge_ns = ((int) (snapshot.lastModified() % 1000)) * 1000000;
 
-		// Load the individual file entries.
+		// Load the individual file entries. Their header information is not
+		// copied, entries refer directly into the buffer.
 		//
-		final int infoLength = DirCacheEntry.getMaximumInfoLength(extended);
-		final byte[] infos = new byte[infoLength * entryCnt];
 		sortedEntries = new DirCacheEntry[entryCnt];
-
-		final MutableInteger infoAt = new MutableInteger();
-		for (int i = 0; i < entryCnt; i++)
-			sortedEntries[i] = new DirCacheEntry(infos, infoAt, in, md, smudge_s, smudge_ns);
+		final MutableInteger ptr = new MutableInteger();
+		ptr.value = 12;
+		byte[] previousPath = ver == 4 ? NO_PATH : null;
+		for (int i = 0; i < entryCnt; i++) {
+			DirCacheEntry e = new DirCacheEntry(buf, ptr, previousPath);
+			if (previousPath != null)
+				previousPath = e.path;
+			sortedEntries[i] = e;
+		}
 
 		// After the file entries are index extensions, and then a footer.
 		//
-		for (;;) {
-			in.mark(21);
-			IO.readFully(in, hdr, 0, 20);
-			if (in.read() < 0) {
-				// No extensions present; the file ended where we expected.
-				//
-				break;
-			}
-
-			in.reset();
-			md.update(hdr, 0, 8);
-			IO.skipFully(in, 8);
-
-			long sz = NB.decodeUInt32(hdr, 4);
-			switch (NB.decodeInt32(hdr, 0)) {
+		ObjectId link = null;
+		EWAHCompressedBitmap delete = null;
+		EWAHCompressedBitmap replace = null;
+		int p = ptr.value;
+		while (p < end) {
+			if (end - p < 8)
+				throw new EOFException(JGitText.get().shortReadOfBlock);
+			final int ext = NB.decodeInt32(buf, p);
+			final long sz = NB.decodeUInt32(buf, p + 4);
+			final String name = formatExtensionName(buf, p);
+			p += 8;
+
+			switch (ext) {
 			case EXT_TREE: {
 				if (Integer.MAX_VALUE < sz) {
 					throw new CorruptObjectException(MessageFormat.format(
 							JGitText.get().DIRCExtensionIsTooLargeAt,
-							formatExtensionName(hdr), Long.valueOf(sz)));
+							name, Long.valueOf(sz)));
+				}
+				if (end - p < sz)
+					throw new EOFException(JGitText.get().shortReadOfBlock);
+
+				// Only parse the cache tree if someone asks for it.
+				treeData = buf;
+				treeOffset = p;
+				treeLength = (int) sz;
+				break;
+			}
+			case EXT_LINK: {
+				if (shared || sz < Constants.OBJECT_ID_LENGTH || end - p < sz)
+					throw new CorruptObjectException(MessageFormat.format(
+							JGitText.get().DIRCInvalidLinkExtension, name));
+				link = ObjectId.fromRaw(buf, p);
+				if (sz > Constants.OBJECT_ID_LENGTH) {
+					DataInputStream in = new DataInputStream(
+							new ByteArrayInputStream(buf,
+									p + Constants.OBJECT_ID_LENGTH,
+									(int) sz - Constants.OBJECT_ID_LENGTH));
+					delete = new EWAHCompressedBitmap();
+					delete.deserialize(in);
+					replace = new EWAHCompressedBitmap();
+					replace.deserialize(in);
 				}
-				final byte[] raw = new byte[(int) sz];
-				IO.readFully(in, raw, 0, raw.length);
-				md.update(raw, 0, raw.length);
-				tree = new DirCacheTree(raw, new MutableInteger(), null);
 				break;
 			}
+			case EXT_SDIR:
+				// Sparse directory entries are recognized by their
+				// trailing '/', the marker carries no data.
+				break;
 			default:
-				if (hdr[0] >= 'A' && hdr[0] <= 'Z') {
+				if (buf[p - 8] >= 'A' && buf[p - 8] <= 'Z') {
 					// The extension is optional and is here only as
 					// a performance optimization. Since we do not
-					// understand it, we can safely skip past it, after
-					// we include its data in our checksum.
+					// understand it, we can safely skip past it.
 					//
-					skipOptionalExtension(in, md, hdr, sz);
+					if (end - p < sz) {
+						throw new EOFException(MessageFormat.format(
+								JGitText.get().shortReadOfOptionalDIRCExtensionExpectedAnotherBytes,
+								name, Long.valueOf(sz)));
+					}
 				} else {
 					// The extension is not an optimization and is
 					// _required_ to understand this index format.
 					// Since we did not trap it above we must abort.
 					//
 					throw new CorruptObjectException(MessageFormat.format(JGitText.get().DIRCExtensionNotSupportedByThisVersion
-							, formatExtensionName(hdr)));
+							, name));
 				}
 			}
+			p += (int) sz;
 		}
 
-		readIndexChecksum = md.digest();
-		if (!Arrays.equals(readIndexChecksum, hdr)) {
+		readIndexChecksum = checksum != null ? waitFor(checksum)
+				: digest(buf, end);
+		if (!Arrays.equals(readIndexChecksum,
+				Arrays.copyOfRange(buf, end, buf.length))) {
 			throw new CorruptObjectException(JGitText.get().DIRCChecksumMismatch);
 		}
+		version = ver;
+
+		if (link != null)
+			mergeSharedIndex(link, delete, replace);
+		else {
+			for (int i = 0; i < entryCnt; i++)
+				if (sortedEntries[i].path.length == 0)
+					throw new CorruptObjectException(MessageFormat.format(
+							JGitText.get().DIRCInvalidLinkExtension,
+							Integer.valueOf(i)));
+		}
 	}
 
-	private void skipOptionalExtension(final InputStream in,
-			final MessageDigest md, final byte[] hdr, long sz)
-			throws IOException {
-		final byte[] b = new byte[4096];
-		while (0 < sz) {
-			int n = in.read(b, 0, (int) Math.min(b.length, sz));
-			if (n < 0) {
-				throw new EOFException(
-						MessageFormat.format(
-								JGitText.get().shortReadOfOptionalDIRCExtensionExpectedAnotherBytes,
-								formatExtensionName(hdr), Long.valueOf(sz)));
+	/**
+	 * Apply the entries read from a split index to its shared index.
+	 * <p>
+	 * The split index starts with one nameless entry for each bit of the
+	 * replace bitmap, in order, followed by the entries added to the shared
+	 * index. Both, and the bitmaps, refer to entries by their position in
+	 * the shared index.
+	 */
+	private void mergeSharedIndex(ObjectId link, EWAHCompressedBitmap delete,
+			EWAHCompressedBitmap replace) throws IOException {
+		final DirCacheEntry[] base = readSharedIndex(link);
+		final boolean[] deleted = new boolean[base.length];
+		final DirCacheEntry[] replaced = new DirCacheEntry[base.length];
+		int r = 0;
+		if (delete != null) {
+			for (IntIterator i = delete.intIterator(); i.hasNext();) {
+				final int pos = i.next();
+				if (pos >= base.length)
+					throw new CorruptObjectException(MessageFormat.format(
+							JGitText.get().DIRCInvalidLinkExtension,
+							Integer.valueOf(pos)));
+				deleted[pos] = true;
+			}
+			for (IntIterator i = replace.intIterator(); i.hasNext();) {
+				final int pos = i.next();
+				if (pos >= base.length || r >= entryCnt
+						|| sortedEntries[r].path.length != 0)
+					throw new CorruptObjectException(MessageFormat.format(
+							JGitText.get().DIRCInvalidLinkExtension,
+							Integer.valueOf(pos)));
+				replaced[pos] = new DirCacheEntry(sortedEntries[r++],
+						base[pos].path);
 			}
-			md.update(b, 0, n);
-			sz -= n;
 		}
+
+		// Entries added by the split index replace shared entries of the
+		// same path and stage, otherwise both lists are merged in order.
+		//
+		final DirCacheEntry[] merged = new DirCacheEntry[base.length
+				+ entryCnt - r];
+		int n = 0;
+		int b = 0;
+		int a = r;
+		while (b < base.length || a < entryCnt) {
+			if (b < base.length && deleted[b]) {
+				b++;
+				continue;
+			}
+			if (a < entryCnt && sortedEntries[a].path.length == 0)
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().DIRCInvalidLinkExtension,
+						Integer.valueOf(a)));
+
+			final int c;
+			if (b == base.length)
+				c = 1;
+			else if (a == entryCnt)
+				c = -1;
+			else
+				c = cmp(base[b], sortedEntries[a]);
+			if (c < 0) {
+				merged[n++] = replaced[b] != null ? replaced[b]
+						: new DirCacheEntry(base[b]);
+				b++;
+			} else {
+				merged[n++] = sortedEntries[a++];
+				if (c == 0)
+					b++;
+			}
+		}
+		sortedEntries = merged;
+		entryCnt = n;
+		baseEntries = base;
+		baseId = link;
 	}
 
-	private static String formatExtensionName(final byte[] hdr)
+	private DirCacheEntry[] readSharedIndex(ObjectId id) throws IOException {
+		final File f = new File(liveFile.getParentFile(),
+				SHARED_INDEX_PREFIX + id.name());
+		final byte[] buf;
+		try {
+			buf = IO.readFully(f);
+		} catch (FileNotFoundException e) {
+			throw new CorruptObjectException(MessageFormat.format(
+					JGitText.get().DIRCSharedIndexNotFound, f.getPath()));
+		}
+		final DirCache shared = new DirCache(f, null);
+		shared.readFrom(buf, true);
+		if (!id.equals(ObjectId.fromRaw(shared.readIndexChecksum)))
+			throw new CorruptObjectException(JGitText.get().DIRCChecksumMismatch);
+		return Arrays.copyOf(shared.sortedEntries, shared.entryCnt);
+	}
+
+	private void smudgeRacilyClean(FileSnapshot snap) {
+		// Smudging modifies the buffer, so it must wait until the checksum
+		// has been computed.
+		//
+		final int smudge_s = (int) (snap.lastModified() / 1000);
+		final int smudge_ns = ((int) (snap.lastModified() % 1000)) * 1000000;
+		for (int i = 0; i < entryCnt; i++) {
+			final DirCacheEntry e = sortedEntries[i];
+			if (e.mightBeRacilyClean(smudge_s, smudge_ns))
+				e.smudgeRacilyClean();
+		}
+	}
+
+	private static byte[] digest(final byte[] buf, final int end) {
+		final MessageDigest md = Constants.newMessageDigest();
+		md.update(buf, 0, end);
+		return md.digest();
+	}
+
+	private static byte[] waitFor(final Future<byte[]> checksum)
+			throws IOException {
+		try {
+			return checksum.get();
+		} catch (InterruptedException e) {
+			checksum.cancel(true);
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static String formatExtensionName(final byte[] hdr, int ptr)
 			throws UnsupportedEncodingException {
-		return "'" + new String(hdr, 0, 4, "ISO-8859-1") + "'"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return "'" + new String(hdr, ptr, 4, "ISO-8859-1") + "'"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 	}
 
 	private static boolean is_DIRC(final byte[] hdr) {
@@ -652,20 +1044,7 @@ public void write() throws IOException {
 	void writeTo(File dir, final OutputStream os) throws IOException {
 		final MessageDigest foot = Constants.newMessageDigest();
 		final DigestOutputStream dos = new DigestOutputStream(os, foot);
-
-		boolean extended = false;
-		for (int i = 0; i < entryCnt; i++)
-			extended |= sortedEntries[i].isExtended();
-
-		// Write the header.
-		//
 		final byte[] tmp = new byte[128];
-		System.arraycopy(SIG_DIRC, 0, tmp, 0, SIG_DIRC.length);
-		NB.encodeInt32(tmp, 4, extended ? 3 : 2);
-		NB.encodeInt32(tmp, 8, entryCnt);
-		dos.write(tmp, 0, 12);
-
-		// Write the individual file entries.
 
 		final int smudge_s;
 		final int smudge_ns;
@@ -686,7 +1065,7 @@ void writeTo(File dir, final OutputStream os) throws IOException {
 
 		// Check if tree is non-null here since calling updateSmudgedEntries
 		// will automatically build it via creating a DirCacheIterator
-		final boolean writeTree = tree != null;
+		boolean writeTree = tree != null || treeData != null;
 
 		if (repository != null && entryCnt > 0)
 			updateSmudgedEntries();
@@ -695,26 +1074,368 @@ void writeTo(File dir, final OutputStream os) throws IOException {
 			final DirCacheEntry e = sortedEntries[i];
 			if (e.mightBeRacilyClean(smudge_s, smudge_ns))
 				e.smudgeRacilyClean();
-			e.write(dos);
 		}
 
-		if (writeTree) {
+		// Like C Git a split index is never sparse. A sparse index which
+		// cannot be collapsed again is expanded to a full index.
+		//
+		final boolean split = dir != null && isSplitIndex();
+		DirCacheEntry[] ents = sortedEntries;
+		int cnt = entryCnt;
+		DirCacheTree sparseTree = null;
+		if (repository != null) {
+			final boolean collapse = !split && sparseIndex
+					&& !hasUnmergedPaths();
+			if (collapse || hasSparseDirectories()) {
+				try (ObjectReader reader = repository.newObjectReader()) {
+					final DirCacheEntry[] collapsed = collapse
+							? collapseSparse(reader) : null;
+					if (collapsed != null) {
+						ents = collapsed;
+						cnt = collapsed.length;
+						sparseTree = new DirCacheTree();
+						sparseTree.validate(ents, cnt, 0, 0);
+						try (ObjectInserter fmt = new TreeHasher()) {
+							sparseTree.writeTree(ents, 0, 0, fmt);
+						}
+					} else if (!collapse) {
+						// Expanding discards the cache tree.
+						expandSparse(reader);
+						ents = sortedEntries;
+						cnt = entryCnt;
+						writeTree = false;
+					}
+				}
+			}
+		}
+
+		// A split index only stores the difference to its shared index,
+		// unless that has grown too large.
+		//
+		int stripped = 0;
+		EWAHCompressedBitmap delete = null;
+		EWAHCompressedBitmap replace = null;
+		DirCacheEntry[] newBaseEntries = null;
+		ObjectId newBaseId = null;
+		if (split) {
+			delete = new EWAHCompressedBitmap();
+			replace = new EWAHCompressedBitmap();
+			DirCacheEntry[] delta = null;
+			if (baseEntries != null) {
+				final List<DirCacheEntry> replaced = new ArrayList<>();
+				final List<DirCacheEntry> added = new ArrayList<>();
+				final DirCacheEntry[] base = baseEntries;
+				int b = 0;
+				int c = 0;
+				while (b < base.length || c < cnt) {
+					final int r;
+					if (b == base.length)
+						r = 1;
+					else if (c == cnt)
+						r = -1;
+					else
+						r = cmp(base[b], ents[c]);
+					if (r < 0)
+						delete.set(b++);
+					else if (r > 0)
+						added.add(ents[c++]);
+					else {
+						if (!base[b].infoEquals(ents[c])) {
+							replace.set(b);
+							replaced.add(ents[c]);
+						}
+						b++;
+						c++;
+					}
+				}
+
+				final long changes = delete.cardinality() + replaced.size()
+						+ added.size();
+				if (0 < maxPercentChange && (100 <= maxPercentChange
+						|| changes * 100 <= (long) cnt * maxPercentChange)) {
+					stripped = replaced.size();
+					replaced.addAll(added);
+					delta = replaced.toArray(new DirCacheEntry[replaced.size()]);
+				}
+			}
+			if (delta == null) {
+				newBaseId = writeSharedIndex(dir, ents, cnt, tmp);
+				newBaseEntries = new DirCacheEntry[cnt];
+				for (int i = 0; i < cnt; i++)
+					newBaseEntries[i] = new DirCacheEntry(ents[i]);
+				delete = new EWAHCompressedBitmap();
+				replace = new EWAHCompressedBitmap();
+				delta = NO_ENTRIES;
+			} else {
+				newBaseId = baseId;
+				newBaseEntries = baseEntries;
+				// Keep the shared index in use from being expired.
+				new File(dir, SHARED_INDEX_PREFIX + baseId.name())
+						.setLastModified(System.currentTimeMillis());
+			}
+			ents = delta;
+			cnt = delta.length;
+		}
+
+		// Write the header and the individual file entries.
+		//
+		writeEntries(dos, ents, cnt, stripped, tmp);
+
+		if (sparseTree != null) {
+			TemporaryBuffer bb = new TemporaryBuffer.LocalFile(dir, 5 << 20);
+			try {
+				sparseTree.write(tmp, bb);
+				bb.close();
+				writeExtension(dos, EXT_TREE, bb, tmp);
+			} finally {
+				bb.destroy();
+			}
+		} else if (writeTree && tree == null) {
+			// The cache tree read from disk was never needed; copy it.
+			NB.encodeInt32(tmp, 0, EXT_TREE);
+			NB.encodeInt32(tmp, 4, treeLength);
+			dos.write(tmp, 0, 8);
+			dos.write(treeData, treeOffset, treeLength);
+		} else if (writeTree) {
 			TemporaryBuffer bb = new TemporaryBuffer.LocalFile(dir, 5 << 20);
 			try {
 				tree.write(tmp, bb);
 				bb.close();
-
-				NB.encodeInt32(tmp, 0, EXT_TREE);
-				NB.encodeInt32(tmp, 4, (int) bb.length());
-				dos.write(tmp, 0, 8);
-				bb.writeTo(dos, null);
+				writeExtension(dos, EXT_TREE, bb, tmp);
 			} finally {
 				bb.destroy();
 			}
 		}
+
+		if (split) {
+			final ByteArrayOutputStream link = new ByteArrayOutputStream();
+			newBaseId.copyRawTo(link);
+			final DataOutputStream out = new DataOutputStream(link);
+			delete.serialize(out);
+			replace.serialize(out);
+			out.flush();
+			NB.encodeInt32(tmp, 0, EXT_LINK);
+			NB.encodeInt32(tmp, 4, link.size());
+			dos.write(tmp, 0, 8);
+			link.writeTo(dos);
+		}
+
+		if (sparseTree != null || hasSparseDirectories()) {
+			NB.encodeInt32(tmp, 0, EXT_SDIR);
+			NB.encodeInt32(tmp, 4, 0);
+			dos.write(tmp, 0, 8);
+		}
+
 		writeIndexChecksum = foot.digest();
 		os.write(writeIndexChecksum);
 		os.close();
+
+		// Until the lock is committed the index on disk still links to the
+		// old shared index, which later writes must keep comparing to.
+		writeBaseEntries = newBaseEntries;
+		writeBaseId = newBaseId;
+	}
+
+	private void writeEntries(final OutputStream os, final DirCacheEntry[] ents,
+			final int cnt, final int stripped, final byte[] tmp)
+			throws IOException {
+		boolean extended = false;
+		for (int i = 0; i < cnt; i++)
+			extended |= ents[i].isExtended();
+
+		System.arraycopy(SIG_DIRC, 0, tmp, 0, SIG_DIRC.length);
+		final int ver = Math.max(version, extended ? 3 : 2);
+		NB.encodeInt32(tmp, 4, ver);
+		NB.encodeInt32(tmp, 8, cnt);
+		os.write(tmp, 0, 12);
+
+		byte[] previousPath = ver == 4 ? NO_PATH : null;
+		for (int i = 0; i < cnt; i++) {
+			final DirCacheEntry e = ents[i];
+			if (i < stripped) {
+				e.writeStripped(os, previousPath, tmp);
+				if (previousPath != null)
+					previousPath = NO_PATH;
+			} else if (previousPath != null) {
+				e.writeV4(os, previousPath, tmp);
+				previousPath = e.path;
+			} else
+				e.write(os);
+		}
+	}
+
+	private static void writeExtension(final OutputStream os, final int ext,
+			final TemporaryBuffer data, final byte[] tmp) throws IOException {
+		NB.encodeInt32(tmp, 0, ext);
+		NB.encodeInt32(tmp, 4, (int) data.length());
+		os.write(tmp, 0, 8);
+		data.writeTo(os, null);
+	}
+
+	private ObjectId writeSharedIndex(final File dir,
+			final DirCacheEntry[] ents, final int cnt, final byte[] tmp)
+			throws IOException {
+		final File tmpFile = File.createTempFile("sharedindex_", null, dir); //$NON-NLS-1$
+		try {
+			final MessageDigest md = Constants.newMessageDigest();
+			final ObjectId id;
+			try (OutputStream o = new BufferedOutputStream(
+					new FileOutputStream(tmpFile))) {
+				writeEntries(new DigestOutputStream(o, md), ents, cnt, 0, tmp);
+				id = ObjectId.fromRaw(md.digest());
+				id.copyRawTo(o);
+			}
+
+			final File dst = new File(dir, SHARED_INDEX_PREFIX + id.name());
+			if (dst.exists())
+				dst.setLastModified(System.currentTimeMillis());
+			else
+				FileUtils.rename(tmpFile, dst);
+			expireSharedIndexes(dir, dst);
+			return id;
+		} finally {
+			if (tmpFile.exists())
+				FileUtils.delete(tmpFile, FileUtils.RETRY);
+		}
+	}
+
+	private static void expireSharedIndexes(final File dir, final File keep) {
+		final File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		final long expire = System.currentTimeMillis() - SHARED_INDEX_EXPIRE;
+		for (File f : files) {
+			if (f.getName().startsWith(SHARED_INDEX_PREFIX) && !f.equals(keep)
+					&& f.lastModified() < expire)
+				f.delete();
+		}
+	}
+
+	private boolean hasSparseDirectories() {
+		for (int i = 0; i < entryCnt; i++)
+			if (sortedEntries[i].isSparseDirectory())
+				return true;
+		return false;
+	}
+
+	/**
+	 * Compute the entries of the sparse index. Every directory whose entries
+	 * are all skip-worktree is replaced by a single sparse directory entry.
+	 *
+	 * @return the collapsed entries; null if no directory collapses.
+	 */
+	private DirCacheEntry[] collapseSparse(final ObjectReader reader)
+			throws IOException {
+		// Tree ids are computed on a private cache tree, the one of this
+		// index must not learn about the collapsed entries.
+		//
+		final DirCacheTree full = new DirCacheTree();
+		full.validate(sortedEntries, entryCnt, 0, 0);
+		try (ObjectInserter fmt = new TreeHasher()) {
+			full.writeTree(sortedEntries, 0, 0, fmt);
+		}
+
+		final List<DirCacheEntry> out = new ArrayList<>(entryCnt);
+		full.collapseSparse(sortedEntries, 0, 0, reader, out);
+		if (out.size() == entryCnt)
+			return null;
+		return out.toArray(new DirCacheEntry[out.size()]);
+	}
+
+	/** Computes the ids of trees without storing them. */
+	private static class TreeHasher extends ObjectInserter.Formatter {
+		@Override
+		public ObjectId insert(int type, byte[] data, int off, int len) {
+			return idFor(type, data, off, len);
+		}
+	}
+
+	/**
+	 * Replace all sparse directory entries by the entries they stand for.
+	 * <p>
+	 * Applications which need to look at individual files inside of
+	 * directories outside of the sparse checkout, or which do not support
+	 * sparse directory entries, should call this method after reading a
+	 * sparse index. The expanded entries are marked as skip-worktree.
+	 * {@link DirCacheIterator} expands sparse directories on demand while a
+	 * TreeWalk enters them.
+	 *
+	 * @param reader
+	 *            reader to load the trees of the sparse directories.
+	 * @throws IOException
+	 *             a tree could not be read.
+	 * @since 4.7
+	 */
+	public void expandSparse(final ObjectReader reader) throws IOException {
+		if (!hasSparseDirectories())
+			return;
+		final DirCacheBuilder b = builder();
+		for (int i = 0; i < entryCnt; i++) {
+			final DirCacheEntry e = sortedEntries[i];
+			if (e.isSparseDirectory())
+				expandSparse(e, reader, b);
+			else
+				b.add(e);
+		}
+		b.finish();
+	}
+
+	/**
+	 * Expand the sparse directories enclosing a path.
+	 * <p>
+	 * Each sparse directory on the way to {@code path}, including
+	 * {@code path} itself if it is a sparse directory, is replaced by the
+	 * entries of its top level. Directories below are again represented by
+	 * sparse directory entries, so only the trees along the path are read.
+	 * Afterwards {@link #getEntry(String)} finds {@code path} if it exists.
+	 *
+	 * @param reader
+	 *            reader to load the trees of the sparse directories.
+	 * @param path
+	 *            path of a file or directory, without a trailing '/'.
+	 * @throws IOException
+	 *             a tree could not be read.
+	 * @since 4.7
+	 */
+	public void expandSparse(final ObjectReader reader, final String path)
+			throws IOException {
+		final byte[] p = Constants.encode(path + '/');
+		for (int s = 0; s < p.length; s++) {
+			if (p[s] == '/')
+				expandSparseLevel(reader, p, s + 1);
+		}
+	}
+
+	private void expandSparseLevel(final ObjectReader reader, final byte[] p,
+			final int pLen) throws IOException {
+		final int idx = findEntry(p, pLen);
+		if (idx < 0 || !sortedEntries[idx].isSparseDirectory())
+			return;
+
+		final DirCacheEntry dir = sortedEntries[idx];
+		final List<DirCacheEntry> ents = readLevel(reader, dir.path,
+				dir.getObjectId());
+		final int cnt = entryCnt - 1 + ents.size();
+		final DirCacheEntry[] n = new DirCacheEntry[cnt];
+		System.arraycopy(sortedEntries, 0, n, 0, idx);
+		for (int i = 0; i < ents.size(); i++)
+			n[idx + i] = ents.get(i);
+		System.arraycopy(sortedEntries, idx + 1, n, idx + ents.size(),
+				entryCnt - idx - 1);
+		replace(n, cnt);
+	}
+
+	static void expandSparse(final DirCacheEntry dir,
+			final ObjectReader reader, final DirCacheBuilder b)
+			throws IOException {
+		try (TreeWalk walk = new TreeWalk(reader)) {
+			walk.addTree(new CanonicalTreeParser(dir.path, reader,
+					dir.getObjectId()));
+			walk.setRecursive(true);
+			while (walk.next())
+				b.add(DirCacheEntry.newSkipWorkTree(walk.getRawPath(),
+						walk.getRawMode(0), walk.getObjectId(0)));
+		}
 	}
 
 	/**
@@ -735,6 +1456,8 @@ public boolean commit() {
 		if (!tmp.commit())
 			return false;
 		snapshot = tmp.getCommitSnapshot();
+		baseEntries = writeBaseEntries;
+		baseId = writeBaseId;
 		if (indexChangedListener != null
 				&& !Arrays.equals(readIndexChecksum, writeIndexChecksum))
 			indexChangedListener.onIndexChanged(new IndexChangedEvent());
@@ -936,6 +1659,12 @@ void toArray(final int i, final DirCacheEntry[] dst, final int off,
 	 *         and <code>build</code> was false.
 	 */
 	public DirCacheTree getCacheTree(final boolean build) {
+		if (treeData != null) {
+			final MutableInteger ptr = new MutableInteger();
+			ptr.value = treeOffset;
+			tree = new DirCacheTree(treeData, ptr, null);
+			treeData = null;
+		}
 		if (build) {
 			if (tree == null)
 				tree = new DirCacheTree();
@@ -996,7 +1725,8 @@ private void updateSmudgedEntries() throws IOException {
 		try (TreeWalk walk = new TreeWalk(repository)) {
 			walk.setOperationType(OperationType.CHECKIN_OP);
 			for (int i = 0; i < entryCnt; i++)
-				if (sortedEntries[i].isSmudged())
+				if (sortedEntries[i].isSmudged()
+						&& !sortedEntries[i].isSparseDirectory())
 					paths.add(sortedEntries[i].getPathString());
 			if (paths.isEmpty())
 				return;
@@ -83,6 +83,12 @@
 public class DirCacheBuildIterator extends DirCacheIterator {
 	private final DirCacheBuilder builder;
 
+	/**
+	 * Position in the builder's cache to continue at when stopping inside of
+	 * an expanded sparse directory; -1 if {@link #cache} is the builder's.
+	 */
+	private final int resumeAt;
+
 	/**
 	 * Create a new iterator for an already loaded DirCache instance.
 	 * <p>
@@ -97,12 +103,20 @@ public class DirCacheBuildIterator extends DirCacheIterator {
 	public DirCacheBuildIterator(final DirCacheBuilder dcb) {
 		super(dcb.getDirCache());
 		builder = dcb;
+		resumeAt = -1;
 	}
 
 	DirCacheBuildIterator(final DirCacheBuildIterator p,
 			final DirCacheTree dct) {
 		super(p, dct);
 		builder = p.builder;
+		resumeAt = p.resumeAt;
+	}
+
+	DirCacheBuildIterator(final DirCacheBuildIterator p, final DirCache dc) {
+		super(p, dc);
+		builder = p.builder;
+		resumeAt = p.resumeAt < 0 ? p.ptr + 1 : p.resumeAt;
 	}
 
 	@Override
@@ -111,15 +125,19 @@ public AbstractTreeIterator createSubtreeIterator(final ObjectReader reader)
 		if (currentSubtree == null)
 			throw new IncorrectObjectTypeException(getEntryObjectId(),
 					Constants.TYPE_TREE);
+		if (isSparseDirectory())
+			return new DirCacheBuildIterator(this, expand(reader));
 		return new DirCacheBuildIterator(this, currentSubtree);
 	}
 
 	@Override
 	public void skip() throws CorruptObjectException {
-		if (currentSubtree != null)
-			builder.keep(ptr, currentSubtree.getEntrySpan());
+		final int cnt = currentSubtree != null ? currentSubtree.getEntrySpan()
+				: 1;
+		if (resumeAt < 0)
+			builder.keep(ptr, cnt);
 		else
-			builder.keep(ptr, 1);
+			add(ptr, cnt);
 		next(1);
 	}
 
@@ -127,12 +145,30 @@ public void skip() throws CorruptObjectException {
 	public void stopWalk() {
 		final int cur = ptr;
 		final int cnt = cache.getEntryCount();
-		if (cur < cnt)
-			builder.keep(cur, cnt - cur);
+		if (resumeAt < 0) {
+			if (cur < cnt)
+				builder.keep(cur, cnt - cur);
+			return;
+		}
+
+		// Entries of an expanded sparse directory are not in the builder's
+		// cache, they have to be added before keeping the remaining ones.
+		add(cur, cnt - cur);
+		final int rest = builder.getDirCache().getEntryCount();
+		if (resumeAt < rest)
+			builder.keep(resumeAt, rest - resumeAt);
+	}
+
+	private void add(int pos, final int cnt) {
+		for (final int end = pos + cnt; pos < end; pos++)
+			builder.add(cache.getEntry(pos));
 	}
 
 	@Override
 	protected boolean needsStopWalk() {
-		return ptr < cache.getEntryCount();
+		if (resumeAt < 0)
+			return ptr < cache.getEntryCount();
+		return ptr < cache.getEntryCount()
+				|| resumeAt < builder.getDirCache().getEntryCount();
 	}
 }
@@ -50,8 +50,14 @@
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.jgit.api.errors.FilterFailedException;
 import org.eclipse.jgit.attributes.FilterCommand;
@@ -63,6 +69,7 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
 import org.eclipse.jgit.lib.CoreConfig.AutoCRLF;
 import org.eclipse.jgit.lib.CoreConfig.EolStreamType;
 import org.eclipse.jgit.lib.CoreConfig.SymLinks;
@@ -99,6 +106,9 @@ public class DirCacheCheckout {
 
 	private static final int MAX_EXCEPTION_TEXT_SIZE = 10 * 1024;
 
+	/** Maximum number of files a single parallel checkout task writes. */
+	private static final int MAX_ENTRIES_PER_TASK = 256;
+
 	/**
 	 * Metadata used in checkout process
 	 *
@@ -151,6 +161,8 @@ public CheckoutMetadata(EolStreamType eolStreamType,
 
 	private boolean emptyDirCache;
 
+	private int checkoutWorkers = -1;
+
 	/**
 	 * @return a list of updated paths and smudgeFilterCommands
 	 */
@@ -281,6 +293,7 @@ public void preScanTwoTrees() throws CorruptObjectException, IOException {
 		removed.clear();
 		updated.clear();
 		conflicts.clear();
+		expandSparse();
 		walk = new NameConflictTreeWalk(repo);
 		builder = dc.builder();
 
@@ -300,6 +313,15 @@ public void preScanTwoTrees() throws CorruptObjectException, IOException {
 		}
 	}
 
+	private void expandSparse() throws IOException {
+		// Checkout decides about every single file, directories collapsed
+		// in a sparse index are expanded first. Writing the index collapses
+		// them again if index.sparse is enabled.
+		try (ObjectReader reader = repo.newObjectReader()) {
+			dc.expandSparse(reader);
+		}
+	}
+
 	private void addTree(TreeWalk tw, ObjectId id) throws MissingObjectException, IncorrectObjectTypeException, IOException {
 		if (id == null)
 			tw.addTree(new EmptyTreeIterator());
@@ -322,6 +344,7 @@ public void prescanOneTree()
 		removed.clear();
 		updated.clear();
 		conflicts.clear();
+		expandSparse();
 
 		builder = dc.builder();
 
@@ -472,6 +495,10 @@ private boolean doCheckout() throws CorruptObjectException, IOException,
 			// update our index
 			builder.finish();
 
+			// before touching the working tree, so that a filter which
+			// fails to prepare cannot leave it half updated
+			prepareBuiltinFilterCommands();
+
 			File file = null;
 			String last = null;
 			// when deleting files process them in the opposite order as they have
@@ -497,12 +524,18 @@ private boolean doCheckout() throws CorruptObjectException, IOException,
 			if (file != null)
 				removeEmptyParents(file);
 
-			for (Map.Entry<String, CheckoutMetadata> e : updated.entrySet()) {
-				String path = e.getKey();
-				CheckoutMetadata meta = e.getValue();
-				DirCacheEntry entry = dc.getEntry(path);
-				if (!FileMode.GITLINK.equals(entry.getRawMode()))
-					checkoutEntry(repo, entry, objectReader, false, meta);
+			int workers = getCheckoutWorkers();
+			if (workers > 1 && updated.size() > 1) {
+				checkoutParallel(workers);
+			} else {
+				for (Map.Entry<String, CheckoutMetadata> e : updated
+						.entrySet()) {
+					String path = e.getKey();
+					CheckoutMetadata meta = e.getValue();
+					DirCacheEntry entry = dc.getEntry(path);
+					if (!FileMode.GITLINK.equals(entry.getRawMode()))
+						checkoutEntry(repo, entry, objectReader, false, meta);
+				}
 			}
 
 			// commit the index builder - a new index is persisted
@@ -512,6 +545,142 @@ private boolean doCheckout() throws CorruptObjectException, IOException,
 		return toBeDeleted.size() == 0;
 	}
 
+	/**
+	 * Let built-in smudge filters prepare for all entries they are about to
+	 * filter, e.g. to fetch the content the entries refer to at once.
+	 * <p>
+	 * Preparation is only an optimization: if it fails, the failure is logged
+	 * and the filter commands run unprepared.
+	 *
+	 * @throws IOException
+	 *             an entry's blob cannot be read.
+	 */
+	private void prepareBuiltinFilterCommands() throws IOException {
+		Map<String, List<ObjectId>> blobs = new HashMap<>();
+		for (Map.Entry<String, CheckoutMetadata> e : updated.entrySet()) {
+			String command = e.getValue().smudgeFilterCommand;
+			if (command == null
+					|| !FilterCommandRegistry.isRegistered(command))
+				continue;
+			DirCacheEntry entry = dc.getEntry(e.getKey());
+			if (FileMode.GITLINK.equals(entry.getRawMode()))
+				continue;
+			List<ObjectId> ids = blobs.get(command);
+			if (ids == null) {
+				ids = new ArrayList<>();
+				blobs.put(command, ids);
+			}
+			ids.add(entry.getObjectId());
+		}
+		for (Map.Entry<String, List<ObjectId>> e : blobs.entrySet()) {
+			try {
+				FilterCommandRegistry.prepareFilterCommands(e.getKey(), repo,
+						e.getValue());
+			} catch (IOException err) {
+				LOG.warn(MessageFormat.format(
+						JGitText.get().failedToPrepareFilter, e.getKey()), err);
+			}
+		}
+	}
+
+	private int getCheckoutWorkers() {
+		int workers = checkoutWorkers;
+		if (workers < 0)
+			workers = repo.getConfig().get(CoreConfig.KEY).getCheckoutWorkers();
+		if (workers == 0)
+			workers = Runtime.getRuntime().availableProcessors();
+		return workers;
+	}
+
+	private void checkoutParallel(int workers) throws IOException {
+		// Group the updated entries by parent directory. Every directory is
+		// created up front so workers never race on mkdirs, and all files of
+		// a directory are written by the same task unless the directory is
+		// large enough to be split.
+		Map<String, List<CheckoutTask>> byDir = new LinkedHashMap<>();
+		for (Map.Entry<String, CheckoutMetadata> e : updated.entrySet()) {
+			String path = e.getKey();
+			DirCacheEntry entry = dc.getEntry(path);
+			if (FileMode.GITLINK.equals(entry.getRawMode()))
+				continue;
+			String dir = path.substring(0, path.lastIndexOf('/') + 1);
+			List<CheckoutTask> tasks = byDir.get(dir);
+			if (tasks == null) {
+				tasks = new ArrayList<>(1);
+				byDir.put(dir, tasks);
+				FileUtils.mkdirs(new File(repo.getWorkTree(), dir), true);
+			}
+			CheckoutTask task = tasks.isEmpty() ? null
+					: tasks.get(tasks.size() - 1);
+			if (task == null || task.entries.size() >= MAX_ENTRIES_PER_TASK) {
+				task = new CheckoutTask();
+				tasks.add(task);
+			}
+			task.entries.add(entry);
+			task.metadata.add(e.getValue());
+		}
+
+		List<CheckoutTask> all = new ArrayList<>();
+		for (List<CheckoutTask> tasks : byDir.values())
+			all.addAll(tasks);
+		if (all.isEmpty())
+			return;
+
+		ExecutorService pool = Executors
+				.newFixedThreadPool(Math.min(workers, all.size()));
+		try {
+			List<Future<Void>> futures = new ArrayList<>(all.size());
+			for (CheckoutTask task : all)
+				futures.add(pool.submit(task));
+
+			Throwable err = null;
+			try {
+				for (Future<Void> f : futures) {
+					try {
+						f.get();
+					} catch (ExecutionException failed) {
+						if (err == null)
+							err = failed.getCause();
+					}
+				}
+			} catch (InterruptedException ie) {
+				for (Future<Void> f : futures)
+					f.cancel(true);
+				throw new IOException(JGitText.get().checkoutInterrupted, ie);
+			}
+
+			// Report the first failure as though the files were written
+			// serially by the calling thread.
+			if (err instanceof Error)
+				throw (Error) err;
+			if (err instanceof RuntimeException)
+				throw (RuntimeException) err;
+			if (err instanceof IOException)
+				throw (IOException) err;
+			if (err != null)
+				throw new IOException(err.getMessage(), err);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/** Files written to the working tree by one parallel checkout worker. */
+	private class CheckoutTask implements Callable<Void> {
+		final List<DirCacheEntry> entries = new ArrayList<>();
+
+		final List<CheckoutMetadata> metadata = new ArrayList<>();
+
+		@Override
+		public Void call() throws IOException {
+			try (ObjectReader or = repo.getObjectDatabase().newReader()) {
+				for (int i = 0; i < entries.size(); i++)
+					checkoutEntry(repo, entries.get(i), or, false,
+							metadata.get(i));
+			}
+			return null;
+		}
+	}
+
 	private static boolean isSamePrefix(String a, String b) {
 		int as = a.lastIndexOf('/');
 		int bs = b.lastIndexOf('/');
@@ -1099,6 +1268,24 @@ public void setFailOnConflict(boolean failOnConflict) {
 		this.failOnConflict = failOnConflict;
 	}
 
+	/**
+	 * Set the number of threads used to write updated files into the working
+	 * tree. If not set the value of {@code core.checkoutWorkers} is used.
+	 * <p>
+	 * When more than one worker is used, updated files are grouped by their
+	 * parent directory and each group is written by a single worker with its
+	 * own {@link ObjectReader}. Deletions and conflict handling are still
+	 * performed serially before any file is written.
+	 *
+	 * @param workers
+	 *            number of threads; 1 writes files serially, 0 uses the
+	 *            number of available processors.
+	 * @since 4.7
+	 */
+	public void setCheckoutWorkers(int workers) {
+		this.checkoutWorkers = workers;
+	}
+
 	/**
 	 * This method implements how to handle conflicts when
 	 * {@link #failOnConflict} is false
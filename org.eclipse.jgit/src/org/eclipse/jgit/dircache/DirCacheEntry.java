@@ -46,13 +46,10 @@
 
 package org.eclipse.jgit.dircache;
 
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.Arrays;
 
@@ -62,7 +59,6 @@
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.MutableInteger;
 import org.eclipse.jgit.util.NB;
 import org.eclipse.jgit.util.SystemReader;
@@ -141,18 +137,20 @@ public class DirCacheEntry {
 	/** Flags which are never stored to disk. */
 	private byte inCoreFlags;
 
-	DirCacheEntry(final byte[] sharedInfo, final MutableInteger infoAt,
-			final InputStream in, final MessageDigest md, final int smudge_s,
-			final int smudge_ns) throws IOException {
-		info = sharedInfo;
-		infoOffset = infoAt.value;
-
-		IO.readFully(in, info, infoOffset, INFO_LEN);
+	DirCacheEntry(final byte[] buf, final MutableInteger ptr,
+			final byte[] previousPath) throws IOException {
+		// The header information is not copied; the entry keeps a reference
+		// into the buffer holding the entire index file.
+		info = buf;
+		infoOffset = ptr.value;
+		if (buf.length < infoOffset + INFO_LEN)
+			throw new EOFException(JGitText.get().shortReadOfBlock);
 
 		final int len;
 		if (isExtended()) {
 			len = INFO_LEN_EXTENDED;
-			IO.readFully(in, info, infoOffset + INFO_LEN, INFO_LEN_EXTENDED - INFO_LEN);
+			if (buf.length < infoOffset + INFO_LEN_EXTENDED)
+				throw new EOFException(JGitText.get().shortReadOfBlock);
 
 			if ((getExtendedFlags() & ~EXTENDED_FLAGS) != 0)
 				throw new IOException(MessageFormat.format(JGitText.get()
@@ -160,39 +158,58 @@ public class DirCacheEntry {
 		} else
 			len = INFO_LEN;
 
-		infoAt.value += len;
-		md.update(info, infoOffset, len);
-
-		int pathLen = NB.decodeUInt16(info, infoOffset + P_FLAGS) & NAME_MASK;
-		int skipped = 0;
-		if (pathLen < NAME_MASK) {
-			path = new byte[pathLen];
-			IO.readFully(in, path, 0, pathLen);
-			md.update(path, 0, pathLen);
+		final int pathStart = infoOffset + len;
+		if (previousPath == null) {
+			int pathLen = NB.decodeUInt16(info, infoOffset + P_FLAGS) & NAME_MASK;
+			if (pathLen == NAME_MASK) {
+				// Long names are '\0' terminated, the terminator is part
+				// of the padding below.
+				pathLen = nul(buf, pathStart + NAME_MASK) - pathStart;
+			} else if (buf.length < pathStart + pathLen)
+				throw new EOFException(JGitText.get().shortReadOfBlock);
+			path = Arrays.copyOfRange(buf, pathStart, pathStart + pathLen);
+
+			// Index records are padded out to the next 8 byte alignment
+			// for historical reasons related to how C Git read the files.
+			//
+			final int actLen = len + pathLen;
+			final int expLen = (actLen + 8) & ~7;
+			ptr.value = infoOffset + expLen;
 		} else {
-			final ByteArrayOutputStream tmp = new ByteArrayOutputStream();
-			{
-				final byte[] buf = new byte[NAME_MASK];
-				IO.readFully(in, buf, 0, NAME_MASK);
-				tmp.write(buf);
-			}
-			for (;;) {
-				final int c = in.read();
-				if (c < 0)
+			// Version 4 drops the padding and stores the number of bytes
+			// to remove from the end of the previous path, followed by the
+			// '\0' terminated suffix to append to what remains.
+			//
+			int p = pathStart;
+			if (buf.length <= p)
+				throw new EOFException(JGitText.get().shortReadOfBlock);
+			int c = buf[p++] & 0xff;
+			int strip = c & 0x7f;
+			while ((c & 0x80) != 0) {
+				if (buf.length <= p)
 					throw new EOFException(JGitText.get().shortReadOfBlock);
-				if (c == 0)
-					break;
-				tmp.write(c);
+				c = buf[p++] & 0xff;
+				strip = ((strip + 1) << 7) | (c & 0x7f);
 			}
-			path = tmp.toByteArray();
-			pathLen = path.length;
-			skipped = 1; // we already skipped 1 '\0' above to break the loop.
-			md.update(path, 0, pathLen);
-			md.update((byte) 0);
+			final int prefixLen = previousPath.length - strip;
+			if (strip < 0 || prefixLen < 0)
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().DIRCInvalidPathPrefix,
+						Integer.valueOf(strip)));
+			final int end = nul(buf, p);
+			path = new byte[prefixLen + end - p];
+			System.arraycopy(previousPath, 0, path, 0, prefixLen);
+			System.arraycopy(buf, p, path, prefixLen, end - p);
+			ptr.value = end + 1;
 		}
 
 		try {
-			checkPath(path);
+			// An empty name is only valid for entries replacing an entry of
+			// a shared index; DirCache validates their position.
+			if (isSparseDirectory())
+				checkPath(Arrays.copyOf(path, path.length - 1));
+			else if (path.length > 0)
+				checkPath(path);
 		} catch (InvalidPathException e) {
 			CorruptObjectException p =
 				new CorruptObjectException(e.getMessage());
@@ -200,20 +217,13 @@ public class DirCacheEntry {
 				p.initCause(e.getCause());
 			throw p;
 		}
+	}
 
-		// Index records are padded out to the next 8 byte alignment
-		// for historical reasons related to how C Git read the files.
-		//
-		final int actLen = len + pathLen;
-		final int expLen = (actLen + 8) & ~7;
-		final int padLen = expLen - actLen - skipped;
-		if (padLen > 0) {
-			IO.skipFully(in, padLen);
-			md.update(nullpad, 0, padLen);
-		}
-
-		if (mightBeRacilyClean(smudge_s, smudge_ns))
-			smudgeRacilyClean();
+	private static int nul(final byte[] buf, int p) throws EOFException {
+		for (; p < buf.length; p++)
+			if (buf[p] == 0)
+				return p;
+		throw new EOFException(JGitText.get().shortReadOfBlock);
 	}
 
 	/**
@@ -306,9 +316,71 @@ public DirCacheEntry(byte[] path, final int stage) {
 	 */
 	public DirCacheEntry(DirCacheEntry src) {
 		path = src.path;
-		info = new byte[INFO_LEN];
+		final int len = src.isExtended() ? INFO_LEN_EXTENDED : INFO_LEN;
+		info = new byte[len];
 		infoOffset = 0;
-		System.arraycopy(src.info, src.infoOffset, info, 0, INFO_LEN);
+		System.arraycopy(src.info, src.infoOffset, info, 0, len);
+	}
+
+	/**
+	 * Duplicate an entry of a shared index, replacing its meta data.
+	 *
+	 * @param src
+	 *            entry to copy the meta data from; its name is empty.
+	 * @param path
+	 *            path of the entry being replaced.
+	 */
+	DirCacheEntry(DirCacheEntry src, byte[] path) {
+		this.path = path;
+		final int len = src.isExtended() ? INFO_LEN_EXTENDED : INFO_LEN;
+		info = new byte[len];
+		infoOffset = 0;
+		System.arraycopy(src.info, src.infoOffset, info, 0, len);
+		final int flags = NB.decodeUInt16(info, P_FLAGS) & ~NAME_MASK;
+		NB.encodeInt16(info, P_FLAGS,
+				flags | Math.min(path.length, NAME_MASK));
+	}
+
+	private DirCacheEntry(byte[] path, int mode, AnyObjectId id) {
+		info = new byte[INFO_LEN_EXTENDED];
+		infoOffset = 0;
+		this.path = path;
+
+		final int flags = (EXTENDED << 8) | Math.min(path.length, NAME_MASK);
+		NB.encodeInt16(info, P_FLAGS, flags);
+		NB.encodeInt16(info, P_FLAGS2, SKIP_WORKTREE >>> 16);
+		NB.encodeInt32(info, P_MODE, mode);
+		id.copyRawTo(info, P_OBJECTID);
+	}
+
+	/**
+	 * Create a stage 0 entry which is not present in the working tree.
+	 *
+	 * @param path
+	 *            name of the entry, in the standard encoding.
+	 * @param mode
+	 *            raw mode bits of the entry.
+	 * @param id
+	 *            object the entry refers to.
+	 * @return the new entry, with the skip-worktree flag set.
+	 */
+	static DirCacheEntry newSkipWorkTree(byte[] path, int mode,
+			AnyObjectId id) {
+		checkPath(path);
+		return new DirCacheEntry(path, mode, id);
+	}
+
+	/**
+	 * Create an entry standing in for a whole directory of a sparse index.
+	 *
+	 * @param path
+	 *            name of the directory, including the trailing '/'.
+	 * @param id
+	 *            the tree holding the directory's content.
+	 * @return the new sparse directory entry.
+	 */
+	static DirCacheEntry newSparseDirectory(byte[] path, AnyObjectId id) {
+		return new DirCacheEntry(path, FileMode.TREE.getBits(), id);
 	}
 
 	void write(final OutputStream os) throws IOException {
@@ -326,6 +398,94 @@ void write(final OutputStream os) throws IOException {
 			os.write(nullpad, 0, expLen - actLen);
 	}
 
+	/**
+	 * Write this entry in the version 4 format, which stores the path
+	 * relative to the path of the previously written entry.
+	 *
+	 * @param os
+	 *            stream to write to.
+	 * @param previousPath
+	 *            path of the entry written before this one; empty for the
+	 *            first entry.
+	 * @param tmp
+	 *            scratch buffer of at least 16 bytes.
+	 * @throws IOException
+	 */
+	void writeV4(final OutputStream os, final byte[] previousPath,
+			final byte[] tmp) throws IOException {
+		final int len = isExtended() ? INFO_LEN_EXTENDED : INFO_LEN;
+		os.write(info, infoOffset, len);
+
+		int common = 0;
+		final int max = Math.min(previousPath.length, path.length);
+		while (common < max && previousPath[common] == path[common])
+			common++;
+
+		// Encode the strip count using the same variable length integer
+		// format as C Git, most significant group first.
+		int strip = previousPath.length - common;
+		int n = tmp.length - 1;
+		tmp[n] = (byte) (strip & 0x7f);
+		while ((strip >>>= 7) != 0)
+			tmp[--n] = (byte) (0x80 | (--strip & 0x7f));
+		os.write(tmp, n, tmp.length - n);
+		os.write(path, common, path.length - common);
+		os.write(0);
+	}
+
+	/**
+	 * Write this entry without its name, replacing an entry of the shared
+	 * index of a split index.
+	 *
+	 * @param os
+	 *            stream to write to.
+	 * @param previousPath
+	 *            path of the entry written before this one if the version 4
+	 *            format is used; null otherwise.
+	 * @param tmp
+	 *            scratch buffer of at least 80 bytes.
+	 * @throws IOException
+	 */
+	void writeStripped(final OutputStream os, final byte[] previousPath,
+			final byte[] tmp) throws IOException {
+		final int len = isExtended() ? INFO_LEN_EXTENDED : INFO_LEN;
+		System.arraycopy(info, infoOffset, tmp, 0, len);
+		final int flags = NB.decodeUInt16(tmp, P_FLAGS) & ~NAME_MASK;
+		NB.encodeInt16(tmp, P_FLAGS, flags);
+		if (previousPath != null) {
+			os.write(tmp, 0, len);
+			int strip = previousPath.length;
+			int n = tmp.length - 1;
+			tmp[n] = (byte) (strip & 0x7f);
+			while ((strip >>>= 7) != 0)
+				tmp[--n] = (byte) (0x80 | (--strip & 0x7f));
+			os.write(tmp, n, tmp.length - n);
+			os.write(0);
+		} else {
+			final int expLen = (len + 8) & ~7;
+			Arrays.fill(tmp, len, expLen, (byte) 0);
+			os.write(tmp, 0, expLen);
+		}
+	}
+
+	/**
+	 * Check whether the information stored on disk for two entries is the
+	 * same.
+	 *
+	 * @param o
+	 *            the other entry.
+	 * @return true if the entries would be written identically.
+	 */
+	boolean infoEquals(final DirCacheEntry o) {
+		final int len = isExtended() ? INFO_LEN_EXTENDED : INFO_LEN;
+		if (len != (o.isExtended() ? INFO_LEN_EXTENDED : INFO_LEN))
+			return false;
+		for (int i = 0; i < len; i++)
+			if (info[infoOffset + i] != o.info[o.infoOffset + i])
+				return false;
+		return Arrays.equals(path, o.path);
+	}
+
 	/**
 	 * Is it possible for this entry to be accidentally assumed clean?
 	 * <p>
@@ -473,6 +633,21 @@ public boolean isIntentToAdd() {
 		return (getExtendedFlags() & INTENT_TO_ADD) != 0;
 	}
 
+	/**
+	 * Returns whether this entry is a directory of a sparse index.
+	 * <p>
+	 * A sparse index replaces the entries of a directory which is entirely
+	 * outside of the sparse checkout by a single entry. Its path ends with
+	 * '/', its mode is {@link FileMode#TREE} and its ObjectId names the tree
+	 * holding the directory's content.
+	 *
+	 * @return true if this entry stands in for a whole directory.
+	 * @since 4.7
+	 */
+	public boolean isSparseDirectory() {
+		return path.length > 0 && path[path.length - 1] == '/';
+	}
+
 	/**
 	 * Returns whether this entry is in the fully-merged stage (0).
 	 *
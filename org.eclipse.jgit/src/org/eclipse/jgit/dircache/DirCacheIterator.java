@@ -134,15 +134,82 @@ public DirCacheIterator(final DirCache dc) {
 		parseEntry();
 	}
 
+	/**
+	 * Create an iterator for the content of a sparse directory.
+	 *
+	 * @param p
+	 *            parent iterator, positioned on the sparse directory.
+	 * @param dc
+	 *            cache holding the expanded entries of the directory.
+	 */
+	DirCacheIterator(final DirCacheIterator p, final DirCache dc) {
+		super(p, p.path, p.pathLen + 1);
+		cache = dc;
+		tree = findTree(dc.getCacheTree(true), p.path, p.pathLen + 1);
+		treeStart = 0;
+		treeEnd = tree.getEntrySpan();
+		subtreeId = p.subtreeId;
+		if (!eof())
+			parseEntry();
+	}
+
+	private static DirCacheTree findTree(DirCacheTree t, final byte[] path,
+			final int pathLen) {
+		int p = 0;
+		while (p < pathLen) {
+			DirCacheTree c = null;
+			for (int i = 0; i < t.getChildCount(); i++) {
+				if (t.getChild(i).contains(path, p, pathLen)) {
+					c = t.getChild(i);
+					break;
+				}
+			}
+			if (c == null)
+				return t; // The directory is empty.
+			t = c;
+			p += t.nameLength() + 1;
+		}
+		return t;
+	}
+
 	@Override
 	public AbstractTreeIterator createSubtreeIterator(final ObjectReader reader)
 			throws IncorrectObjectTypeException, IOException {
 		if (currentSubtree == null)
 			throw new IncorrectObjectTypeException(getEntryObjectId(),
 					Constants.TYPE_TREE);
+		if (isSparseDirectory())
+			return new DirCacheIterator(this, expand(reader));
 		return new DirCacheIterator(this, currentSubtree);
 	}
 
+	/**
+	 * @return true if the current subtree is a sparse directory, whose
+	 *         content must be read from its tree.
+	 */
+	boolean isSparseDirectory() {
+		// The cache tree holds a sparse directory as a subtree whose only
+		// entry is the sparse directory entry itself.
+		return currentSubtree != null && currentEntry.path.length == pathLen + 1;
+	}
+
+	/**
+	 * Load the entries of the current sparse directory.
+	 *
+	 * @param reader
+	 *            reader to load the tree of the directory.
+	 * @return an in-core cache holding the directory's entries.
+	 * @throws IOException
+	 *             the tree could not be read.
+	 */
+	DirCache expand(final ObjectReader reader) throws IOException {
+		final DirCache dc = DirCache.newInCore();
+		final DirCacheBuilder b = dc.builder();
+		DirCache.expandSparse(currentEntry, reader, b);
+		b.finish();
+		return dc;
+	}
+
 	@Override
 	public EmptyTreeIterator createEmptyTreeIterator() {
 		final byte[] n = new byte[Math.max(pathLen + 1, DEFAULT_PATH_SIZE)];
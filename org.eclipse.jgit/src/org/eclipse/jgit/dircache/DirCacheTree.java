@@ -52,11 +52,13 @@
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 
 import org.eclipse.jgit.errors.UnmergedPathException;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.TreeFormatter;
 import org.eclipse.jgit.util.MutableInteger;
 import org.eclipse.jgit.util.RawParseUtils;
@@ -321,7 +323,11 @@ public String getPathString() {
 	ObjectId writeTree(final DirCacheEntry[] cache, int cIdx,
 			final int pathOffset, final ObjectInserter ow)
 			throws UnmergedPathException, IOException {
-		if (id == null) {
+		if (id == null && entrySpan == 1
+				&& cache[cIdx].path.length == pathOffset) {
+			// A sparse directory, its tree is the entry's.
+			id = cache[cIdx].getObjectId();
+		} else if (id == null) {
 			final int endIdx = cIdx + entrySpan;
 			final TreeFormatter fmt = new TreeFormatter(computeSize(cache,
 					cIdx, pathOffset, ow));
@@ -386,6 +392,71 @@ private int computeSize(final DirCacheEntry[] cache, int cIdx,
 		return size;
 	}
 
+	/**
+	 * Collapse subtrees outside of the sparse checkout.
+	 * <p>
+	 * The ObjectIds of this tree and its children must be known, for example
+	 * by a prior {@link #writeTree(DirCacheEntry[], int, int, ObjectInserter)}.
+	 *
+	 * @param cache
+	 *            the complete cache from DirCache.
+	 * @param cIdx
+	 *            first position of <code>cache</code> that is a member of this
+	 *            tree.
+	 * @param pathOffset
+	 *            number of bytes of <code>cache[cacheIdx].path</code> that
+	 *            matches this tree's path.
+	 * @param reader
+	 *            reader to check the collapsed trees exist in the repository.
+	 * @param out
+	 *            receives the entries of this tree, with each maximal subtree
+	 *            whose entries are all skip-worktree replaced by a sparse
+	 *            directory entry.
+	 * @throws IOException
+	 *             the object store could not be accessed.
+	 */
+	void collapseSparse(final DirCacheEntry[] cache, int cIdx,
+			final int pathOffset, final ObjectReader reader,
+			final List<DirCacheEntry> out) throws IOException {
+		final int endIdx = cIdx + entrySpan;
+		int childIdx = 0;
+		int entryIdx = cIdx;
+
+		while (entryIdx < endIdx) {
+			final DirCacheEntry e = cache[entryIdx];
+			final byte[] ep = e.path;
+			if (childIdx < childCnt) {
+				final DirCacheTree st = children[childIdx];
+				if (st.contains(ep, pathOffset, ep.length)) {
+					final int stOffset = pathOffset + st.nameLength() + 1;
+					if (ep.length == stOffset)
+						out.add(e); // Already a sparse directory.
+					else if (isSkipWorkTree(cache, entryIdx, st.entrySpan)
+							&& reader.has(st.id, Constants.OBJ_TREE))
+						out.add(DirCacheEntry.newSparseDirectory(
+								Arrays.copyOf(ep, stOffset), st.id));
+					else
+						st.collapseSparse(cache, entryIdx, stOffset, reader,
+								out);
+					entryIdx += st.entrySpan;
+					childIdx++;
+					continue;
+				}
+			}
+
+			out.add(e);
+			entryIdx++;
+		}
+	}
+
+	private static boolean isSkipWorkTree(final DirCacheEntry[] cache,
+			int cIdx, final int cnt) {
+		for (final int end = cIdx + cnt; cIdx < end; cIdx++)
+			if (!cache[cIdx].isSkipWorkTree())
+				return false;
+		return true;
+	}
+
 	private void appendName(final StringBuilder r) {
 		if (parent != null) {
 			parent.appendName(r);
@@ -487,7 +558,13 @@ void validate(final DirCacheEntry[] cache, final int cCnt, int cIdx,
 			// The entry is contained in this subtree.
 			//
 			assert(st != null);
-			st.validate(cache, cCnt, cIdx, pathOff + st.nameLength() + 1);
+			final int stOff = pathOff + st.nameLength() + 1;
+			st.validate(cache, cCnt, cIdx, stOff);
+			if (st.id == null && currPath.length == stOff) {
+				// Like C Git a sparse directory entry is the only entry
+				// of its subtree, which is known to be the entry's tree.
+				st.id = cache[cIdx].getObjectId();
+			}
 			cIdx += st.entrySpan;
 			entrySpan += st.entrySpan;
 			stIdx++;
@@ -81,6 +81,7 @@ public static JGitText get() {
 	/***/ public String atLeastTwoFiltersNeeded;
 	/***/ public String atomicPushNotSupported;
 	/***/ public String atomicRefUpdatesNotSupported;
+	/***/ public String atomicSymRefNotSupported;
 	/***/ public String authenticationNotSupported;
 	/***/ public String badBase64InputCharacterAt;
 	/***/ public String badEntryDelimiter;
@@ -156,6 +157,7 @@ public static JGitText get() {
 	/***/ public String cannotReadObjectsPath;
 	/***/ public String cannotReadTree;
 	/***/ public String cannotRebaseWithoutCurrentHead;
+	/***/ public String cannotRefreshPublishedRefs;
 	/***/ public String cannotResolveLocalTrackingRefForUpdating;
 	/***/ public String cannotSquashFixupWithoutPreviousCommit;
 	/***/ public String cannotStoreObjects;
@@ -173,6 +175,7 @@ public static JGitText get() {
 	/***/ public String characterClassIsNotSupported;
 	/***/ public String checkoutConflictWithFile;
 	/***/ public String checkoutConflictWithFiles;
+	/***/ public String checkoutInterrupted;
 	/***/ public String checkoutUnexpectedResult;
 	/***/ public String classCastNotA;
 	/***/ public String cloneNonEmptyDirectory;
@@ -187,6 +190,7 @@ public static JGitText get() {
 	/***/ public String compressingObjects;
 	/***/ public String connectionFailed;
 	/***/ public String connectionTimeOut;
+	/***/ public String contentMergeInterrupted;
 	/***/ public String contextMustBeNonNegative;
 	/***/ public String corruptionDetectedReReadingAt;
 	/***/ public String corruptObjectBadDate;
@@ -270,6 +274,8 @@ public static JGitText get() {
 	/***/ public String credentialPassword;
 	/***/ public String credentialUsername;
 	/***/ public String daemonAlreadyRunning;
+	/***/ public String daemonOverloaded;
+	/***/ public String daemonServiceBusy;
 	/***/ public String daysAgo;
 	/***/ public String deleteBranchUnexpectedResult;
 	/***/ public String deleteFileFailed;
@@ -284,11 +290,16 @@ public static JGitText get() {
 	/***/ public String DIRCExtensionIsTooLargeAt;
 	/***/ public String DIRCExtensionNotSupportedByThisVersion;
 	/***/ public String DIRCHasTooManyEntries;
+	/***/ public String DIRCInvalidLinkExtension;
+	/***/ public String DIRCInvalidPathPrefix;
+	/***/ public String DIRCSharedIndexNotFound;
 	/***/ public String DIRCUnrecognizedExtendedFlags;
 	/***/ public String dirtyFilesExist;
 	/***/ public String doesNotHandleMode;
 	/***/ public String downloadCancelled;
 	/***/ public String downloadCancelledDuringIndexing;
+	/***/ public String downloadingObjects;
+	/***/ public String downloadingObjectsRate;
 	/***/ public String duplicateAdvertisementsOf;
 	/***/ public String duplicateRef;
 	/***/ public String duplicateRemoteRefUpdateIsIllegal;
@@ -341,7 +352,9 @@ public static JGitText get() {
 	/***/ public String expectedPktLineWithService;
 	/***/ public String expectedReceivedContentType;
 	/***/ public String expectedReportForRefNotReceived;
+	/***/ public String expireReflogs;
 	/***/ public String failedToDetermineFilterDefinition;
+	/***/ public String failedToPrepareFilter;
 	/***/ public String failedUpdatingRefs;
 	/***/ public String failureDueToOneOfTheFollowing;
 	/***/ public String failureUpdatingFETCH_HEAD;
@@ -422,6 +435,7 @@ public static JGitText get() {
 	/***/ public String invalidReflogRevision;
 	/***/ public String invalidRefName;
 	/***/ public String invalidRemote;
+	/***/ public String invalidS3PartSize;
 	/***/ public String invalidShallowObject;
 	/***/ public String invalidStageForPath;
 	/***/ public String invalidTagOption;
@@ -740,6 +754,7 @@ public static JGitText get() {
 	/***/ public String updatingHeadFailed;
 	/***/ public String updatingReferences;
 	/***/ public String updatingRefFailed;
+	/***/ public String uploadPackCacheGenerationFailed;
 	/***/ public String upstreamBranchName;
 	/***/ public String uriNotConfigured;
 	/***/ public String uriNotFound;
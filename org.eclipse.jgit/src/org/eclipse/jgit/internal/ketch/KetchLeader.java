@@ -43,6 +43,8 @@
 
 package org.eclipse.jgit.internal.ketch;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.eclipse.jgit.internal.ketch.KetchLeader.State.CANDIDATE;
 import static org.eclipse.jgit.internal.ketch.KetchLeader.State.LEADER;
 import static org.eclipse.jgit.internal.ketch.KetchLeader.State.SHUTDOWN;
@@ -184,7 +186,7 @@ public static enum State {
 	 * avoids duplicating {@link #refTree}, reducing both time and memory used.
 	 * However if proposals arrive more frequently {@link #refTree} must be
 	 * duplicated to prevent newly queued proposals from corrupting the
-	 * {@link #runningRound}.
+	 * {@link #runningRounds}.
 	 */
 	volatile boolean roundHoldsReferenceToRefTree;
 
@@ -197,13 +199,27 @@ public static enum State {
 	/**
 	 * Is the leader idle with no work pending? If {@code true} there is no work
 	 * for the leader (normal state). This field is {@code false} when the
-	 * leader thread is scheduled for execution, or while {@link #runningRound}
-	 * defines a round in progress.
+	 * leader thread is scheduled for execution, or while {@link #runningRounds}
+	 * holds a round in progress.
 	 */
 	private boolean idle;
 
-	/** Current round the leader is preparing and waiting for a vote on. */
-	private Round runningRound;
+	/**
+	 * Is the leader thread scheduled for execution, or preparing a round? At
+	 * most one round is prepared at a time, as each round extends the log from
+	 * the {@link #headIndex} left by the previous round.
+	 */
+	private boolean building;
+
+	/**
+	 * Rounds sent to replicas and waiting for a vote on, oldest first. Holds
+	 * more than one round only if {@link KetchSystem#getMaxRoundsInFlight()}
+	 * allows the leader to pipeline rounds.
+	 */
+	private final List<Round> runningRounds;
+
+	/** Time from sending a round to replicas until a majority accepted it. */
+	private final LatencyHistogram commitLatency;
 
 	/**
 	 * Construct a leader for a Ketch instance.
@@ -215,6 +231,8 @@ protected KetchLeader(KetchSystem system) {
 		this.system = system;
 		this.lock = new ReentrantLock(true /* fair */);
 		this.queued = new ArrayList<>(4);
+		this.runningRounds = new ArrayList<>(4);
+		this.commitLatency = new LatencyHistogram();
 		this.idle = true;
 	}
 
@@ -349,7 +367,11 @@ public void queueProposal(Proposal proposal)
 			proposal.notifyState(QUEUED);
 
 			if (idle) {
-				scheduleLeader();
+				scheduleLeader(state == LEADER
+						? system.getGroupCommitDelay().toMillis()
+						: 0);
+			} else {
+				scheduleNextRound();
 			}
 		} finally {
 			lock.unlock();
@@ -373,13 +395,35 @@ private void initialize() throws IOException {
 	}
 
 	private void scheduleLeader() {
+		scheduleLeader(0);
+	}
+
+	private void scheduleLeader(long delayMillis) {
 		idle = false;
-		system.getExecutor().execute(new Runnable() {
+		building = true;
+		Runnable task = new Runnable() {
 			@Override
 			public void run() {
 				runLeader();
 			}
-		});
+		};
+		if (delayMillis > 0) {
+			system.getExecutor().schedule(task, delayMillis, MILLISECONDS);
+		} else {
+			system.getExecutor().execute(task);
+		}
+	}
+
+	/**
+	 * Start building the next round while earlier rounds are replicating.
+	 * <p>
+	 * Invoked while {@link #lock} is held.
+	 */
+	private void scheduleNextRound() {
+		if (state == LEADER && !building && !queued.isEmpty()
+				&& runningRounds.size() < system.getMaxRoundsInFlight()) {
+			scheduleLeader();
+		}
 	}
 
 	private void runLeader() {
@@ -413,7 +457,7 @@ private void runLeader() {
 			log.error(KetchText.get().leaderFailedToStore, e);
 			lock.lock();
 			try {
-				nextRound();
+				skipRound();
 			} finally {
 				lock.unlock();
 			}
@@ -455,7 +499,9 @@ void runAsync(Round round) {
 			// reasonable to assume at least one replica will eventually get
 			// this, and there is reasonable probability it commits.
 			headIndex = round.acceptedNewIndex;
-			runningRound = round;
+			round.startNanos = System.nanoTime();
+			runningRounds.add(round);
+			building = false;
 
 			for (KetchReplica replica : voters) {
 				replica.pushTxnAcceptedAsync(round);
@@ -463,6 +509,7 @@ void runAsync(Round round) {
 			for (KetchReplica replica : followers) {
 				replica.pushTxnAcceptedAsync(round);
 			}
+			scheduleNextRound();
 		} finally {
 			lock.unlock();
 		}
@@ -485,28 +532,24 @@ void onReplicaUpdate(KetchReplica replica) {
 		if (replica.getParticipation() == FOLLOWER_ONLY) {
 			// Followers cannot vote, so votes haven't changed.
 			return;
-		} else if (runningRound == null) {
+		} else if (runningRounds.isEmpty()) {
 			// No round running, no need to tally votes.
 			return;
 		}
 
-		assert headIndex.equals(runningRound.acceptedNewIndex);
-		int matching = 0;
-		for (KetchReplica r : voters) {
-			if (r.hasAccepted(headIndex)) {
-				matching++;
-			}
+		int last = runningRounds.size() - 1;
+		assert headIndex.equals(runningRounds.get(last).acceptedNewIndex);
+		int done = last;
+		while (done >= 0 && !hasQuorum(done)) {
+			done--;
 		}
-
-		int quorum = voters.length / 2 + 1;
-		boolean success = matching >= quorum;
-		if (!success) {
+		if (done < 0) {
 			return;
 		}
 
 		switch (state) {
 		case CANDIDATE:
-			term = ((ElectionRound) runningRound).getTerm();
+			term = ((ElectionRound) runningRounds.get(0)).getTerm();
 			state = LEADER;
 			if (log.isDebugEnabled()) {
 				log.debug("Won election, running term " + term); //$NON-NLS-1$
@@ -514,15 +557,24 @@ void onReplicaUpdate(KetchReplica replica) {
 
 			//$FALL-THROUGH$
 		case LEADER:
-			committedIndex = headIndex;
+			List<Round> accepted = new ArrayList<>(
+					runningRounds.subList(0, done + 1));
+			runningRounds.subList(0, done + 1).clear();
+			committedIndex = accepted.get(done).acceptedNewIndex;
 			if (log.isDebugEnabled()) {
 				log.debug("Committed {} in term {}", //$NON-NLS-1$
 						committedIndex.describeForLog(),
 						Long.valueOf(term));
 			}
+			long now = System.nanoTime();
+			for (Round r : accepted) {
+				commitLatency.record(NANOSECONDS.toMillis(now - r.startNanos));
+			}
 			nextRound();
 			commitAsync(replica);
-			notifySuccess(runningRound);
+			for (Round r : accepted) {
+				notifySuccess(r);
+			}
 			if (log.isDebugEnabled()) {
 				log.debug("Leader state:\n{}", snapshot()); //$NON-NLS-1$
 			}
@@ -534,6 +586,26 @@ void onReplicaUpdate(KetchReplica replica) {
 		}
 	}
 
+	/**
+	 * Check if a majority of voters accepted a running round.
+	 * <p>
+	 * A replica that accepted a later round also accepted this round, as
+	 * every round extends the log of the round before it.
+	 */
+	private boolean hasQuorum(int round) {
+		int matching = 0;
+		for (KetchReplica r : voters) {
+			for (int i = round; i < runningRounds.size(); i++) {
+				if (r.hasAccepted(runningRounds.get(i).acceptedNewIndex)) {
+					matching++;
+					break;
+				}
+			}
+		}
+		int quorum = voters.length / 2 + 1;
+		return matching >= quorum;
+	}
+
 	private void notifySuccess(Round round) {
 		// Drop the leader lock while notifying Proposal listeners.
 		lock.unlock();
@@ -565,11 +637,12 @@ private void commitAsync(KetchReplica caller) {
 
 	/** Schedule the next round; invoked while {@link #lock} is held. */
 	void nextRound() {
-		runningRound = null;
-
-		if (queued.isEmpty()) {
-			idle = true;
-		} else {
+		if (building) {
+			// The leader thread is already preparing the next round.
+			return;
+		} else if (queued.isEmpty()) {
+			idle = runningRounds.isEmpty();
+		} else if (runningRounds.size() < system.getMaxRoundsInFlight()) {
 			// Caller holds lock. Reschedule leader on a new thread so
 			// the call stack can unwind and lock is not held unexpectedly
 			// during prepare for the next round.
@@ -577,6 +650,15 @@ void nextRound() {
 		}
 	}
 
+	/**
+	 * Continue after the round being prepared did not start, as it was empty
+	 * or could not be stored. Invoked while {@link #lock} is held.
+	 */
+	void skipRound() {
+		building = false;
+		nextRound();
+	}
+
 	/** @return snapshot this leader. */
 	public LeaderSnapshot snapshot() {
 		lock.lock();
@@ -587,6 +669,8 @@ public LeaderSnapshot snapshot() {
 			s.headIndex = headIndex;
 			s.committedIndex = committedIndex;
 			s.idle = isIdle();
+			s.roundsInFlight = runningRounds.size();
+			s.commitLatency = commitLatency.copy();
 			for (KetchReplica r : voters) {
 				s.replicas.add(r.snapshot());
 			}
@@ -44,6 +44,7 @@
 package org.eclipse.jgit.internal.ketch;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.eclipse.jgit.internal.ketch.KetchReplica.CommitSpeed.BATCHED;
 import static org.eclipse.jgit.internal.ketch.KetchReplica.CommitSpeed.FAST;
 import static org.eclipse.jgit.internal.ketch.KetchReplica.State.CURRENT;
@@ -199,6 +200,9 @@ public enum State {
 	private long lastRetryMillis;
 	private long retryAtMillis;
 
+	/** Duration of successful pushes to this replica. */
+	private final LatencyHistogram pushLatency = new LatencyHistogram();
+
 	/**
 	 * Configure a replica representation.
 	 *
@@ -281,6 +285,7 @@ ReplicaSnapshot snapshot() {
 		s.state = state;
 		s.error = error;
 		s.retryAtMillis = waitingForRetry() ? retryAtMillis : 0;
+		s.pushLatency = pushLatency.copy();
 		return s;
 	}
 
@@ -326,7 +331,7 @@ void pushTxnAcceptedAsync(Round round) {
 		if (commitSpeed == BATCHED) {
 			LogIndex committedIndex = leader.getCommitted();
 			if (equals(txnAccepted, committedIndex)
-					&& !equals(txnCommitted, committedIndex)) {
+					&& !equals(pendingTxnCommitted(), committedIndex)) {
 				prepareTxnCommitted(cmds, committedIndex);
 			}
 		}
@@ -362,10 +367,24 @@ private void prepareTxnCommitted(List<ReceiveCommand> cmds,
 			ObjectId committed) {
 		removeStaged(cmds, committed);
 		cmds.add(new ReceiveCommand(
-				txnCommitted, committed,
+				pendingTxnCommitted(), committed,
 				getSystem().getTxnCommitted()));
 	}
 
+	/**
+	 * @return value of {@code txnCommitted} once the pushes already running
+	 *         or queued complete. With several rounds in flight an earlier
+	 *         push may still be updating the reference.
+	 */
+	private ObjectId pendingTxnCommitted() {
+		String name = getSystem().getTxnCommitted();
+		ReceiveCommand cmd = waiting.get(name);
+		if (cmd == null) {
+			cmd = running.get(name);
+		}
+		return cmd != null ? cmd.getNewId() : txnCommitted;
+	}
+
 	private void removeStaged(List<ReceiveCommand> cmds, ObjectId committed) {
 		List<ReceiveCommand> a = staged.remove(committed);
 		if (a != null) {
@@ -413,7 +432,7 @@ private static void delete(List<ReceiveCommand> cmds,
 	 */
 	private void runNextPushRequest() {
 		LogIndex committed = leader.getCommitted();
-		if (!equals(txnCommitted, committed)
+		if (!equals(pendingTxnCommitted(), committed)
 				&& shouldPushUnbatchedCommit(committed, leader.isIdle())) {
 			pushCommitAsync(committed);
 		}
@@ -443,7 +462,7 @@ && shouldPushUnbatchedCommit(committed, leader.isIdle())) {
 		for (ReceiveCommand cmd : next) {
 			running.put(cmd.getRefName(), cmd);
 		}
-		startPush(new ReplicaPushRequest(this, next));
+		start(new ReplicaPushRequest(this, next));
 	}
 
 	private void pushAsync(ReplicaPushRequest req) {
@@ -457,10 +476,15 @@ private void pushAsync(ReplicaPushRequest req) {
 			for (ReceiveCommand cmd : req.getCommands()) {
 				running.put(cmd.getRefName(), cmd);
 			}
-			startPush(req);
+			start(req);
 		}
 	}
 
+	private void start(ReplicaPushRequest req) {
+		req.startNanos = System.nanoTime();
+		startPush(req);
+	}
+
 	private boolean defer(ReplicaPushRequest req) {
 		if (waitingForRetry()) {
 			// Prior communication failure; everything is deferred.
@@ -610,6 +634,8 @@ void afterPush(@Nullable Repository repo, ReplicaPushRequest req) {
 
 			lastRetryMillis = 0;
 			error = null;
+			pushLatency.record(
+					NANOSECONDS.toMillis(System.nanoTime() - req.startNanos));
 			updateView(req, acceptId, commitCmd);
 
 			if (acceptCmd != null && acceptCmd.getResult() == OK) {
@@ -144,6 +144,27 @@ public Duration getMaxWaitForMonotonicClock() {
 		return Duration.ofSeconds(5);
 	}
 
+	/**
+	 * @return how long the leader waits after the first proposal arrives at an
+	 *         idle leader, collecting more proposals into the same round.
+	 *         Defaults to 0, starting the round immediately. Proposals arriving
+	 *         while a round runs are always combined into the next round.
+	 */
+	public Duration getGroupCommitDelay() {
+		return Duration.ZERO;
+	}
+
+	/**
+	 * @return maximum number of proposal rounds the leader sends to replicas
+	 *         before the oldest one is accepted by a majority. Defaults to 1,
+	 *         waiting for each round to commit before starting the next. A
+	 *         larger value lets the leader build and queue the next round
+	 *         while earlier rounds are still being replicated.
+	 */
+	public int getMaxRoundsInFlight() {
+		return 1;
+	}
+
 	/**
 	 * @return true if elections should require monotonically increasing commit
 	 *         timestamps. This requires a very good {@link MonotonicClock}.
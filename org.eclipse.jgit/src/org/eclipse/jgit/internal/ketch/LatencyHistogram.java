@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.ketch;
+
+import java.util.Arrays;
+
+/**
+ * Distribution of latencies observed by Ketch.
+ * <p>
+ * Latencies are counted in buckets of exponentially increasing size. Bucket
+ * {@code 0} counts latencies below 1 millisecond, bucket {@code i} counts
+ * latencies below {@code 2^i} milliseconds, and the last bucket counts all
+ * latencies at or above {@code 2^(n-2)} milliseconds.
+ * <p>
+ * Instances are not thread-safe. Ketch updates them while holding the
+ * {@link KetchLeader#lock} and publishes copies in snapshots.
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 18;
+
+	private final long[] counts;
+	private long total;
+	private long sumMillis;
+	private long maxMillis;
+
+	LatencyHistogram() {
+		counts = new long[BUCKETS];
+	}
+
+	private LatencyHistogram(LatencyHistogram src) {
+		counts = Arrays.copyOf(src.counts, BUCKETS);
+		total = src.total;
+		sumMillis = src.sumMillis;
+		maxMillis = src.maxMillis;
+	}
+
+	void record(long millis) {
+		long m = Math.max(0, millis);
+		counts[bucket(m)]++;
+		total++;
+		sumMillis += m;
+		maxMillis = Math.max(maxMillis, m);
+	}
+
+	private static int bucket(long millis) {
+		int b = 64 - Long.numberOfLeadingZeros(millis);
+		return Math.min(b, BUCKETS - 1);
+	}
+
+	LatencyHistogram copy() {
+		return new LatencyHistogram(this);
+	}
+
+	/** @return number of latencies recorded. */
+	public long getCount() {
+		return total;
+	}
+
+	/** @return number of buckets in this histogram. */
+	public int getBucketCount() {
+		return BUCKETS;
+	}
+
+	/**
+	 * @param bucket
+	 *            index of the bucket, {@code 0 <= bucket < getBucketCount()}.
+	 * @return number of latencies recorded in the bucket.
+	 */
+	public long getCount(int bucket) {
+		return counts[bucket];
+	}
+
+	/**
+	 * @param bucket
+	 *            index of the bucket, {@code 0 <= bucket < getBucketCount()}.
+	 * @return exclusive upper bound of the bucket in milliseconds;
+	 *         {@link Long#MAX_VALUE} for the last bucket.
+	 */
+	public long getUpperBoundMillis(int bucket) {
+		if (bucket == BUCKETS - 1) {
+			return Long.MAX_VALUE;
+		}
+		return 1L << bucket;
+	}
+
+	/** @return mean latency in milliseconds; 0 if nothing was recorded. */
+	public double getMeanMillis() {
+		return total > 0 ? (double) sumMillis / total : 0;
+	}
+
+	/** @return highest latency recorded, in milliseconds. */
+	public long getMaxMillis() {
+		return maxMillis;
+	}
+
+	/**
+	 * Estimate a percentile of the recorded latencies.
+	 *
+	 * @param p
+	 *            percentile to estimate, {@code 0 < p <= 100}.
+	 * @return upper bound in milliseconds of the bucket holding the
+	 *         percentile, but never more than {@link #getMaxMillis()}; 0 if
+	 *         nothing was recorded.
+	 */
+	public long getPercentileMillis(double p) {
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * p / 100);
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += counts[b];
+			if (seen >= rank) {
+				return Math.min(getUpperBoundMillis(b), maxMillis);
+			}
+		}
+		return maxMillis;
+	}
+
+	@SuppressWarnings("boxing")
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.1fms p50=%dms p99=%dms max=%dms", //$NON-NLS-1$
+				total, getMeanMillis(), getPercentileMillis(50),
+				getPercentileMillis(99), maxMillis);
+	}
+}
@@ -61,6 +61,8 @@ public class LeaderSnapshot {
 	LogIndex headIndex;
 	LogIndex committedIndex;
 	boolean idle;
+	int roundsInFlight;
+	LatencyHistogram commitLatency;
 
 	LeaderSnapshot() {
 	}
@@ -83,6 +85,22 @@ public boolean isIdle() {
 		return idle;
 	}
 
+	/**
+	 * @return number of rounds sent to replicas and still waiting for a
+	 *         majority to accept them.
+	 */
+	public int getRoundsInFlight() {
+		return roundsInFlight;
+	}
+
+	/**
+	 * @return time from sending a round to replicas until a majority of voters
+	 *         accepted it, for all rounds committed by this leader.
+	 */
+	public LatencyHistogram getCommitLatency() {
+		return commitLatency;
+	}
+
 	/**
 	 * @return term of this leader. Valid only if {@link #getState()} is
 	 *         currently {@link KetchLeader.State#LEADER}.
@@ -118,6 +136,12 @@ public String toString() {
 		if (getTerm() > 0) {
 			s.append(" term ").append(getTerm()); //$NON-NLS-1$
 		}
+		if (getRoundsInFlight() > 1) {
+			s.append(" rounds ").append(getRoundsInFlight()); //$NON-NLS-1$
+		}
+		if (commitLatency != null && commitLatency.getCount() > 0) {
+			s.append(" commit ").append(commitLatency); //$NON-NLS-1$
+		}
 		s.append('\n');
 		s.append(String.format(
 				"%-10s %12s %12s\n", //$NON-NLS-1$
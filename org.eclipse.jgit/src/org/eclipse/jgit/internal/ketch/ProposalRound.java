@@ -140,7 +140,7 @@ void start() throws IOException {
 			}
 			leader.lock.lock();
 			try {
-				leader.nextRound();
+				leader.skipRound();
 			} finally {
 				leader.lock.unlock();
 			}
@@ -162,7 +162,7 @@ private ObjectId insertProposals(Repository git, ProposedTimestamp ts)
 				id = insertMultiProposal(git, ts, inserter);
 			}
 
-			stageCommands = makeStageList(git, inserter);
+			stageCommands = makeStageList(git, inserter, id);
 			inserter.flush();
 		}
 		return id;
@@ -275,7 +275,7 @@ void success() {
 	}
 
 	private List<ReceiveCommand> makeStageList(Repository git,
-			ObjectInserter inserter) throws IOException {
+			ObjectInserter inserter, ObjectId txnId) throws IOException {
 		// For each branch, collapse consecutive updates to only most recent,
 		// avoiding sending multiple objects in a rapid fast-forward chain, or
 		// rewritten content.
@@ -295,7 +295,7 @@ private List<ReceiveCommand> makeStageList(Repository git,
 		Set<ObjectId> newObjs = new HashSet<>(byRef.values());
 		StageBuilder b = new StageBuilder(
 				leader.getSystem().getTxnStage(),
-				acceptedNewIndex);
+				txnId);
 		return b.makeStageList(newObjs, git, inserter);
 	}
 
@@ -66,6 +66,9 @@ public class ReplicaPushRequest {
 	private Throwable exception;
 	private boolean notified;
 
+	/** {@link System#nanoTime()} when the push was started. */
+	long startNanos;
+
 	/**
 	 * Construct a new push request for a replica.
 	 *
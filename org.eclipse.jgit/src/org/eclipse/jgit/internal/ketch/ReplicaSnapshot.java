@@ -60,6 +60,7 @@ public class ReplicaSnapshot {
 	KetchReplica.State state;
 	String error;
 	long retryAtMillis;
+	LatencyHistogram pushLatency;
 
 	ReplicaSnapshot(KetchReplica replica) {
 		this.replica = replica;
@@ -97,6 +98,14 @@ public String getErrorMessage() {
 		return error;
 	}
 
+	/**
+	 * @return duration of successful pushes to the replica, measured from
+	 *         starting the push until the replica's reply was processed.
+	 */
+	public LatencyHistogram getPushLatency() {
+		return pushLatency;
+	}
+
 	/**
 	 * @return time (usually in the future) when the leader will retry
 	 *         communication with the offline or lagging replica; null if no
@@ -70,6 +70,9 @@ abstract class Round {
 	LogIndex acceptedNewIndex;
 	List<ReceiveCommand> stageCommands;
 
+	/** {@link System#nanoTime()} when the round was sent to replicas. */
+	long startNanos;
+
 	Round(KetchLeader leader, LogIndex head) {
 		this.leader = leader;
 		this.acceptedOldIndex = head;
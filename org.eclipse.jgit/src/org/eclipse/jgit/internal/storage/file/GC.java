@@ -46,9 +46,15 @@
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
@@ -127,6 +133,8 @@ public class GC {
 
 	private static final String PRUNE_PACK_EXPIRE_DEFAULT = "1.hour.ago"; //$NON-NLS-1$
 
+	private static final String REFLOG_EXPIRE_DEFAULT = "90.days.ago"; //$NON-NLS-1$
+
 	private static final Pattern PATTERN_LOOSE_OBJECT = Pattern
 			.compile("[0-9a-fA-F]{38}"); //$NON-NLS-1$
 
@@ -146,6 +154,10 @@ public class GC {
 
 	private Date packExpire;
 
+	private Date reflogExpire;
+
+	private boolean reflogExpireSet;
+
 	private PackConfig pconfig = null;
 
 	/**
@@ -184,6 +196,7 @@ public GC(FileRepository repo) {
 	 * Runs a garbage collector on a {@link FileRepository}. It will
 	 * <ul>
 	 * <li>pack loose references into packed-refs</li>
+	 * <li>remove reflog entries older than the reflog expiration date</li>
 	 * <li>repack all reachable objects into new pack files and delete the old
 	 * pack files</li>
 	 * <li>prune all loose objects which are now reachable by packs</li>
@@ -205,7 +218,7 @@ public Collection<PackFile> gc() throws IOException, ParseException {
 		}
 		pm.start(6 /* tasks */);
 		packRefs();
-		// TODO: implement reflog_expire(pm, repo);
+		expireReflogs();
 		Collection<PackFile> newPacks = repack();
 		prune(Collections.<ObjectId> emptySet());
 		// TODO: implement rerere_gc(pm);
@@ -578,6 +591,22 @@ private long getExpireDate() throws ParseException {
 		return expireDate;
 	}
 
+	private long getReflogExpireDate() throws ParseException {
+		if (!reflogExpireSet) {
+			String reflogExpireStr = repo.getConfig().getString(
+					ConfigConstants.CONFIG_GC_SECTION, null,
+					ConfigConstants.CONFIG_KEY_REFLOGEXPIRE);
+			if (reflogExpireStr == null)
+				reflogExpireStr = REFLOG_EXPIRE_DEFAULT;
+			Date d = GitDateParser.parse(reflogExpireStr, null,
+					SystemReader.getInstance().getLocale());
+			if (d == GitDateParser.NEVER)
+				return Long.MIN_VALUE;
+			return d.getTime();
+		}
+		return reflogExpire != null ? reflogExpire.getTime() : Long.MIN_VALUE;
+	}
+
 	private long getPackExpireDate() throws ParseException {
 		long packExpireDate = Long.MAX_VALUE;
 
@@ -663,6 +692,107 @@ public void packRefs() throws IOException {
 		}
 	}
 
+	/**
+	 * Removes reflog entries older than the reflog expiration date.
+	 * <p>
+	 * Each log is rewritten by streaming the entries which are kept into a
+	 * lock file, so memory usage does not depend on the length of the log.
+	 * While a log is rewritten the ref it belongs to is locked; logs of refs
+	 * which are locked by someone else are skipped.
+	 *
+	 * @throws IOException
+	 * @throws ParseException
+	 *             If the configuration parameter "gc.reflogexpire" couldn't
+	 *             be parsed
+	 * @since 4.7
+	 */
+	public void expireReflogs() throws IOException, ParseException {
+		long expireDate = getReflogExpireDate();
+		RefDirectory refdb = (RefDirectory) repo.getRefDatabase();
+		File logsDir = new File(repo.getDirectory(), Constants.LOGS);
+		List<String> names = new ArrayList<String>();
+		listLogs(logsDir, "", names); //$NON-NLS-1$
+		pm.beginTask(JGitText.get().expireReflogs, names.size());
+		try {
+			for (String name : names) {
+				if (expireDate != Long.MIN_VALUE)
+					expireReflog(refdb, name, expireDate);
+				pm.update(1);
+			}
+		} finally {
+			pm.endTask();
+		}
+	}
+
+	private static void listLogs(File dir, String prefix, List<String> names) {
+		File[] entries = dir.listFiles();
+		if (entries == null)
+			return;
+		for (File f : entries) {
+			String name = prefix + f.getName();
+			if (f.isDirectory())
+				listLogs(f, name + '/', names);
+			else if (!name.endsWith(LockFile.SUFFIX))
+				names.add(name);
+		}
+	}
+
+	private void expireReflog(RefDirectory refdb, String name,
+			long expireDate) throws IOException {
+		LockFile refLock = new LockFile(refdb.fileFor(name));
+		if (!refLock.lock())
+			return;
+		try {
+			File log = refdb.getLogWriter().logFor(name);
+			LockFile logLock = new LockFile(log);
+			if (!logLock.lock())
+				return;
+			int removed = 0;
+			try {
+				try (InputStream in = new BufferedInputStream(
+						new FileInputStream(log));
+						OutputStream out = new BufferedOutputStream(
+								logLock.getOutputStream())) {
+					byte[] line;
+					while ((line = readLine(in)) != null) {
+						if (isExpired(line, expireDate))
+							removed++;
+						else
+							out.write(line);
+					}
+				}
+			} catch (FileNotFoundException e) {
+				// The log was deleted along with its ref.
+			} finally {
+				if (removed == 0 || !logLock.commit())
+					logLock.unlock();
+			}
+		} finally {
+			refLock.unlock();
+		}
+	}
+
+	private static byte[] readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+		int c;
+		while ((c = in.read()) >= 0) {
+			buf.write(c);
+			if (c == '\n')
+				break;
+		}
+		return buf.size() > 0 ? buf.toByteArray() : null;
+	}
+
+	private static boolean isExpired(byte[] line, long expireDate) {
+		try {
+			return new ReflogEntryImpl(line, 0).getWho().getWhen()
+					.getTime() < expireDate;
+		} catch (RuntimeException e) {
+			// Keep lines which cannot be parsed.
+			return false;
+		}
+	}
+
 	/**
 	 * Packs all objects which reachable from any of the heads into one pack
 	 * file. Additionally all objects which are not reachable from any head but
@@ -1191,6 +1321,21 @@ public void setExpire(Date expire) {
 		expireAgeMillis = -1;
 	}
 
+	/**
+	 * During gc() or expireReflogs() reflog entries recorded before
+	 * <code>reflogExpire</code> are removed. If set to null no entries are
+	 * removed. Unless set, the configuration parameter "gc.reflogexpire" is
+	 * used, which defaults to 90 days ago.
+	 *
+	 * @param reflogExpire
+	 *            instant in time before which reflog entries expire
+	 * @since 4.7
+	 */
+	public void setReflogExpire(Date reflogExpire) {
+		this.reflogExpire = reflogExpire;
+		reflogExpireSet = true;
+	}
+
 	/**
 	 * During gc() or prune() packfiles which are created or modified after or
 	 * at <code>packExpire</code> will not be deleted. Only older packfiles may
@@ -0,0 +1,560 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.LOCK_FAILURE;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.NOT_ATTEMPTED;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.OK;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_MISSING_OBJECT;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_NONFASTFORWARD;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_OTHER_REASON;
+import static org.eclipse.jgit.transport.ReceiveCommand.Type.CREATE;
+import static org.eclipse.jgit.transport.ReceiveCommand.Type.DELETE;
+import static org.eclipse.jgit.transport.ReceiveCommand.Type.UPDATE_NONFASTFORWARD;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.ThreadSafeProgressMonitor;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.util.RefList;
+
+/**
+ * Batch update of references stored in a {@link RefDirectory}.
+ * <p>
+ * An atomic batch is written directly into {@code packed-refs}. The
+ * {@code packed-refs} file and the loose file of every affected reference are
+ * locked, the new {@code packed-refs} is committed, and the loose files are
+ * then removed. Reflog entries are appended in one pass once the references
+ * are stored. A batch creating thousands of tags costs one write of
+ * {@code packed-refs} instead of thousands of lock file commits.
+ * <p>
+ * A non-atomic batch updates each loose reference on its own. If an executor
+ * was set by {@link #setExecutor(Executor)} the updates run concurrently,
+ * otherwise one at a time.
+ *
+ * @since 4.7
+ */
+public class PackedBatchRefUpdate extends BatchRefUpdate {
+	private static final Duration MAX_WAIT = Duration.ofSeconds(5);
+
+	private final RefDirectory refdb;
+
+	private Executor executor;
+
+	PackedBatchRefUpdate(RefDirectory refdb) {
+		super(refdb);
+		this.refdb = refdb;
+
+		// Batches were never atomic by default on this storage; callers
+		// relying on partial success do not have to change.
+		setAtomic(false);
+	}
+
+	/**
+	 * Set the executor updating references of a non-atomic batch.
+	 *
+	 * @param executor
+	 *            executor running individual reference updates concurrently;
+	 *            null to update references one at a time.
+	 * @return {@code this}.
+	 */
+	public PackedBatchRefUpdate setExecutor(@Nullable Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	@Override
+	public void execute(RevWalk walk, ProgressMonitor monitor,
+			List<String> options) throws IOException {
+		if (isAtomic()) {
+			executeAtomic(walk, monitor);
+		} else if (executor != null) {
+			executeConcurrently(walk, monitor);
+		} else {
+			super.execute(walk, monitor, options);
+		}
+	}
+
+	private void executeAtomic(RevWalk walk, ProgressMonitor monitor)
+			throws IOException {
+		List<ReceiveCommand> pending = ReceiveCommand.filter(getCommands(),
+				NOT_ATTEMPTED);
+		if (pending.isEmpty() || !blockUntilTimestamps(MAX_WAIT)
+				|| !checkObjects(walk, pending)) {
+			return;
+		}
+
+		monitor.beginTask(JGitText.get().updatingReferences, pending.size());
+		Map<String, LockFile> locks = new HashMap<>();
+		LockFile packedLock = new LockFile(refdb.packedRefsFile);
+		try {
+			if (lockLooseRefs(pending, locks)) {
+				commitPacked(walk, pending, locks, packedLock);
+			}
+		} finally {
+			packedLock.unlock();
+			for (LockFile lck : locks.values()) {
+				lck.unlock();
+			}
+		}
+		monitor.update(pending.size());
+		monitor.endTask();
+	}
+
+	private void commitPacked(RevWalk walk, List<ReceiveCommand> pending,
+			Map<String, LockFile> locks, LockFile packedLock)
+			throws IOException {
+		if (!packedLock.lock()) {
+			for (ReceiveCommand cmd : pending) {
+				cmd.setResult(LOCK_FAILURE);
+			}
+			return;
+		}
+
+		RefDirectory.PackedRefList oldPacked = refdb.getPackedRefs();
+		RefList<Ref> packed = refdb.readPackedRefs();
+		Set<String> loose = new HashSet<>();
+		Map<String, ObjectId> oldIds = new HashMap<>();
+		if (!checkOldValues(pending, packed, loose, oldIds)
+				|| !checkNameConflicts(pending, packed)) {
+			return;
+		}
+
+		// Log before the update becomes visible, as RefDirectoryUpdate does.
+		writeReflogs(pending, oldIds);
+		refdb.commitPackedRefs(packedLock, apply(walk, pending, packed),
+				oldPacked);
+		for (ReceiveCommand cmd : pending) {
+			cmd.setResult(OK);
+		}
+
+		// Loose files would hide the new values, remove them. The locks stay
+		// in the map so they are released even if a deletion fails.
+		List<String> names = new ArrayList<>(pending.size());
+		for (ReceiveCommand cmd : pending) {
+			String name = cmd.getRefName();
+			int levels = RefDirectory.levelsIn(name) - 2;
+			if (loose.contains(name)) {
+				RefDirectory.delete(refdb.fileFor(name), levels,
+						locks.get(name));
+			}
+			if (cmd.getType() == DELETE) {
+				RefDirectory.delete(refdb.getLogWriter().logFor(name), levels);
+			}
+			names.add(name);
+		}
+		refdb.packedRefsUpdated(names);
+	}
+
+	private boolean checkObjects(RevWalk walk, List<ReceiveCommand> pending)
+			throws IOException {
+		for (ReceiveCommand cmd : pending) {
+			try {
+				if (cmd.getType() != DELETE) {
+					walk.parseAny(cmd.getNewId());
+				}
+				cmd.updateType(walk);
+			} catch (MissingObjectException e) {
+				cmd.setResult(REJECTED_MISSING_OBJECT);
+				ReceiveCommand.abort(pending);
+				return false;
+			}
+			if (cmd.getType() == UPDATE_NONFASTFORWARD
+					&& !isAllowNonFastForwards()) {
+				cmd.setResult(REJECTED_NONFASTFORWARD);
+				ReceiveCommand.abort(pending);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean lockLooseRefs(List<ReceiveCommand> pending,
+			Map<String, LockFile> locks) {
+		// Lock deletes first, they may be in the way of nested creates.
+		List<ReceiveCommand> ordered = new ArrayList<>(pending.size());
+		for (ReceiveCommand cmd : pending) {
+			if (cmd.getType() == DELETE) {
+				ordered.add(cmd);
+			}
+		}
+		for (ReceiveCommand cmd : pending) {
+			if (cmd.getType() != DELETE) {
+				ordered.add(cmd);
+			}
+		}
+		for (ReceiveCommand cmd : ordered) {
+			String name = cmd.getRefName();
+			LockFile lck = new LockFile(refdb.fileFor(name));
+			boolean locked;
+			try {
+				locked = lck.lock();
+			} catch (IOException e) {
+				// A loose file is in the way of the directory of the lock.
+				// If this batch deletes that reference, its lock already
+				// keeps others from creating the nested reference.
+				if (isNestedInLocked(name, locks)) {
+					continue;
+				}
+				locked = false;
+			}
+			if (!locked) {
+				cmd.setResult(LOCK_FAILURE);
+				ReceiveCommand.abort(pending);
+				return false;
+			}
+			locks.put(name, lck);
+		}
+		return true;
+	}
+
+	private static boolean isNestedInLocked(String name,
+			Map<String, LockFile> locks) {
+		int lastSlash = name.lastIndexOf('/');
+		while (0 < lastSlash) {
+			if (locks.containsKey(name.substring(0, lastSlash))) {
+				return true;
+			}
+			lastSlash = name.lastIndexOf('/', lastSlash - 1);
+		}
+		return false;
+	}
+
+	private boolean checkOldValues(List<ReceiveCommand> pending,
+			RefList<Ref> packed, Set<String> loose,
+			Map<String, ObjectId> oldIds) throws IOException {
+		for (ReceiveCommand cmd : pending) {
+			String name = cmd.getRefName();
+			Ref ref = refdb.scanRef(null, name);
+			if (ref != null) {
+				loose.add(name);
+			} else {
+				ref = packed.get(name);
+			}
+			if (ref != null && ref.isSymbolic()) {
+				cmd.setResult(REJECTED_OTHER_REASON,
+						JGitText.get().atomicSymRefNotSupported);
+				ReceiveCommand.abort(pending);
+				return false;
+			}
+			ObjectId id = ref != null ? ref.getObjectId() : null;
+			if (id == null) {
+				id = ObjectId.zeroId();
+			}
+			// As in RefUpdate, a missing old id is not checked.
+			if (cmd.getOldId() != null
+					&& !AnyObjectId.equals(id, cmd.getOldId())) {
+				cmd.setResult(LOCK_FAILURE);
+				ReceiveCommand.abort(pending);
+				return false;
+			}
+			oldIds.put(name, id);
+		}
+		return true;
+	}
+
+	private boolean checkNameConflicts(List<ReceiveCommand> pending,
+			RefList<Ref> packed) {
+		TreeSet<String> names = new TreeSet<>();
+		for (Ref r : refdb.getLooseRefs()) {
+			names.add(r.getName());
+		}
+		for (Ref r : packed) {
+			names.add(r.getName());
+		}
+		for (ReceiveCommand cmd : pending) {
+			if (cmd.getType() == DELETE) {
+				names.remove(cmd.getRefName());
+			}
+		}
+		for (ReceiveCommand cmd : pending) {
+			if (cmd.getType() != DELETE) {
+				names.add(cmd.getRefName());
+			}
+		}
+		for (ReceiveCommand cmd : pending) {
+			if (cmd.getType() == CREATE && isConflicting(names,
+					cmd.getRefName())) {
+				cmd.setResult(LOCK_FAILURE);
+				ReceiveCommand.abort(pending);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isConflicting(TreeSet<String> names, String name) {
+		// Cannot be nested within an existing reference.
+		int lastSlash = name.lastIndexOf('/');
+		while (0 < lastSlash) {
+			if (names.contains(name.substring(0, lastSlash))) {
+				return true;
+			}
+			lastSlash = name.lastIndexOf('/', lastSlash - 1);
+		}
+
+		// Cannot be the container of an existing reference.
+		String prefix = name + '/';
+		String next = names.ceiling(prefix);
+		return next != null && next.startsWith(prefix);
+	}
+
+	private static RefList<Ref> apply(RevWalk walk,
+			List<ReceiveCommand> pending, RefList<Ref> packed)
+			throws IOException {
+		Map<String, Ref> refs = new HashMap<>(packed.size() + pending.size());
+		for (Ref r : packed) {
+			refs.put(r.getName(), r);
+		}
+		for (ReceiveCommand cmd : pending) {
+			String name = cmd.getRefName();
+			if (cmd.getType() == DELETE) {
+				refs.remove(name);
+			} else {
+				refs.put(name, peeledPackedRef(walk, name, cmd.getNewId()));
+			}
+		}
+		RefList.Builder<Ref> b = new RefList.Builder<>(refs.size());
+		for (Ref r : refs.values()) {
+			b.add(r);
+		}
+		b.sort();
+		return b.toRefList();
+	}
+
+	private static Ref peeledPackedRef(RevWalk walk, String name,
+			ObjectId id) throws IOException {
+		RevObject obj = walk.parseAny(id);
+		if (obj instanceof RevTag) {
+			return new ObjectIdRef.PeeledTag(PACKED, name, id,
+					walk.peel(obj).copy());
+		}
+		return new ObjectIdRef.PeeledNonTag(PACKED, name, id);
+	}
+
+	private void writeReflogs(List<ReceiveCommand> pending,
+			Map<String, ObjectId> oldIds) throws IOException {
+		if (isRefLogDisabled()) {
+			return;
+		}
+		PersonIdent ident = getRefLogIdent();
+		if (ident == null) {
+			ident = new PersonIdent(refdb.getRepository());
+		}
+		Map<String, ReflogEntryImpl> entries = new LinkedHashMap<>();
+		for (ReceiveCommand cmd : pending) {
+			if (cmd.getType() != DELETE) {
+				entries.put(cmd.getRefName(), new ReflogEntryImpl(
+						oldIds.get(cmd.getRefName()), cmd.getNewId(), ident,
+						reflogMessage(cmd)));
+			}
+		}
+		refdb.getLogWriter().log(entries);
+	}
+
+	private String reflogMessage(ReceiveCommand cmd) {
+		String msg = getRefLogMessage();
+		if (!isRefLogIncludingResult()) {
+			return msg;
+		}
+		String result;
+		switch (cmd.getType()) {
+		case CREATE:
+			result = "created"; //$NON-NLS-1$
+			break;
+		case UPDATE_NONFASTFORWARD:
+			result = "forced-update"; //$NON-NLS-1$
+			break;
+		default:
+			result = "fast forward"; //$NON-NLS-1$
+			break;
+		}
+		return msg.length() > 0 ? msg + ": " + result : result; //$NON-NLS-1$
+	}
+
+	private void executeConcurrently(RevWalk walk, ProgressMonitor monitor)
+			throws IOException {
+		List<ReceiveCommand> pending = ReceiveCommand.filter(getCommands(),
+				NOT_ATTEMPTED);
+		if (!blockUntilTimestamps(MAX_WAIT)) {
+			return;
+		}
+
+		monitor.beginTask(JGitText.get().updatingReferences, pending.size());
+		List<ReceiveCommand> deletes = new ArrayList<>();
+		List<ReceiveCommand> updates = new ArrayList<>();
+		for (ReceiveCommand cmd : pending) {
+			try {
+				cmd.updateType(walk);
+				if (cmd.getType() == DELETE) {
+					deletes.add(cmd);
+				} else {
+					updates.add(cmd);
+				}
+			} catch (IOException err) {
+				cmd.setResult(REJECTED_OTHER_REASON, MessageFormat.format(
+						JGitText.get().lockError, err.getMessage()));
+				monitor.update(1);
+			}
+		}
+
+		// First delete refs. This may free the name space for some of the
+		// updates.
+		run(deletes, monitor);
+
+		if (!updates.isEmpty()) {
+			// Claim the name space before running, as updates race.
+			Set<String> takenNames = new HashSet<>(
+					refdb.getRefs(RefDatabase.ALL).keySet());
+			Set<String> takenPrefixes = new HashSet<>();
+			for (String name : takenNames) {
+				addPrefixes(takenPrefixes, name);
+			}
+			List<ReceiveCommand> todo = new ArrayList<>(updates.size());
+			for (ReceiveCommand cmd : updates) {
+				if (cmd.getType() == CREATE) {
+					String name = cmd.getRefName();
+					if (takenPrefixes.contains(name)
+							|| containsPrefix(takenNames, name)) {
+						cmd.setResult(LOCK_FAILURE);
+						monitor.update(1);
+						continue;
+					}
+					addPrefixes(takenPrefixes, name);
+					takenNames.add(name);
+				}
+				todo.add(cmd);
+			}
+			run(todo, monitor);
+		}
+		monitor.endTask();
+	}
+
+	private static void addPrefixes(Collection<String> prefixes, String name) {
+		int p = name.indexOf('/');
+		while (p > 0) {
+			prefixes.add(name.substring(0, p));
+			p = name.indexOf('/', p + 1);
+		}
+	}
+
+	private static boolean containsPrefix(Set<String> names, String name) {
+		int p = name.indexOf('/');
+		while (p > 0) {
+			if (names.contains(name.substring(0, p))) {
+				return true;
+			}
+			p = name.indexOf('/', p + 1);
+		}
+		return false;
+	}
+
+	private void run(List<ReceiveCommand> cmds, ProgressMonitor monitor)
+			throws IOException {
+		if (cmds.isEmpty()) {
+			return;
+		}
+		final ThreadSafeProgressMonitor pm = new ThreadSafeProgressMonitor(
+				monitor);
+		pm.startWorkers(cmds.size());
+		for (final ReceiveCommand cmd : cmds) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try (RevWalk rw = new RevWalk(refdb.getRepository())) {
+						RefUpdate ru = newUpdate(cmd);
+						if (cmd.getType() == DELETE) {
+							cmd.setResult(ru.delete(rw));
+						} else {
+							// Name conflicts were checked by the batch.
+							ru.setCheckConflicting(cmd.getType() != CREATE);
+							cmd.setResult(ru.update(rw));
+						}
+					} catch (IOException err) {
+						cmd.setResult(REJECTED_OTHER_REASON,
+								MessageFormat.format(JGitText.get().lockError,
+										err.getMessage()));
+					} finally {
+						pm.update(1);
+						pm.endWorker();
+					}
+				}
+			});
+		}
+		try {
+			pm.waitForCompletion();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+}
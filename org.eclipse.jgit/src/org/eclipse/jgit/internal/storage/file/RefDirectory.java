@@ -67,9 +67,13 @@
 import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -80,6 +84,7 @@
 import org.eclipse.jgit.errors.ObjectWritingException;
 import org.eclipse.jgit.events.RefsChangedEvent;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
@@ -116,6 +121,11 @@
  * In the packed format, each reference is stored on its own line. This file
  * reduces the number of files needed for large reference spaces, reducing the
  * overall size of a Git repository on disk.
+ * <p>
+ * Read-heavy servers may call
+ * {@link #publishSnapshots(ScheduledExecutorService, long, TimeUnit, boolean)}
+ * to answer reads from an immutable view of all references, refreshed in the
+ * background, instead of checking the filesystem on every read.
  */
 public class RefDirectory extends RefDatabase {
 	private final static Logger LOG = LoggerFactory
@@ -143,7 +153,7 @@ public class RefDirectory extends RefDatabase {
 
 	private final ReflogWriter logWriter;
 
-	private final File packedRefsFile;
+	final File packedRefsFile;
 
 	/**
 	 * Immutable sorted list of loose references.
@@ -174,6 +184,26 @@ public class RefDirectory extends RefDatabase {
 	 */
 	private final AtomicInteger lastNotifiedModCnt = new AtomicInteger();
 
+	/**
+	 * Immutable view of all references answering reads, or null if reads
+	 * check the filesystem.
+	 */
+	private volatile PublishedRefs published;
+
+	/** Serializes building {@link #published}; guards the fields below. */
+	private final Object publishLock = new Object();
+
+	/**
+	 * Whether snapshots are published. Only set by
+	 * {@link #publishSnapshots(ScheduledExecutorService, long, TimeUnit, boolean)},
+	 * so a refresh still running after publishing stopped cannot turn it on.
+	 */
+	private boolean publishing;
+
+	private ScheduledFuture<?> refresher;
+
+	private RefDirectoryWatcher watcher;
+
 	RefDirectory(final FileRepository db) {
 		final FS fs = db.getFS();
 		parent = db;
@@ -203,6 +233,7 @@ public void create() throws IOException {
 
 	@Override
 	public void close() {
+		stopPublishingSnapshots();
 		clearReferences();
 	}
 
@@ -214,7 +245,189 @@ private void clearReferences() {
 	@Override
 	public void refresh() {
 		super.refresh();
-		clearReferences();
+		synchronized (publishLock) {
+			clearReferences();
+			if (published != null) {
+				try {
+					refreshSnapshot();
+				} catch (IOException e) {
+					LOG.error(MessageFormat.format(
+							JGitText.get().cannotRefreshPublishedRefs, gitDir),
+							e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Answer reads from an immutable snapshot of all references.
+	 * <p>
+	 * Once enabled {@link #exactRef(String)}, {@link #getRef(String)} and
+	 * {@link #getRefs(String)} read references under {@code refs/} and
+	 * {@code HEAD} from the most recently published snapshot, without any
+	 * filesystem access. Updates made through this instance are published
+	 * before the update returns. Updates made by other processes become
+	 * visible after the next refresh. Reference updates still read the current
+	 * value from disk while holding the reference's lock, so a stale snapshot
+	 * never allows an update to overwrite a newer value.
+	 * <p>
+	 * The first snapshot is built before this method returns. Publishing stops
+	 * when this database is closed.
+	 *
+	 * @param executor
+	 *            executor running the refresh, and the watch if requested.
+	 *            A watch occupies one thread of the executor until
+	 *            {@link #stopPublishingSnapshots()}.
+	 * @param interval
+	 *            delay between scans of the filesystem; 0 disables periodic
+	 *            scans.
+	 * @param unit
+	 *            unit of {@code interval}.
+	 * @param watch
+	 *            if true also refresh when the filesystem reports a change of
+	 *            {@code HEAD}, {@code packed-refs} or a file below
+	 *            {@code refs/}. The periodic scan is still recommended, as
+	 *            some filesystems do not report all changes.
+	 * @throws IOException
+	 *             the references cannot be read, or the watch cannot be
+	 *             registered.
+	 * @since 4.7
+	 */
+	public void publishSnapshots(ScheduledExecutorService executor,
+			long interval, TimeUnit unit, boolean watch) throws IOException {
+		synchronized (publishLock) {
+			stopPublishingSnapshots();
+			publishing = true;
+			try {
+				refreshSnapshot();
+			} catch (IOException e) {
+				stopPublishingSnapshots();
+				throw e;
+			}
+			if (watch) {
+				watcher = new RefDirectoryWatcher(this, gitDir, refsDir);
+				executor.execute(watcher);
+			}
+			if (interval > 0) {
+				refresher = executor.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							refreshSnapshot();
+						} catch (IOException e) {
+							LOG.error(MessageFormat.format(
+									JGitText.get().cannotRefreshPublishedRefs,
+									gitDir), e);
+						}
+					}
+				}, interval, interval, unit);
+			}
+		}
+	}
+
+	/**
+	 * Stop publishing snapshots; reads check the filesystem again.
+	 *
+	 * @since 4.7
+	 */
+	public void stopPublishingSnapshots() {
+		synchronized (publishLock) {
+			if (refresher != null) {
+				refresher.cancel(false);
+				refresher = null;
+			}
+			if (watcher != null) {
+				watcher.close();
+				watcher = null;
+			}
+			publishing = false;
+			published = null;
+		}
+	}
+
+	/**
+	 * @return true if reads are answered from a published snapshot.
+	 * @since 4.7
+	 */
+	public boolean isPublishingSnapshots() {
+		return published != null;
+	}
+
+	/**
+	 * Scan the filesystem and publish a new snapshot of all references.
+	 * <p>
+	 * Applications with their own change notification may call this instead
+	 * of, or in addition to, the periodic refresh. Nothing is published unless
+	 * {@link #publishSnapshots(ScheduledExecutorService, long, TimeUnit, boolean)}
+	 * enabled publishing.
+	 *
+	 * @throws IOException
+	 *             the references cannot be read.
+	 * @since 4.7
+	 */
+	public void refreshSnapshot() throws IOException {
+		getPackedRefs();
+		getLooseRefs();
+		synchronized (publishLock) {
+			if (!publishing)
+				return;
+			publish();
+		}
+		fireRefsChanged();
+	}
+
+	/**
+	 * Rebuild {@link #published} from the cached reference lists.
+	 * <p>
+	 * The cached lists are complete after a scan of all loose references and
+	 * are kept current by updates made through this instance, so no
+	 * filesystem access is necessary. Must be called while holding
+	 * {@link #publishLock}. Does nothing if publishing was stopped.
+	 */
+	private void publish() {
+		if (!publishing)
+			return;
+		RefList<Ref> packed = packedRefs.get();
+		RefList<LooseRef> loose = looseRefs.get();
+		RefList.Builder<Ref> live = new RefList.Builder<Ref>(loose.size());
+		RefList.Builder<Ref> symbolic = new RefList.Builder<Ref>(4);
+		RefList.Builder<Ref> unborn = new RefList.Builder<Ref>(1);
+		for (int i = 0; i < loose.size(); i++) {
+			Ref r = loose.get(i);
+			if (r.isSymbolic()) {
+				Ref resolved;
+				try {
+					resolved = resolve(r, 0, ALL, loose, packed);
+				} catch (IOException e) {
+					// Not possible, resolve only reads the lists given.
+					resolved = null;
+				}
+				if (resolved == null) {
+					// A cycle; exactRef claims it does not exist.
+					continue;
+				} else if (resolved.getObjectId() == null) {
+					// Hidden from getRefs, but exactRef returns it like an
+					// unborn HEAD read from disk.
+					unborn.add(resolved);
+					continue;
+				}
+				symbolic.add(resolved);
+			}
+			live.add(r);
+		}
+		published = new PublishedRefs(packed, live.toRefList(),
+				symbolic.toRefList(), unborn.toRefList());
+	}
+
+	/** Publish local changes, if snapshots are being published. */
+	private void republish() {
+		if (published != null) {
+			synchronized (publishLock) {
+				if (published != null) {
+					publish();
+				}
+			}
+		}
 	}
 
 	@Override
@@ -246,7 +459,7 @@ public boolean isNameConflicting(String name) throws IOException {
 		return false;
 	}
 
-	private RefList<LooseRef> getLooseRefs() {
+	RefList<LooseRef> getLooseRefs() {
 		final RefList<LooseRef> oldLoose = looseRefs.get();
 
 		LooseScanner scan = new LooseScanner(oldLoose);
@@ -264,6 +477,10 @@ private RefList<LooseRef> getLooseRefs() {
 
 	@Override
 	public Ref exactRef(String name) throws IOException {
+		PublishedRefs snapshot = published;
+		if (snapshot != null && snapshot.covers(name)) {
+			return snapshot.get(name);
+		}
 		RefList<Ref> packed = getPackedRefs();
 		Ref ref;
 		try {
@@ -288,6 +505,30 @@ public Ref exactRef(String name) throws IOException {
 
 	@Override
 	public Ref getRef(final String needle) throws IOException {
+		if (published != null) {
+			// Names outside of the snapshot are read by exactRef.
+			for (String prefix : SEARCH_PATH) {
+				Ref ref = exactRef(prefix + needle);
+				if (ref != null) {
+					return ref;
+				}
+			}
+			return null;
+		}
+		return readLiveRef(needle);
+	}
+
+	/**
+	 * Read a reference from the filesystem, ignoring any published snapshot.
+	 *
+	 * @param needle
+	 *            short or full name of the reference, as for
+	 *            {@link #getRef(String)}.
+	 * @return the reference, or null if it does not exist.
+	 * @throws IOException
+	 *             the reference cannot be read.
+	 */
+	Ref readLiveRef(final String needle) throws IOException {
 		final RefList<Ref> packed = getPackedRefs();
 		Ref ref = null;
 		for (String prefix : SEARCH_PATH) {
@@ -312,6 +553,11 @@ public Ref getRef(final String needle) throws IOException {
 
 	@Override
 	public Map<String, Ref> getRefs(String prefix) throws IOException {
+		PublishedRefs snapshot = published;
+		if (snapshot != null) {
+			return new RefMap(prefix, snapshot.packed, snapshot.loose,
+					snapshot.symbolic);
+		}
 		final RefList<LooseRef> oldLoose = looseRefs.get();
 		LooseScanner scan = new LooseScanner(oldLoose);
 		scan.scan(prefix);
@@ -552,6 +798,23 @@ public RefDirectoryUpdate newUpdate(String name, boolean detach)
 		return refDirUpdate;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Atomic batches are written into {@code packed-refs} under a single lock.
+	 * For compatibility the returned batch is not atomic unless
+	 * {@link BatchRefUpdate#setAtomic(boolean)} is called.
+	 */
+	@Override
+	public PackedBatchRefUpdate newBatchUpdate() {
+		return new PackedBatchRefUpdate(this);
+	}
+
+	@Override
+	public boolean performsAtomicTransactions() {
+		return true;
+	}
+
 	@Override
 	public RefDirectoryRename newRename(String fromName, String toName)
 			throws IOException {
@@ -573,6 +836,7 @@ private void putLooseRef(LooseRef ref) {
 			nList = cList.put(ref);
 		} while (!looseRefs.compareAndSet(cList, nList));
 		modCnt.incrementAndGet();
+		republish();
 		fireRefsChanged();
 	}
 
@@ -615,6 +879,31 @@ void delete(RefDirectoryUpdate update) throws IOException {
 		}
 
 		modCnt.incrementAndGet();
+		republish();
+		fireRefsChanged();
+	}
+
+	/**
+	 * Forget loose references removed after their new value was written to
+	 * {@code packed-refs} by {@link PackedBatchRefUpdate}.
+	 *
+	 * @param names
+	 *            names of the removed loose references.
+	 */
+	void packedRefsUpdated(Collection<String> names) {
+		RefList<LooseRef> curLoose, newLoose;
+		do {
+			curLoose = looseRefs.get();
+			newLoose = curLoose;
+			for (String name : names) {
+				int idx = newLoose.find(name);
+				if (0 <= idx) {
+					newLoose = newLoose.remove(idx);
+				}
+			}
+		} while (!looseRefs.compareAndSet(curLoose, newLoose));
+		modCnt.incrementAndGet();
+		republish();
 		fireRefsChanged();
 	}
 
@@ -692,6 +981,7 @@ public void pack(List<String> refs) throws IOException {
 					rLck.unlock();
 				}
 			}
+			republish();
 			// Don't fire refsChanged. The refs have not change, only their
 			// storage.
 		} finally {
@@ -764,7 +1054,7 @@ else if (0 <= (idx = packed.find(dst.getName())))
 		return ref;
 	}
 
-	private PackedRefList getPackedRefs() throws IOException {
+	PackedRefList getPackedRefs() throws IOException {
 		final PackedRefList curList = packedRefs.get();
 		if (!curList.snapshot.isModified(packedRefsFile))
 			return curList;
@@ -776,7 +1066,7 @@ private PackedRefList getPackedRefs() throws IOException {
 		return newList;
 	}
 
-	private PackedRefList readPackedRefs() throws IOException {
+	PackedRefList readPackedRefs() throws IOException {
 		int maxStaleRetries = 5;
 		int retries = 0;
 		while (true) {
@@ -872,7 +1162,7 @@ private static String copy(final String src, final int off, final int end) {
 		return new StringBuilder(end - off).append(src, off, end).toString();
 	}
 
-	private void commitPackedRefs(final LockFile lck, final RefList<Ref> refs,
+	void commitPackedRefs(final LockFile lck, final RefList<Ref> refs,
 			final PackedRefList oldPackedList) throws IOException {
 		new RefWriter(refs) {
 			@Override
@@ -1068,7 +1358,7 @@ static void delete(final File file, final int depth) throws IOException {
 		delete(file, depth, null);
 	}
 
-	private static void delete(final File file, final int depth, LockFile rLck)
+	static void delete(final File file, final int depth, LockFile rLck)
 			throws IOException {
 		if (!file.delete() && file.isFile()) {
 			throw new IOException(MessageFormat.format(
@@ -1087,7 +1377,7 @@ private static void delete(final File file, final int depth, LockFile rLck)
 		}
 	}
 
-	private static class PackedRefList extends RefList<Ref> {
+	static class PackedRefList extends RefList<Ref> {
 		static final PackedRefList NO_PACKED_REFS = new PackedRefList(
 				RefList.emptyList(), FileSnapshot.MISSING_FILE,
 				ObjectId.zeroId());
@@ -1103,13 +1393,53 @@ private static class PackedRefList extends RefList<Ref> {
 		}
 	}
 
+	/** Immutable view of all references, published for readers. */
+	private static final class PublishedRefs {
+		final RefList<Ref> packed;
+
+		/** Loose references, without broken symbolic references. */
+		final RefList<Ref> loose;
+
+		/** Resolved symbolic references. */
+		final RefList<Ref> symbolic;
+
+		/** Symbolic references whose target does not exist yet. */
+		final RefList<Ref> unborn;
+
+		PublishedRefs(RefList<Ref> packed, RefList<Ref> loose,
+				RefList<Ref> symbolic, RefList<Ref> unborn) {
+			this.packed = packed;
+			this.loose = loose;
+			this.symbolic = symbolic;
+			this.unborn = unborn;
+		}
+
+		boolean covers(String name) {
+			return name.equals(HEAD) || name.startsWith(R_REFS);
+		}
+
+		Ref get(String name) {
+			Ref r = symbolic.get(name);
+			if (r == null) {
+				r = unborn.get(name);
+			}
+			if (r == null) {
+				r = loose.get(name);
+			}
+			if (r == null) {
+				r = packed.get(name);
+			}
+			return r;
+		}
+	}
+
 	private static LooseSymbolicRef newSymbolicRef(FileSnapshot snapshot,
 			String name, String target) {
 		Ref dst = new ObjectIdRef.Unpeeled(NEW, target, null);
 		return new LooseSymbolicRef(snapshot, name, dst);
 	}
 
-	private static interface LooseRef extends Ref {
+	static interface LooseRef extends Ref {
 		FileSnapshot getSnapShot();
 
 		LooseRef peel(ObjectIdRef newLeaf);
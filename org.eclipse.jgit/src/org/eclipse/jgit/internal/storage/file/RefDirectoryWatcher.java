@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static org.eclipse.jgit.lib.Constants.HEAD;
+import static org.eclipse.jgit.lib.Constants.PACKED_REFS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refreshes the published references of a {@link RefDirectory} when the
+ * filesystem reports a change.
+ * <p>
+ * The repository directory is watched for {@code HEAD} and
+ * {@code packed-refs}, and every directory below {@code refs/} is watched for
+ * loose references. Lock files are ignored; the rename committing a lock is
+ * reported as a change of the reference itself. Events arriving while a
+ * refresh runs are coalesced into a single following refresh.
+ */
+class RefDirectoryWatcher implements Runnable {
+	private final static Logger LOG = LoggerFactory
+			.getLogger(RefDirectoryWatcher.class);
+
+	private final RefDirectory refdb;
+
+	private final Path gitDir;
+
+	private final WatchService service;
+
+	private final Map<WatchKey, Path> dirs = new HashMap<>();
+
+	RefDirectoryWatcher(RefDirectory refdb, File gitDir, File refsDir)
+			throws IOException {
+		this.refdb = refdb;
+		this.gitDir = gitDir.toPath();
+		service = this.gitDir.getFileSystem().newWatchService();
+		try {
+			register(this.gitDir);
+			registerTree(refsDir.toPath());
+		} catch (IOException e) {
+			service.close();
+			throw e;
+		}
+	}
+
+	private void register(Path dir) throws IOException {
+		WatchKey key = dir.register(service, ENTRY_CREATE, ENTRY_DELETE,
+				ENTRY_MODIFY);
+		dirs.put(key, dir);
+	}
+
+	private void registerTree(Path dir) throws IOException {
+		if (!Files.isDirectory(dir)) {
+			return;
+		}
+		register(dir);
+		File[] entries = dir.toFile().listFiles();
+		if (entries != null) {
+			for (File e : entries) {
+				if (e.isDirectory()) {
+					registerTree(e.toPath());
+				}
+			}
+		}
+	}
+
+	/** Stop watching; the thread running {@link #run()} exits. */
+	void close() {
+		try {
+			service.close();
+		} catch (IOException e) {
+			// Ignore close failures, nothing is watched anymore.
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			for (;;) {
+				boolean changed = process(service.take());
+				WatchKey key;
+				while ((key = service.poll()) != null) {
+					changed |= process(key);
+				}
+				if (changed) {
+					refresh();
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			close();
+		}
+	}
+
+	private boolean process(WatchKey key) {
+		Path dir = dirs.get(key);
+		boolean changed = false;
+		for (WatchEvent<?> e : key.pollEvents()) {
+			if (e.kind() == OVERFLOW) {
+				changed = true;
+				continue;
+			}
+			Path name = (Path) e.context();
+			String n = name.toString();
+			if (dir == null || n.endsWith(LockFile.SUFFIX)) {
+				continue;
+			}
+			if (dir.equals(gitDir)) {
+				changed |= n.equals(HEAD) || n.equals(PACKED_REFS);
+				continue;
+			}
+			changed = true;
+			if (e.kind() == ENTRY_CREATE) {
+				try {
+					registerTree(dir.resolve(name));
+				} catch (IOException err) {
+					// Directory vanished again; the next scan covers it.
+				}
+			}
+		}
+		if (!key.reset()) {
+			dirs.remove(key);
+		}
+		return changed;
+	}
+
+	private void refresh() {
+		try {
+			refdb.refreshSnapshot();
+		} catch (IOException e) {
+			LOG.error(MessageFormat.format(
+					JGitText.get().cannotRefreshPublishedRefs, gitDir), e);
+		}
+	}
+}
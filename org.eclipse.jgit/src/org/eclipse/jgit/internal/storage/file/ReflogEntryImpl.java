@@ -68,6 +68,14 @@ public class ReflogEntryImpl implements Serializable, ReflogEntry {
 
 	private String comment;
 
+	ReflogEntryImpl(ObjectId oldId, ObjectId newId, PersonIdent who,
+			String comment) {
+		this.oldId = oldId;
+		this.newId = newId;
+		this.who = who;
+		this.comment = comment;
+	}
+
 	ReflogEntryImpl(byte[] raw, int pos) {
 		oldId = ObjectId.fromString(raw, pos);
 		pos += Constants.OBJECT_ID_STRING_LENGTH;
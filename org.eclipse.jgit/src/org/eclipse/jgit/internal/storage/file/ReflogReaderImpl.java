@@ -43,9 +43,11 @@
 
 package org.eclipse.jgit.internal.storage.file;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -54,13 +56,17 @@
 import org.eclipse.jgit.lib.ReflogEntry;
 import org.eclipse.jgit.lib.ReflogReader;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.util.IO;
-import org.eclipse.jgit.util.RawParseUtils;
 
 /**
  * Utility for reading reflog entries
+ * <p>
+ * The log is read backwards from its end in fixed size blocks, so looking at
+ * the most recent entries costs the same regardless of how long the log has
+ * grown. Lookups by time binary search the file.
  */
 class ReflogReaderImpl implements ReflogReader {
+	private static final int BLOCK_SIZE = 8192;
+
 	private File logName;
 
 	/**
@@ -92,48 +98,178 @@ public ReflogEntry getReverseEntry(int number) throws IOException {
 		if (number < 0)
 			throw new IllegalArgumentException();
 
-		final byte[] log;
-		try {
-			log = IO.readFully(logName);
-		} catch (FileNotFoundException e) {
-			if (logName.exists()) {
-				throw e;
+		try (BlockFile log = open()) {
+			if (log == null)
+				return null;
+			long end = log.end;
+			for (int current = 0; end > 0; current++) {
+				long start = log.lineStartBefore(end);
+				if (number == current)
+					return parse(log.read(start, end));
+				end = start;
 			}
 			return null;
 		}
-
-		int rs = RawParseUtils.prevLF(log, log.length);
-		int current = 0;
-		while (rs >= 0) {
-			rs = RawParseUtils.prevLF(log, rs);
-			if (number == current)
-				return new ReflogEntryImpl(log, rs < 0 ? 0 : rs + 2);
-			current++;
-		}
-		return null;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.jgit.internal.storage.file.ReflogReaader#getReverseEntries(int)
 	 */
 	public List<ReflogEntry> getReverseEntries(int max) throws IOException {
-		final byte[] log;
+		try (BlockFile log = open()) {
+			if (log == null)
+				return Collections.emptyList();
+			List<ReflogEntry> ret = new ArrayList<ReflogEntry>();
+			long end = log.end;
+			while (end > 0 && max-- > 0) {
+				long start = log.lineStartBefore(end);
+				ret.add(parse(log.read(start, end)));
+				end = start;
+			}
+			return ret;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.jgit.lib.ReflogReader#getEntryAt(long)
+	 */
+	@Override
+	public ReflogEntry getEntryAt(long time) throws IOException {
+		try (BlockFile log = open()) {
+			if (log == null)
+				return null;
+
+			// Lines starting at or after hi are newer than time; lo is
+			// always the start of a line, and unless it is 0 that line
+			// is not newer than time.
+			long lo = 0;
+			long hi = log.end;
+			while (hi - lo > BLOCK_SIZE) {
+				long mid = lo + (hi - lo) / 2;
+				long start = log.lineStartAfter(mid);
+				if (start >= hi) {
+					hi = mid;
+					continue;
+				}
+				long end = log.lineStartAfter(start + 1);
+				if (timeOf(log.read(start, end)) <= time)
+					lo = start;
+				else
+					hi = start;
+			}
+
+			ReflogEntry found = null;
+			for (long start = lo; start < hi;) {
+				long end = log.lineStartAfter(start + 1);
+				ReflogEntry e = parse(log.read(start, end));
+				if (e.getWho().getWhen().getTime() > time)
+					break;
+				found = e;
+				start = end;
+			}
+			return found;
+		}
+	}
+
+	private BlockFile open() throws IOException {
 		try {
-			log = IO.readFully(logName);
+			return new BlockFile(new RandomAccessFile(logName, "r")); //$NON-NLS-1$
 		} catch (FileNotFoundException e) {
 			if (logName.exists()) {
 				throw e;
 			}
-			return Collections.emptyList();
+			return null;
+		}
+	}
+
+	private static long timeOf(byte[] line) {
+		return parse(line).getWho().getWhen().getTime();
+	}
+
+	private static ReflogEntry parse(byte[] line) {
+		return new ReflogEntryImpl(line, 0);
+	}
+
+	/** Random access to a log file through a single cached block. */
+	private static class BlockFile implements Closeable {
+		final RandomAccessFile file;
+
+		final long length;
+
+		/** End of the last complete line; an append may be in progress. */
+		final long end;
+
+		private final byte[] block = new byte[BLOCK_SIZE];
+
+		private long blockStart = -1;
+
+		private int blockLen;
+
+		BlockFile(RandomAccessFile file) throws IOException {
+			this.file = file;
+			this.length = file.length();
+			this.end = length > 0 ? lineStartBefore(length + 1) : 0;
+		}
+
+		/**
+		 * @param lineEnd
+		 *            position just past the end of a line.
+		 * @return position of the first byte of the line ending at
+		 *         {@code lineEnd}.
+		 * @throws IOException
+		 */
+		long lineStartBefore(long lineEnd) throws IOException {
+			for (long p = lineEnd - 2; p >= 0; p--) {
+				if (byteAt(p) == '\n')
+					return p + 1;
+			}
+			return 0;
+		}
+
+		/**
+		 * @param pos
+		 *            any position in the file.
+		 * @return position of the first line starting at or after
+		 *         {@code pos}, or the file length if there is none.
+		 * @throws IOException
+		 */
+		long lineStartAfter(long pos) throws IOException {
+			if (pos == 0)
+				return 0;
+			for (long p = pos - 1; p < length; p++) {
+				if (byteAt(p) == '\n')
+					return p + 1;
+			}
+			return length;
+		}
+
+		/**
+		 * @return bytes {@code [start, end)}, always terminated by a line
+		 *         feed.
+		 * @throws IOException
+		 */
+		byte[] read(long start, long end) throws IOException {
+			int n = (int) (end - start);
+			boolean lf = n > 0 && byteAt(end - 1) == '\n';
+			byte[] buf = new byte[lf ? n : n + 1];
+			file.seek(start);
+			file.readFully(buf, 0, n);
+			buf[buf.length - 1] = '\n';
+			return buf;
+		}
+
+		private int byteAt(long pos) throws IOException {
+			if (pos < blockStart || blockStart + blockLen <= pos) {
+				blockStart = pos - pos % BLOCK_SIZE;
+				blockLen = (int) Math.min(BLOCK_SIZE, length - blockStart);
+				file.seek(blockStart);
+				file.readFully(block, 0, blockLen);
+			}
+			return block[(int) (pos - blockStart)];
 		}
 
-		int rs = RawParseUtils.prevLF(log, log.length);
-		List<ReflogEntry> ret = new ArrayList<ReflogEntry>();
-		while (rs >= 0 && max-- > 0) {
-			rs = RawParseUtils.prevLF(log, rs);
-			ReflogEntry entry = new ReflogEntryImpl(log, rs < 0 ? 0 : rs + 2);
-			ret.add(entry);
+		public void close() throws IOException {
+			file.close();
 		}
-		return ret;
 	}
 }
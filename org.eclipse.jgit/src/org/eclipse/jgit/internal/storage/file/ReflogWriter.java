@@ -59,6 +59,7 @@
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.text.MessageFormat;
+import java.util.Map;
 
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.Constants;
@@ -177,6 +178,32 @@ public ReflogWriter log(final String refName, final ReflogEntry entry)
 				entry.getComment());
 	}
 
+	/**
+	 * Write entries to the logs of several references.
+	 * <p>
+	 * Equivalent to {@link #log(String, ReflogEntry)} for each entry, but the
+	 * repository configuration deciding which logs are written and whether
+	 * they are synced is read once for the whole batch.
+	 *
+	 * @param entries
+	 *            entries to append, keyed by reference name.
+	 * @return this writer
+	 * @throws IOException
+	 * @since 4.7
+	 */
+	public ReflogWriter log(Map<String, ? extends ReflogEntry> entries)
+			throws IOException {
+		WriteConfig wc = getRepository().getConfig().get(WriteConfig.KEY);
+		boolean logAll = isLogAllRefUpdates();
+		for (Map.Entry<String, ? extends ReflogEntry> e : entries.entrySet()) {
+			ReflogEntry entry = e.getValue();
+			byte[] rec = encode(entry.getOldId(), entry.getNewId(),
+					entry.getWho(), entry.getComment());
+			log(e.getKey(), rec, wc, logAll);
+		}
+		return this;
+	}
+
 	/**
 	 * Write the given entry information to the ref's log
 	 *
@@ -242,14 +269,20 @@ private byte[] encode(ObjectId oldId, ObjectId newId, PersonIdent ident,
 
 	private ReflogWriter log(final String refName, final byte[] rec)
 			throws IOException {
+		return log(refName, rec,
+				getRepository().getConfig().get(WriteConfig.KEY),
+				!forceWrite && isLogAllRefUpdates());
+	}
+
+	private ReflogWriter log(String refName, byte[] rec, WriteConfig wc,
+			boolean logAll) throws IOException {
 		final File log = logFor(refName);
 		final boolean write = forceWrite
-				|| (isLogAllRefUpdates() && shouldAutoCreateLog(refName))
+				|| (logAll && shouldAutoCreateLog(refName))
 				|| log.isFile();
 		if (!write)
 			return this;
 
-		WriteConfig wc = getRepository().getConfig().get(WriteConfig.KEY);
 		FileOutputStream out;
 		try {
 			out = new FileOutputStream(log, true);
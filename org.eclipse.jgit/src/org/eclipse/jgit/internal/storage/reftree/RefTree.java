@@ -74,6 +74,7 @@
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
@@ -142,13 +143,60 @@ public static RefTree read(ObjectReader reader, RevTree tree)
 		return new RefTree(DirCache.read(reader, tree));
 	}
 
+	/**
+	 * Load only the top level of a reference tree.
+	 * <p>
+	 * Subdirectories are read when a reference inside of them is accessed by
+	 * {@link #exactRef(ObjectReader, String)} or {@link #load(ObjectReader,
+	 * Collection)}. {@link #writeTree(ObjectInserter)} reuses the existing
+	 * tree of every subdirectory that was not loaded, so an update of a few
+	 * references formats only the trees along their paths.
+	 *
+	 * @param reader
+	 *            reader to scan the reference tree with.
+	 * @param tree
+	 *            the tree to read.
+	 * @return the ref tree read from the commit.
+	 * @throws IOException
+	 *             the repository cannot be accessed through the reader.
+	 */
+	static RefTree readSparse(ObjectReader reader, AnyObjectId tree)
+			throws IOException {
+		RefTree t = new RefTree(DirCache.readSparse(reader, tree));
+		t.sparse = true;
+		return t;
+	}
+
 	private DirCache contents;
 	private Map<ObjectId, String> pendingBlobs;
+	private boolean sparse;
 
 	private RefTree(DirCache dc) {
 		this.contents = dc;
 	}
 
+	/**
+	 * Load the directories holding the references named by commands.
+	 * <p>
+	 * Must be called before {@link #apply(Collection)} if this tree was
+	 * created by {@link #readSparse(ObjectReader, AnyObjectId)}.
+	 *
+	 * @param reader
+	 *            reader to scan the reference tree with.
+	 * @param cmdList
+	 *            commands which will be applied.
+	 * @throws IOException
+	 *             the repository cannot be accessed through the reader.
+	 */
+	void load(ObjectReader reader, Collection<Command> cmdList)
+			throws IOException {
+		if (sparse) {
+			for (Command cmd : cmdList) {
+				contents.expandSparse(reader, refPath(cmd.getRefName()));
+			}
+		}
+	}
+
 	/**
 	 * Read one reference.
 	 * <p>
@@ -187,6 +235,9 @@ public Ref exactRef(ObjectReader reader, String name) throws IOException {
 	}
 
 	private Ref readRef(ObjectReader reader, String name) throws IOException {
+		if (sparse) {
+			contents.expandSparse(reader, refPath(name));
+		}
 		DirCacheEntry e = contents.getEntry(refPath(name));
 		return e != null ? toRef(reader, e, name) : null;
 	}
@@ -402,6 +453,7 @@ public RefTree copy() {
 		if (pendingBlobs != null) {
 			r.pendingBlobs = new HashMap<>(pendingBlobs);
 		}
+		r.sparse = sparse;
 		return r;
 	}
 
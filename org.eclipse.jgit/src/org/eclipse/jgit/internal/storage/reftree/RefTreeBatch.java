@@ -118,7 +118,7 @@ void init(RevWalk rw) throws IOException {
 			RevCommit c = rw.parseCommit(src.getObjectId());
 			parentCommitId = c;
 			parentTreeId = c.getTree();
-			tree = RefTree.read(rw.getObjectReader(), c.getTree());
+			tree = RefTree.readSparse(rw.getObjectReader(), c.getTree());
 		} else {
 			parentCommitId = ObjectId.zeroId();
 			parentTreeId = new ObjectInserter.Formatter()
@@ -156,6 +156,7 @@ void execute(RevWalk rw, List<Command> todo) throws IOException {
 			}
 		}
 
+		tree.load(rw.getObjectReader(), todo);
 		if (apply(todo) && newCommitId != null) {
 			commit(rw, todo);
 		}
@@ -209,9 +209,11 @@ public Ref exactRef(String name) throws IOException {
 		boolean partial = false;
 		Ref src = bootstrap.exactRef(txnCommitted);
 		Scanner.Result c = refs;
-		if (c == null || !c.refTreeId.equals(idOf(src))) {
+		if (c == null) {
 			c = Scanner.scanRefTree(repo, src, prefixOf(name), false);
 			partial = true;
+		} else if (!c.refTreeId.equals(idOf(src))) {
+			c = update(c, src);
 		}
 
 		Ref r = c.all.get(name);
@@ -243,15 +245,31 @@ public Map<String, Ref> getRefs(String prefix) throws IOException {
 
 		Ref src = bootstrap.exactRef(txnCommitted);
 		Scanner.Result c = refs;
-		if (c == null || !c.refTreeId.equals(idOf(src))) {
+		if (c == null) {
 			c = Scanner.scanRefTree(repo, src, prefix, true);
 			if (prefix.isEmpty()) {
 				refs = c;
 			}
+		} else if (!c.refTreeId.equals(idOf(src))) {
+			c = update(c, src);
 		}
 		return new RefMap(prefix, RefList.<Ref> emptyList(), c.all, c.sym);
 	}
 
+	/**
+	 * Bring the cached references up to date with a new RefTree.
+	 * <p>
+	 * Once all references were scanned, later reads only parse the entries
+	 * that differ between the cached and the current RefTree, keeping the
+	 * cost of a read proportional to the number of modified references.
+	 */
+	private Scanner.Result update(Scanner.Result old, @Nullable Ref src)
+			throws IOException {
+		Scanner.Result c = Scanner.updateRefTree(repo, old, src);
+		refs = c;
+		return c;
+	}
+
 	private static ObjectId idOf(@Nullable Ref src) {
 		return src != null && src.getObjectId() != null
 				? src.getObjectId()
@@ -54,6 +54,8 @@
 import static org.eclipse.jgit.lib.RefDatabase.MAX_SYMBOLIC_REF_DEPTH;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
@@ -69,6 +71,7 @@
 import org.eclipse.jgit.treewalk.AbstractTreeIterator;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.jgit.util.Paths;
 import org.eclipse.jgit.util.RawParseUtils;
 import org.eclipse.jgit.util.RefList;
@@ -84,10 +87,19 @@ static class Result {
 		final RefList<Ref> all;
 		final RefList<Ref> sym;
 
-		Result(ObjectId id, RefList<Ref> all, RefList<Ref> sym) {
+		/**
+		 * Every reference of the tree with symbolic references unresolved;
+		 * null if the scan was limited to a prefix or a single level.
+		 */
+		@Nullable
+		final RefList<Ref> raw;
+
+		Result(ObjectId id, RefList<Ref> all, RefList<Ref> sym,
+				@Nullable RefList<Ref> raw) {
 			this.refTreeId = id;
 			this.all = all;
 			this.sym = sym;
+			this.raw = raw;
 		}
 	}
 
@@ -131,7 +143,132 @@ static Result scanRefTree(Repository repo, @Nullable Ref src, String prefix,
 			srcId = ObjectId.zeroId();
 		}
 
-		RefList<Ref> aList = all.toRefList();
+		RefList<Ref> raw = all.toRefList();
+		boolean complete = prefix.isEmpty() && recursive;
+		return resolve(srcId, raw, sym, complete ? raw : null);
+	}
+
+	/**
+	 * Update a previous full scan to a new {@link RefTree}.
+	 * <p>
+	 * Only the paths differing between both trees are parsed. Subtrees with
+	 * the same ObjectId in both trees are skipped without being read, making
+	 * the update proportional to the number of modified references instead
+	 * of the size of the tree.
+	 *
+	 * @param repo
+	 *            source repository containing the commit and tree objects that
+	 *            make up the RefTree.
+	 * @param old
+	 *            result of a prior scan, whose {@link Result#raw} is not null.
+	 * @param src
+	 *            bootstrap reference such as {@code refs/txn/committed} to read
+	 *            the new reference tree tip from.
+	 * @return sorted list of references after parsing.
+	 * @throws IOException
+	 *             tree cannot be accessed from the repository.
+	 */
+	static Result updateRefTree(Repository repo, Result old, @Nullable Ref src)
+			throws IOException {
+		if (old.raw == null || ObjectId.zeroId().equals(old.refTreeId)
+				|| src == null || src.getObjectId() == null) {
+			return scanRefTree(repo, src, "", true); //$NON-NLS-1$
+		}
+
+		ObjectId srcId = src.getObjectId();
+		Map<String, Change> changes = new TreeMap<>();
+		try (ObjectReader reader = repo.newObjectReader();
+				TreeWalk tw = new TreeWalk(reader)) {
+			tw.addTree(new CanonicalTreeParser(BINARY_R_REFS, reader,
+					toTree(reader, old.refTreeId)));
+			tw.addTree(new CanonicalTreeParser(BINARY_R_REFS, reader,
+					toTree(reader, srcId)));
+			tw.setRecursive(true);
+			tw.setFilter(TreeFilter.ANY_DIFF);
+			while (tw.next()) {
+				int mode = tw.getRawMode(1);
+				byte[] buf = tw.getRawPath();
+				boolean peel = hasPeelSuffix(buf, buf.length);
+				String name = refName(buf, buf.length, peel);
+				Change c = changes.get(name);
+				if (c == null) {
+					c = new Change();
+					changes.put(name, c);
+				}
+				if (peel) {
+					c.peelSet = true;
+					c.peeled = mode == TYPE_GITLINK ? tw.getObjectId(1) : null;
+				} else {
+					c.refSet = true;
+					c.ref = toRef(reader, mode, name, tw.getObjectId(1));
+				}
+			}
+		}
+
+		RefList<Ref> prior = old.raw;
+		RefList.Builder<Ref> all = new RefList.Builder<>(
+				prior.size() + changes.size());
+		int idx = 0;
+		for (Map.Entry<String, Change> e : changes.entrySet()) {
+			String name = e.getKey();
+			while (idx < prior.size()
+					&& prior.get(idx).getName().compareTo(name) < 0) {
+				all.add(prior.get(idx++));
+			}
+			Ref r = null;
+			if (idx < prior.size() && prior.get(idx).getName().equals(name)) {
+				r = prior.get(idx++);
+			}
+			r = e.getValue().apply(name, r);
+			if (r != null) {
+				all.add(r);
+			}
+		}
+		while (idx < prior.size()) {
+			all.add(prior.get(idx++));
+		}
+
+		RefList<Ref> raw = all.toRefList();
+		RefList.Builder<Ref> sym = new RefList.Builder<>();
+		for (Ref r : raw) {
+			if (r.isSymbolic()) {
+				sym.add(r);
+			}
+		}
+		return resolve(srcId, raw, sym, raw);
+	}
+
+	/** Modification of one reference between two trees. */
+	private static class Change {
+		boolean refSet;
+		Ref ref;
+		boolean peelSet;
+		ObjectId peeled;
+
+		@Nullable
+		Ref apply(String name, @Nullable Ref old) {
+			Ref r = refSet ? ref : old;
+			if (r == null || r.isSymbolic()) {
+				return r;
+			}
+			ObjectId p;
+			if (peelSet) {
+				p = peeled;
+			} else {
+				p = old != null ? old.getPeeledObjectId() : null;
+			}
+			if (p != null) {
+				return new ObjectIdRef.PeeledTag(PACKED, name,
+						r.getObjectId(), p);
+			}
+			return new ObjectIdRef.PeeledNonTag(PACKED, name, r.getObjectId());
+		}
+	}
+
+	private static Result resolve(ObjectId srcId, RefList<Ref> raw,
+			RefList.Builder<Ref> sym, @Nullable RefList<Ref> keepRaw)
+			throws IOException {
+		RefList<Ref> aList = raw;
 		for (int idx = 0; idx < sym.size();) {
 			Ref s = sym.get(idx);
 			Ref r = resolve(s, 0, aList);
@@ -146,7 +283,7 @@ static Result scanRefTree(Repository repo, @Nullable Ref src, String prefix,
 				}
 			}
 		}
-		return new Result(srcId, aList, sym.toRefList());
+		return new Result(srcId, aList, sym.toRefList(), keepRaw);
 	}
 
 	private static void scan(ObjectReader reader, AnyObjectId srcId,
@@ -228,8 +365,11 @@ private static RevTree toTree(ObjectReader reader, AnyObjectId id)
 	}
 
 	private static boolean curElementHasPeelSuffix(AbstractTreeIterator itr) {
-		int n = itr.getEntryPathLength();
-		byte[] c = itr.getEntryPathBuffer();
+		return hasPeelSuffix(itr.getEntryPathBuffer(),
+				itr.getEntryPathLength());
+	}
+
+	private static boolean hasPeelSuffix(byte[] c, int n) {
 		return n > 2 && c[n - 2] == ' ' && c[n - 1] == '^';
 	}
 
@@ -251,26 +391,33 @@ private static void peel(RefList.Builder<Ref> all, CanonicalTreeParser p) {
 
 	private static Ref toRef(ObjectReader reader, int mode,
 			CanonicalTreeParser p) throws IOException {
+		if (mode != TYPE_GITLINK && mode != TYPE_SYMLINK) {
+			return null;
+		}
+		return toRef(reader, mode, refName(p, false), p.getEntryObjectId());
+	}
+
+	@Nullable
+	private static Ref toRef(ObjectReader reader, int mode, String name,
+			ObjectId id) throws IOException {
 		if (mode == TYPE_GITLINK) {
-			String name = refName(p, false);
-			ObjectId id = p.getEntryObjectId();
 			return new ObjectIdRef.PeeledNonTag(PACKED, name, id);
 
 		} else if (mode == TYPE_SYMLINK) {
-			ObjectId id = p.getEntryObjectId();
 			byte[] bin = reader.open(id, OBJ_BLOB)
 					.getCachedBytes(MAX_SYMLINK_BYTES);
 			String dst = RawParseUtils.decode(bin);
 			Ref trg = new ObjectIdRef.Unpeeled(NEW, dst, null);
-			String name = refName(p, false);
 			return new SymbolicRef(name, trg);
 		}
 		return null;
 	}
 
 	private static String refName(CanonicalTreeParser p, boolean peel) {
-		byte[] buf = p.getEntryPathBuffer();
-		int len = p.getEntryPathLength();
+		return refName(p.getEntryPathBuffer(), p.getEntryPathLength(), peel);
+	}
+
+	private static String refName(byte[] buf, int len, boolean peel) {
 		if (peel) {
 			len -= 2;
 		}
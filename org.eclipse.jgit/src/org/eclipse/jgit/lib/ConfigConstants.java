@@ -113,6 +113,18 @@ public class ConfigConstants {
 	 */
 	public static final String CONFIG_FILTER_SECTION = "filter";
 
+	/**
+	 * The "index" section
+	 * @since 4.7
+	 */
+	public static final String CONFIG_INDEX_SECTION = "index";
+
+	/**
+	 * The "splitIndex" section
+	 * @since 4.7
+	 */
+	public static final String CONFIG_SPLIT_INDEX_SECTION = "splitIndex";
+
 	/** The "algorithm" key */
 	public static final String CONFIG_KEY_ALGORITHM = "algorithm";
 
@@ -290,6 +302,12 @@ public class ConfigConstants {
 	 */
 	public static final String CONFIG_KEY_PRUNEPACKEXPIRE = "prunepackexpire";
 
+	/**
+	 * The "reflogexpire" key
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_REFLOGEXPIRE = "reflogexpire";
+
 	/**
 	 * The "aggressiveDepth" key
 	 * @since 3.6
@@ -374,4 +392,40 @@ public class ConfigConstants {
 	 * @since 4.6
 	 */
 	public static final String CONFIG_KEY_USEJGITBUILTIN = "useJGitBuiltin";
+
+	/**
+	 * The "checkoutWorkers" key in the "core" section
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_CHECKOUT_WORKERS = "checkoutWorkers";
+
+	/**
+	 * The "version" key in the "index" section
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_VERSION = "version";
+
+	/**
+	 * The "splitIndex" key in the "core" section
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_SPLIT_INDEX = "splitIndex";
+
+	/**
+	 * The "maxPercentChange" key in the "splitIndex" section
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_MAX_PERCENT_CHANGE = "maxPercentChange";
+
+	/**
+	 * The "sparse" key in the "index" section
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_SPARSE = "sparse";
+
+	/**
+	 * The "memoryBudget" key in the "diff" section
+	 * @since 4.7
+	 */
+	public static final String CONFIG_KEY_MEMORY_BUDGET = "memoryBudget";
 }
@@ -144,6 +144,8 @@ public static enum CheckStat {
 
 	private final String attributesfile;
 
+	private final int checkoutWorkers;
+
 	/**
 	 * Options for symlink handling
 	 *
@@ -181,6 +183,8 @@ private CoreConfig(final Config rc) {
 				ConfigConstants.CONFIG_KEY_EXCLUDESFILE);
 		attributesfile = rc.getString(ConfigConstants.CONFIG_CORE_SECTION,
 				null, ConfigConstants.CONFIG_KEY_ATTRIBUTESFILE);
+		checkoutWorkers = rc.getInt(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_CHECKOUT_WORKERS, 1);
 	}
 
 	/**
@@ -218,4 +222,13 @@ public String getExcludesFile() {
 	public String getAttributesFile() {
 		return attributesfile;
 	}
+
+	/**
+	 * @return number of threads used to write files during checkout; 1 writes
+	 *         files serially, 0 uses the number of available processors.
+	 * @since 4.7
+	 */
+	public int getCheckoutWorkers() {
+		return checkoutWorkers;
+	}
 }
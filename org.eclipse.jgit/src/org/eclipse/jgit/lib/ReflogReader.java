@@ -86,4 +86,26 @@ public interface ReflogReader {
 	public abstract List<ReflogEntry> getReverseEntries(int max)
 			throws IOException;
 
+	/**
+	 * Get the entry which was current at the given time.
+	 * <p>
+	 * Entries are assumed to be appended in chronological order, which
+	 * permits implementations to locate the entry without reading the whole
+	 * log. The default implementation scans {@link #getReverseEntries()}.
+	 *
+	 * @param time
+	 *            time in milliseconds since the epoch
+	 * @return the newest entry recorded at or before {@code time}, or null if
+	 *         the log is empty or begins after {@code time}
+	 * @throws IOException
+	 * @since 4.7
+	 */
+	public default ReflogEntry getEntryAt(long time) throws IOException {
+		for (ReflogEntry e : getReverseEntries()) {
+			if (e.getWho().getWhen().getTime() <= time)
+				return e;
+		}
+		return null;
+	}
+
 }
\ No newline at end of file
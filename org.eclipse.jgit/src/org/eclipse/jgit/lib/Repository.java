@@ -56,8 +56,10 @@
 import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.text.MessageFormat;
+import java.text.ParseException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -93,6 +95,7 @@
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.util.FS;
 import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.GitDateParser;
 import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.RawParseUtils;
 import org.eclipse.jgit.util.SystemReader;
@@ -837,8 +840,7 @@ private RevCommit resolveReflog(RevWalk rw, Ref ref, String time)
 		try {
 			number = Integer.parseInt(time);
 		} catch (NumberFormatException nfe) {
-			throw new RevisionSyntaxException(MessageFormat.format(
-					JGitText.get().invalidReflogRevision, time));
+			return resolveReflogDate(rw, ref, time);
 		}
 		assert number >= 0;
 		ReflogReader reader = getReflogReader(ref.getName());
@@ -856,6 +858,27 @@ private RevCommit resolveReflog(RevWalk rw, Ref ref, String time)
 		return rw.parseCommit(entry.getNewId());
 	}
 
+	private RevCommit resolveReflogDate(RevWalk rw, Ref ref, String time)
+			throws IOException {
+		Date when;
+		try {
+			when = GitDateParser.parse(time, null,
+					SystemReader.getInstance().getLocale());
+		} catch (ParseException e) {
+			throw new RevisionSyntaxException(MessageFormat.format(
+					JGitText.get().invalidReflogRevision, time));
+		}
+		ReflogReader reader = getReflogReader(ref.getName());
+		ReflogEntry entry = reader != null
+				? reader.getEntryAt(when.getTime())
+				: null;
+		if (entry == null)
+			throw new RevisionSyntaxException(MessageFormat.format(
+					JGitText.get().reflogEntryNotFound, time, ref.getName()));
+
+		return rw.parseCommit(entry.getNewId());
+	}
+
 	@Nullable
 	private ObjectId resolveAbbreviation(final String revstr) throws IOException,
 			AmbiguousObjectException {
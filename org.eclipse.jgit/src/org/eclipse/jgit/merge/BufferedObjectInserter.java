@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.merge;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.util.IO;
+
+/**
+ * Inserter holding new objects in memory until it is flushed.
+ * <p>
+ * Readers created by this inserter see the buffered objects before the
+ * repository's objects. Nothing is written to the underlying inserter until
+ * {@link #flush()}; closing without flushing discards the buffered objects.
+ * Objects must fit into a byte array; inserting a larger object throws
+ * {@link LargeObjectException.ExceedsByteArrayLimit}.
+ */
+class BufferedObjectInserter extends ObjectInserter {
+	private final ObjectInserter dst;
+
+	private final Map<ObjectId, Entry> objects = new LinkedHashMap<ObjectId, Entry>();
+
+	BufferedObjectInserter(ObjectInserter dst) {
+		this.dst = dst;
+	}
+
+	@Override
+	public ObjectId insert(int type, byte[] data, int off, int len)
+			throws IOException {
+		ObjectId id = idFor(type, data, off, len);
+		if (!objects.containsKey(id)) {
+			byte[] buf = new byte[len];
+			System.arraycopy(data, off, buf, 0, len);
+			objects.put(id, new Entry(type, buf));
+		}
+		return id;
+	}
+
+	@Override
+	public ObjectId insert(int type, long len, InputStream in)
+			throws IOException {
+		if (Integer.MAX_VALUE < len)
+			throw new LargeObjectException.ExceedsByteArrayLimit();
+		byte[] buf = new byte[(int) len];
+		IO.readFully(in, buf, 0, buf.length);
+		return insert(type, buf, 0, buf.length);
+	}
+
+	@Override
+	public PackParser newPackParser(InputStream in) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public ObjectReader newReader() {
+		return new Reader(dst.newReader());
+	}
+
+	@Override
+	public void flush() throws IOException {
+		for (Map.Entry<ObjectId, Entry> e : objects.entrySet()) {
+			Entry obj = e.getValue();
+			dst.insert(obj.type, obj.data);
+		}
+		objects.clear();
+		dst.flush();
+	}
+
+	@Override
+	public void close() {
+		objects.clear();
+		dst.close();
+	}
+
+	private static class Entry {
+		final int type;
+
+		final byte[] data;
+
+		Entry(int type, byte[] data) {
+			this.type = type;
+			this.data = data;
+		}
+	}
+
+	private class Reader extends ObjectReader.Filter {
+		private final ObjectReader delegate;
+
+		Reader(ObjectReader delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		protected ObjectReader delegate() {
+			return delegate;
+		}
+
+		@Override
+		public ObjectReader newReader() {
+			return new Reader(delegate.newReader());
+		}
+
+		@Override
+		public boolean has(AnyObjectId id) throws IOException {
+			return objects.containsKey(id) || delegate.has(id);
+		}
+
+		@Override
+		public boolean has(AnyObjectId id, int typeHint) throws IOException {
+			return objects.containsKey(id) || delegate.has(id, typeHint);
+		}
+
+		@Override
+		public ObjectLoader open(AnyObjectId id) throws IOException {
+			return open(id, OBJ_ANY);
+		}
+
+		@Override
+		public ObjectLoader open(AnyObjectId id, int typeHint)
+				throws IOException {
+			Entry obj = objects.get(id);
+			if (obj == null)
+				return delegate.open(id, typeHint);
+			if (typeHint != OBJ_ANY && obj.type != typeHint)
+				throw new IncorrectObjectTypeException(id.copy(), typeHint);
+			return new ObjectLoader.SmallObject(obj.type, obj.data);
+		}
+
+		@Override
+		public long getObjectSize(AnyObjectId id, int typeHint)
+				throws MissingObjectException, IncorrectObjectTypeException,
+				IOException {
+			Entry obj = objects.get(id);
+			if (obj == null)
+				return delegate.getObjectSize(id, typeHint);
+			return obj.data.length;
+		}
+
+		@Override
+		public ObjectInserter getCreatedFromInserter() {
+			return BufferedObjectInserter.this;
+		}
+	}
+}
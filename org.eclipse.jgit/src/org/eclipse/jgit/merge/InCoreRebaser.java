@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.merge;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Replays commits onto a new base without a working tree or index.
+ * <p>
+ * Each commit is cherry-picked onto the result of the previous one with an
+ * in-core {@link ThreeWayMerger}, using the commit's first parent as merge
+ * base. New trees and commits are held in memory and written to the
+ * repository together once every commit was replayed; if a commit conflicts
+ * nothing is written. Updating a reference to the new head is left to the
+ * caller, e.g. with a {@link org.eclipse.jgit.lib.RefUpdate}.
+ * <p>
+ * Like {@code git rebase}, commits whose first parent already is the current
+ * head are kept unchanged, and commits that become empty are dropped (see
+ * {@link #setSkipEmpty(boolean)}).
+ * <p>
+ * Instances are not thread-safe, but may replay several lists of commits one
+ * after another.
+ *
+ * @since 4.7
+ */
+public class InCoreRebaser {
+	/** Outcome of {@link InCoreRebaser#rebase(AnyObjectId, List)}. */
+	public static class Result {
+		/** Status of a rebase. */
+		public static enum Status {
+			/** All commits were replayed and written to the repository. */
+			OK,
+
+			/** A commit could not be replayed. Nothing was written. */
+			CONFLICTS;
+		}
+
+		private final Status status;
+
+		private final ObjectId newHead;
+
+		private final Map<ObjectId, ObjectId> rewritten;
+
+		private final RevCommit conflictingCommit;
+
+		private final List<String> conflicts;
+
+		Result(ObjectId newHead, Map<ObjectId, ObjectId> rewritten) {
+			this.status = Status.OK;
+			this.newHead = newHead;
+			this.rewritten = Collections.unmodifiableMap(rewritten);
+			this.conflictingCommit = null;
+			this.conflicts = Collections.emptyList();
+		}
+
+		Result(RevCommit conflictingCommit, List<String> conflicts) {
+			this.status = Status.CONFLICTS;
+			this.newHead = null;
+			this.rewritten = Collections.emptyMap();
+			this.conflictingCommit = conflictingCommit;
+			this.conflicts = Collections.unmodifiableList(conflicts);
+		}
+
+		/** @return status of the rebase. */
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return the last replayed commit, or the new base if every commit
+		 *         was dropped. Null if the rebase conflicted.
+		 */
+		public ObjectId getNewHead() {
+			return newHead;
+		}
+
+		/**
+		 * @return map of each input commit to its replacement, in replay
+		 *         order. Commits that were dropped because they became empty
+		 *         map to null.
+		 */
+		public Map<ObjectId, ObjectId> getRewrittenCommits() {
+			return rewritten;
+		}
+
+		/** @return the commit that could not be replayed, or null. */
+		public RevCommit getConflictingCommit() {
+			return conflictingCommit;
+		}
+
+		/**
+		 * @return paths that could not be merged when replaying
+		 *         {@link #getConflictingCommit()}; empty if the rebase
+		 *         succeeded or the merge strategy does not report paths.
+		 */
+		public List<String> getConflicts() {
+			return conflicts;
+		}
+	}
+
+	private final Repository repo;
+
+	private ThreeWayMergeStrategy strategy = MergeStrategy.RECURSIVE;
+
+	private PersonIdent committer;
+
+	private boolean skipEmpty = true;
+
+	/**
+	 * Create a new rebaser.
+	 *
+	 * @param repo
+	 *            the repository to read commits from and write results to.
+	 */
+	public InCoreRebaser(Repository repo) {
+		this.repo = repo;
+	}
+
+	/**
+	 * @param strategy
+	 *            the strategy used to replay each commit. Defaults to
+	 *            {@link MergeStrategy#RECURSIVE}.
+	 * @return {@code this}
+	 */
+	public InCoreRebaser setMergeStrategy(ThreeWayMergeStrategy strategy) {
+		this.strategy = strategy;
+		return this;
+	}
+
+	/**
+	 * @param committer
+	 *            committer of the replayed commits. If null, the default
+	 *            identity of the repository at the start of each rebase is
+	 *            used.
+	 * @return {@code this}
+	 */
+	public InCoreRebaser setCommitter(PersonIdent committer) {
+		this.committer = committer;
+		return this;
+	}
+
+	/**
+	 * @param skip
+	 *            whether to drop commits whose changes are already present in
+	 *            the new base. Defaults to true.
+	 * @return {@code this}
+	 */
+	public InCoreRebaser setSkipEmpty(boolean skip) {
+		this.skipEmpty = skip;
+		return this;
+	}
+
+	/**
+	 * Replay commits onto a new base.
+	 *
+	 * @param onto
+	 *            the commit to replay onto.
+	 * @param commits
+	 *            the commits to replay, oldest first.
+	 * @return result of the rebase. On success all new objects have been
+	 *         written to the repository.
+	 * @throws IOException
+	 *             objects could not be read or written.
+	 */
+	public Result rebase(AnyObjectId onto, List<? extends AnyObjectId> commits)
+			throws IOException {
+		PersonIdent ident = committer != null ? committer
+				: new PersonIdent(repo);
+		Map<ObjectId, ObjectId> rewritten = new LinkedHashMap<ObjectId, ObjectId>();
+		try (ObjectInserter ins = new BufferedObjectInserter(
+				repo.newObjectInserter());
+				ObjectReader reader = ins.newReader();
+				RevWalk rw = new RevWalk(reader)) {
+			RevCommit head = rw.parseCommit(onto);
+			for (AnyObjectId id : commits) {
+				RevCommit c = rw.parseCommit(id);
+				RevCommit parent = c.getParentCount() > 0 ? c.getParent(0)
+						: null;
+				if (parent != null && parent.equals(head)) {
+					rewritten.put(c.copy(), c.copy());
+					head = c;
+					continue;
+				}
+
+				ThreeWayMerger merger = strategy.newMerger(repo, true);
+				merger.setObjectInserter(ins);
+				if (parent != null)
+					merger.setBase(rw.parseCommit(parent).getTree());
+				else
+					merger.setBase(ins.insert(new TreeFormatter()));
+				if (merger instanceof ResolveMerger)
+					((ResolveMerger) merger).setCommitNames(new String[] {
+							"BASE", "HEAD", c.name() }); //$NON-NLS-1$ //$NON-NLS-2$
+				if (!merger.merge(false, head, c))
+					return new Result(c, conflicts(merger));
+
+				ObjectId tree = merger.getResultTreeId();
+				if (skipEmpty && tree.equals(head.getTree())) {
+					rewritten.put(c.copy(), null);
+					continue;
+				}
+
+				CommitBuilder cb = new CommitBuilder();
+				cb.setTreeId(tree);
+				cb.setParentId(head);
+				cb.setAuthor(c.getAuthorIdent());
+				cb.setCommitter(ident);
+				cb.setEncoding(c.getEncoding());
+				cb.setMessage(c.getFullMessage());
+				head = rw.parseCommit(ins.insert(cb));
+				rewritten.put(c.copy(), head.copy());
+			}
+			ins.flush();
+			return new Result(head.copy(), rewritten);
+		}
+	}
+
+	private static List<String> conflicts(ThreeWayMerger merger) {
+		List<String> paths = new ArrayList<String>();
+		if (merger instanceof ResolveMerger) {
+			ResolveMerger rm = (ResolveMerger) merger;
+			paths.addAll(rm.getUnmergedPaths());
+			if (rm.getFailingPaths() != null)
+				paths.addAll(rm.getFailingPaths().keySet());
+		}
+		return paths;
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.merge;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Cache of the virtual merge bases synthesized by {@link RecursiveMerger}.
+ * <p>
+ * When two commits have more than one merge base the recursive merger merges
+ * the bases together into a virtual base. The tree of that virtual base
+ * depends only on the set of bases, so repeated merges of related branches
+ * (e.g. a server merging many changes into the same criss-crossed history)
+ * can reuse it instead of merging the bases again.
+ * <p>
+ * Entries are keyed by the sorted set of base commit ids and hold the id of
+ * the synthesized tree. A cache may be shared by any number of mergers of the
+ * same repository, as long as they are configured alike. It is safe for
+ * concurrent use. The trees are not kept alive by the cache; a merger that
+ * finds a cached tree no longer in the repository computes it again.
+ *
+ * @since 4.7
+ */
+public class MergeBaseCache {
+	private final int limit;
+
+	private final Map<Key, ObjectId> map;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Create a new cache.
+	 *
+	 * @param limit
+	 *            maximum number of virtual merge bases to remember. The least
+	 *            recently used entry is discarded when the limit is exceeded.
+	 */
+	public MergeBaseCache(int limit) {
+		this.limit = limit;
+		this.map = new LinkedHashMap<Key, ObjectId>(16, 0.75f, true);
+	}
+
+	/**
+	 * Look up the virtual merge base of a set of commits.
+	 * <p>
+	 * A lookup that finds nothing is counted as a miss. Callers that discover
+	 * the returned tree is unusable should count it with {@link #remove}.
+	 *
+	 * @param bases
+	 *            the merge bases, in any order.
+	 * @return id of the tree merging {@code bases}, or null if not cached.
+	 */
+	public ObjectId get(List<? extends AnyObjectId> bases) {
+		ObjectId tree;
+		synchronized (map) {
+			tree = map.get(new Key(bases));
+		}
+		if (tree != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return tree;
+	}
+
+	/**
+	 * Remember the virtual merge base of a set of commits.
+	 *
+	 * @param bases
+	 *            the merge bases, in any order.
+	 * @param tree
+	 *            id of the tree merging {@code bases}.
+	 */
+	public void put(List<? extends AnyObjectId> bases, AnyObjectId tree) {
+		Key key = new Key(bases);
+		synchronized (map) {
+			map.put(key, tree.copy());
+			Iterator<Key> i = map.keySet().iterator();
+			while (map.size() > limit && i.hasNext()) {
+				i.next();
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Forget the virtual merge base of a set of commits.
+	 * <p>
+	 * The last lookup of {@code bases} is counted as a miss instead of a hit.
+	 *
+	 * @param bases
+	 *            the merge bases, in any order.
+	 */
+	public void remove(List<? extends AnyObjectId> bases) {
+		synchronized (map) {
+			map.remove(new Key(bases));
+		}
+		hits.decrementAndGet();
+		misses.incrementAndGet();
+	}
+
+	/** @return number of virtual merge bases currently cached. */
+	public int size() {
+		synchronized (map) {
+			return map.size();
+		}
+	}
+
+	/** @return number of lookups that found a virtual merge base. */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** @return number of lookups that had to merge the bases. */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/** Discard all cached merge bases. */
+	public void clear() {
+		synchronized (map) {
+			map.clear();
+		}
+	}
+
+	private static final class Key {
+		private final ObjectId[] ids;
+
+		private final int hash;
+
+		Key(List<? extends AnyObjectId> bases) {
+			ids = new ObjectId[bases.size()];
+			for (int i = 0; i < ids.length; i++)
+				ids[i] = bases.get(i).copy();
+			Arrays.sort(ids);
+			hash = Arrays.hashCode(ids);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(ids, ((Key) o).ids);
+		}
+	}
+}
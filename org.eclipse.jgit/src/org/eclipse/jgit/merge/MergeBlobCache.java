@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.merge;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+
+/**
+ * Bounded cache of file contents used by content merges.
+ * <p>
+ * Merges of many changes onto the same branch repeatedly read the same base
+ * and target blobs. Sharing one cache between those merges avoids inflating
+ * and splitting the blobs into lines each time. Least recently used entries
+ * are evicted once the total size of the cached contents exceeds the limit.
+ * <p>
+ * The cache is safe for concurrent use by multiple threads.
+ *
+ * @since 4.7
+ */
+public class MergeBlobCache {
+	private final long limit;
+
+	private final Map<ObjectId, Entry> map;
+
+	private long size;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Create a new cache.
+	 *
+	 * @param limit
+	 *            maximum number of bytes of content to hold. Blobs larger than
+	 *            this are never cached.
+	 */
+	public MergeBlobCache(long limit) {
+		this.limit = limit;
+		this.map = new LinkedHashMap<ObjectId, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Get the content of a blob, loading it on a miss.
+	 *
+	 * @param reader
+	 *            reader to load the blob with if it is not cached. Only used
+	 *            by the calling thread.
+	 * @param id
+	 *            the blob to get.
+	 * @return content of the blob.
+	 * @throws IOException
+	 *             the blob cannot be read.
+	 */
+	public RawText get(ObjectReader reader, AnyObjectId id)
+			throws IOException {
+		Entry e;
+		synchronized (map) {
+			e = map.get(id);
+		}
+		if (e != null) {
+			hits.incrementAndGet();
+			return e.text;
+		}
+
+		misses.incrementAndGet();
+		byte[] raw = reader.open(id, OBJ_BLOB).getCachedBytes();
+		e = new Entry(new RawText(raw), raw.length);
+		if (e.length <= limit) {
+			synchronized (map) {
+				Entry old = map.put(id.copy(), e);
+				if (old != null)
+					size -= old.length;
+				size += e.length;
+				evict();
+			}
+		}
+		return e.text;
+	}
+
+	private void evict() {
+		Iterator<Entry> i = map.values().iterator();
+		while (limit < size && i.hasNext()) {
+			size -= i.next().length;
+			i.remove();
+		}
+	}
+
+	/** @return number of bytes of content currently held. */
+	public long getSize() {
+		synchronized (map) {
+			return size;
+		}
+	}
+
+	/** @return number of lookups answered from the cache. */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** @return number of lookups that had to load the blob. */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/** Discard all cached content. */
+	public void clear() {
+		synchronized (map) {
+			map.clear();
+			size = 0;
+		}
+	}
+
+	private static class Entry {
+		final RawText text;
+
+		final int length;
+
+		Entry(RawText text, int length) {
+			this.text = text;
+			this.length = length;
+		}
+	}
+}
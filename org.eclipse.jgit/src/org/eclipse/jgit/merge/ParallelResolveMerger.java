@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.merge;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * An in-core {@link ResolveMerger} that runs content merges in parallel.
+ * <p>
+ * Intended for servers merging many changes without a working tree. Before
+ * the trees are merged, the paths that need a content merge are located and
+ * those merges are started on an {@link ExecutorService}. The tree walk then
+ * proceeds exactly as in {@link ResolveMerger}, taking each content merge
+ * result from the background task when it is ready. Results are therefore
+ * identical to those of an in-core {@link ResolveMerger}.
+ * <p>
+ * File contents can be shared between merges through a
+ * {@link MergeBlobCache}. Timings of the most recent merge are available
+ * through the {@code getTime*} methods.
+ *
+ * @since 4.7
+ */
+public class ParallelResolveMerger extends ResolveMerger {
+	private final ExecutorService executor;
+
+	private final MergeBlobCache cache;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/** Background content merges of the current merge, keyed by path. */
+	private Map<String, ContentMerge> scheduled;
+
+	private List<Worker> workers;
+
+	private volatile boolean cancelled;
+
+	private long timeTotal;
+
+	private long timeScanning;
+
+	private final AtomicLong timeContentMerging = new AtomicLong();
+
+	private final AtomicLong contentMerges = new AtomicLong();
+
+	private int parallelContentMerges;
+
+	/**
+	 * Create a new merger.
+	 *
+	 * @param local
+	 *            the repository this merger will read and write data on.
+	 * @param executor
+	 *            executor to run content merges on.
+	 * @param cache
+	 *            cache of file contents, may be shared by several mergers. If
+	 *            null contents are not cached.
+	 */
+	public ParallelResolveMerger(Repository local, ExecutorService executor,
+			MergeBlobCache cache) {
+		super(local, true);
+		this.executor = executor;
+		this.cache = cache;
+	}
+
+	/**
+	 * Set the number of tasks content merges are split across.
+	 *
+	 * @param threads
+	 *            maximum number of tasks to submit to the executor for one
+	 *            merge. Defaults to the number of available processors. With
+	 *            1 or less content merges run on the calling thread.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	@Override
+	protected boolean mergeImpl() throws IOException {
+		long start = System.nanoTime();
+		timeScanning = 0;
+		timeContentMerging.set(0);
+		contentMerges.set(0);
+		parallelContentMerges = 0;
+		try {
+			return super.mergeImpl();
+		} finally {
+			cancel();
+			timeTotal = System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	protected boolean mergeTrees(AbstractTreeIterator baseTree,
+			RevTree headTree, RevTree mergeTree, boolean ignoreConflicts)
+			throws IOException {
+		// Scan the base the caller computed, then rewind it for the merge.
+		schedule(baseTree, headTree, mergeTree);
+		baseTree.reset();
+		return super.mergeTrees(baseTree, headTree, mergeTree,
+				ignoreConflicts);
+	}
+
+	private void schedule(AbstractTreeIterator base, RevTree head,
+			RevTree merge) throws IOException {
+		long start = System.nanoTime();
+		scheduled = new HashMap<String, ContentMerge>();
+		List<ContentMerge> todo = new ArrayList<ContentMerge>();
+		try (TreeWalk w = new TreeWalk(reader)) {
+			w.addTree(base);
+			w.addTree(head);
+			w.addTree(merge);
+			w.setRecursive(true);
+			w.setFilter(TreeFilter.ANY_DIFF);
+			while (w.next()) {
+				// Predict the paths processEntry will content merge. A
+				// wrong guess only costs time; the merge of a path not
+				// found here is done when the tree walk reaches it.
+				//
+				int modeB = w.getRawMode(T_BASE);
+				int modeO = w.getRawMode(T_OURS);
+				int modeT = w.getRawMode(T_THEIRS);
+				if (!isFile(modeO) || !isFile(modeT)
+						|| (modeB != 0 && !isFile(modeB))
+						|| w.idEqual(T_OURS, T_THEIRS)
+						|| (modeB == modeO && w.idEqual(T_BASE, T_OURS))
+						|| (modeB == modeT && w.idEqual(T_BASE, T_THEIRS)))
+					continue;
+				ContentMerge m = new ContentMerge(
+						modeB != 0 ? w.getObjectId(T_BASE) : null,
+						w.getObjectId(T_OURS), w.getObjectId(T_THEIRS));
+				scheduled.put(w.getPathString(), m);
+				todo.add(m);
+			}
+		}
+		timeScanning = System.nanoTime() - start;
+
+		int n = Math.min(threads, todo.size());
+		if (n < 2)
+			return;
+		parallelContentMerges = todo.size();
+		cancelled = false;
+		workers = new ArrayList<Worker>(n);
+		for (int i = 0; i < n; i++) {
+			// Interleave paths across the workers, so the merges the
+			// tree walk needs first are among the first to complete.
+			//
+			List<ContentMerge> batch = new ArrayList<ContentMerge>();
+			for (int j = i; j < todo.size(); j += n)
+				batch.add(todo.get(j));
+			Worker worker = new Worker(batch);
+			workers.add(worker);
+			worker.future = executor.submit(worker);
+		}
+	}
+
+	private void cancel() throws IOException {
+		cancelled = true;
+		scheduled = null;
+		if (workers == null)
+			return;
+		try {
+			for (Worker worker : workers) {
+				// A worker still queued, e.g. because this merger occupies
+				// a thread of the same executor, must not be waited for.
+				if (!worker.started.compareAndSet(false, true))
+					worker.future.get();
+				else
+					worker.future.cancel(false);
+			}
+		} catch (ExecutionException failed) {
+			// Not possible, workers catch the failures of content merges.
+		} catch (InterruptedException e) {
+			for (Worker worker : workers)
+				worker.future.cancel(true);
+			throw new IOException(JGitText.get().contentMergeInterrupted, e);
+		} finally {
+			workers = null;
+		}
+	}
+
+	@Override
+	protected MergeResult<RawText> contentMerge(CanonicalTreeParser base,
+			CanonicalTreeParser ours, CanonicalTreeParser theirs)
+			throws IOException {
+		ObjectId baseId = base != null ? base.getEntryObjectId() : null;
+		ObjectId oursId = ours != null ? ours.getEntryObjectId() : null;
+		ObjectId theirsId = theirs != null ? theirs.getEntryObjectId() : null;
+
+		ContentMerge m = scheduled != null
+				? scheduled.get(tw.getPathString())
+				: null;
+		if (m != null && workers != null
+				&& m.matches(baseId, oursId, theirsId)
+				&& !m.claimed.compareAndSet(false, true)) {
+			// A running worker claimed the merge, so waiting for it cannot
+			// deadlock. Unclaimed merges are done below on this thread.
+			try {
+				return m.task.get();
+			} catch (ExecutionException failed) {
+				// The worker may not see objects only visible through
+				// this merger's reader. Merge again on this thread.
+			} catch (InterruptedException e) {
+				throw new IOException(JGitText.get().contentMergeInterrupted,
+						e);
+			}
+		}
+		return merge(reader, baseId, oursId, theirsId);
+	}
+
+	private MergeResult<RawText> merge(ObjectReader or, ObjectId baseId,
+			ObjectId oursId, ObjectId theirsId) throws IOException {
+		long start = System.nanoTime();
+		try {
+			return mergeAlgorithm.merge(RawTextComparator.DEFAULT,
+					open(or, baseId), open(or, oursId), open(or, theirsId));
+		} finally {
+			contentMerges.incrementAndGet();
+			timeContentMerging.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	private RawText open(ObjectReader or, ObjectId id) throws IOException {
+		if (id == null)
+			return RawText.EMPTY_TEXT;
+		if (id.equals(ObjectId.zeroId()))
+			return new RawText(new byte[] {});
+		if (cache != null)
+			return cache.get(or, id);
+		return new RawText(or.open(id, OBJ_BLOB).getCachedBytes());
+	}
+
+	private static boolean isFile(int mode) {
+		return mode != 0 && !FileMode.TREE.equals(mode)
+				&& !FileMode.GITLINK.equals(mode);
+	}
+
+	/** @return total time spent in the last merge, in milliseconds. */
+	public long getTimeTotal() {
+		return toMillis(timeTotal);
+	}
+
+	/**
+	 * @return time spent in the last merge locating paths that need a
+	 *         content merge, in milliseconds.
+	 */
+	public long getTimeScanning() {
+		return toMillis(timeScanning);
+	}
+
+	/**
+	 * @return time spent in the last merge on content merges, summed over
+	 *         all threads, in milliseconds.
+	 */
+	public long getTimeContentMerging() {
+		return toMillis(timeContentMerging.get());
+	}
+
+	/**
+	 * @return number of content merges performed by the last merge,
+	 *         including those repeated on the calling thread.
+	 */
+	public long getContentMergeCount() {
+		return contentMerges.get();
+	}
+
+	/**
+	 * @return number of content merges the last merge started in the
+	 *         background.
+	 */
+	public int getParallelContentMergeCount() {
+		return parallelContentMerges;
+	}
+
+	private static long toMillis(long nanos) {
+		return nanos / 1000000;
+	}
+
+	private class ContentMerge implements Callable<MergeResult<RawText>> {
+		final ObjectId baseId;
+
+		final ObjectId oursId;
+
+		final ObjectId theirsId;
+
+		final FutureTask<MergeResult<RawText>> task;
+
+		/** Set by the thread which runs this merge. */
+		final AtomicBoolean claimed = new AtomicBoolean();
+
+		/** Reader of the worker running this merge. */
+		ObjectReader workerReader;
+
+		ContentMerge(ObjectId baseId, ObjectId oursId, ObjectId theirsId) {
+			this.baseId = baseId;
+			this.oursId = oursId;
+			this.theirsId = theirsId;
+			this.task = new FutureTask<MergeResult<RawText>>(this);
+		}
+
+		boolean matches(ObjectId b, ObjectId o, ObjectId t) {
+			return equals(baseId, b) && equals(oursId, o)
+					&& equals(theirsId, t);
+		}
+
+		private boolean equals(ObjectId a, ObjectId b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+		@Override
+		public MergeResult<RawText> call() throws IOException {
+			return merge(workerReader, baseId, oursId, theirsId);
+		}
+	}
+
+	private class Worker implements Callable<Void> {
+		private final List<ContentMerge> batch;
+
+		/** Set when the worker starts, or by {@link #cancel()} to skip it. */
+		final AtomicBoolean started = new AtomicBoolean();
+
+		Future<Void> future;
+
+		Worker(List<ContentMerge> batch) {
+			this.batch = batch;
+		}
+
+		@Override
+		public Void call() {
+			if (!started.compareAndSet(false, true))
+				return null;
+			try (ObjectReader or = reader.newReader()) {
+				for (ContentMerge m : batch) {
+					if (cancelled)
+						break;
+					if (m.claimed.compareAndSet(false, true)) {
+						m.workerReader = or;
+						m.task.run();
+					}
+				}
+			}
+			return null;
+		}
+	}
+}
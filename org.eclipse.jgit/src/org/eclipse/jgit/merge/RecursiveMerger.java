@@ -61,6 +61,7 @@
 import org.eclipse.jgit.errors.NoMergeBaseException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
@@ -90,6 +91,8 @@ public class RecursiveMerger extends ResolveMerger {
 	 */
 	public final int MAX_BASES = 200;
 
+	private MergeBaseCache mergeBaseCache;
+
 	/**
 	 * Normal recursive merge when you want a choice of DirCache placement
 	 * inCore
@@ -110,6 +113,30 @@ protected RecursiveMerger(Repository local) {
 		this(local, false);
 	}
 
+	/**
+	 * Set the cache of virtual merge bases.
+	 * <p>
+	 * A cache may be shared by several mergers of the same repository to
+	 * avoid merging the same set of merge bases again in a criss-cross
+	 * history.
+	 *
+	 * @param cache
+	 *            the cache to consult and update, or null to always merge the
+	 *            merge bases.
+	 * @since 4.7
+	 */
+	public void setMergeBaseCache(MergeBaseCache cache) {
+		mergeBaseCache = cache;
+	}
+
+	/**
+	 * @return the cache of virtual merge bases, or null if not set.
+	 * @since 4.7
+	 */
+	public MergeBaseCache getMergeBaseCache() {
+		return mergeBaseCache;
+	}
+
 	/**
 	 * Get a single base commit for two given commits. If the two source commits
 	 * have more than one base commit recursively merge the base commits
@@ -166,6 +193,15 @@ protected RevCommit getBaseCommit(RevCommit a, RevCommit b, int callDepth)
 					Integer.valueOf(MAX_BASES), a.name(), b.name(),
 							Integer.valueOf(baseCommits.size())));
 
+		if (mergeBaseCache != null) {
+			ObjectId tree = mergeBaseCache.get(baseCommits);
+			if (tree != null) {
+				if (reader.has(tree, Constants.OBJ_TREE))
+					return createCommitForTree(tree, baseCommits);
+				mergeBaseCache.remove(baseCommits);
+			}
+		}
+
 		// We know we have more than one base commit. We have to do merges now
 		// to determine a single base commit. We don't want to spoil the current
 		// dircache and working tree with the results of this intermediate
@@ -218,6 +254,8 @@ protected RevCommit getBaseCommit(RevCommit a, RevCommit b, int callDepth)
 			mergeResults.clear();
 			failingPaths.clear();
 		}
+		if (mergeBaseCache != null)
+			mergeBaseCache.put(baseCommits, currentBase.getTree());
 		return currentBase;
 	}
 
@@ -659,8 +659,9 @@ protected boolean processEntry(CanonicalTreeParser base,
 	 *
 	 * @return the result of the content merge
 	 * @throws IOException
+	 * @since 4.7
 	 */
-	private MergeResult<RawText> contentMerge(CanonicalTreeParser base,
+	protected MergeResult<RawText> contentMerge(CanonicalTreeParser base,
 			CanonicalTreeParser ours, CanonicalTreeParser theirs)
 			throws IOException {
 		RawText baseText = base == null ? RawText.EMPTY_TEXT : getRawText(
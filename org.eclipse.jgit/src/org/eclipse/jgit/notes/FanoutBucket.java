@@ -105,6 +105,7 @@ void setBucket(int cell, ObjectId id) {
 	}
 
 	void setBucket(int cell, InMemoryNoteBucket bucket) {
+		modified();
 		table[cell] = bucket;
 		cnt++;
 	}
@@ -214,12 +215,14 @@ InMemoryNoteBucket set(AnyObjectId noteOn, AnyObjectId noteData,
 			if (noteData == null)
 				return this;
 
+			modified();
 			LeafBucket n = new LeafBucket(prefixLen + 2);
 			table[cell] = n.set(noteOn, noteData, or);
 			cnt++;
 			return this;
 
 		} else {
+			modified();
 			NoteBucket n = b.set(noteOn, noteData, or);
 			if (n == null) {
 				table[cell] = null;
@@ -237,6 +240,42 @@ InMemoryNoteBucket set(AnyObjectId noteOn, AnyObjectId noteData,
 		}
 	}
 
+	@Override
+	InMemoryNoteBucket apply(Note[] edits, int from, int to, ObjectReader or)
+			throws IOException {
+		modified();
+		boolean removed = false;
+		while (from < to) {
+			// Edits are sorted, so all edits of one cell are adjacent.
+			int cell = cell(edits[from]);
+			int end = from + 1;
+			while (end < to && cell(edits[end]) == cell)
+				end++;
+			for (int i = from; i < end; i++)
+				removed |= edits[i].getData() == null;
+
+			NoteBucket b = table[cell];
+			InMemoryNoteBucket n;
+			if (b == null) {
+				n = new LeafBucket(prefixLen + 2).apply(edits, from, end, or);
+				if (n != null)
+					cnt++;
+			} else {
+				n = b.apply(edits, from, end, or);
+				if (n == null)
+					cnt--;
+			}
+			table[cell] = n;
+			from = end;
+		}
+
+		if (cnt == 0)
+			return null;
+		if (removed)
+			return contractIfTooSmall(edits[to - 1], or);
+		return this;
+	}
+
 	InMemoryNoteBucket contractIfTooSmall(AnyObjectId noteOn, ObjectReader or)
 			throws IOException {
 		if (estimateSize(noteOn, or) < LeafBucket.MAX_SIZE) {
@@ -256,10 +295,14 @@ InMemoryNoteBucket contractIfTooSmall(AnyObjectId noteOn, ObjectReader or)
 
 	@Override
 	ObjectId writeTree(ObjectInserter inserter) throws IOException {
+		if (treeId != null)
+			return treeId;
 		return inserter.insert(build(true, inserter));
 	}
 
 	ObjectId getTreeId() {
+		if (treeId != null)
+			return treeId;
 		try (ObjectInserter.Formatter f = new ObjectInserter.Formatter()) {
 			return f.idFor(build(false, null));
 		} catch (IOException e) {
@@ -310,6 +353,7 @@ private int treeSize() {
 
 	@Override
 	InMemoryNoteBucket append(Note note) {
+		modified();
 		int cell = cell(note);
 		InMemoryNoteBucket b = (InMemoryNoteBucket) table[cell];
 
@@ -359,6 +403,12 @@ InMemoryNoteBucket set(AnyObjectId noteOn, AnyObjectId noteData,
 			return load(noteOn, or).set(noteOn, noteData, or);
 		}
 
+		@Override
+		InMemoryNoteBucket apply(Note[] edits, int from, int to,
+				ObjectReader or) throws IOException {
+			return load(edits[from], or).apply(edits, from, to, or);
+		}
+
 		@Override
 		ObjectId writeTree(ObjectInserter inserter) {
 			return treeId;
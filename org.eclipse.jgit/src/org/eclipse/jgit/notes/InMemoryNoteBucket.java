@@ -43,6 +43,8 @@
 
 package org.eclipse.jgit.notes;
 
+import org.eclipse.jgit.lib.ObjectId;
+
 /** A note bucket that has been loaded into the process. */
 abstract class InMemoryNoteBucket extends NoteBucket {
 	/**
@@ -65,9 +67,23 @@ abstract class InMemoryNoteBucket extends NoteBucket {
 	 */
 	NonNoteEntry nonNotes;
 
+	/**
+	 * Id of the tree this bucket was parsed from, or null.
+	 *
+	 * Set by {@link NoteParser} and cleared by {@link #modified()}, allowing
+	 * a bucket that was loaded but not changed to be written without
+	 * formatting its tree again.
+	 */
+	ObjectId treeId;
+
 	InMemoryNoteBucket(int prefixLen) {
 		this.prefixLen = prefixLen;
 	}
 
 	abstract InMemoryNoteBucket append(Note note);
+
+	/** Mark the bucket as differing from the tree it was parsed from. */
+	void modified() {
+		treeId = null;
+	}
 }
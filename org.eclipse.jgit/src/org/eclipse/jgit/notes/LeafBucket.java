@@ -148,8 +148,9 @@ InMemoryNoteBucket set(AnyObjectId noteOn, AnyObjectId noteData,
 			ObjectReader or) throws IOException {
 		int p = search(noteOn);
 		if (0 <= p) {
+			modified();
 			if (noteData != null) {
-				notes[p].setData(noteData.copy());
+				notes[p] = new Note(noteOn, noteData.copy());
 				return this;
 
 			} else {
@@ -163,6 +164,7 @@ InMemoryNoteBucket set(AnyObjectId noteOn, AnyObjectId noteData,
 				return split().set(noteOn, noteData, or);
 
 			} else {
+				modified();
 				growIfFull();
 				p = -(p + 1);
 				if (p < cnt)
@@ -177,13 +179,55 @@ InMemoryNoteBucket set(AnyObjectId noteOn, AnyObjectId noteData,
 		}
 	}
 
+	@Override
+	InMemoryNoteBucket apply(Note[] edits, int from, int to, ObjectReader or) {
+		// Merge the sorted edits with the sorted notes in a single pass,
+		// and only then split if the result is too large.
+		//
+		Note[] r = new Note[cnt + (to - from)];
+		int n = 0;
+		int i = 0;
+		while (i < cnt || from < to) {
+			int cmp;
+			if (from == to)
+				cmp = -1;
+			else if (i == cnt)
+				cmp = 1;
+			else
+				cmp = notes[i].compareTo(edits[from]);
+
+			if (cmp < 0) {
+				r[n++] = notes[i++];
+				continue;
+			}
+			Note e = edits[from++];
+			if (e.getData() != null)
+				r[n++] = new Note(e, e.getData());
+			if (cmp == 0)
+				i++;
+		}
+		notes = r;
+		cnt = n;
+		modified();
+
+		if (cnt == 0)
+			return null;
+		if (MAX_SIZE < cnt && prefixLen + 2 < OBJECT_ID_STRING_LENGTH)
+			return split();
+		return this;
+	}
+
 	@Override
 	ObjectId writeTree(ObjectInserter inserter) throws IOException {
+		if (treeId != null)
+			return treeId;
 		return inserter.insert(build());
 	}
 
 	@Override
 	ObjectId getTreeId() {
+		if (treeId != null)
+			return treeId;
 		try (Formatter f = new ObjectInserter.Formatter()) {
 			return f.idFor(build());
 		}
@@ -228,6 +272,7 @@ void parseOneEntry(AnyObjectId noteOn, AnyObjectId noteData) {
 
 	@Override
 	InMemoryNoteBucket append(Note note) {
+		modified();
 		if (shouldSplit()) {
 			return split().append(note);
 
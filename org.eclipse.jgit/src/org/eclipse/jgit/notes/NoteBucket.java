@@ -70,6 +70,25 @@ abstract int estimateSize(AnyObjectId noteOn, ObjectReader or)
 	abstract InMemoryNoteBucket set(AnyObjectId noteOn, AnyObjectId noteData,
 			ObjectReader reader) throws IOException;
 
+	/**
+	 * Apply a batch of changes to this bucket.
+	 *
+	 * @param edits
+	 *            notes to store, sorted by the object they annotate. A note
+	 *            with null data removes the note on its object.
+	 * @param from
+	 *            index of the first edit within this bucket.
+	 * @param to
+	 *            1 past the last edit within this bucket.
+	 * @param reader
+	 *            reader to load subtrees touched by the edits.
+	 * @return the updated bucket, or null if it has become empty.
+	 * @throws IOException
+	 *             a subtree could not be loaded.
+	 */
+	abstract InMemoryNoteBucket apply(Note[] edits, int from, int to,
+			ObjectReader reader) throws IOException;
+
 	abstract ObjectId writeTree(ObjectInserter inserter) throws IOException;
 
 	abstract ObjectId getTreeId();
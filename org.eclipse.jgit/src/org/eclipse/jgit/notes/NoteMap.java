@@ -382,6 +382,29 @@ public ObjectId writeTree(ObjectInserter inserter) throws IOException {
 		return root.writeTree(inserter);
 	}
 
+	/**
+	 * Create a new editor to change many notes of this map at once.
+	 * <p>
+	 * Callers should add changes to the editor, then use
+	 * {@link NoteMapEditor#finish()} to update this map.
+	 *
+	 * @return a new editor for this map.
+	 * @since 4.7
+	 */
+	public NoteMapEditor editor() {
+		return new NoteMapEditor(this);
+	}
+
+	void apply(Note[] sortedEdits) throws IOException {
+		InMemoryNoteBucket newRoot = root.apply(sortedEdits, 0,
+				sortedEdits.length, reader);
+		if (newRoot == null) {
+			newRoot = new LeafBucket(0);
+			newRoot.nonNotes = root.nonNotes;
+		}
+		root = newRoot;
+	}
+
 	/** @return the root note bucket */
 	InMemoryNoteBucket getRoot() {
 		return root;
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.notes;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+
+/**
+ * Updates a {@link NoteMap} with a batch of changes.
+ * <p>
+ * Changes may be added in any order; a later change to the same object
+ * replaces an earlier one. {@link #finish()} sorts them and applies all of
+ * them to the map in one pass over the note tree, loading only the subtrees
+ * that are touched. Buckets are split or contracted once, after all changes
+ * to them were applied, rather than on each individual change. This is much
+ * faster than calling {@link NoteMap#set(AnyObjectId, ObjectId)} for each of
+ * thousands of notes.
+ * <p>
+ * Subtrees that were loaded but not changed are not written again by
+ * {@link NoteMap#writeTree(ObjectInserter)}.
+ *
+ * @since 4.7
+ */
+public class NoteMapEditor {
+	private final NoteMap map;
+
+	private final Map<ObjectId, ObjectId> edits = new HashMap<ObjectId, ObjectId>();
+
+	NoteMapEditor(NoteMap map) {
+		this.map = map;
+	}
+
+	/**
+	 * Attach (or remove) a note on an object.
+	 *
+	 * @param noteOn
+	 *            the object to attach the note to.
+	 * @param noteData
+	 *            data to associate with the note. This must be the ObjectId of
+	 *            a blob that already exists in the repository. If null the
+	 *            note will be deleted, if present.
+	 * @return {@code this}
+	 */
+	public NoteMapEditor set(AnyObjectId noteOn, AnyObjectId noteData) {
+		edits.put(noteOn.copy(), noteData != null ? noteData.copy() : null);
+		return this;
+	}
+
+	/**
+	 * Attach a note to an object.
+	 *
+	 * @param noteOn
+	 *            the object to attach the note to.
+	 * @param noteData
+	 *            text to store in the note. The text will be UTF-8 encoded
+	 *            when stored in the repository. If null the note will be
+	 *            deleted, if present.
+	 * @param ins
+	 *            inserter to write the encoded {@code noteData} out as a blob.
+	 *            The caller must flush the inserter before the map is written
+	 *            to a commit.
+	 * @return {@code this}
+	 * @throws IOException
+	 *             the note data could not be stored in the repository.
+	 */
+	public NoteMapEditor set(AnyObjectId noteOn, String noteData,
+			ObjectInserter ins) throws IOException {
+		ObjectId dataId = null;
+		if (noteData != null)
+			dataId = ins.insert(Constants.OBJ_BLOB,
+					Constants.encode(noteData));
+		return set(noteOn, dataId);
+	}
+
+	/**
+	 * Remove a note from an object.
+	 *
+	 * @param noteOn
+	 *            the object to remove the note from.
+	 * @return {@code this}
+	 */
+	public NoteMapEditor remove(AnyObjectId noteOn) {
+		return set(noteOn, null);
+	}
+
+	/** @return number of objects with a pending change. */
+	public int size() {
+		return edits.size();
+	}
+
+	/**
+	 * Apply all pending changes to the map.
+	 * <p>
+	 * The editor is empty afterwards and may be reused.
+	 *
+	 * @throws IOException
+	 *             a note subtree could not be loaded from the repository.
+	 */
+	public void finish() throws IOException {
+		if (edits.isEmpty())
+			return;
+		Note[] sorted = new Note[edits.size()];
+		int i = 0;
+		for (Map.Entry<ObjectId, ObjectId> e : edits.entrySet())
+			sorted[i++] = new Note(e.getKey(), e.getValue());
+		Arrays.sort(sorted);
+		edits.clear();
+		map.apply(sorted);
+	}
+}
@@ -44,6 +44,8 @@
 package org.eclipse.jgit.notes;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.AbbreviatedObjectId;
@@ -237,7 +239,8 @@ private InMemoryNoteBucket mergeLeafBucket(int treeDepth, LeafBucket bb,
 		ob = notNullOrEmpty(ob);
 		tb = notNullOrEmpty(tb);
 
-		InMemoryNoteBucket result = new LeafBucket(treeDepth * 2);
+		List<Note> result = new ArrayList<Note>(Math.max(ob.size(),
+				tb.size()));
 		int bi = 0, oi = 0, ti = 0;
 		while (bi < bb.size() || oi < ob.size() || ti < tb.size()) {
 			Note b = get(bb, bi), o = get(ob, oi), t = get(tb, ti);
@@ -248,16 +251,16 @@ private InMemoryNoteBucket mergeLeafBucket(int treeDepth, LeafBucket bb,
 			t = sameNoteOrNull(min, t);
 
 			if (sameContent(o, t))
-				result = addIfNotNull(result, o);
+				addIfNotNull(result, o);
 
 			else if (sameContent(b, o))
-				result = addIfNotNull(result, t);
+				addIfNotNull(result, t);
 
 			else if (sameContent(b, t))
-				result = addIfNotNull(result, o);
+				addIfNotNull(result, o);
 
 			else
-				result = addIfNotNull(result,
+				addIfNotNull(result,
 						noteMerger.merge(b, o, t, reader, inserter));
 
 			if (b != null)
@@ -267,7 +270,15 @@ else if (sameContent(b, t))
 			if (t != null)
 				ti++;
 		}
-		return result;
+
+		// Build the bucket once from the sorted result, splitting it
+		// into a fanout only if it has grown too large.
+		//
+		InMemoryNoteBucket r = new LeafBucket(treeDepth * 2);
+		if (!result.isEmpty())
+			r = r.apply(result.toArray(new Note[result.size()]), 0,
+					result.size(), reader);
+		return r != null ? r : new LeafBucket(treeDepth * 2);
 	}
 
 	private static LeafBucket notNullOrEmpty(LeafBucket b) {
@@ -304,12 +315,9 @@ private static boolean sameContent(Note a, Note b) {
 				&& AnyObjectId.equals(a.getData(), b.getData());
 	}
 
-	private static InMemoryNoteBucket addIfNotNull(InMemoryNoteBucket result,
-			Note note) {
+	private static void addIfNotNull(List<Note> result, Note note) {
 		if (note != null)
-			return result.append(note);
-		else
-			return result;
+			result.add(note);
 	}
 
 	private NonNoteEntry mergeNonNotes(NonNoteEntry baseList,
@@ -88,7 +88,9 @@ final class NoteParser extends CanonicalTreeParser {
 	static InMemoryNoteBucket parse(AbbreviatedObjectId prefix,
 			final ObjectId treeId, final ObjectReader reader)
 			throws IOException {
-		return new NoteParser(prefix, reader, treeId).parse();
+		InMemoryNoteBucket r = new NoteParser(prefix, reader, treeId).parse();
+		r.treeId = treeId.copy();
+		return r;
 	}
 
 	private final int prefixLen;
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.revwalk;
+
+import static org.eclipse.jgit.lib.Constants.OBJ_COMMIT;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.BitmapIndex;
+import org.eclipse.jgit.lib.BitmapIndex.Bitmap;
+import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
+
+/**
+ * Computes the merge base(s) of the starting commits using bitmaps.
+ * <p>
+ * This generator is selected instead of {@link MergeBaseGenerator} if the
+ * RevFilter is only
+ * {@link org.eclipse.jgit.revwalk.filter.RevFilter#MERGE_BASE} and the
+ * repository has a bitmap index.
+ * <p>
+ * The set of commits reachable from each starting commit is computed by
+ * walking only as far as the nearest commits with a bitmap, which are then
+ * merged in whole. Intersecting these sets yields all common ancestors. The
+ * merge bases are the common ancestors not reachable from another common
+ * ancestor; they are found by walking from the starting commits through the
+ * commits that are not common to all of them, so the shared history below
+ * the merge bases is never traversed or painted with flags.
+ */
+class BitmapMergeBaseGenerator extends Generator {
+	private final RevWalk walker;
+
+	private final BitmapIndex bitmaps;
+
+	private final DateRevQueue ret = new DateRevQueue();
+
+	BitmapMergeBaseGenerator(RevWalk w, BitmapIndex bitmaps) {
+		walker = w;
+		this.bitmaps = bitmaps;
+	}
+
+	void init(AbstractRevQueue p) throws IOException {
+		List<RevCommit> tips = new ArrayList<RevCommit>();
+		RevCommit c;
+		while ((c = p.next()) != null)
+			tips.add(c);
+		if (tips.isEmpty())
+			return;
+
+		BitmapBuilder common = reachable(tips.get(0));
+		for (int i = 1; i < tips.size(); i++) {
+			BitmapBuilder other = reachable(tips.get(i));
+			common.andNot(bitmaps.newBitmapBuilder().or(common).andNot(other));
+		}
+
+		List<RevCommit> candidates = new ArrayList<RevCommit>();
+		int seen = walker.allocFlag();
+		try {
+			List<RevCommit> todo = new ArrayList<RevCommit>();
+			for (RevCommit t : tips) {
+				if ((t.flags & seen) != 0)
+					continue;
+				t.flags |= seen;
+				if (common.contains(t))
+					candidates.add(t);
+				else
+					todo.add(t);
+			}
+			while (!todo.isEmpty()) {
+				c = todo.remove(todo.size() - 1);
+				parseHeaders(c);
+				for (RevCommit parent : c.parents) {
+					if ((parent.flags & seen) != 0)
+						continue;
+					parent.flags |= seen;
+					if (common.contains(parent))
+						candidates.add(parent);
+					else
+						todo.add(parent);
+				}
+			}
+		} finally {
+			// The flag stays on the commits until the walk is reset.
+			walker.freeFlag(seen);
+		}
+
+		// A candidate reachable from another candidate is a common
+		// ancestor, but not a merge base.
+		//
+		List<BitmapBuilder> reach = new ArrayList<BitmapBuilder>();
+		if (candidates.size() > 1)
+			for (RevCommit m : candidates)
+				reach.add(reachable(m));
+		for (int i = 0; i < candidates.size(); i++) {
+			RevCommit m = candidates.get(i);
+			boolean redundant = false;
+			for (int j = 0; j < reach.size(); j++) {
+				if (j != i && reach.get(j).contains(m)) {
+					redundant = true;
+					break;
+				}
+			}
+			if (!redundant) {
+				// Candidates with a bitmap were never parsed; the queue
+				// orders by commit time and callers read the tree.
+				parseHeaders(m);
+				ret.add(m);
+			}
+		}
+	}
+
+	/**
+	 * Compute the set of objects reachable from a commit.
+	 * <p>
+	 * Only commits are added for the part of the history walked here; the
+	 * bitmaps merged in also contain trees and blobs.
+	 */
+	private BitmapBuilder reachable(RevCommit start)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		BitmapBuilder r = bitmaps.newBitmapBuilder();
+		List<RevCommit> todo = new ArrayList<RevCommit>();
+		todo.add(start);
+		while (!todo.isEmpty()) {
+			RevCommit c = todo.remove(todo.size() - 1);
+			if (r.contains(c))
+				continue;
+			Bitmap b = bitmaps.getBitmap(c);
+			if (b != null) {
+				r.or(b);
+				continue;
+			}
+			r.addObject(c, OBJ_COMMIT);
+			parseHeaders(c);
+			for (RevCommit p : c.parents)
+				todo.add(p);
+		}
+		return r;
+	}
+
+	private void parseHeaders(RevCommit c) throws MissingObjectException,
+			IncorrectObjectTypeException, IOException {
+		if ((c.flags & RevWalk.PARSED) == 0)
+			c.parseHeaders(walker);
+	}
+
+	/**
+	 * Test if a commit is reachable from another using bitmaps.
+	 *
+	 * @param w
+	 *            walker used to parse commits.
+	 * @param bitmaps
+	 *            bitmap index of the repository.
+	 * @param base
+	 *            commit to find.
+	 * @param tip
+	 *            commit to start from.
+	 * @return true if {@code base} is {@code tip} or one of its ancestors.
+	 * @throws IOException
+	 *             a commit could not be read.
+	 */
+	static boolean isMergedInto(RevWalk w, BitmapIndex bitmaps,
+			RevCommit base, RevCommit tip) throws IOException {
+		BitmapBuilder r = bitmaps.newBitmapBuilder();
+		List<RevCommit> todo = new ArrayList<RevCommit>();
+		todo.add(tip);
+		while (!todo.isEmpty()) {
+			RevCommit c = todo.remove(todo.size() - 1);
+			if (c == base)
+				return true;
+			if (r.contains(c))
+				continue;
+			Bitmap b = bitmaps.getBitmap(c);
+			if (b != null) {
+				r.or(b);
+				if (r.contains(base))
+					return true;
+				continue;
+			}
+			r.addObject(c, OBJ_COMMIT);
+			if ((c.flags & RevWalk.PARSED) == 0)
+				c.parseHeaders(w);
+			for (RevCommit p : c.parents)
+				todo.add(p);
+		}
+		return false;
+	}
+
+	@Override
+	int outputType() {
+		return 0;
+	}
+
+	@Override
+	RevCommit next() {
+		return ret.next();
+	}
+}
@@ -61,6 +61,7 @@
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
+import org.eclipse.jgit.lib.BitmapIndex;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectId;
@@ -196,6 +197,8 @@ public class RevWalk implements Iterable<RevCommit>, AutoCloseable {
 
 	private boolean rewriteParents = true;
 
+	private boolean useBitmaps = true;
+
 	boolean shallowCommitsInitialized;
 
 	/**
@@ -401,6 +404,10 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 		try {
 			finishDelayedFreeFlags();
 			reset(~freeFlags & APP_FLAGS);
+			BitmapIndex bitmaps = getMergeBaseBitmaps();
+			if (bitmaps != null)
+				return BitmapMergeBaseGenerator.isMergedInto(this, bitmaps,
+						base, tip);
 			filter = RevFilter.MERGE_BASE;
 			treeFilter = TreeFilter.ALL;
 			markStart(tip);
@@ -605,6 +612,43 @@ public boolean isRetainBody() {
 		return retainBody;
 	}
 
+	/**
+	 * Set whether merge bases may be computed using bitmaps.
+	 * <p>
+	 * If enabled and the repository has a bitmap index,
+	 * {@link RevFilter#MERGE_BASE} and
+	 * {@link #isMergedInto(RevCommit, RevCommit)} use the bitmaps to avoid
+	 * walking history shared by the starting commits. True by default.
+	 *
+	 * @param use
+	 *            true to use bitmaps when available; false to always walk
+	 *            the commit graph.
+	 * @since 4.7
+	 */
+	public void setUseBitmaps(boolean use) {
+		useBitmaps = use;
+	}
+
+	/**
+	 * @return true if merge bases may be computed using bitmaps.
+	 * @since 4.7
+	 */
+	public boolean isUseBitmaps() {
+		return useBitmaps;
+	}
+
+	/**
+	 * @return the bitmap index to compute merge bases with, or null if the
+	 *         commit graph must be walked.
+	 * @throws IOException
+	 *             the bitmap index could not be read.
+	 */
+	BitmapIndex getMergeBaseBitmaps() throws IOException {
+		if (!useBitmaps || !reader.getShallowCommits().isEmpty())
+			return null;
+		return reader.getBitmapIndex();
+	}
+
 	/**
 	 * Set whether or not the body of a commit or tag is retained.
 	 * <p>
@@ -51,6 +51,7 @@
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.BitmapIndex;
 import org.eclipse.jgit.revwalk.filter.AndRevFilter;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
@@ -93,6 +94,16 @@ RevCommit next() throws MissingObjectException,
 				throw new IllegalStateException(MessageFormat.format(
 						JGitText.get().cannotCombineTreeFilterWithRevFilter, tf, rf));
 
+			BitmapIndex bitmaps = w.getMergeBaseBitmaps();
+			if (bitmaps != null) {
+				BitmapMergeBaseGenerator bmg = new BitmapMergeBaseGenerator(
+						w, bitmaps);
+				walker.pending = bmg;
+				walker.queue = AbstractRevQueue.EMPTY_QUEUE;
+				bmg.init(q);
+				return bmg.next();
+			}
+
 			final MergeBaseGenerator mbg = new MergeBaseGenerator(w);
 			walker.pending = mbg;
 			walker.queue = AbstractRevQueue.EMPTY_QUEUE;
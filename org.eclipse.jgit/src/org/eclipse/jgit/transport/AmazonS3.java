@@ -49,22 +49,24 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.Proxy;
 import java.net.ProxySelector;
 import java.net.URL;
 import java.net.URLConnection;
-import java.security.DigestOutputStream;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -75,6 +77,15 @@
 import java.util.SortedMap;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -119,7 +130,18 @@ public class AmazonS3 {
 
 	private static final String X_AMZ_META = "x-amz-meta-"; //$NON-NLS-1$
 
+	/** Query parameters which are part of the signed resource. */
+	private static final Set<String> SUB_RESOURCES;
+
+	/** Default size of the parts of large objects, 8 MiB. */
+	private static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
 	static {
+		SUB_RESOURCES = new HashSet<String>();
+		SUB_RESOURCES.add("partNumber"); //$NON-NLS-1$
+		SUB_RESOURCES.add("uploadId"); //$NON-NLS-1$
+		SUB_RESOURCES.add("uploads"); //$NON-NLS-1$
+
 		SIGNED_HEADERS = new HashSet<String>();
 		SIGNED_HEADERS.add("content-type"); //$NON-NLS-1$
 		SIGNED_HEADERS.add("content-md5"); //$NON-NLS-1$
@@ -177,6 +199,15 @@ private static MessageDigest newMD5() {
 	/** Maximum number of times to try an operation. */
 	final int maxAttempts;
 
+	/** Number of objects or parts which may be transferred concurrently. */
+	final int maxConnections;
+
+	/**
+	 * Size of the parts large objects are uploaded and downloaded in. Objects
+	 * not larger than one part are transferred with a single request.
+	 */
+	final int partSize;
+
 	/** Encryption algorithm, may be a null instance that provides pass-through. */
 	private final WalkEncryption encryption;
 
@@ -186,6 +217,12 @@ private static MessageDigest newMD5() {
 	/** S3 Bucket Domain. */
 	private final String domain;
 
+	/** Name the bucket in the path of the URL, rather than the host name. */
+	private final boolean pathStyle;
+
+	/** Threads transferring parts of objects; created when needed. */
+	private ExecutorService transferPool;
+
 	/** Property names used in amazon connection configuration file. */
 	interface Keys {
 		String ACCESS_KEY = "accesskey"; //$NON-NLS-1$
@@ -196,6 +233,9 @@ interface Keys {
 		String ACL = "acl"; //$NON-NLS-1$
 		String DOMAIN = "domain"; //$NON-NLS-1$
 		String HTTP_RETRY = "httpclient.retry-max"; //$NON-NLS-1$
+		String HTTP_MAX_CONNECTIONS = "httpclient.max-connections"; //$NON-NLS-1$
+		String PART_SIZE = "upload.max-part-size"; //$NON-NLS-1$
+		String PATH_STYLE = "s3service.disable-dns-buckets"; //$NON-NLS-1$
 		String TMP_DIR = "tmpdir"; //$NON-NLS-1$
 	}
 
@@ -219,9 +259,20 @@ interface Keys {
 	 * # AWS S3 Region Domain (defaults to s3.amazonaws.com)
 	 * domain: s3.amazonaws.com
 	 *
+	 * # Address buckets as http://domain/bucket/ rather than as
+	 * # http://bucket.domain/, as some S3 compatible services require.
+	 * s3service.disable-dns-buckets: false
+	 *
 	 * # Number of times to retry after internal error from S3.
 	 * httpclient.retry-max: 3
 	 *
+	 * # Number of objects or parts to transfer at once.
+	 * httpclient.max-connections: 5
+	 *
+	 * # Size in bytes of the parts of large objects, which are uploaded
+	 * # and downloaded in parallel (defaults to 8 MiB).
+	 * upload.max-part-size: 8388608
+	 *
 	 * # End-to-end encryption (hides content from S3 owners)
 	 * password: &lt;encryption pass-phrase&gt;
 	 * crypto.algorithm: PBEWithMD5AndDES
@@ -233,6 +284,8 @@ interface Keys {
 	 */
 	public AmazonS3(final Properties props) {
 		domain = props.getProperty(Keys.DOMAIN, "s3.amazonaws.com"); //$NON-NLS-1$
+		pathStyle = StringUtils.toBoolean(
+				props.getProperty(Keys.PATH_STYLE, "false")); //$NON-NLS-1$
 
 		publicKey = props.getProperty(Keys.ACCESS_KEY);
 		if (publicKey == null)
@@ -263,6 +316,14 @@ else if (StringUtils.equalsIgnoreCase("PUBLIC_READ", pacl)) //$NON-NLS-1$
 
 		maxAttempts = Integer
 				.parseInt(props.getProperty(Keys.HTTP_RETRY, "3")); //$NON-NLS-1$
+		maxConnections = Integer.parseInt(
+				props.getProperty(Keys.HTTP_MAX_CONNECTIONS, "5")); //$NON-NLS-1$
+		partSize = Integer.parseInt(props.getProperty(Keys.PART_SIZE,
+				String.valueOf(DEFAULT_PART_SIZE)));
+		if (partSize <= 0)
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().invalidS3PartSize,
+					Integer.valueOf(partSize)));
 		proxySelector = ProxySelector.getDefault();
 
 		String tmp = props.getProperty(Keys.TMP_DIR);
@@ -315,6 +376,111 @@ public InputStream decrypt(final URLConnection u) throws IOException {
 		return encryption.decrypt(u.getInputStream());
 	}
 
+	InputStream decrypt(final RangeInputStream in) throws IOException {
+		return encryption.decrypt(in);
+	}
+
+	/**
+	 * Get the content of a bucket object, downloading the parts of a large
+	 * object in parallel.
+	 *
+	 * @param bucket
+	 *            name of the bucket storing the object.
+	 * @param key
+	 *            key of the object within its bucket.
+	 * @return stream of the content as stored, to be passed to
+	 *         {@link #decrypt(RangeInputStream)}.
+	 * @throws IOException
+	 *             sending the request was not possible.
+	 */
+	RangeInputStream download(final String bucket, final String key)
+			throws IOException {
+		for (int curAttempt = 0; curAttempt < maxAttempts; curAttempt++) {
+			final HttpURLConnection c = open("GET", bucket, key); //$NON-NLS-1$
+			c.setRequestProperty("Range", range(0)); //$NON-NLS-1$
+			authorize(c);
+			switch (HttpSupport.response(c)) {
+			case HttpURLConnection.HTTP_PARTIAL:
+				encryption.validate(c, X_AMZ_META);
+				long size = totalSize(c.getHeaderField("Content-Range")); //$NON-NLS-1$
+				if (size < 0) {
+					c.getInputStream().close();
+					break;
+				}
+				return new RangeInputStream(bucket, key, c, size);
+			case HttpURLConnection.HTTP_OK:
+				encryption.validate(c, X_AMZ_META);
+				return new RangeInputStream(bucket, key, c,
+						c.getContentLengthLong());
+			case 416: // Range not satisfiable, the object is empty.
+				break;
+			case HttpURLConnection.HTTP_NOT_FOUND:
+				throw new FileNotFoundException(key);
+			case HttpURLConnection.HTTP_INTERNAL_ERROR:
+				continue;
+			default:
+				throw error(JGitText.get().s3ActionReading, key, c);
+			}
+
+			// Read the object with a plain request.
+			URLConnection u = get(bucket, key);
+			return new RangeInputStream(bucket, key, (HttpURLConnection) u,
+					u.getContentLengthLong());
+		}
+		throw maxAttempts(JGitText.get().s3ActionReading, key);
+	}
+
+	private String range(long start) {
+		return "bytes=" + start + "-" + (start + partSize - 1); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static long totalSize(String contentRange) {
+		if (contentRange == null)
+			return -1;
+		int slash = contentRange.lastIndexOf('/');
+		try {
+			return Long.parseLong(contentRange.substring(slash + 1).trim());
+		} catch (NumberFormatException notKnown) {
+			return -1;
+		}
+	}
+
+	TemporaryBuffer getRange(final String bucket, final String key,
+			final String etag, final long start) throws IOException {
+		for (int curAttempt = 0; curAttempt < maxAttempts; curAttempt++) {
+			final HttpURLConnection c = open("GET", bucket, key); //$NON-NLS-1$
+			c.setRequestProperty("Range", range(start)); //$NON-NLS-1$
+			if (etag != null)
+				c.setRequestProperty("If-Match", etag); //$NON-NLS-1$
+			authorize(c);
+			switch (HttpSupport.response(c)) {
+			case HttpURLConnection.HTTP_PARTIAL:
+				final TemporaryBuffer buf = new TemporaryBuffer.LocalFile(
+						tmpDir);
+				try {
+					final InputStream in = c.getInputStream();
+					try {
+						buf.copy(in);
+					} finally {
+						in.close();
+					}
+					buf.close();
+				} catch (IOException err) {
+					buf.destroy();
+					throw err;
+				}
+				return buf;
+			case HttpURLConnection.HTTP_NOT_FOUND:
+				throw new FileNotFoundException(key);
+			case HttpURLConnection.HTTP_INTERNAL_ERROR:
+				continue;
+			default:
+				throw error(JGitText.get().s3ActionReading, key, c);
+			}
+		}
+		throw maxAttempts(JGitText.get().s3ActionReading, key);
+	}
+
 	/**
 	 * List the names of keys available within a bucket.
 	 * <p>
@@ -443,13 +609,16 @@ public void put(final String bucket, final String key, final byte[] data)
 	 * total number of written bytes starts to exceed an internal limit the data
 	 * is spooled to a temporary file on the local drive.
 	 * <p>
-	 * Network transmission is attempted only when <code>close()</code> gets
-	 * called at the end of output. Closing the returned stream can therefore
-	 * take significant time, especially if the written content is very large.
+	 * Content not larger than one part is transmitted only when
+	 * <code>close()</code> gets called at the end of output. Larger content is
+	 * sent as a multipart upload, with up to
+	 * <code>httpclient.max-connections</code> parts transmitted in the
+	 * background while more data is written. Closing the returned stream can
+	 * still take significant time, as it waits for the remaining parts.
 	 * <p>
 	 * End-to-end data integrity is assured by internally computing the MD5
-	 * checksum of the supplied data and transmitting the checksum along with
-	 * the data itself.
+	 * checksum of each part and transmitting the checksum along with the data
+	 * itself.
 	 *
 	 * @param bucket
 	 *            name of the bucket storing the object.
@@ -467,20 +636,8 @@ public void put(final String bucket, final String key, final byte[] data)
 	public OutputStream beginPut(final String bucket, final String key,
 			final ProgressMonitor monitor, final String monitorTask)
 			throws IOException {
-		final MessageDigest md5 = newMD5();
-		final TemporaryBuffer buffer = new TemporaryBuffer.LocalFile(tmpDir) {
-			@Override
-			public void close() throws IOException {
-				super.close();
-				try {
-					putImpl(bucket, key, md5.digest(), this, monitor,
-							monitorTask);
-				} finally {
-					destroy();
-				}
-			}
-		};
-		return encryption.encrypt(new DigestOutputStream(buffer, md5));
+		return encryption.encrypt(
+				new MultipartOutputStream(bucket, key, monitor, monitorTask));
 	}
 
 	void putImpl(final String bucket, final String key,
@@ -522,6 +679,212 @@ void putImpl(final String bucket, final String key,
 		throw maxAttempts(JGitText.get().s3ActionWriting, key);
 	}
 
+	String beginMultipart(final String bucket, final String key)
+			throws IOException {
+		final Map<String, String> args = Collections.singletonMap("uploads", //$NON-NLS-1$
+				""); //$NON-NLS-1$
+		for (int curAttempt = 0; curAttempt < maxAttempts; curAttempt++) {
+			final HttpURLConnection c = open("POST", bucket, key, args); //$NON-NLS-1$
+			c.setRequestProperty(X_AMZ_ACL, acl);
+			encryption.request(c, X_AMZ_META);
+			authorize(c);
+			switch (HttpSupport.response(c)) {
+			case HttpURLConnection.HTTP_OK:
+				final String uploadId = readElement(c, "UploadId"); //$NON-NLS-1$
+				if (uploadId == null)
+					throw new IOException(MessageFormat.format(
+							JGitText.get().amazonS3ActionFailed,
+							JGitText.get().s3ActionWriting, key,
+							Integer.valueOf(HttpURLConnection.HTTP_OK),
+							c.getResponseMessage()));
+				return uploadId;
+			case HttpURLConnection.HTTP_INTERNAL_ERROR:
+				continue;
+			default:
+				throw error(JGitText.get().s3ActionWriting, key, c);
+			}
+		}
+		throw maxAttempts(JGitText.get().s3ActionWriting, key);
+	}
+
+	String putPart(final String bucket, final String key,
+			final String uploadId, final int partNumber, final byte[] csum,
+			final TemporaryBuffer buf) throws IOException {
+		final Map<String, String> args = new TreeMap<String, String>();
+		args.put("partNumber", String.valueOf(partNumber)); //$NON-NLS-1$
+		args.put("uploadId", uploadId); //$NON-NLS-1$
+		final String md5str = Base64.encodeBytes(csum);
+		final long len = buf.length();
+		for (int curAttempt = 0; curAttempt < maxAttempts; curAttempt++) {
+			final HttpURLConnection c = open("PUT", bucket, key, args); //$NON-NLS-1$
+			c.setFixedLengthStreamingMode(len);
+			c.setRequestProperty("Content-MD5", md5str); //$NON-NLS-1$
+			authorize(c);
+			c.setDoOutput(true);
+			final OutputStream os = c.getOutputStream();
+			try {
+				buf.writeTo(os, null);
+			} finally {
+				os.close();
+			}
+
+			switch (HttpSupport.response(c)) {
+			case HttpURLConnection.HTTP_OK:
+				return c.getHeaderField("ETag"); //$NON-NLS-1$
+			case HttpURLConnection.HTTP_INTERNAL_ERROR:
+				continue;
+			default:
+				throw error(JGitText.get().s3ActionWriting, key, c);
+			}
+		}
+		throw maxAttempts(JGitText.get().s3ActionWriting, key);
+	}
+
+	void completeMultipart(final String bucket, final String key,
+			final String uploadId, final List<String> etags)
+			throws IOException {
+		final StringBuilder xml = new StringBuilder();
+		xml.append("<CompleteMultipartUpload>"); //$NON-NLS-1$
+		for (int i = 0; i < etags.size(); i++) {
+			xml.append("<Part><PartNumber>").append(i + 1) //$NON-NLS-1$
+					.append("</PartNumber><ETag>").append(etags.get(i)) //$NON-NLS-1$
+					.append("</ETag></Part>"); //$NON-NLS-1$
+		}
+		xml.append("</CompleteMultipartUpload>"); //$NON-NLS-1$
+		final byte[] body = Constants.encode(xml.toString());
+
+		final Map<String, String> args = Collections.singletonMap("uploadId", //$NON-NLS-1$
+				uploadId);
+		for (int curAttempt = 0; curAttempt < maxAttempts; curAttempt++) {
+			final HttpURLConnection c = open("POST", bucket, key, args); //$NON-NLS-1$
+			c.setRequestProperty("Content-Type", "application/xml"); //$NON-NLS-1$ //$NON-NLS-2$
+			authorize(c);
+			c.setDoOutput(true);
+			c.setFixedLengthStreamingMode(body.length);
+			final OutputStream os = c.getOutputStream();
+			try {
+				os.write(body);
+			} finally {
+				os.close();
+			}
+
+			switch (HttpSupport.response(c)) {
+			case HttpURLConnection.HTTP_OK:
+				// S3 may report an internal error after the response began.
+				if (readElement(c, "Error") != null) //$NON-NLS-1$
+					continue;
+				return;
+			case HttpURLConnection.HTTP_INTERNAL_ERROR:
+				continue;
+			default:
+				throw error(JGitText.get().s3ActionWriting, key, c);
+			}
+		}
+		throw maxAttempts(JGitText.get().s3ActionWriting, key);
+	}
+
+	void abortMultipart(final String bucket, final String key,
+			final String uploadId) throws IOException {
+		final Map<String, String> args = Collections.singletonMap("uploadId", //$NON-NLS-1$
+				uploadId);
+		for (int curAttempt = 0; curAttempt < maxAttempts; curAttempt++) {
+			final HttpURLConnection c = open("DELETE", bucket, key, args); //$NON-NLS-1$
+			authorize(c);
+			switch (HttpSupport.response(c)) {
+			case HttpURLConnection.HTTP_NO_CONTENT:
+			case HttpURLConnection.HTTP_NOT_FOUND:
+				return;
+			case HttpURLConnection.HTTP_INTERNAL_ERROR:
+				continue;
+			default:
+				throw error(JGitText.get().s3ActionDeletion, key, c);
+			}
+		}
+		throw maxAttempts(JGitText.get().s3ActionDeletion, key);
+	}
+
+	/**
+	 * Read the text of the first element with the given name from a response.
+	 *
+	 * @param c
+	 *            connection whose response is an XML document.
+	 * @param name
+	 *            local name of the element.
+	 * @return text of the element; null if the document has no such element.
+	 * @throws IOException
+	 *             the response could not be read or parsed.
+	 */
+	private static String readElement(final HttpURLConnection c,
+			final String name) throws IOException {
+		final StringBuilder[] text = new StringBuilder[1];
+		final boolean[] done = new boolean[1];
+		final XMLReader xr;
+		try {
+			xr = XMLReaderFactory.createXMLReader();
+		} catch (SAXException e) {
+			throw new IOException(JGitText.get().noXMLParserAvailable);
+		}
+		xr.setContentHandler(new DefaultHandler() {
+			@Override
+			public void startElement(final String uri, final String n,
+					final String qName, final Attributes attributes) {
+				if (!done[0] && name.equals(n))
+					text[0] = new StringBuilder();
+			}
+
+			@Override
+			public void characters(final char[] ch, final int s,
+					final int len) {
+				if (!done[0] && text[0] != null)
+					text[0].append(ch, s, len);
+			}
+
+			@Override
+			public void endElement(final String uri, final String n,
+					final String qName) {
+				if (text[0] != null && name.equals(n))
+					done[0] = true;
+			}
+		});
+		final InputStream in = c.getInputStream();
+		try {
+			xr.parse(new InputSource(in));
+		} catch (SAXException parsingError) {
+			throw new IOException(parsingError.getMessage(), parsingError);
+		} finally {
+			in.close();
+		}
+		return text[0] != null ? text[0].toString() : null;
+	}
+
+	private synchronized ExecutorService transferPool() {
+		if (transferPool == null) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(
+					Math.max(1, maxConnections), Math.max(1, maxConnections),
+					60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						private final ThreadFactory baseFactory = Executors
+								.defaultThreadFactory();
+
+						public Thread newThread(Runnable taskBody) {
+							Thread thr = baseFactory.newThread(taskBody);
+							thr.setName("JGit-S3"); //$NON-NLS-1$
+							thr.setDaemon(true);
+							return thr;
+						}
+					});
+			pool.allowCoreThreadTimeOut(true);
+			transferPool = pool;
+		}
+		return transferPool;
+	}
+
+	private static IOException toIOException(final ExecutionException e) {
+		if (e.getCause() instanceof IOException)
+			return (IOException) e.getCause();
+		return new IOException(e.getCause().getMessage(), e.getCause());
+	}
+
 	IOException error(final String action, final String key,
 			final HttpURLConnection c) throws IOException {
 		final IOException err = new IOException(MessageFormat.format(
@@ -572,9 +935,15 @@ HttpURLConnection open(final String method, final String bucket,
 			throws IOException {
 		final StringBuilder urlstr = new StringBuilder();
 		urlstr.append("http://"); //$NON-NLS-1$
-		urlstr.append(bucket);
-		urlstr.append('.');
-		urlstr.append(domain);
+		if (pathStyle) {
+			urlstr.append(domain);
+			urlstr.append('/');
+			urlstr.append(bucket);
+		} else {
+			urlstr.append(bucket);
+			urlstr.append('.');
+			urlstr.append(domain);
+		}
 		urlstr.append('/');
 		if (key.length() > 0)
 			HttpSupport.encode(urlstr, key);
@@ -633,10 +1002,13 @@ void authorize(final HttpURLConnection c) throws IOException {
 			s.append('\n');
 		}
 
-		final String host = c.getURL().getHost();
-		s.append('/');
-		s.append(host.substring(0, host.length() - domain.length() - 1));
+		if (!pathStyle) {
+			final String host = c.getURL().getHost();
+			s.append('/');
+			s.append(host.substring(0, host.length() - domain.length() - 1));
+		}
 		s.append(c.getURL().getPath());
+		appendSubResources(s, c.getURL().getQuery());
 
 		final String sec;
 		try {
@@ -651,6 +1023,29 @@ void authorize(final HttpURLConnection c) throws IOException {
 		c.setRequestProperty("Authorization", "AWS " + publicKey + ":" + sec); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 	}
 
+	private static void appendSubResources(final StringBuilder s,
+			final String query) {
+		if (query == null)
+			return;
+		final SortedMap<String, String> sub = new TreeMap<String, String>();
+		for (final String p : query.split("&")) { //$NON-NLS-1$
+			final int eq = p.indexOf('=');
+			final String name = eq < 0 ? p : p.substring(0, eq);
+			if (SUB_RESOURCES.contains(name))
+				sub.put(name, eq < 0 ? "" : p.substring(eq + 1)); //$NON-NLS-1$
+		}
+		char sep = '?';
+		for (final Map.Entry<String, String> e : sub.entrySet()) {
+			s.append(sep);
+			s.append(e.getKey());
+			if (e.getValue().length() > 0) {
+				s.append('=');
+				s.append(e.getValue());
+			}
+			sep = '&';
+		}
+	}
+
 	static Properties properties(final File authFile)
 			throws FileNotFoundException, IOException {
 		final Properties p = new Properties();
@@ -756,4 +1151,286 @@ else if ("IsTruncated".equals(name)) //$NON-NLS-1$
 			data = null;
 		}
 	}
+
+	/**
+	 * Content of an object, whose remaining parts are downloaded in the
+	 * background while the first part is read.
+	 */
+	final class RangeInputStream extends InputStream {
+		private final String bucket;
+
+		private final String key;
+
+		private final String etag;
+
+		/** Length of the object, -1 if not known. */
+		final long length;
+
+		/** Start of the next part to be requested. */
+		private long next;
+
+		private final Deque<Future<TemporaryBuffer>> parts = new ArrayDeque<Future<TemporaryBuffer>>();
+
+		private InputStream current;
+
+		private TemporaryBuffer currentBuffer;
+
+		RangeInputStream(final String bucket, final String key,
+				final HttpURLConnection c, final long length)
+				throws IOException {
+			this.bucket = bucket;
+			this.key = key;
+			this.etag = c.getHeaderField("ETag"); //$NON-NLS-1$
+			this.length = length;
+			this.current = c.getInputStream();
+			if (HttpSupport.response(c) == HttpURLConnection.HTTP_PARTIAL)
+				next = partSize;
+			else
+				next = length;
+			requestParts();
+		}
+
+		private void requestParts() {
+			while (0 <= next && next < length
+					&& parts.size() < Math.max(1, maxConnections - 1)) {
+				final long start = next;
+				parts.add(transferPool().submit(new Callable<TemporaryBuffer>() {
+					public TemporaryBuffer call() throws IOException {
+						return getRange(bucket, key, etag, start);
+					}
+				}));
+				next += partSize;
+			}
+		}
+
+		private boolean nextPart() throws IOException {
+			current.close();
+			current = null;
+			if (currentBuffer != null) {
+				currentBuffer.destroy();
+				currentBuffer = null;
+			}
+
+			final Future<TemporaryBuffer> f = parts.poll();
+			if (f == null)
+				return false;
+			try {
+				currentBuffer = f.get();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				throw toIOException(e);
+			}
+			current = currentBuffer.openInputStream();
+			requestParts();
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len)
+				throws IOException {
+			if (len == 0)
+				return 0;
+			while (current != null) {
+				final int n = current.read(b, off, len);
+				if (n >= 0)
+					return n;
+				if (!nextPart())
+					break;
+			}
+			return -1;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				if (current != null)
+					current.close();
+			} finally {
+				current = null;
+				if (currentBuffer != null)
+					currentBuffer.destroy();
+				for (final Future<TemporaryBuffer> f : parts) {
+					if (!f.cancel(false)) {
+						try {
+							f.get().destroy();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						} catch (ExecutionException e) {
+							// Nothing to release.
+						}
+					}
+				}
+				parts.clear();
+			}
+		}
+	}
+
+	/**
+	 * Collects written content into parts, and uploads each part in the
+	 * background once the next one begins.
+	 */
+	private final class MultipartOutputStream extends OutputStream {
+		private final String bucket;
+
+		private final String key;
+
+		private final ProgressMonitor monitor;
+
+		private final String monitorTask;
+
+		private final MessageDigest md5 = newMD5();
+
+		private final List<Future<String>> etags = new ArrayList<Future<String>>();
+
+		/** Length of each part submitted, in the order of {@link #etags}. */
+		private final List<Integer> partLengths = new ArrayList<Integer>();
+
+		/** Number of parts whose upload was reported to the monitor. */
+		private int reported;
+
+		private TemporaryBuffer part;
+
+		private String uploadId;
+
+		MultipartOutputStream(final String bucket, final String key,
+				final ProgressMonitor monitor, final String monitorTask) {
+			this.bucket = bucket;
+			this.key = key;
+			this.monitor = monitor != null ? monitor
+					: NullProgressMonitor.INSTANCE;
+			this.monitorTask = monitorTask;
+			this.part = new TemporaryBuffer.LocalFile(tmpDir);
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, int off, int len)
+				throws IOException {
+			try {
+				while (len > 0) {
+					if (part.length() == partSize)
+						sendPart();
+					final int n = (int) Math.min(len, partSize - part.length());
+					part.write(b, off, n);
+					md5.update(b, off, n);
+					off += n;
+					len -= n;
+				}
+			} catch (IOException err) {
+				abort();
+				throw err;
+			}
+		}
+
+		private void sendPart() throws IOException {
+			if (uploadId == null) {
+				uploadId = beginMultipart(bucket, key);
+				monitor.beginTask(monitorTask != null ? monitorTask
+						: MessageFormat.format(
+								JGitText.get().progressMonUploading, key),
+						ProgressMonitor.UNKNOWN);
+			}
+
+			// Bound the parts held locally to those being transmitted.
+			while (etags.size() - reported >= Math.max(1, maxConnections))
+				waitForPart();
+
+			part.close();
+			final TemporaryBuffer buf = part;
+			final byte[] csum = md5.digest();
+			final int partNumber = etags.size() + 1;
+			partLengths.add(Integer.valueOf((int) buf.length()));
+			part = new TemporaryBuffer.LocalFile(tmpDir);
+			etags.add(transferPool().submit(new Callable<String>() {
+				public String call() throws IOException {
+					try {
+						return putPart(bucket, key, uploadId, partNumber,
+								csum, buf);
+					} finally {
+						buf.destroy();
+					}
+				}
+			}));
+		}
+
+		private String waitForPart() throws IOException {
+			final String etag;
+			try {
+				etag = etags.get(reported).get();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				throw toIOException(e);
+			}
+			monitor.update(partLengths.get(reported).intValue() / 1024);
+			reported++;
+			return etag;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (part == null)
+				return;
+			try {
+				if (uploadId == null) {
+					part.close();
+					putImpl(bucket, key, md5.digest(), part, monitor,
+							monitorTask);
+					part.destroy();
+					part = null;
+					return;
+				}
+
+				sendPart();
+				final List<String> tags = new ArrayList<String>(etags.size());
+				for (int i = 0; i < etags.size(); i++) {
+					if (i < reported)
+						tags.add(etags.get(i).get());
+					else
+						tags.add(waitForPart());
+				}
+				completeMultipart(bucket, key, uploadId, tags);
+				monitor.endTask();
+				part.destroy();
+				part = null;
+			} catch (InterruptedException e) {
+				abort();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				abort();
+				throw toIOException(e);
+			} catch (IOException err) {
+				abort();
+				throw err;
+			}
+		}
+
+		private void abort() {
+			if (part == null)
+				return;
+			part.destroy();
+			part = null;
+			for (final Future<String> f : etags)
+				f.cancel(true);
+			if (uploadId != null) {
+				monitor.endTask();
+				try {
+					abortMultipart(bucket, key, uploadId);
+				} catch (IOException e) {
+					// Leave the parts to the bucket's lifecycle rules.
+				}
+			}
+		}
+	}
 }
@@ -52,6 +52,15 @@
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.internal.JGitText;
@@ -64,13 +73,24 @@
 import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
 import org.eclipse.jgit.transport.resolver.UploadPackFactory;
 
-/** Basic daemon for the anonymous <code>git://</code> transport protocol. */
+/**
+ * Basic daemon for the anonymous <code>git://</code> transport protocol.
+ * <p>
+ * Accepted connections are served by a pool of worker threads. By default the
+ * pool grows without bound, starting a thread for every connection which
+ * arrives while all workers are busy. Servers exposed to bursts of clients
+ * should bound the pool with {@link #setMaxConnections(int)} and
+ * {@link #setMaxPendingConnections(int)}; connections which arrive while the
+ * pool and its queue are full are sent an error and closed immediately.
+ */
 public class Daemon {
 	/** 9418: IANA assigned port number for Git. */
 	public static final int DEFAULT_PORT = 9418;
 
 	private static final int BACKLOG = 5;
 
+	private static final long IDLE_WORKER_TIMEOUT = 60;
+
 	private InetSocketAddress myAddress;
 
 	private final DaemonService[] services;
@@ -81,8 +101,22 @@ public class Daemon {
 
 	Thread acceptThread;
 
+	private ThreadPoolExecutor workers;
+
 	private int timeout;
 
+	private int backlog = BACKLOG;
+
+	private int maxConnections;
+
+	private int maxPendingConnections;
+
+	private final AtomicInteger activeConnections = new AtomicInteger();
+
+	private final AtomicLong acceptedConnections = new AtomicLong();
+
+	private final AtomicLong rejectedConnections = new AtomicLong();
+
 	private PackConfig packConfig;
 
 	private volatile RepositoryResolver<DaemonClient> repositoryResolver;
@@ -231,6 +265,117 @@ public void setPackConfig(PackConfig pc) {
 		this.packConfig = pc;
 	}
 
+	/**
+	 * @return maximum number of connections the operating system queues
+	 *         before this daemon accepts them.
+	 * @since 4.7
+	 */
+	public int getListenBacklog() {
+		return backlog;
+	}
+
+	/**
+	 * Set the listen backlog of the server socket.
+	 * <p>
+	 * Takes effect the next time the daemon is started.
+	 *
+	 * @param backlog
+	 *            maximum number of connections the operating system queues
+	 *            before this daemon accepts them. Must be positive.
+	 * @since 4.7
+	 */
+	public void setListenBacklog(int backlog) {
+		if (backlog <= 0)
+			throw new IllegalArgumentException();
+		this.backlog = backlog;
+	}
+
+	/**
+	 * @return maximum number of connections served concurrently; 0 if
+	 *         unlimited.
+	 * @since 4.7
+	 */
+	public synchronized int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Limit the number of connections served concurrently.
+	 * <p>
+	 * Takes effect the next time the daemon is started.
+	 *
+	 * @param max
+	 *            maximum number of worker threads serving clients. If 0 (the
+	 *            default) a new worker is started whenever all others are
+	 *            busy.
+	 * @since 4.7
+	 */
+	public synchronized void setMaxConnections(int max) {
+		if (max < 0)
+			throw new IllegalArgumentException();
+		maxConnections = max;
+	}
+
+	/**
+	 * @return maximum number of accepted connections waiting for a worker.
+	 * @since 4.7
+	 */
+	public synchronized int getMaxPendingConnections() {
+		return maxPendingConnections;
+	}
+
+	/**
+	 * Limit the number of accepted connections waiting for a worker.
+	 * <p>
+	 * Only used if {@link #setMaxConnections(int)} limits the number of
+	 * workers. Connections arriving while this many connections are already
+	 * waiting are rejected. Takes effect the next time the daemon is started.
+	 *
+	 * @param max
+	 *            maximum number of waiting connections; 0 (the default)
+	 *            rejects connections as soon as all workers are busy.
+	 * @since 4.7
+	 */
+	public synchronized void setMaxPendingConnections(int max) {
+		if (max < 0)
+			throw new IllegalArgumentException();
+		maxPendingConnections = max;
+	}
+
+	/**
+	 * @return number of connections currently being served.
+	 * @since 4.7
+	 */
+	public int getActiveConnections() {
+		return activeConnections.get();
+	}
+
+	/**
+	 * @return number of accepted connections waiting for a worker.
+	 * @since 4.7
+	 */
+	public synchronized int getPendingConnections() {
+		return workers != null ? workers.getQueue().size() : 0;
+	}
+
+	/**
+	 * @return total number of connections accepted since this daemon was
+	 *         created, including rejected ones.
+	 * @since 4.7
+	 */
+	public long getAcceptedConnections() {
+		return acceptedConnections.get();
+	}
+
+	/**
+	 * @return total number of connections rejected because the daemon was
+	 *         overloaded.
+	 * @since 4.7
+	 */
+	public long getRejectedConnections() {
+		return rejectedConnections.get();
+	}
+
 	/**
 	 * Set the resolver used to locate a repository by name.
 	 *
@@ -292,10 +437,11 @@ public synchronized void start() throws IOException {
 			throw new IllegalStateException(JGitText.get().daemonAlreadyRunning);
 
 		final ServerSocket listenSock = new ServerSocket(
-				myAddress != null ? myAddress.getPort() : 0, BACKLOG,
+				myAddress != null ? myAddress.getPort() : 0, backlog,
 				myAddress != null ? myAddress.getAddress() : null);
 		myAddress = (InetSocketAddress) listenSock.getLocalSocketAddress();
 
+		workers = newWorkers();
 		run = true;
 		acceptThread = new Thread(processors, "Git-Daemon-Accept") { //$NON-NLS-1$
 			public void run() {
@@ -328,12 +474,52 @@ public synchronized boolean isRunning() {
 		return run;
 	}
 
-	/** Stop this daemon. */
+	/**
+	 * Stop this daemon.
+	 * <p>
+	 * Connections already accepted are still served.
+	 */
 	public synchronized void stop() {
 		if (acceptThread != null) {
 			run = false;
 			acceptThread.interrupt();
 		}
+		if (workers != null) {
+			workers.shutdown();
+			workers = null;
+		}
+	}
+
+	private ThreadPoolExecutor newWorkers() {
+		int core;
+		int max;
+		BlockingQueue<Runnable> queue;
+		if (maxConnections > 0) {
+			core = maxConnections;
+			max = maxConnections;
+			if (maxPendingConnections > 0)
+				queue = new ArrayBlockingQueue<Runnable>(maxPendingConnections);
+			else
+				queue = new SynchronousQueue<Runnable>();
+		} else {
+			core = 0;
+			max = Integer.MAX_VALUE;
+			queue = new SynchronousQueue<Runnable>();
+		}
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(core, max,
+				IDLE_WORKER_TIMEOUT, TimeUnit.SECONDS, queue,
+				new ThreadFactory() {
+					private final AtomicInteger cnt = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(processors, r,
+								"Git-Daemon-Client-" + cnt.incrementAndGet()); //$NON-NLS-1$
+						return t;
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
 	}
 
 	void startClient(final Socket s) {
@@ -343,30 +529,74 @@ void startClient(final Socket s) {
 		if (peer instanceof InetSocketAddress)
 			dc.setRemoteAddress(((InetSocketAddress) peer).getAddress());
 
-		new Thread(processors, "Git-Daemon-Client " + peer.toString()) { //$NON-NLS-1$
-			public void run() {
-				try {
-					dc.execute(s);
-				} catch (ServiceNotEnabledException e) {
-					// Ignored. Client cannot use this repository.
-				} catch (ServiceNotAuthorizedException e) {
-					// Ignored. Client cannot use this repository.
-				} catch (IOException e) {
-					// Ignore unexpected IO exceptions from clients
-				} finally {
-					try {
-						s.getInputStream().close();
-					} catch (IOException e) {
-						// Ignore close exceptions
-					}
+		acceptedConnections.incrementAndGet();
+		ThreadPoolExecutor pool;
+		synchronized (this) {
+			pool = workers;
+		}
+		try {
+			if (pool == null)
+				throw new RejectedExecutionException();
+			pool.execute(new Runnable() {
+				public void run() {
+					Thread me = Thread.currentThread();
+					String name = me.getName();
+					me.setName("Git-Daemon-Client " + peer); //$NON-NLS-1$
+					activeConnections.incrementAndGet();
 					try {
-						s.getOutputStream().close();
+						dc.execute(s);
+					} catch (ServiceNotEnabledException e) {
+						// Ignored. Client cannot use this repository.
+					} catch (ServiceNotAuthorizedException e) {
+						// Ignored. Client cannot use this repository.
 					} catch (IOException e) {
-						// Ignore close exceptions
+						// Ignore unexpected IO exceptions from clients
+					} finally {
+						activeConnections.decrementAndGet();
+						close(s);
+						me.setName(name);
 					}
 				}
-			}
-		}.start();
+			});
+		} catch (RejectedExecutionException e) {
+			rejectedConnections.incrementAndGet();
+			reject(s, JGitText.get().daemonOverloaded);
+		}
+	}
+
+	/**
+	 * Send an error to a client which will not be served and close the
+	 * connection without waiting for its request.
+	 *
+	 * @param s
+	 *            the client connection.
+	 * @param msg
+	 *            message shown to the client.
+	 */
+	static void reject(Socket s, String msg) {
+		try {
+			OutputStream out = s.getOutputStream();
+			new PacketLineOut(out).writeString("ERR " + msg + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			out.flush();
+			s.shutdownOutput();
+		} catch (IOException e) {
+			// Ignore, the client will see the connection close.
+		} finally {
+			close(s);
+		}
+	}
+
+	private static void close(Socket s) {
+		try {
+			s.getInputStream().close();
+		} catch (IOException e) {
+			// Ignore close exceptions
+		}
+		try {
+			s.getOutputStream().close();
+		} catch (IOException e) {
+			// Ignore close exceptions
+		}
 	}
 
 	synchronized DaemonService matchService(final String cmd) {
@@ -45,7 +45,11 @@
 package org.eclipse.jgit.transport;
 
 import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Config.SectionParser;
 import org.eclipse.jgit.lib.Repository;
@@ -62,6 +66,12 @@ public abstract class DaemonService {
 
 	private boolean overridable;
 
+	private volatile int maxConcurrent;
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final AtomicLong rejected = new AtomicLong();
+
 	DaemonService(final String cmdName, final String cfgName) {
 		command = cmdName.startsWith("git-") ? cmdName : "git-" + cmdName; //$NON-NLS-1$ //$NON-NLS-2$
 		configKey = new SectionParser<ServiceConfig>() {
@@ -108,6 +118,48 @@ public void setOverridable(final boolean on) {
 		overridable = on;
 	}
 
+	/**
+	 * @return maximum number of requests for this service executed
+	 *         concurrently; 0 if unlimited.
+	 * @since 4.7
+	 */
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	/**
+	 * Limit the number of requests for this service executed concurrently.
+	 * <p>
+	 * Clients requesting the service while the limit is reached are sent an
+	 * error and disconnected.
+	 *
+	 * @param max
+	 *            maximum number of concurrent requests; 0 for no limit.
+	 * @since 4.7
+	 */
+	public void setMaxConcurrent(int max) {
+		if (max < 0)
+			throw new IllegalArgumentException();
+		maxConcurrent = max;
+	}
+
+	/**
+	 * @return number of requests for this service currently executing.
+	 * @since 4.7
+	 */
+	public int getActiveCount() {
+		return active.get();
+	}
+
+	/**
+	 * @return total number of requests for this service rejected because
+	 *         {@link #getMaxConcurrent()} was reached.
+	 * @since 4.7
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
 	/** @return name of the command requested by clients. */
 	public String getCommandName() {
 		return command;
@@ -129,7 +181,35 @@ public boolean handles(final String commandLine) {
 	void execute(final DaemonClient client, final String commandLine)
 			throws IOException, ServiceNotEnabledException,
 			ServiceNotAuthorizedException {
-		final String name = commandLine.substring(command.length() + 1);
+		if (!acquire()) {
+			rejected.incrementAndGet();
+			PacketLineOut pktOut = new PacketLineOut(client.getOutputStream());
+			pktOut.writeString("ERR " + MessageFormat.format( //$NON-NLS-1$
+					JGitText.get().daemonServiceBusy, command) + "\n"); //$NON-NLS-1$
+			client.getOutputStream().flush();
+			return;
+		}
+		try {
+			serve(client, commandLine.substring(command.length() + 1));
+		} finally {
+			active.decrementAndGet();
+		}
+	}
+
+	private boolean acquire() {
+		for (;;) {
+			int n = active.get();
+			int max = maxConcurrent;
+			if (0 < max && max <= n)
+				return false;
+			if (active.compareAndSet(n, n + 1))
+				return true;
+		}
+	}
+
+	private void serve(final DaemonClient client, final String name)
+			throws IOException, ServiceNotEnabledException,
+			ServiceNotAuthorizedException {
 		Repository db;
 		try {
 			db = client.getDaemon().openRepository(client, name);
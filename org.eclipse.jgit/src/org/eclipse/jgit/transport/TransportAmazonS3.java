@@ -49,7 +49,6 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.URLConnection;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -280,13 +279,17 @@ Collection<String> getPackNames() throws IOException {
 			return packs;
 		}
 
+		@Override
+		int getMaxConcurrentDownloads() {
+			return Math.max(1, s3.maxConnections);
+		}
+
 		@Override
 		FileStream open(final String path) throws IOException {
-			final URLConnection c = s3.get(bucket, resolveKey(path));
-			final InputStream raw = c.getInputStream();
-			final InputStream in = s3.decrypt(c);
-			final int len = c.getContentLength();
-			return new FileStream(in, raw == in ? len : -1);
+			final AmazonS3.RangeInputStream raw = s3.download(bucket,
+					resolveKey(path));
+			final InputStream in = s3.decrypt(raw);
+			return new FileStream(in, raw == in ? raw.length : -1);
 		}
 
 		@Override
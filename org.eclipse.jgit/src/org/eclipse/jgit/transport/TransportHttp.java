@@ -228,9 +228,12 @@ private static class HttpConfig {
 
 		final boolean sslVerify;
 
+		final int maxRequests;
+
 		HttpConfig(final Config rc) {
 			postBuffer = rc.getInt("http", "postbuffer", 1 * 1024 * 1024); //$NON-NLS-1$  //$NON-NLS-2$
 			sslVerify = rc.getBoolean("http", "sslVerify", true); //$NON-NLS-1$ //$NON-NLS-2$
+			maxRequests = rc.getInt("http", "maxRequests", 5); //$NON-NLS-1$ //$NON-NLS-2$
 		}
 
 		HttpConfig() {
@@ -701,6 +704,11 @@ WalkRemoteObjectDatabase openAlternate(final String location)
 			return new HttpObjectDB(new URL(httpObjectsUrl, location));
 		}
 
+		@Override
+		int getMaxConcurrentDownloads() {
+			return Math.max(1, http.maxRequests);
+		}
+
 		@Override
 		BufferedReader openReader(String path) throws IOException {
 			// Line oriented readable content is likely to compress well.
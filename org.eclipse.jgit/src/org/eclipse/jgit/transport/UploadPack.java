@@ -62,6 +62,7 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -70,6 +71,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
@@ -313,6 +315,8 @@ public Set<String> getOptions() {
 
 	private PackStatistics statistics;
 
+	private UploadPackCache packCache;
+
 	@SuppressWarnings("deprecation")
 	private UploadPackLogger logger = UploadPackLogger.NULL;
 
@@ -570,6 +574,23 @@ public void setPackConfig(PackConfig pc) {
 		this.packConfig = pc;
 	}
 
+	/**
+	 * Set the cache of generated packs.
+	 * <p>
+	 * A pack answered from the cache is not generated by a
+	 * {@link PackWriter}, so no statistics are reported for it to
+	 * {@link #getStatistics()} or the post upload hook. The cache must not be
+	 * used if the objects sent for a request may differ between clients, e.g.
+	 * because of the pre upload hook.
+	 *
+	 * @param cache
+	 *            the cache; if null packs are always generated.
+	 * @since 4.7
+	 */
+	public void setPackCache(UploadPackCache cache) {
+		this.packCache = cache;
+	}
+
 	/**
 	 * @param tc
 	 *            configuration controlling transfer options. If null the source
@@ -1429,7 +1450,6 @@ private boolean reportInternalServerErrorOverSideband() {
 		}
 	}
 
-	@SuppressWarnings("deprecation")
 	private void sendPack(final boolean sideband) throws IOException {
 		ProgressMonitor pm = NullProgressMonitor.INSTANCE;
 		OutputStream packOut = rawOut;
@@ -1439,11 +1459,18 @@ private void sendPack(final boolean sideband) throws IOException {
 			if (options.contains(OPTION_SIDE_BAND_64K))
 				bufsz = SideBandOutputStream.MAX_BUF;
 
+			// A cached pack is copied to the client by another thread while
+			// progress messages are written, so keep their packets whole.
+			Object lock = new Object();
 			packOut = new SideBandOutputStream(SideBandOutputStream.CH_DATA,
 					bufsz, rawOut);
+			if (packCache != null)
+				packOut = synchronize(packOut, lock);
 			if (!options.contains(OPTION_NO_PROGRESS)) {
 				msgOut = new SideBandOutputStream(
 						SideBandOutputStream.CH_PROGRESS, bufsz, rawOut);
+				if (packCache != null)
+					msgOut = synchronize(msgOut, lock);
 				pm = new SideBandProgressMonitor(msgOut);
 			}
 		}
@@ -1468,6 +1495,100 @@ private void sendPack(final boolean sideband) throws IOException {
 			throw noPack;
 		}
 
+		if (packCache == null) {
+			writePack(pm, packOut);
+		} else {
+			try (UploadPackCache.Lease lease = packCache
+					.lease(packCacheKey())) {
+				if (lease.isGenerator()) {
+					lease.copyInBackground(packOut);
+					writePack(pm, lease.newOutputStream());
+					lease.commit();
+				}
+				lease.copyTo(packOut);
+			}
+		}
+
+		if (sideband)
+			pckOut.end();
+	}
+
+	private static OutputStream synchronize(final OutputStream dst,
+			final Object lock) {
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				synchronized (lock) {
+					dst.write(b);
+				}
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				synchronized (lock) {
+					dst.write(b, off, len);
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				synchronized (lock) {
+					dst.flush();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Compute the key of the pack sent for this request.
+	 * <p>
+	 * The key covers everything {@link #writePack(ProgressMonitor,
+	 * OutputStream)} selects objects and their encoding by. The advertised
+	 * references only matter for {@link #OPTION_INCLUDE_TAG}.
+	 *
+	 * @return the key.
+	 */
+	private ObjectId packCacheKey() {
+		MessageDigest md = Constants.newMessageDigest();
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		if (db.getDirectory() != null)
+			md.update(Constants.encode(db.getDirectory().getAbsolutePath()));
+		update(md, "want", wantIds, raw); //$NON-NLS-1$
+		update(md, "have", commonBase, raw); //$NON-NLS-1$
+		update(md, "shallow", clientShallowCommits, raw); //$NON-NLS-1$
+		update(md, "unshallow", unshallowCommits, raw); //$NON-NLS-1$
+		md.update(Constants.encode("\ndepth " + depth)); //$NON-NLS-1$
+		for (String opt : new String[] { OPTION_OFS_DELTA, OPTION_THIN_PACK,
+				OPTION_INCLUDE_TAG }) {
+			if (options.contains(opt))
+				md.update(Constants.encode('\n' + opt));
+		}
+		if (options.contains(OPTION_INCLUDE_TAG) && refs != null) {
+			for (Ref ref : new TreeMap<String, Ref>(refs).values()) {
+				if (ref.getObjectId() == null)
+					continue;
+				md.update(Constants.encode('\n' + ref.getName()));
+				ref.getObjectId().copyRawTo(raw, 0);
+				md.update(raw);
+			}
+		}
+		return ObjectId.fromRaw(md.digest());
+	}
+
+	private static void update(MessageDigest md, String name,
+			Collection<? extends ObjectId> ids, byte[] raw) {
+		List<ObjectId> sorted = new ArrayList<ObjectId>(ids);
+		Collections.sort(sorted);
+		md.update(Constants.encode('\n' + name));
+		for (ObjectId id : sorted) {
+			id.copyRawTo(raw, 0);
+			md.update(raw);
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private void writePack(ProgressMonitor pm, OutputStream packOut)
+			throws IOException {
 		PackConfig cfg = packConfig;
 		if (cfg == null)
 			cfg = new PackConfig(db);
@@ -1555,9 +1676,6 @@ else if (ref.getName().startsWith(Constants.R_HEADS))
 			}
 			pw.close();
 		}
-
-		if (sideband)
-			pckOut.end();
 	}
 
 	private static void findSymrefs(
@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.eclipse.jgit.errors.PackProtocolException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Stores packs generated by {@link UploadPack} on local disk.
+ * <p>
+ * Many clients cloning or fetching the same commits at once, for example a
+ * fleet of build machines, make UploadPack enumerate, select and copy the same
+ * objects for every request. When a cache is installed with
+ * {@link UploadPack#setPackCache(UploadPackCache)} the pack is generated into
+ * a file named after the request, that is the wants, common objects, shallow
+ * state, depth and the capabilities affecting the pack contents, and every
+ * request, including the one which generated it, is answered by copying the
+ * file. Identical requests arriving while the pack is still being generated
+ * follow that generation, reading the file as it grows, instead of starting
+ * their own. The generating request does the same for its own client from a
+ * background thread, so that client also receives the pack while it is being
+ * generated. The generation does not depend on any client, so a slow or
+ * disconnecting client delays or fails only its own request.
+ * <p>
+ * Completed packs are evicted least recently used first once their total size
+ * exceeds the configured limit. A cache may be shared by any number of
+ * UploadPack instances and repositories, but they should use the same
+ * {@link org.eclipse.jgit.storage.pack.PackConfig}; the configuration is not
+ * part of the key.
+ *
+ * @since 4.7
+ */
+public class UploadPackCache {
+	private static final String PREFIX = "upload-"; //$NON-NLS-1$
+
+	private static final String SUFFIX = ".pack"; //$NON-NLS-1$
+
+	private final File directory;
+
+	private final long maxBytes;
+
+	/** Packs by key, least recently used first. */
+	private final LinkedHashMap<ObjectId, Entry> packs = new LinkedHashMap<ObjectId, Entry>(
+			16, 0.75f, true);
+
+	/** Packs being generated, by key. */
+	private final Map<ObjectId, Entry> generating = new HashMap<ObjectId, Entry>();
+
+	private long bytes;
+
+	private long hits;
+
+	private long misses;
+
+	/**
+	 * Create a new cache.
+	 * <p>
+	 * Packs left in {@code directory} by an earlier cache are deleted.
+	 *
+	 * @param directory
+	 *            directory to store packs in. It is created if it does not
+	 *            exist, and should not be used for anything else.
+	 * @param maxBytes
+	 *            maximum total size of the completed packs kept.
+	 * @throws IOException
+	 *             the directory cannot be created or cleaned.
+	 */
+	public UploadPackCache(File directory, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		FileUtils.mkdirs(directory, true);
+		File[] stale = directory.listFiles();
+		if (stale != null) {
+			for (File f : stale) {
+				String n = f.getName();
+				if (n.startsWith(PREFIX) && n.endsWith(SUFFIX))
+					FileUtils.delete(f, FileUtils.RETRY);
+			}
+		}
+	}
+
+	/** @return directory the packs are stored in. */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/** @return number of requests answered from a stored or running pack. */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/** @return number of requests which had to generate their pack. */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/** @return total size in bytes of the completed packs kept. */
+	public synchronized long getSize() {
+		return bytes;
+	}
+
+	/**
+	 * Look up a pack.
+	 *
+	 * @param key
+	 *            key of the request.
+	 * @return handle for the request, which must be closed. If
+	 *         {@link Lease#isGenerator()} the caller has to generate the pack
+	 *         through {@link Lease#newOutputStream()} first. Then it can copy
+	 *         the pack with {@link Lease#copyTo(OutputStream)}.
+	 * @throws IOException
+	 *             the cache file cannot be created.
+	 */
+	synchronized Lease lease(ObjectId key) throws IOException {
+		Entry e = packs.get(key);
+		if (e == null)
+			e = generating.get(key);
+		if (e != null) {
+			hits++;
+			e.readers++;
+			return new Lease(e, false);
+		}
+
+		misses++;
+		e = new Entry(key, new File(directory, PREFIX + key.name() + SUFFIX));
+		e.out = new FileOutputStream(e.file);
+		e.readers++;
+		generating.put(key, e);
+		return new Lease(e, true);
+	}
+
+	private synchronized void completed(Entry e) {
+		generating.remove(e.key);
+		packs.put(e.key, e);
+		bytes += e.length;
+		for (Iterator<Entry> i = packs.values().iterator(); maxBytes < bytes
+				&& i.hasNext();) {
+			Entry old = i.next();
+			i.remove();
+			bytes -= old.length;
+			old.evicted = true;
+			if (old.readers == 0)
+				old.delete();
+		}
+	}
+
+	private synchronized void failed(Entry e) {
+		generating.remove(e.key);
+		e.evicted = true;
+	}
+
+	private synchronized void release(Entry e) {
+		if (--e.readers == 0 && e.evicted)
+			e.delete();
+	}
+
+	/** A pack, complete or being generated. */
+	private static final class Entry {
+		final ObjectId key;
+
+		final File file;
+
+		/** Output of the generating request; null once it finished. */
+		FileOutputStream out;
+
+		/** Bytes of {@link #file} which have been written; guarded by this. */
+		long length;
+
+		/** Whether generation finished; guarded by this. */
+		boolean done;
+
+		/** Whether generation failed; guarded by this. */
+		boolean failed;
+
+		/** Leases using this entry; guarded by the cache. */
+		int readers;
+
+		/** Whether the entry is no longer in the cache; guarded by the cache. */
+		boolean evicted;
+
+		Entry(ObjectId key, File file) {
+			this.key = key;
+			this.file = file;
+		}
+
+		synchronized void written(int n) {
+			length += n;
+			notifyAll();
+		}
+
+		synchronized void finish(boolean ok) {
+			done = true;
+			failed = !ok;
+			notifyAll();
+		}
+
+		/**
+		 * Wait until more than {@code pos} bytes are available.
+		 *
+		 * @param pos
+		 *            number of bytes read so far.
+		 * @return bytes available, or -1 if the pack ends at {@code pos}.
+		 * @throws IOException
+		 *             generation failed, or the wait was interrupted.
+		 */
+		synchronized long await(long pos) throws IOException {
+			while (length <= pos && !done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+			if (failed)
+				throw new PackProtocolException(MessageFormat.format(
+						JGitText.get().uploadPackCacheGenerationFailed,
+						key.name()));
+			return length <= pos ? -1 : length;
+		}
+
+		void delete() {
+			file.delete();
+		}
+	}
+
+	/** Use of a cached pack by one request. */
+	final class Lease implements AutoCloseable {
+		private final Entry entry;
+
+		private final boolean generator;
+
+		private boolean committed;
+
+		/** Copy started by {@link #copyInBackground(OutputStream)}. */
+		private FutureTask<Void> background;
+
+		Lease(Entry entry, boolean generator) {
+			this.entry = entry;
+			this.generator = generator;
+		}
+
+		/** @return true if the caller must generate the pack. */
+		boolean isGenerator() {
+			return generator;
+		}
+
+		/**
+		 * Copy the pack, waiting for it to be generated if necessary.
+		 * <p>
+		 * If {@link #copyInBackground(OutputStream)} was used this only waits
+		 * for that copy to finish.
+		 *
+		 * @param dst
+		 *            destination of the pack.
+		 * @throws IOException
+		 *             the pack cannot be read or generation failed.
+		 */
+		void copyTo(OutputStream dst) throws IOException {
+			if (background != null) {
+				awaitBackground();
+				return;
+			}
+			copy(dst);
+		}
+
+		/**
+		 * Start copying the pack on a new thread while it is generated.
+		 * <p>
+		 * Only the copy waits for {@code dst}, so the generator still writes
+		 * the pack as fast as it can. {@code dst} must tolerate writes by the
+		 * copying thread concurrent with any other output of the request.
+		 *
+		 * @param dst
+		 *            destination of the pack.
+		 */
+		void copyInBackground(final OutputStream dst) {
+			background = new FutureTask<Void>(new Callable<Void>() {
+				public Void call() throws IOException {
+					copy(dst);
+					return null;
+				}
+			});
+			Thread t = new Thread(background, "JGit-UploadPackCache-" //$NON-NLS-1$
+					+ entry.key.abbreviate(8).name());
+			t.setDaemon(true);
+			t.start();
+		}
+
+		private void awaitBackground() throws IOException {
+			try {
+				background.get();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IOException(e.getCause());
+			} finally {
+				background = null;
+			}
+		}
+
+		private void copy(OutputStream dst) throws IOException {
+			byte[] buf = new byte[8192];
+			long pos = 0;
+			try (FileInputStream in = new FileInputStream(entry.file)) {
+				long avail;
+				while ((avail = entry.await(pos)) >= 0) {
+					while (pos < avail) {
+						int n = in.read(buf, 0,
+								(int) Math.min(buf.length, avail - pos));
+						if (n < 0)
+							throw new IOException(MessageFormat.format(
+									JGitText.get().packfileIsTruncated,
+									entry.file));
+						dst.write(buf, 0, n);
+						pos += n;
+					}
+					dst.flush();
+				}
+			}
+		}
+
+		/**
+		 * Open the stream the pack is generated into.
+		 * <p>
+		 * Only the cache file is written, so no client can slow down or break
+		 * the generation. The generator sends the pack with
+		 * {@link #copyInBackground(OutputStream)} while it generates, or with
+		 * {@link #copyTo(OutputStream)} after {@link #commit()}, like any
+		 * other request.
+		 *
+		 * @return stream to write the pack to.
+		 */
+		OutputStream newOutputStream() {
+			return new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len)
+						throws IOException {
+					entry.out.write(b, off, len);
+					entry.written(len);
+				}
+			};
+		}
+
+		/**
+		 * Mark the generated pack as complete.
+		 *
+		 * @throws IOException
+		 *             the cache file cannot be closed.
+		 */
+		void commit() throws IOException {
+			entry.out.close();
+			entry.out = null;
+			committed = true;
+			entry.finish(true);
+			completed(entry);
+		}
+
+		/**
+		 * Release the pack; a generation not committed fails. A background
+		 * copy still running is waited for.
+		 */
+		@Override
+		public void close() {
+			if (generator && !committed) {
+				if (entry.out != null) {
+					try {
+						entry.out.close();
+					} catch (IOException e) {
+						// Ignore, the file is discarded.
+					}
+					entry.out = null;
+				}
+				entry.finish(false);
+				failed(entry);
+			}
+			if (background != null) {
+				try {
+					awaitBackground();
+				} catch (IOException e) {
+					// Already failed, or the pack was not needed.
+				}
+			}
+			release(entry);
+		}
+	}
+}
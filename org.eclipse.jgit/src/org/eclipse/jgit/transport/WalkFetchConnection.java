@@ -49,7 +49,10 @@
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -60,6 +63,13 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jgit.errors.CompoundException;
 import org.eclipse.jgit.errors.CorruptObjectException;
@@ -74,6 +84,7 @@
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectChecker;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
@@ -190,6 +201,18 @@ class WalkFetchConnection extends BaseFetchConnection {
 	/** Inserter to read objects from {@link #local}. */
 	private final ObjectReader reader;
 
+	/** Loose objects being downloaded ahead of {@link #workQueue}. */
+	private final Map<ObjectId, Prefetch> prefetched;
+
+	/** Threads downloading {@link #prefetched}; created when needed. */
+	private ExecutorService prefetchPool;
+
+	/** Set by {@link #close()}; index downloads then remove their file. */
+	private volatile boolean closed;
+
+	/** Bytes read from remotes, by any thread. */
+	private final AtomicLong bytesDownloaded = new AtomicLong();
+
 	WalkFetchConnection(final WalkTransport t, final WalkRemoteObjectDatabase w) {
 		Transport wt = (Transport)t;
 		local = wt.local;
@@ -221,6 +244,7 @@ class WalkFetchConnection extends BaseFetchConnection {
 
 		localCommitQueue = new DateRevQueue();
 		workQueue = new LinkedList<ObjectId>();
+		prefetched = new HashMap<ObjectId, Prefetch>();
 	}
 
 	public boolean didFetchTestConnectivity() {
@@ -234,12 +258,17 @@ protected void doFetch(final ProgressMonitor monitor,
 		markLocalRefsComplete(have);
 		queueWants(want);
 
-		while (!monitor.isCancelled() && !workQueue.isEmpty()) {
-			final ObjectId id = workQueue.removeFirst();
+		final DownloadProgress pm = new DownloadProgress(monitor);
+		while (!pm.isCancelled() && !workQueue.isEmpty()) {
+			prefetchLooseObjects();
+			final ObjectId id = nextObject();
 			if (!(id instanceof RevObject) || !((RevObject) id).has(COMPLETE))
-				downloadObject(monitor, id);
+				downloadObject(pm, id);
+			prefetched.remove(id);
 			process(id);
+			pm.updateDownloaded();
 		}
+		pm.finish();
 
 		try {
 			inserter.flush();
@@ -258,6 +287,13 @@ public void setPackLockMessage(final String message) {
 
 	@Override
 	public void close() {
+		closed = true;
+		for (final RemotePack p : unfetchedPacks) {
+			if (p.indexDownload != null)
+				p.indexDownload.cancel(true);
+		}
+		if (prefetchPool != null)
+			prefetchPool.shutdownNow();
 		inserter.close();
 		reader.close();
 		for (final RemotePack p : unfetchedPacks) {
@@ -416,10 +452,7 @@ private void downloadObject(final ProgressMonitor pm, final AnyObjectId id)
 			// Search for a loose object over all alternates, starting
 			// from the one we last successfully located an object through.
 			//
-			final String idStr = id.name();
-			final String subdir = idStr.substring(0, 2);
-			final String file = idStr.substring(2);
-			final String looseName = subdir + "/" + file; //$NON-NLS-1$
+			final String looseName = looseName(id);
 
 			for (int i = lastRemoteIdx; i < remotes.size(); i++) {
 				if (downloadLooseObject(id, looseName, remotes.get(i))) {
@@ -455,8 +488,11 @@ private void downloadObject(final ProgressMonitor pm, final AnyObjectId id)
 				if (packNameList == null || packNameList.isEmpty())
 					continue;
 				for (final String packName : packNameList) {
-					if (packsConsidered.add(packName))
-						unfetchedPacks.add(new RemotePack(wrr, packName));
+					if (packsConsidered.add(packName)) {
+						RemotePack pack = new RemotePack(wrr, packName);
+						pack.prefetchIndex();
+						unfetchedPacks.add(pack);
+					}
 				}
 				if (downloadPackedObject(pm, id))
 					return;
@@ -581,6 +617,7 @@ private boolean downloadPackedObject(final ProgressMonitor monitor,
 				final ObjectId p = pending.next();
 				if (pack.index.hasObject(p)) {
 					pending.remove();
+					prefetched.remove(p);
 					process(p);
 				} else {
 					workQueue.add(p);
@@ -602,7 +639,14 @@ private boolean downloadLooseObject(final AnyObjectId id,
 			final String looseName, final WalkRemoteObjectDatabase remote)
 			throws TransportException {
 		try {
-			final byte[] compressed = remote.open(looseName).toArray();
+			final byte[] compressed;
+			Prefetch p = prefetched.remove(id);
+			if (p != null && p.remote == remote)
+				compressed = p.get();
+			else {
+				compressed = remote.open(looseName).toArray();
+				bytesDownloaded.addAndGet(compressed.length);
+			}
 			verifyAndInsertLooseObject(id, compressed);
 			return true;
 		} catch (FileNotFoundException e) {
@@ -616,6 +660,119 @@ private boolean downloadLooseObject(final AnyObjectId id,
 		}
 	}
 
+	/**
+	 * Select the next object of {@link #workQueue} to process.
+	 * <p>
+	 * A loose object whose background download completed is preferred over
+	 * the head of the queue, so parsing it can queue further downloads while
+	 * the others are still in flight.
+	 *
+	 * @return the object, removed from the queue.
+	 */
+	private ObjectId nextObject() {
+		if (!prefetched.isEmpty()) {
+			int window = lookAhead();
+			for (Iterator<ObjectId> i = workQueue.iterator(); i.hasNext()
+					&& 0 < window--;) {
+				ObjectId id = i.next();
+				Prefetch p = prefetched.get(id);
+				if (p != null && p.data.isDone()) {
+					i.remove();
+					return id;
+				}
+			}
+		}
+		return workQueue.removeFirst();
+	}
+
+	/** @return number of queued objects considered for prefetching. */
+	private int lookAhead() {
+		return 2 * remotes.get(lastRemoteIdx).getMaxConcurrentDownloads();
+	}
+
+	/**
+	 * Start downloading loose objects near the head of {@link #workQueue}.
+	 * <p>
+	 * Only the transfer runs in the background; objects are still verified,
+	 * inserted and parsed by this thread. Objects which may be in a pack whose
+	 * index was not read yet are left for
+	 * {@link #downloadObject(ProgressMonitor, AnyObjectId)}, as is everything
+	 * if the remote cannot serve concurrent requests.
+	 *
+	 * @throws TransportException
+	 *             the local repository cannot be read.
+	 */
+	private void prefetchLooseObjects() throws TransportException {
+		final WalkRemoteObjectDatabase remote = remotes.get(lastRemoteIdx);
+		int max = remote.getMaxConcurrentDownloads();
+		if (max <= 1 || prefetched.size() >= max)
+			return;
+		for (RemotePack pack : unfetchedPacks) {
+			if (pack.index == null)
+				return;
+		}
+
+		// Look a bounded distance ahead, objects we skip are checked
+		// again on every call.
+		int window = lookAhead();
+		for (Iterator<ObjectId> i = workQueue.iterator(); i.hasNext()
+				&& 0 < window-- && prefetched.size() < max;) {
+			ObjectId id = i.next();
+			if ((id instanceof RevObject && ((RevObject) id).has(COMPLETE))
+					|| prefetched.containsKey(id) || inUnfetchedPack(id)
+					|| alreadyHave(id))
+				continue;
+
+			final String looseName = looseName(id);
+			prefetched.put(id.copy(), new Prefetch(remote, looseName,
+					prefetchPool(max).submit(new Callable<byte[]>() {
+						public byte[] call() throws IOException {
+							byte[] compressed;
+							try {
+								compressed = remote.open(looseName).toArray();
+							} catch (FileNotFoundException notLoose) {
+								return null;
+							}
+							bytesDownloaded.addAndGet(compressed.length);
+							return compressed;
+						}
+					})));
+		}
+	}
+
+	private ExecutorService prefetchPool(int threads) {
+		if (prefetchPool == null)
+			prefetchPool = newPrefetchPool(threads);
+		return prefetchPool;
+	}
+
+	private boolean inUnfetchedPack(AnyObjectId id) {
+		for (RemotePack pack : unfetchedPacks) {
+			if (pack.index.hasObject(id))
+				return true;
+		}
+		return false;
+	}
+
+	private static String looseName(AnyObjectId id) {
+		final String idStr = id.name();
+		return idStr.substring(0, 2) + "/" + idStr.substring(2); //$NON-NLS-1$
+	}
+
+	private static ExecutorService newPrefetchPool(int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final ThreadFactory baseFactory = Executors
+					.defaultThreadFactory();
+
+			public Thread newThread(Runnable taskBody) {
+				Thread thr = baseFactory.newThread(taskBody);
+				thr.setName("JGit-WalkFetch"); //$NON-NLS-1$
+				thr.setDaemon(true);
+				return thr;
+			}
+		});
+	}
+
 	private void verifyAndInsertLooseObject(final AnyObjectId id,
 			final byte[] compressed) throws IOException {
 		final ObjectLoader uol;
@@ -797,6 +954,120 @@ private void recordError(final AnyObjectId id, final Throwable what) {
 		errors.add(what);
 	}
 
+	/**
+	 * Reports the amount of data downloaded as one task of the monitor it
+	 * wraps.
+	 * <p>
+	 * Any other task begun through this monitor first ends the download task,
+	 * which resumes with the total downloaded so far once that task is done.
+	 * When the fetch is finished the average download rate is reported as a
+	 * task of its own.
+	 */
+	private class DownloadProgress implements ProgressMonitor {
+		private final ProgressMonitor pm;
+
+		private final long start = System.currentTimeMillis();
+
+		private int reportedKiB;
+
+		private boolean downloading;
+
+		private boolean inTask;
+
+		DownloadProgress(ProgressMonitor pm) {
+			this.pm = pm;
+		}
+
+		/** Update the download task with the bytes read from the remotes. */
+		void updateDownloaded() {
+			int kib = (int) (bytesDownloaded.get() / 1024);
+			if (inTask || kib == reportedKiB)
+				return;
+			if (!downloading) {
+				pm.beginTask(JGitText.get().downloadingObjects,
+						ProgressMonitor.UNKNOWN);
+				pm.update(reportedKiB);
+				downloading = true;
+			}
+			pm.update(kib - reportedKiB);
+			reportedKiB = kib;
+		}
+
+		void endDownload() {
+			if (downloading) {
+				pm.endTask();
+				downloading = false;
+			}
+		}
+
+		/** End the download task and report the average rate of the fetch. */
+		void finish() {
+			endDownload();
+			if (reportedKiB == 0)
+				return;
+			long ms = Math.max(1, System.currentTimeMillis() - start);
+			pm.beginTask(JGitText.get().downloadingObjectsRate,
+					ProgressMonitor.UNKNOWN);
+			pm.update((int) (bytesDownloaded.get() * 1000 / 1024 / ms));
+			pm.endTask();
+		}
+
+		public void start(int totalTasks) {
+			pm.start(totalTasks);
+		}
+
+		public void beginTask(String title, int totalWork) {
+			endDownload();
+			pm.beginTask(title, totalWork);
+			inTask = true;
+		}
+
+		public void update(int completed) {
+			pm.update(completed);
+		}
+
+		public void endTask() {
+			pm.endTask();
+			inTask = false;
+		}
+
+		public boolean isCancelled() {
+			return pm.isCancelled();
+		}
+	}
+
+	/** A loose object downloaded in the background. */
+	private static class Prefetch {
+		final WalkRemoteObjectDatabase remote;
+
+		final String looseName;
+
+		final Future<byte[]> data;
+
+		Prefetch(WalkRemoteObjectDatabase remote, String looseName,
+				Future<byte[]> data) {
+			this.remote = remote;
+			this.looseName = looseName;
+			this.data = data;
+		}
+
+		byte[] get() throws IOException {
+			byte[] compressed;
+			try {
+				compressed = data.get();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IOException(e.getCause());
+			}
+			if (compressed == null)
+				throw new FileNotFoundException(looseName);
+			return compressed;
+		}
+	}
+
 	private class RemotePack {
 		final WalkRemoteObjectDatabase connection;
 
@@ -808,6 +1079,9 @@ private class RemotePack {
 
 		PackIndex index;
 
+		/** Background download of {@link #tmpIdx}, if started. */
+		Future<?> indexDownload;
+
 		RemotePack(final WalkRemoteObjectDatabase c, final String pn) {
 			connection = c;
 			packName = pn;
@@ -826,20 +1100,80 @@ private class RemotePack {
 			}
 		}
 
+		/**
+		 * Start downloading the index in the background, if the remote
+		 * supports concurrent downloads.
+		 */
+		void prefetchIndex() {
+			int max = connection.getMaxConcurrentDownloads();
+			if (max <= 1 || (tmpIdx != null && tmpIdx.isFile()))
+				return;
+			if (tmpIdx == null) {
+				try {
+					tmpIdx = File.createTempFile("jgit-walk-", ".idx"); //$NON-NLS-1$ //$NON-NLS-2$
+				} catch (IOException e) {
+					// openIndex will download the index when needed.
+					return;
+				}
+			}
+			indexDownload = prefetchPool(max).submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					try {
+						downloadIndex(NullProgressMonitor.INSTANCE);
+					} finally {
+						// close() may have deleted the file before the
+						// download (re)created it.
+						if (closed)
+							FileUtils.delete(tmpIdx, FileUtils.SKIP_MISSING);
+					}
+					return null;
+				}
+			});
+		}
+
 		void openIndex(final ProgressMonitor pm) throws IOException {
 			if (index != null)
 				return;
-			if (tmpIdx == null)
+			if (indexDownload != null) {
+				try {
+					indexDownload.get();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new IOException(e.getCause());
+				} finally {
+					indexDownload = null;
+				}
+			} else if (tmpIdx == null) {
 				tmpIdx = File.createTempFile("jgit-walk-", ".idx"); //$NON-NLS-1$ //$NON-NLS-2$
-			else if (tmpIdx.isFile()) {
+				downloadIndex(pm);
+			} else if (tmpIdx.isFile()) {
 				try {
 					index = PackIndex.open(tmpIdx);
 					return;
 				} catch (FileNotFoundException err) {
-					// Fall through and get the file.
+					downloadIndex(pm);
 				}
+			} else
+				downloadIndex(pm);
+
+			if (pm.isCancelled()) {
+				FileUtils.delete(tmpIdx);
+				return;
 			}
 
+			try {
+				index = PackIndex.open(tmpIdx);
+			} catch (IOException e) {
+				FileUtils.delete(tmpIdx);
+				throw e;
+			}
+		}
+
+		private void downloadIndex(final ProgressMonitor pm)
+				throws IOException {
 			final WalkRemoteObjectDatabase.FileStream s;
 			s = connection.open("pack/" + idxName); //$NON-NLS-1$
 			pm.beginTask("Get " + idxName.substring(0, 12) + "..idx", //$NON-NLS-1$ //$NON-NLS-2$
@@ -852,6 +1186,7 @@ else if (tmpIdx.isFile()) {
 					int cnt;
 					while (!pm.isCancelled() && (cnt = s.in.read(buf)) >= 0) {
 						fos.write(buf, 0, cnt);
+						bytesDownloaded.addAndGet(cnt);
 						pm.update(cnt / 1024);
 					}
 				} finally {
@@ -864,25 +1199,31 @@ else if (tmpIdx.isFile()) {
 				s.in.close();
 			}
 			pm.endTask();
-
-			if (pm.isCancelled()) {
-				FileUtils.delete(tmpIdx);
-				return;
-			}
-
-			try {
-				index = PackIndex.open(tmpIdx);
-			} catch (IOException e) {
-				FileUtils.delete(tmpIdx);
-				throw e;
-			}
 		}
 
 		void downloadPack(final ProgressMonitor monitor) throws IOException {
 			String name = "pack/" + packName; //$NON-NLS-1$
 			WalkRemoteObjectDatabase.FileStream s = connection.open(name);
 			try {
-				PackParser parser = inserter.newPackParser(s.in);
+				InputStream in = new FilterInputStream(s.in) {
+					@Override
+					public int read() throws IOException {
+						int b = super.read();
+						if (b >= 0)
+							bytesDownloaded.incrementAndGet();
+						return b;
+					}
+
+					@Override
+					public int read(byte[] b, int off, int len)
+							throws IOException {
+						int n = super.read(b, off, len);
+						if (n > 0)
+							bytesDownloaded.addAndGet(n);
+						return n;
+					}
+				};
+				PackParser parser = inserter.newPackParser(in);
 				parser.setAllowThin(false);
 				parser.setObjectChecker(objCheck);
 				parser.setLockMessage(lockMessage);
@@ -154,6 +154,18 @@ abstract Collection<WalkRemoteObjectDatabase> getAlternates()
 	abstract FileStream open(String path) throws FileNotFoundException,
 			IOException;
 
+	/**
+	 * Get the number of files {@link #open(String)} may read at once.
+	 * <p>
+	 * Implementations returning more than 1 must support concurrent calls to
+	 * {@link #open(String)} from different threads.
+	 *
+	 * @return maximum number of concurrent downloads; 1 by default.
+	 */
+	int getMaxConcurrentDownloads() {
+		return 1;
+	}
+
 	/**
 	 * Create a new connection for a discovered alternate object database
 	 * <p>